@@ -0,0 +1,174 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Limits the number of parallel file transfers into the target directories. The limit adapts to the storage with an AIMD policy:
+ *
+ * <ul>
+ * <li>each transfer measures its latency per megabyte, the fastest latency seen recently is the baseline</li>
+ * <li>if a transfer is not slower than the baseline multiplied with the tolerance, the limit grows by one per round of transfers</li>
+ * <li>if a transfer is slower or fails, the limit gets multiplied with the backoff factor, at most once per round</li>
+ * </ul>
+ *
+ * There is one limiter per stage, e.g. copy or pdf, shared by all exports running inside of the same JVM. The bounds are taken from the element
+ * ioConcurrency of the plugin configuration.
+ */
+@Log4j2
+public class AdaptiveConcurrencyLimiter {
+
+    public static final String COPY = "copy";
+    public static final String PDF = "pdf";
+
+    private static final Map<String, AdaptiveConcurrencyLimiter> STAGES = new ConcurrentHashMap<>();
+
+    // small files are counted as one megabyte, their latency is dominated by the overhead of the file system
+    private static final long MIN_BYTES = 1024 * 1024;
+    // weight of a new sample for the throughput and of a slower sample for the baseline
+    private static final double THROUGHPUT_WEIGHT = 0.2;
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final String stage;
+    private int minLimit;
+    private int maxLimit;
+    private double tolerance;
+    private double backoff;
+
+    private double limit;
+    private int inFlight;
+    // nanoseconds per byte of the fastest transfers
+    private double baseline = -1;
+    // bytes per second
+    private double throughput;
+    private long lastDecrease;
+
+    AdaptiveConcurrencyLimiter(String stage, int minLimit, int maxLimit, int initialLimit, double tolerance, double backoff) {
+        this.stage = stage;
+        setBounds(minLimit, maxLimit, tolerance, backoff);
+        limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * get the limiter of a stage, a new limiter starts with the default settings until {@link #configure(XMLConfiguration)} is called
+     *
+     * @param stage
+     * @return
+     */
+    public static AdaptiveConcurrencyLimiter getStage(String stage) {
+        return STAGES.computeIfAbsent(stage, s -> new AdaptiveConcurrencyLimiter(s, 1, 4, 2, 2.0, 0.75));
+    }
+
+    /**
+     * apply the bounds of the plugin configuration to all stages, the current limit is kept if it is still inside of the bounds
+     *
+     * @param config
+     */
+    public static void configure(XMLConfiguration config) {
+        int min = config.getInt("/ioConcurrency/@min", 1);
+        int max = config.getInt("/ioConcurrency/@max", 4);
+        double tolerance = config.getDouble("/ioConcurrency/@tolerance", 2.0);
+        double backoff = config.getDouble("/ioConcurrency/@backoff", 0.75);
+        for (String stage : new String[] { COPY, PDF }) {
+            getStage(stage).setBounds(min, max, tolerance, backoff);
+        }
+    }
+
+    private synchronized void setBounds(int minLimit, int maxLimit, double tolerance, double backoff) {
+        int min = Math.max(1, minLimit);
+        int max = Math.max(min, maxLimit);
+        double newTolerance = Math.max(1.0, tolerance);
+        double newBackoff = Math.min(0.95, Math.max(0.1, backoff));
+        if (min == this.minLimit && max == this.maxLimit && newTolerance == this.tolerance && newBackoff == this.backoff) {
+            return;
+        }
+        this.minLimit = min;
+        this.maxLimit = max;
+        this.tolerance = newTolerance;
+        this.backoff = newBackoff;
+        limit = Math.max(this.minLimit, Math.min(this.maxLimit, limit));
+        // waiting transfers may start if the bounds were raised
+        notifyAll();
+    }
+
+    /**
+     * wait until another transfer may start
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * finish a transfer and adapt the limit
+     *
+     * @param nanos duration of the transfer
+     * @param bytes number of transferred bytes
+     * @param success false if the transfer failed
+     */
+    public void release(long nanos, long bytes, boolean success) {
+        release(nanos, bytes, success, System.nanoTime());
+    }
+
+    synchronized void release(long nanos, long bytes, boolean success, long now) {
+        inFlight--;
+        int before = getLimit();
+        double sample = (double) nanos / Math.max(bytes, MIN_BYTES);
+        if (success) {
+            double current = nanos > 0 ? bytes * 1e9 / nanos : 0;
+            throughput = throughput == 0 ? current : throughput + THROUGHPUT_WEIGHT * (current - throughput);
+        }
+
+        if (!success || baseline > 0 && sample > baseline * tolerance) {
+            // decrease only once per round, the transfers running in parallel were slowed down by the same cause
+            if (now - lastDecrease > nanos) {
+                limit = Math.max(minLimit, limit * backoff);
+                lastDecrease = now;
+            }
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+
+        if (success) {
+            if (baseline < 0 || sample < baseline) {
+                baseline = sample;
+            } else {
+                // let the baseline follow if the storage got slower permanently
+                baseline += BASELINE_DRIFT * (sample - baseline);
+            }
+        }
+
+        if (getLimit() != before) {
+            log.debug("Parallel " + stage + " transfers changed from " + before + " to " + getLimit() + ", throughput "
+                    + Math.round(throughput / (1024 * 1024)) + " MB/s");
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the smoothed throughput of a single transfer in bytes per second
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+}
@@ -3,21 +3,21 @@ package de.intranda.goobi.plugins;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.StringUtils;
-import org.goobi.beans.JournalEntry;
-import org.goobi.beans.Process;
-import org.goobi.production.enums.LogType;
 import org.jdom2.Element;
 
 import com.lowagie.text.Document;
@@ -39,23 +39,181 @@ import ugh.dl.Metadata;
 public class AdmBsmeExportHelper {
 
     /**
-     * copy files to target directory
+     * writes a single file into the target directory
+     */
+    @FunctionalInterface
+    public interface FileTransfer {
+        void transfer(Path source, Path target) throws IOException;
+    }
+
+    /**
+     * copy files to target directory, the files are copied in parallel as allowed by the {@link AdaptiveConcurrencyLimiter} of the copy stage
      * 
-     * @param ds
+     * @param report
+     * @param exporter
+     * @param sourcefolder
+     * @param ext
+     * @param fileMap
+     * @param targetFolder
+     * @throws IOException
+     */
+    public static void copyFolderContent(ExportReport report, String exporter, String sourcefolder, String ext, Map<String, String> fileMap,
+            String targetFolder) throws IOException {
+        copyFolderContent(report, exporter, sourcefolder, ext, fileMap, targetFolder, StorageProvider.getInstance()::copyFile);
+    }
+
+    /**
+     * transfer files to target directory, e.g. to rewrite the content while copying. The files are transferred in parallel as allowed by the
+     * {@link AdaptiveConcurrencyLimiter} of the copy stage
+     * 
+     * @param report
+     * @param exporter
+     * @param sourcefolder
+     * @param ext
+     * @param fileMap
+     * @param targetFolder
+     * @param transfer writes a single file into the target directory
      * @throws IOException
      */
-    public static void copyFolderContent(String sourcefolder, String ext, Map<String, String> fileMap, String targetFolder) throws IOException {
-        for (Path pathIn : StorageProvider.getInstance().listFiles(sourcefolder)) {
-            String fileIn = pathIn.getFileName().toString();
-            fileIn = fileIn.substring(0, fileIn.indexOf("."));
-            String fileOut = fileMap.get(fileIn);
-            // Skip files that are not mapped
-            if (fileOut == null) {
-                continue;
+    public static void copyFolderContent(ExportReport report, String exporter, String sourcefolder, String ext, Map<String, String> fileMap,
+            String targetFolder, FileTransfer transfer) throws IOException {
+        String kind = "copy." + ext;
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.getStage(AdaptiveConcurrencyLimiter.COPY);
+        try (ExportMetrics.Timer timer = report.time(exporter, kind)) {
+            List<Future<Void>> copies = new ArrayList<>();
+            for (Path pathIn : StorageProvider.getInstance().listFiles(sourcefolder)) {
+                String fileIn = pathIn.getFileName().toString();
+                fileIn = fileIn.substring(0, fileIn.indexOf("."));
+                String fileOut = fileMap.get(fileIn);
+                // Skip files that are not mapped
+                if (fileOut == null) {
+                    continue;
+                }
+                Path pathOut = Paths.get(targetFolder, fileOut + "." + ext);
+                // log.debug(pathIn + " ---> " + pathOut);
+                copies.add(IoWorkers.submit(() -> {
+                    copyFile(report, exporter, kind, limiter, transfer, pathIn, pathOut);
+                    return null;
+                }));
             }
-            Path pathOut = Paths.get(targetFolder, fileOut + "." + ext);
-            // log.debug(pathIn + " ---> " + pathOut);
-            StorageProvider.getInstance().copyFile(pathIn, pathOut);
+            waitForTransfers(copies);
+            timer.success();
+        }
+    }
+
+    /**
+     * copy a single file, the copy waits for the bandwidth and for a permit of the {@link AdaptiveConcurrencyLimiter} of the copy stage
+     *
+     * @param report
+     * @param exporter
+     * @param ext extension of the file, used for the kind of the file in the report
+     * @param pathIn
+     * @param pathOut
+     * @throws IOException
+     */
+    public static void copyFile(ExportReport report, String exporter, String ext, Path pathIn, Path pathOut) throws IOException {
+        copyFile(report, exporter, ext, StorageProvider.getInstance()::copyFile, pathIn, pathOut);
+    }
+
+    /**
+     * transfer a single file with the given transfer, e.g. a transfer that recompresses the file, see
+     * {@link #copyFile(ExportReport, String, String, Path, Path)}
+     *
+     * @param report
+     * @param exporter
+     * @param ext extension of the file, used for the kind of the file in the report
+     * @param transfer
+     * @param pathIn
+     * @param pathOut
+     * @throws IOException
+     */
+    public static void copyFile(ExportReport report, String exporter, String ext, FileTransfer transfer, Path pathIn, Path pathOut)
+            throws IOException {
+        try {
+            copyFile(report, exporter, "copy." + ext, AdaptiveConcurrencyLimiter.getStage(AdaptiveConcurrencyLimiter.COPY), transfer, pathIn,
+                    pathOut);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying " + pathIn);
+        }
+    }
+
+    private static void copyFile(ExportReport report, String exporter, String kind, AdaptiveConcurrencyLimiter limiter, FileTransfer transfer,
+            Path pathIn, Path pathOut) throws IOException, InterruptedException {
+        // wait for the bandwidth before taking a permit, otherwise the waiting time would count as latency of the storage
+        BandwidthLimiter.getInstance().acquire(StorageProvider.getInstance().getFileSize(pathIn));
+        limiter.acquire();
+        long start = System.nanoTime();
+        long size = 0;
+        boolean success = false;
+        try {
+            transfer.transfer(pathIn, pathOut);
+            size = StorageProvider.getInstance().getFileSize(pathOut);
+            success = true;
+        } finally {
+            limiter.release(System.nanoTime() - start, size, success);
+        }
+        report.addFile(exporter, kind, pathIn.getFileName().toString(), System.nanoTime() - start, size);
+    }
+
+    /**
+     * wait for transfers running in parallel, the first failure is thrown. Transfers of the {@link IoWorkers} that did not start yet are run in the
+     * calling thread.
+     *
+     * @param transfers
+     * @throws IOException
+     */
+    public static <T> List<T> waitForTransfers(List<Future<T>> transfers) throws IOException {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> transfer : transfers) {
+                IoWorkers.runIfWaiting(transfer);
+                results.add(transfer.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for file transfers");
+        } finally {
+            transfers.forEach(t -> t.cancel(true));
+        }
+        return results;
+    }
+
+    /**
+     * move a file to its final location, the target gets replaced in a single step if the file system supports it
+     * 
+     * @param source
+     * @param target
+     * @throws IOException
+     */
+    public static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.debug("Atomic move not supported for " + target + ", using regular move");
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * copy a file into a temporary file next to the target first and rename it afterwards, so that the target never exists partially
+     * 
+     * @param source
+     * @param target
+     * @throws IOException
+     */
+    public static void copyFileAtomically(Path source, Path target) throws IOException {
+        Path tempFile = Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(source, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            moveAtomically(tempFile, target);
+        } finally {
+            Files.deleteIfExists(tempFile);
         }
     }
 
@@ -175,18 +333,13 @@ public class AdmBsmeExportHelper {
         }
     }
 
-    public static Element createTechnicalNotesElementFromRelevantJournalEntries(Process process) {
+    public static Element createTechnicalNotesElementFromRelevantJournalEntries(ExportContext context) {
         Element result = new Element("Technical_Notes");
 
-        List<JournalEntry> journal = Optional.ofNullable(process.getJournal())
-                .map(j -> j.stream()
-                        .filter(e -> e.getType() == LogType.IMPORTANT_USER)
-                        .collect(Collectors.toList()))
-                .orElse(Collections.emptyList());
-
-        journal.forEach(e -> result.addContent(new Element("Entry").setAttribute("date", e.getFormattedCreationDate())
-                .setAttribute("type", e.getType().getTitle())
-                .setText(e.getFormattedContent())));
+        context.getTechnicalNotes()
+                .forEach(e -> result.addContent(new Element("Entry").setAttribute("date", e.getDate())
+                        .setAttribute("type", e.getType())
+                        .setText(e.getContent())));
 
         return result;
     }
@@ -199,7 +352,32 @@ public class AdmBsmeExportHelper {
         fout.close();
     }
 
-    public static void gluePDF(List<File> inputFiles, File outputFile) throws IOException {
+    public static void gluePDF(ExportReport report, String exporter, List<File> inputFiles, File outputFile) throws IOException {
+        // the merged file is about as large as its parts, which are read once and written once
+        long size = inputFiles.stream().mapToLong(File::length).sum();
+        BandwidthLimiter.getInstance().acquire(2 * size);
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.getStage(AdaptiveConcurrencyLimiter.PDF);
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to write " + outputFile);
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try (ExportMetrics.Timer timer = report.time(exporter, "gluePdf", outputFile.getName())) {
+            gluePDF(inputFiles, outputFile);
+            if (outputFile.exists()) {
+                report.addPdfFile(exporter, outputFile.getName(), outputFile.length());
+            }
+            success = true;
+            timer.success();
+        } finally {
+            limiter.release(System.nanoTime() - start, outputFile.length(), success);
+        }
+    }
+
+    private static void gluePDF(List<File> inputFiles, File outputFile) throws IOException {
         if (inputFiles.isEmpty()) {
             String message = "No input PDF files to glue together";
             log.warn(message);
@@ -3,39 +3,29 @@ package de.intranda.goobi.plugins;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
 import org.goobi.beans.Process;
 import org.goobi.production.enums.LogType;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.plugin.interfaces.IExportPlugin;
 import org.goobi.production.plugin.interfaces.IPlugin;
-
-import de.intranda.goobi.plugins.exporters.GenericExporter;
-import de.intranda.goobi.plugins.exporters.MagazineExporter;
-import de.intranda.goobi.plugins.exporters.NegativeExporter;
-import de.intranda.goobi.plugins.exporters.NewspaperExporter;
-import de.intranda.goobi.plugins.exporters.PositiveExporter;
-import de.intranda.goobi.plugins.exporters.SlideExporter;
 import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.helper.Helper;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.ExportFileException;
 import de.sub.goobi.helper.exceptions.SwapException;
 import de.sub.goobi.helper.exceptions.UghHelperException;
-import de.sub.goobi.metadaten.MetadatenImagesHelper;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
-import ugh.dl.DigitalDocument;
-import ugh.dl.DocStruct;
-import ugh.dl.Fileformat;
-import ugh.dl.Prefs;
 import ugh.exceptions.DocStructHasNoTypeException;
 import ugh.exceptions.MetadataTypeNotAllowedException;
 import ugh.exceptions.PreferencesException;
 import ugh.exceptions.ReadException;
 import ugh.exceptions.TypeNotAllowedForParentException;
-import ugh.exceptions.UGHException;
 import ugh.exceptions.WriteException;
 
 @PluginImplementation
@@ -75,68 +65,71 @@ public class AdmBsmeExportPlugin implements IExportPlugin, IPlugin {
             throws IOException, InterruptedException, DocStructHasNoTypeException, PreferencesException, WriteException,
             MetadataTypeNotAllowedException, ExportFileException, UghHelperException, ReadException, SwapException,
             DAOException, TypeNotAllowedForParentException {
-        problems = new ArrayList<>();
-        boolean success = true;
+        XMLConfiguration config = ConfigPlugins.getPluginConfig(title);
+        config.setExpressionEngine(new XPathExpressionEngine());
+        if (config.getBoolean("/jobQueue/@enabled", false)) {
+            return submitExportJob(process, config);
+        }
+        AdmBsmeExportRunner.configureLimits(config);
+        AdmBsmeExportRunner runner = new AdmBsmeExportRunner(config);
+        boolean success = runner.export(new ProcessExportContext(process));
+        problems = runner.getProblems();
+        return success;
+    }
 
-        // read mets file
+    /**
+     * add the export of the process to the job queue, the export itself is done by a standalone worker
+     * 
+     * @param process
+     * @param config
+     * @return
+     */
+    private boolean submitExportJob(Process process, XMLConfiguration config) {
+        problems = new ArrayList<>();
         try {
-            Prefs prefs = process.getRegelsatz().getPreferences();
-            Fileformat ff = null;
-            ff = process.readMetadataFile();
-            DigitalDocument dd = ff.getDigitalDocument();
-            DocStruct topStruct = dd.getLogicalDocStruct();
-
-            MetadatenImagesHelper mih = new MetadatenImagesHelper(prefs, dd);
-
-            if (dd.getFileSet() == null || dd.getFileSet().getAllFiles().isEmpty()) {
-                Helper.setMeldung(process.getTitel() + ": digital document does not contain images; adding them for mets file creation");
-                mih.createPagination(process, null);
-                try {
-                    process.writeMetadataFile(ff);
-                } catch (UGHException | IOException | SwapException e) {
-                    log.error(e);
-                }
-            }
-
-            switch (topStruct.getType().getName()) {
-                case "Newspaper" -> {
-                    NewspaperExporter ne = new NewspaperExporter(ConfigPlugins.getPluginConfig(title), process, prefs, dd);
-                    success = ne.startExport();
-                }
-                case "Periodical" -> {
-                    MagazineExporter ex = new MagazineExporter(ConfigPlugins.getPluginConfig(title), process, prefs, dd);
-                    success = ex.startExport();
-                }
-                case "AdmNegative" -> {
-                    NegativeExporter ex = new NegativeExporter(ConfigPlugins.getPluginConfig(title), process, prefs, dd);
-                    success = ex.startExport();
-                }
-                case "AdmPositiveEnvelope" -> {
-                    PositiveExporter ex = new PositiveExporter(ConfigPlugins.getPluginConfig(title), process, prefs, dd);
-                    success = ex.startExport();
-                }
-                case "AdmSlide" -> {
-                    SlideExporter ex = new SlideExporter(ConfigPlugins.getPluginConfig(title), process, prefs, dd);
-                    success = ex.startExport();
-                }
-                case "AdmGeneric" -> {
-                    GenericExporter ex = new GenericExporter(ConfigPlugins.getPluginConfig(title), process, prefs, dd);
-                    success = ex.startExport();
-                }
-            }
-        } catch (ReadException | PreferencesException | IOException | SwapException e) {
-            problems.add("Export aborted for process with ID: " + e.getMessage());
-            Helper.addMessageToProcessJournal(process.getId(), LogType.ERROR, "Export aborte because of an unexpected exception: " + e.getMessage());
-            log.error("Export aborted for process with ID " + process.getId(), e);
+            ExportJobQueue queue = ExportJobQueue.create(config);
+            importJournals(queue);
+            String name = queue.submit(new ProcessExportContext(process).createJob());
+            Helper.addMessageToProcessJournal(process.getId(), LogType.INFO, "Export job " + name
+                    + " was added to the export queue. The step is closed before the export runs, the workers add the result to this journal later");
+            return true;
+        } catch (IOException e) {
+            problems.add("Cannot add the export job to the queue: " + e.getMessage());
+            log.error("Cannot add the export job for process with ID " + process.getId() + " to the queue", e);
             return false;
         }
+    }
 
-        if (!success) {
-            log.error("Export aborted for process with ID " + process.getId());
-        } else {
-            log.info("Export executed for process with ID " + process.getId());
+    /**
+     * add the journal entries written by the workers since the last call to the journals of their processes
+     *
+     * @param queue
+     */
+    private static void importJournals(ExportJobQueue queue) {
+        try {
+            queue.importJournals(journal -> {
+                int processId = Integer.parseInt(journal.getProperty(JobExportContext.PROCESS_ID).trim());
+                for (Map.Entry<LogType, String> entry : JobExportContext.readJournal(journal)) {
+                    Helper.addMessageToProcessJournal(processId, entry.getKey(), entry.getValue());
+                }
+            });
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot import the journals of the export workers", e);
         }
+    }
 
-        return success;
+    /**
+     * Export many processes at once. The processes are exported in parallel, the configuration and the rulesets are read only once for all
+     * processes.
+     * 
+     * @param processes
+     * @return the result for each process in the order of the given list
+     */
+    public List<BulkExportResult> startExport(List<Process> processes) {
+        XMLConfiguration config = ConfigPlugins.getPluginConfig(title);
+        config.setExpressionEngine(new XPathExpressionEngine());
+        AdmBsmeExportRunner.configureLimits(config);
+        BulkExporter exporter = new BulkExporter(config);
+        return exporter.export(processes);
     }
-}
\ No newline at end of file
+}
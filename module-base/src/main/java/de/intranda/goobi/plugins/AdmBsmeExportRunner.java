@@ -0,0 +1,216 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.goobi.production.enums.LogType;
+
+import de.intranda.goobi.plugins.exporters.GenericExporter;
+import de.intranda.goobi.plugins.exporters.MagazineExporter;
+import de.intranda.goobi.plugins.exporters.NegativeExporter;
+import de.intranda.goobi.plugins.exporters.NewspaperExporter;
+import de.intranda.goobi.plugins.exporters.PositiveExporter;
+import de.intranda.goobi.plugins.exporters.SlideExporter;
+import de.intranda.goobi.plugins.exporters.TiffValidator;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DigitalDocument;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+
+/**
+ * Runs the exporter matching the type of the top docstruct for a single export context. Used by the plugin inside of Goobi workflow as well as by
+ * the standalone worker.
+ */
+@Log4j2
+public class AdmBsmeExportRunner {
+
+    private XMLConfiguration config;
+
+    @Getter
+    private List<String> problems = new ArrayList<>();
+
+    // false if running the export again cannot succeed, e.g. because of broken masters or a missing or unreadable metadata file
+    @Getter
+    private boolean retryable = true;
+
+    public AdmBsmeExportRunner(XMLConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * apply the settings of the limiters and the scheduler shared by all exports of the JVM, called once each time the configuration is loaded
+     *
+     * @param config
+     */
+    public static void configureLimits(XMLConfiguration config) {
+        AdaptiveConcurrencyLimiter.configure(config);
+        // enough threads for the transfers of the copy and the pdf stage at their upper limits
+        IoWorkers.setThreads(2 * AdaptiveConcurrencyLimiter.getStage(AdaptiveConcurrencyLimiter.COPY).getMaxLimit());
+        BandwidthLimiter.configure(config);
+        ExportScheduler.configure(config);
+    }
+
+    /**
+     * read the ruleset and the metadata file and run the export as soon as the {@link ExportScheduler} allows it
+     *
+     * @param context
+     * @return
+     */
+    public boolean export(ExportContext context) {
+        try {
+            Prefs prefs = context.getPreferences();
+            DigitalDocument dd = readDigitalDocument(context, prefs);
+            return ExportScheduler.getInstance().run(context, dd, false, () -> export(context, prefs, dd));
+        } catch (ReadException | PreferencesException | IOException e) {
+            // other IO errors may be caused by a temporary problem of the storage
+            retryable = !(e instanceof ReadException || e instanceof PreferencesException);
+            problems.add("Export aborted for process with ID: " + e.getMessage());
+            context.addJournalEntry(LogType.ERROR, "Export aborte because of an unexpected exception: " + e.getMessage());
+            log.error("Export aborted for process with ID " + context.getProcessId(), e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            problems.add("Export interrupted for process with ID: " + context.getProcessId());
+            return false;
+        }
+    }
+
+    /**
+     * read the metadata file of the context, the duration is recorded in the report and the metrics of the document type
+     *
+     * @param context
+     * @param prefs
+     * @return
+     * @throws ReadException
+     * @throws PreferencesException
+     * @throws IOException
+     */
+    public static DigitalDocument readDigitalDocument(ExportContext context, Prefs prefs) throws ReadException, PreferencesException, IOException {
+        long start = System.nanoTime();
+        DigitalDocument dd = context.readMetadataFile(prefs).getDigitalDocument();
+        context.getReport().record(dd.getLogicalDocStruct().getType().getName(), "readMetadataFile", System.nanoTime() - start, true);
+        return dd;
+    }
+
+    /**
+     * run the export for an already loaded document
+     *
+     * @param context
+     * @param prefs
+     * @param dd
+     * @return
+     */
+    public boolean export(ExportContext context, Prefs prefs, DigitalDocument dd) {
+        boolean success = true;
+        List<String> exporterProblems = null;
+        String type = dd.getLogicalDocStruct().getType().getName();
+        long start = System.nanoTime();
+        // the validator also reads the capture devices from the tags of the masters
+        TiffValidator validator = TiffValidator.create(config, context.getReport(), type);
+        if (!validateImages(context, validator, dd)) {
+            success = false;
+        } else {
+            switch (type) {
+                case "Newspaper" -> {
+                    NewspaperExporter ne = new NewspaperExporter(config, context, prefs, dd);
+                    ne.setCaptureDevices(validator.getCaptureDevices());
+                    success = ne.startExport();
+                    exporterProblems = ne.getProblems();
+                }
+                case "Periodical" -> {
+                    MagazineExporter ex = new MagazineExporter(config, context, prefs, dd);
+                    ex.setCaptureDevices(validator.getCaptureDevices());
+                    success = ex.startExport();
+                    exporterProblems = ex.getProblems();
+                }
+                case "AdmNegative" -> {
+                    NegativeExporter ex = new NegativeExporter(config, context, prefs, dd);
+                    ex.setCaptureDevices(validator.getCaptureDevices());
+                    success = ex.startExport();
+                    exporterProblems = ex.getProblems();
+                }
+                case "AdmPositiveEnvelope" -> {
+                    PositiveExporter ex = new PositiveExporter(config, context, prefs, dd);
+                    ex.setCaptureDevices(validator.getCaptureDevices());
+                    success = ex.startExport();
+                    exporterProblems = ex.getProblems();
+                }
+                case "AdmSlide" -> {
+                    SlideExporter ex = new SlideExporter(config, context, prefs, dd);
+                    ex.setCaptureDevices(validator.getCaptureDevices());
+                    success = ex.startExport();
+                    exporterProblems = ex.getProblems();
+                }
+                case "AdmGeneric" -> {
+                    GenericExporter ex = new GenericExporter(config, context, prefs, dd);
+                    ex.setCaptureDevices(validator.getCaptureDevices());
+                    success = ex.startExport();
+                    exporterProblems = ex.getProblems();
+                }
+            }
+        }
+        if (exporterProblems != null) {
+            problems.addAll(exporterProblems);
+        }
+        context.getReport().record(type, "export", System.nanoTime() - start, success);
+        writeReport(context, type, success);
+
+        if (!success) {
+            log.error("Export aborted for process with ID " + context.getProcessId());
+        } else {
+            log.info("Export executed for process with ID " + context.getProcessId());
+        }
+        return success;
+    }
+
+    /**
+     * check the masters before any file is written, broken files abort the export
+     *
+     * @param context
+     * @param validator
+     * @param dd
+     * @return false if at least one master is broken
+     */
+    private boolean validateImages(ExportContext context, TiffValidator validator, DigitalDocument dd) {
+        try {
+            List<String> brokenFiles = validator.validate(context.getImagesOrigDirectory(), dd.getLogicalDocStruct());
+            if (brokenFiles.isEmpty()) {
+                return true;
+            }
+            problems.addAll(brokenFiles);
+            retryable = false;
+            context.addJournalEntry(LogType.ERROR, "Export aborted because of broken images: " + String.join("; ", brokenFiles));
+        } catch (IOException e) {
+            problems.add("Cannot validate the images: " + e.getMessage());
+            log.error("Cannot validate the images of process with ID " + context.getProcessId(), e);
+        }
+        return false;
+    }
+
+    /**
+     * write the summary of the report into the journal and the complete report as JSON file into the process folder
+     *
+     * @param context
+     * @param type
+     * @param success
+     */
+    private void writeReport(ExportContext context, String type, boolean success) {
+        ExportReport report = context.getReport();
+        report.finish(type, success);
+        String fileName = "export_report_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + ".json";
+        try {
+            report.writeJson(Paths.get(context.getProcessDataDirectory(), fileName).toFile());
+            context.addJournalEntry(LogType.INFO, report.createSummary() + ". Details: " + fileName);
+        } catch (IOException e) {
+            log.warn("Cannot write the export report for process with ID " + context.getProcessId(), e);
+            context.addJournalEntry(LogType.INFO, report.createSummary());
+        }
+    }
+}
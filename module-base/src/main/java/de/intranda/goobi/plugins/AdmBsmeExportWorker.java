@@ -0,0 +1,197 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.goobi.production.enums.LogType;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Standalone worker to run exports outside of Goobi workflow. Each export is described by a job file as created by
+ * {@link ProcessExportContext#createJob()}, the worker needs access to the process folders and the target directories.
+ *
+ * Usage: AdmBsmeExportWorker &lt;plugin configuration file&gt; &lt;job file&gt;...
+ *
+ * or AdmBsmeExportWorker &lt;plugin configuration file&gt; --queue [--once] to process the jobs of the configured job queue, with --once the
+ * worker stops as soon as no job is pending.
+ */
+@Log4j2
+public class AdmBsmeExportWorker {
+
+    private XMLConfiguration config;
+
+    public AdmBsmeExportWorker(XMLConfiguration config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: AdmBsmeExportWorker <plugin configuration file> <job file>...");
+            System.err.println("       AdmBsmeExportWorker <plugin configuration file> --queue [--once]");
+            System.exit(2);
+        }
+        XMLConfiguration config = new XMLConfiguration();
+        config.setDelimiterParsingDisabled(true);
+        try {
+            config.load(args[0]);
+        } catch (ConfigurationException e) {
+            log.error("Cannot read the plugin configuration " + args[0], e);
+            System.exit(2);
+        }
+        config.setExpressionEngine(new XPathExpressionEngine());
+        AdmBsmeExportRunner.configureLimits(config);
+
+        AdmBsmeExportWorker worker = new AdmBsmeExportWorker(config);
+        if ("--queue".equals(args[1])) {
+            boolean once = args.length > 2 && "--once".equals(args[2]);
+            try {
+                ExportJobQueue queue = ExportJobQueue.create(config);
+                worker.runQueue(queue, ManagementFactory.getRuntimeMXBean().getName(), config.getLong("/jobQueue/@pollInterval", 10) * 1000, once);
+            } catch (IOException e) {
+                log.error("Error while processing the export job queue", e);
+                System.exit(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.exit(0);
+        }
+
+        int failed = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (!worker.runJob(Paths.get(args[i]))) {
+                failed++;
+            }
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * lease and run the jobs of the queue until the worker gets interrupted
+     *
+     * @param queue
+     * @param workerId identifier of this worker
+     * @param pollInterval time in milliseconds to wait if no job is pending
+     * @param untilEmpty stop as soon as no job is pending
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void runQueue(ExportJobQueue queue, String workerId, long pollInterval, boolean untilEmpty) throws IOException, InterruptedException {
+        long heartbeatInterval = Math.max(1, queue.getLeaseTimeout() / 3);
+        ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                queue.requeueExpiredLeases();
+                ExportJobQueue.Lease lease = queue.lease(workerId);
+                if (lease == null) {
+                    if (untilEmpty) {
+                        return;
+                    }
+                    Thread.sleep(pollInterval);
+                    continue;
+                }
+
+                log.info("Worker " + workerId + " leased export job " + lease.getName());
+                ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+                    try {
+                        lease.heartbeat();
+                    } catch (IOException e) {
+                        log.warn("Lost the lease of export job " + lease.getName(), e);
+                    }
+                }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+                JobExportContext context = null;
+                JobResult result = JobResult.FAILURE;
+                try {
+                    context = JobExportContext.read(lease.getFile());
+                    result = executeJob(context);
+                } catch (IOException e) {
+                    log.error("Cannot read job file " + lease.getFile(), e);
+                } catch (RuntimeException e) {
+                    log.error("Export job " + lease.getName() + " failed", e);
+                } finally {
+                    heartbeat.cancel(false);
+                }
+
+                String state;
+                try {
+                    if (result == JobResult.SUCCESS) {
+                        queue.complete(lease);
+                        state = "finished";
+                    } else if (queue.fail(lease, result == JobResult.FAILURE)) {
+                        state = "failed, it will be retried";
+                    } else {
+                        state = "failed, it is not retried";
+                    }
+                } catch (IOException e) {
+                    // the lease expired and the job was requeued by another worker
+                    log.warn("Cannot update the state of export job " + lease.getName(), e);
+                    state = "lost its lease";
+                }
+
+                // there is no database on the worker, the journal is added to the process by Goobi workflow
+                if (context != null) {
+                    context.addJournalEntry(result == JobResult.SUCCESS ? LogType.INFO : LogType.ERROR,
+                            "Export job " + lease.getName() + " " + state + " on worker " + workerId);
+                    try {
+                        queue.writeJournal(lease, context.getJournal());
+                    } catch (IOException e) {
+                        log.warn("Cannot write the journal of export job " + lease.getName(), e);
+                    }
+                }
+            }
+        } finally {
+            heartbeats.shutdownNow();
+        }
+    }
+
+    /**
+     * run the export described in a job file
+     *
+     * @param jobFile
+     * @return true if the export was successful
+     */
+    public boolean runJob(Path jobFile) {
+        try {
+            return executeJob(JobExportContext.read(jobFile)) == JobResult.SUCCESS;
+        } catch (IOException e) {
+            log.error("Cannot read job file " + jobFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * run the export of a job and tell if a failed export may succeed when it is retried
+     *
+     * @param context
+     * @return
+     */
+    JobResult executeJob(JobExportContext context) {
+        AdmBsmeExportRunner runner = new AdmBsmeExportRunner(config);
+        boolean success = runner.export(context);
+        for (String problem : runner.getProblems()) {
+            log.warn("Process " + context.getProcessId() + ": " + problem);
+        }
+        if (success) {
+            return JobResult.SUCCESS;
+        }
+        return runner.isRetryable() ? JobResult.FAILURE : JobResult.PERMANENT_FAILURE;
+    }
+
+    /**
+     * result of a job, permanent failures are not retried by the queue
+     */
+    enum JobResult {
+        SUCCESS,
+        FAILURE,
+        PERMANENT_FAILURE
+    }
+}
@@ -0,0 +1,143 @@
+package de.intranda.goobi.plugins;
+
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Token bucket to limit the bandwidth used by all exports running inside of the same JVM. File copies, PDF merging and image probing take
+ * tokens for the bytes they read or write before they access the storage.
+ *
+ * The rate depends on the time of day, each profile of the element bandwidth defines a rate in megabytes per second for a time range. Outside
+ * of all profiles, or if the rate of a profile is 0, the bandwidth is not limited.
+ */
+@Log4j2
+public class BandwidthLimiter {
+
+    private static final BandwidthLimiter INSTANCE = new BandwidthLimiter();
+
+    private static final long MB = 1024 * 1024;
+
+    private List<Profile> profiles = new ArrayList<>();
+
+    private Profile current;
+    // available bytes, negative if the bytes of waiting transfers are already reserved
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    @Getter
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    static class Profile {
+        private TimeWindow window;
+        // bytes per second, 0 for unlimited
+        private long rate;
+        // bytes
+        private long burst;
+    }
+
+    BandwidthLimiter() {
+    }
+
+    public static BandwidthLimiter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * read the profiles from the plugin configuration, the current bucket is kept if the profiles did not change
+     *
+     * @param config
+     */
+    public static void configure(XMLConfiguration config) {
+        List<Profile> profiles = new ArrayList<>();
+        if (config.getBoolean("/bandwidth/@enabled", false)) {
+            for (HierarchicalConfiguration profile : config.configurationsAt("/bandwidth/profile")) {
+                try {
+                    long rate = Math.round(profile.getDouble("@rate", 0) * MB);
+                    long burst = Math.round(profile.getDouble("@burst", 8) * MB);
+                    profiles.add(new Profile(TimeWindow.read(profile), Math.max(0, rate), Math.max(MB, burst)));
+                } catch (DateTimeParseException e) {
+                    log.error("Invalid time in bandwidth profile, the profile is ignored: " + e.getParsedString());
+                }
+            }
+        }
+        INSTANCE.setProfiles(profiles);
+    }
+
+    synchronized void setProfiles(List<Profile> profiles) {
+        // a new profile starts with a full bucket, so the bucket must not be refilled by loading the same configuration again
+        if (profiles.equals(this.profiles)) {
+            return;
+        }
+        this.profiles = profiles;
+        current = null;
+    }
+
+    /**
+     * wait until the given number of bytes may be transferred
+     *
+     * @param bytes
+     * @throws InterruptedIOException
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long nanos = reserve(bytes, LocalTime.now(), System.nanoTime());
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+
+    /**
+     * take the tokens for a transfer
+     *
+     * @param bytes
+     * @param time time of day to select the profile
+     * @param now current value of System.nanoTime()
+     * @return the time in nanoseconds to wait before the transfer may start
+     */
+    synchronized long reserve(long bytes, LocalTime time, long now) {
+        Profile profile = getProfile(time);
+        if (profile != current) {
+            // start each profile with a full bucket, tokens reserved under the previous profile are dropped
+            current = profile;
+            tokens = profile == null ? 0 : profile.getBurst();
+            lastRefill = now;
+        }
+        if (profile == null || profile.getRate() == 0) {
+            return 0;
+        }
+
+        tokens = Math.min(profile.getBurst(), tokens + (now - lastRefill) * profile.getRate() / 1e9);
+        lastRefill = now;
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * 1e9 / profile.getRate());
+    }
+
+    synchronized Profile getProfile(LocalTime time) {
+        for (Profile profile : profiles) {
+            if (profile.getWindow().contains(time)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+}
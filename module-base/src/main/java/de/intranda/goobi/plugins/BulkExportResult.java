@@ -0,0 +1,23 @@
+package de.intranda.goobi.plugins;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Result of the export of a single process within a bulk export
+ */
+@Data
+@AllArgsConstructor
+public class BulkExportResult {
+
+    private int processId;
+    private String processTitle;
+    // type of the top docstruct, null if the metadata file could not be read
+    private String type;
+    private boolean success;
+    private List<String> problems;
+    // duration of the export in milliseconds, including the time waiting for a free slot
+    private long duration;
+}
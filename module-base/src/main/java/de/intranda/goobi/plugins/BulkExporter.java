@@ -0,0 +1,232 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.goobi.beans.Process;
+import org.goobi.production.enums.LogType;
+
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DigitalDocument;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+
+/**
+ * Export of many processes in one go. The configuration, the rulesets and the thread pool are shared by all processes of the batch. The number of
+ * parallel exports can be limited in total and per type of the top docstruct within the configuration element bulkExport.
+ *
+ * The type is known after the metadata file was read. Exports of a type without a free slot wait in a queue of the type and are only handed to
+ * the thread pool when an export of the same type finished, so they do not block threads that could export processes of other types.
+ */
+@Log4j2
+public class BulkExporter {
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private XMLConfiguration config;
+    private int threads;
+    // limits for the number of parallel exports per docstruct type
+    private Map<String, Integer> typeLimits = new HashMap<>();
+    // rulesets by file name
+    private Map<String, Prefs> prefsCache = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param config plugin configuration, used for all processes of the batch
+     */
+    public BulkExporter(XMLConfiguration config) {
+        this.config = config;
+        threads = Math.max(1, config.getInt("/bulkExport/@threads", DEFAULT_THREADS));
+        for (HierarchicalConfiguration limit : config.configurationsAt("/bulkExport/limit")) {
+            typeLimits.put(limit.getString("@type"), Math.max(1, limit.getInt("@threads", threads)));
+        }
+    }
+
+    /**
+     * export all given processes
+     *
+     * @param processes
+     * @return the result for each process in the order of the given list
+     */
+    public List<BulkExportResult> export(List<Process> processes) {
+        List<BulkExportResult> results = new ArrayList<>();
+        if (processes == null || processes.isEmpty()) {
+            return results;
+        }
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, processes.size()));
+        TypeDispatcher dispatcher = new TypeDispatcher(executor, typeLimits);
+        try {
+            List<CompletableFuture<BulkExportResult>> futures = new ArrayList<>();
+            for (Process process : processes) {
+                CompletableFuture<BulkExportResult> result = new CompletableFuture<>();
+                futures.add(result);
+                executor.execute(() -> prepareProcess(process, dispatcher, result));
+            }
+            for (int i = 0; i < processes.size(); i++) {
+                Process process = processes.get(i);
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    log.error("Export aborted for process with ID " + process.getId(), e.getCause());
+                    results.add(new BulkExportResult(process.getId(), process.getTitel(), null, false,
+                            List.of("Export aborted because of an unexpected exception: " + e.getCause().getMessage()), 0));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    executor.shutdownNow();
+                    results.add(new BulkExportResult(process.getId(), process.getTitel(), null, false, List.of("Bulk export was interrupted"), 0));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        long failed = results.stream().filter(r -> !r.isSuccess()).count();
+        log.info("Bulk export of " + results.size() + " processes finished in " + (System.currentTimeMillis() - start) + " ms, " + failed
+                + " failed");
+        return results;
+    }
+
+    /**
+     * read the metadata of a process and hand the export to the dispatcher of its type
+     *
+     * @param process
+     * @param dispatcher
+     * @param result completed when the export finished
+     */
+    private void prepareProcess(Process process, TypeDispatcher dispatcher, CompletableFuture<BulkExportResult> result) {
+        long start = System.currentTimeMillis();
+        ExportContext context = new ProcessExportContext(process);
+        AdmBsmeExportRunner runner = new AdmBsmeExportRunner(config);
+        try {
+            Prefs prefs = getPreferences(process, context);
+            DigitalDocument dd = AdmBsmeExportRunner.readDigitalDocument(context, prefs);
+            String type = dd.getLogicalDocStruct().getType().getName();
+            dispatcher.dispatch(type, result, () -> exportProcess(process, context, runner, prefs, dd, type, start));
+        } catch (ReadException | PreferencesException | IOException e) {
+            runner.getProblems().add("Export aborted for process with ID: " + e.getMessage());
+            context.addJournalEntry(LogType.ERROR, "Export aborte because of an unexpected exception: " + e.getMessage());
+            log.error("Export aborted for process with ID " + process.getId(), e);
+            result.complete(new BulkExportResult(process.getId(), process.getTitel(), null, false, runner.getProblems(),
+                    System.currentTimeMillis() - start));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * export a single process, waits for the {@link ExportScheduler}
+     *
+     * @param process
+     * @return
+     */
+    private BulkExportResult exportProcess(Process process, ExportContext context, AdmBsmeExportRunner runner, Prefs prefs, DigitalDocument dd,
+            String type, long start) {
+        boolean success;
+        try {
+            success = ExportScheduler.getInstance().run(context, dd, true, () -> runner.export(context, prefs, dd));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            runner.getProblems().add("Export interrupted for process with ID: " + process.getId());
+            success = false;
+        }
+        return new BulkExportResult(process.getId(), process.getTitel(), type, success, runner.getProblems(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * get the ruleset of the process, each ruleset file is read only once per batch
+     *
+     * @param process
+     * @param context the hits and misses are counted in its report
+     * @return
+     */
+    private Prefs getPreferences(Process process, ExportContext context) {
+        String ruleset = process.getRegelsatz().getDatei();
+        context.getReport().addCacheAccess("ruleset", prefsCache.containsKey(ruleset));
+        return prefsCache.computeIfAbsent(ruleset, k -> process.getRegelsatz().getPreferences());
+    }
+
+    /**
+     * hands exports to the thread pool while their type has a free slot, the other exports wait in a queue per type
+     */
+    static class TypeDispatcher {
+
+        private ExecutorService executor;
+        private Map<String, Integer> limits;
+        // number of running exports per limited type
+        private Map<String, Integer> running = new HashMap<>();
+        private Map<String, Queue<Runnable>> waiting = new HashMap<>();
+
+        TypeDispatcher(ExecutorService executor, Map<String, Integer> limits) {
+            this.executor = executor;
+            this.limits = limits;
+        }
+
+        /**
+         * run an export as soon as its type has a free slot
+         *
+         * @param type
+         * @param result completed with the result of the export
+         * @param export
+         */
+        <T> void dispatch(String type, CompletableFuture<T> result, Supplier<T> export) {
+            Runnable task = () -> {
+                try {
+                    result.complete(export.get());
+                } catch (RuntimeException | Error e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    finished(type);
+                }
+            };
+            Integer limit = limits.get(type);
+            synchronized (this) {
+                if (limit != null && running.getOrDefault(type, 0) >= limit) {
+                    waiting.computeIfAbsent(type, k -> new ArrayDeque<>()).add(() -> submit(task, result));
+                    return;
+                }
+                running.merge(type, 1, Integer::sum);
+            }
+            submit(task, result);
+        }
+
+        private void finished(String type) {
+            Runnable next;
+            synchronized (this) {
+                Queue<Runnable> queue = waiting.get(type);
+                next = queue == null ? null : queue.poll();
+                if (next == null) {
+                    running.merge(type, -1, Integer::sum);
+                }
+            }
+            // the slot is passed on to the next export of the type
+            if (next != null) {
+                next.run();
+            }
+        }
+
+        private void submit(Runnable task, CompletableFuture<?> result) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
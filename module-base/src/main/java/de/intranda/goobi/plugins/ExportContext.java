@@ -0,0 +1,91 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.goobi.production.enums.LogType;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+
+/**
+ * Everything an exporter needs to know about the process to export. Inside of Goobi workflow this is backed by the process itself, a standalone
+ * worker reads the same information from a job file.
+ */
+public interface ExportContext {
+
+    int getProcessId();
+
+    String getProcessTitle();
+
+    String getImagesOrigDirectory() throws IOException;
+
+    String getOcrTxtDirectory() throws IOException;
+
+    String getOcrAltoDirectory() throws IOException;
+
+    String getOcrPdfDirectory() throws IOException;
+
+    String getProcessDataDirectory() throws IOException;
+
+    /**
+     * get the ruleset of the process
+     *
+     * @return
+     * @throws PreferencesException
+     */
+    Prefs getPreferences() throws PreferencesException;
+
+    /**
+     * read the metadata file of the process
+     *
+     * @param prefs
+     * @return
+     * @throws ReadException
+     * @throws PreferencesException
+     * @throws IOException
+     */
+    Fileformat readMetadataFile(Prefs prefs) throws ReadException, PreferencesException, IOException;
+
+    /**
+     * get the journal entries to be exported as technical notes
+     *
+     * @return
+     */
+    List<TechnicalNote> getTechnicalNotes();
+
+    /**
+     * get a METS setting of the project, used if the setting is not part of the plugin configuration
+     *
+     * @param name name of the setting as used in the plugin configuration, e.g. rightsOwner or metsPointerPath
+     * @return
+     */
+    String getProjectSetting(String name);
+
+    /**
+     * create the replacer for variables like $(meta.CatalogIDDigital) or ${process.Template}
+     *
+     * @param dd
+     * @param prefs
+     * @return
+     */
+    ExportVariableReplacer createVariableReplacer(DigitalDocument dd, Prefs prefs);
+
+    /**
+     * add a message to the journal of the process
+     *
+     * @param type
+     * @param message
+     */
+    void addJournalEntry(LogType type, String message);
+
+    /**
+     * get the report collecting the timings and volumes of the running export
+     *
+     * @return
+     */
+    ExportReport getReport();
+}
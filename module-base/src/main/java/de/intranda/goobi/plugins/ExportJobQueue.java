@@ -0,0 +1,345 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.lang.StringUtils;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Durable export job queue inside of a shared directory. Any number of workers on any number of machines can use the same queue directory.
+ *
+ * <ul>
+ * <li>new jobs are written into the folder pending</li>
+ * <li>a worker leases a job by renaming it into the folder leased, only one worker can succeed with the rename</li>
+ * <li>while the export runs, the worker updates the modification date of the leased file as heartbeat</li>
+ * <li>leases without heartbeat for longer than the lease timeout are moved back to pending by any worker, heartbeats and expiry use the clock of
+ * the shared directory, so that the clocks of the machines do not need to agree</li>
+ * <li>finished jobs are moved into done, jobs failing more often than the maximum number of retries or failing permanently into failed</li>
+ * <li>after each run the worker writes the journal entries of the export into the folder journal, Goobi workflow adds them to the process</li>
+ * </ul>
+ *
+ * The number of retries and the worker holding the lease are part of the file name: pending/&lt;name&gt;~&lt;retries&gt;.job and
+ * leased/&lt;name&gt;~&lt;retries&gt;~&lt;worker&gt;.job
+ */
+@Log4j2
+public class ExportJobQueue {
+
+    private static final String SEPARATOR = "~";
+    private static final String JOB_SUFFIX = ".job";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private Path pendingFolder;
+    private Path leasedFolder;
+    private Path doneFolder;
+    private Path failedFolder;
+    private Path journalFolder;
+    private Path tempFolder;
+
+    @Getter
+    private long leaseTimeout;
+    private int maxRetries;
+
+    /**
+     * Constructor, creates the queue folders if missing
+     *
+     * @param folder shared queue directory
+     * @param leaseTimeout time in milliseconds after which a lease without heartbeat expires
+     * @param maxRetries number of retries of a failed or expired job
+     * @throws IOException
+     */
+    public ExportJobQueue(Path folder, long leaseTimeout, int maxRetries) throws IOException {
+        this.leaseTimeout = leaseTimeout;
+        this.maxRetries = maxRetries;
+        pendingFolder = Files.createDirectories(folder.resolve("pending"));
+        leasedFolder = Files.createDirectories(folder.resolve("leased"));
+        doneFolder = Files.createDirectories(folder.resolve("done"));
+        failedFolder = Files.createDirectories(folder.resolve("failed"));
+        journalFolder = Files.createDirectories(folder.resolve("journal"));
+        tempFolder = Files.createDirectories(folder.resolve("tmp"));
+    }
+
+    /**
+     * create the queue configured within the element jobQueue of the plugin configuration
+     *
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public static ExportJobQueue create(XMLConfiguration config) throws IOException {
+        String directory = config.getString("/jobQueue/@directory", "");
+        if (StringUtils.isBlank(directory)) {
+            throw new IOException("No directory configured for the export job queue");
+        }
+        return new ExportJobQueue(Paths.get(directory), config.getLong("/jobQueue/@leaseTimeout", 600) * 1000, config.getInt("/jobQueue/@maxRetries", 3));
+    }
+
+    /**
+     * add a new job to the queue
+     *
+     * @param job job description as created by {@link ProcessExportContext#createJob()}
+     * @return the name of the job
+     * @throws IOException
+     */
+    public String submit(Properties job) throws IOException {
+        // the name starts with the creation time, so that the jobs are leased in the order of their creation
+        String name = System.currentTimeMillis() + "-" + job.getProperty(JobExportContext.PROCESS_ID, "job") + "-"
+                + UUID.randomUUID().toString().substring(0, 8);
+        // write the file outside of pending first, so that workers never see incomplete jobs
+        write(job, name + JOB_SUFFIX, pendingFolder.resolve(name + SEPARATOR + 0 + JOB_SUFFIX));
+        return name;
+    }
+
+    /**
+     * store the journal entries of a run of a leased job, each run gets its own file
+     *
+     * @param lease
+     * @param journal journal as created by {@link JobExportContext}
+     * @throws IOException
+     */
+    public void writeJournal(Lease lease, Properties journal) throws IOException {
+        String fileName = lease.getName() + SEPARATOR + lease.getRetries() + JOURNAL_SUFFIX;
+        write(journal, fileName, journalFolder.resolve(fileName));
+    }
+
+    /**
+     * pass all stored journals to the consumer and remove them, a journal is only passed to one of several callers
+     *
+     * @param consumer
+     * @return number of imported journals
+     * @throws IOException
+     */
+    public int importJournals(Consumer<Properties> consumer) throws IOException {
+        int imported = 0;
+        for (Path file : listFiles(journalFolder, JOURNAL_SUFFIX)) {
+            // take the journal away first, so that it is not imported twice
+            Path claimed = tempFolder.resolve(file.getFileName() + ".import");
+            try {
+                move(file, claimed);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            Properties journal = new Properties();
+            try (Reader reader = Files.newBufferedReader(claimed, StandardCharsets.UTF_8)) {
+                journal.load(reader);
+            }
+            try {
+                consumer.accept(journal);
+            } catch (RuntimeException e) {
+                move(claimed, file);
+                throw e;
+            }
+            Files.delete(claimed);
+            imported++;
+        }
+        return imported;
+    }
+
+    /**
+     * lease the oldest pending job
+     *
+     * @param workerId identifier of the worker, e.g. host name and process id
+     * @return the lease or null if no job is pending
+     * @throws IOException
+     */
+    public Lease lease(String workerId) throws IOException {
+        String worker = workerId.replaceAll("[^A-Za-z0-9_.@-]", "_");
+        for (Path pending : listJobs(pendingFolder)) {
+            String fileName = pending.getFileName().toString();
+            String[] parts = fileName.substring(0, fileName.length() - JOB_SUFFIX.length()).split(SEPARATOR);
+            if (parts.length != 2) {
+                continue;
+            }
+            Path leased = leasedFolder.resolve(parts[0] + SEPARATOR + parts[1] + SEPARATOR + worker + JOB_SUFFIX);
+            try {
+                move(pending, leased);
+            } catch (NoSuchFileException e) {
+                // another worker was faster
+                continue;
+            }
+            Lease lease = new Lease(this, leased, parts[0], Integer.parseInt(parts[1]));
+            lease.heartbeat();
+            return lease;
+        }
+        return null;
+    }
+
+    /**
+     * move all leased jobs without heartbeat back into pending, or into failed if they reached the maximum number of retries
+     *
+     * @return number of expired leases
+     * @throws IOException
+     */
+    public int requeueExpiredLeases() throws IOException {
+        int expired = 0;
+        long now = getShareTime();
+        for (Path leased : listJobs(leasedFolder)) {
+            try {
+                if (now - Files.getLastModifiedTime(leased).toMillis() < leaseTimeout) {
+                    continue;
+                }
+                String fileName = leased.getFileName().toString();
+                String[] parts = fileName.split(SEPARATOR);
+                if (parts.length != 3) {
+                    continue;
+                }
+                log.warn("Lease of export job " + parts[0] + " expired");
+                retry(leased, parts[0], Integer.parseInt(parts[1]));
+                expired++;
+            } catch (NoSuchFileException e) {
+                // finished or requeued in the meantime
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * mark a leased job as finished
+     *
+     * @param lease
+     * @throws IOException
+     */
+    public void complete(Lease lease) throws IOException {
+        move(lease.getFile(), doneFolder.resolve(lease.getName() + JOB_SUFFIX));
+    }
+
+    /**
+     * mark a leased job as failed, it gets retried until the maximum number of retries is reached
+     *
+     * @param lease
+     * @throws IOException
+     */
+    public void fail(Lease lease) throws IOException {
+        fail(lease, true);
+    }
+
+    /**
+     * mark a leased job as failed
+     *
+     * @param lease
+     * @param retryable false if running the job again cannot succeed, the job is moved into failed without any retry
+     * @return true if the job is retried
+     * @throws IOException
+     */
+    public boolean fail(Lease lease, boolean retryable) throws IOException {
+        if (retryable) {
+            return retry(lease.getFile(), lease.getName(), lease.getRetries());
+        }
+        log.error("Export job " + lease.getName() + " failed permanently, it is not retried");
+        move(lease.getFile(), failedFolder.resolve(lease.getName() + JOB_SUFFIX));
+        return false;
+    }
+
+    /**
+     * get the current time of the file system of the queue directory, the modification date of a new file is set by the file server
+     *
+     * @return
+     * @throws IOException
+     */
+    long getShareTime() throws IOException {
+        Path probe = Files.createTempFile(tempFolder, "clock", ".probe");
+        try {
+            // write into the file, so that the modification date is not the one of the local clock given on creation
+            Files.write(probe, new byte[] { 0 });
+            return Files.getLastModifiedTime(probe).toMillis();
+        } finally {
+            Files.deleteIfExists(probe);
+        }
+    }
+
+    public int getPendingJobs() throws IOException {
+        return listJobs(pendingFolder).size();
+    }
+
+    private boolean retry(Path leased, String name, int retries) throws IOException {
+        if (retries < maxRetries) {
+            move(leased, pendingFolder.resolve(name + SEPARATOR + (retries + 1) + JOB_SUFFIX));
+            return true;
+        }
+        log.error("Export job " + name + " failed " + (retries + 1) + " times, giving up");
+        move(leased, failedFolder.resolve(name + JOB_SUFFIX));
+        return false;
+    }
+
+    /**
+     * write the properties into the temporary folder first and move them to the target afterwards, so that nobody reads an incomplete file
+     */
+    private void write(Properties properties, String tempName, Path target) throws IOException {
+        Path tempFile = tempFolder.resolve(tempName);
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        move(tempFile, target);
+    }
+
+    private static List<Path> listJobs(Path folder) throws IOException {
+        return listFiles(folder, JOB_SUFFIX);
+    }
+
+    private static List<Path> listFiles(Path folder, String suffix) throws IOException {
+        List<Path> jobs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(folder)) {
+            files.filter(p -> p.getFileName().toString().endsWith(suffix)).sorted().forEach(jobs::add);
+        }
+        return jobs;
+    }
+
+    /**
+     * rename a file, the rename must be atomic as it decides which worker gets a job
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+            throw new IOException("Cannot rename " + source + " to " + target + " atomically", e);
+        }
+    }
+
+    /**
+     * A job leased by a worker
+     */
+    public static class Lease {
+        private ExportJobQueue queue;
+        @Getter
+        private Path file;
+        @Getter
+        private String name;
+        @Getter
+        private int retries;
+
+        private Lease(ExportJobQueue queue, Path file, String name, int retries) {
+            this.queue = queue;
+            this.file = file;
+            this.name = name;
+            this.retries = retries;
+        }
+
+        /**
+         * renew the lease with the time of the shared directory
+         *
+         * @throws IOException if the lease was lost because it expired
+         */
+        public void heartbeat() throws IOException {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(queue.getShareTime()));
+        }
+    }
+}
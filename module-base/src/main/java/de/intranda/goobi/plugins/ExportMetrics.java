@@ -0,0 +1,202 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Timers and byte counters for the phases of the export, one instance per exporter type. Each instance is registered at the platform MBean server
+ * as de.intranda.goobi.plugins:type=ExportMetrics,exporter=&lt;exporter type&gt;
+ *
+ * Usage:
+ *
+ * <pre>
+ * try (ExportMetrics.Timer timer = ExportMetrics.time("Newspaper", "gluePdf")) {
+ *     ...
+ *     timer.success();
+ * }
+ * </pre>
+ */
+@Log4j2
+public class ExportMetrics implements ExportMetricsMXBean {
+
+    static final String DOMAIN = "de.intranda.goobi.plugins";
+
+    private static final Map<String, ExportMetrics> INSTANCES = new ConcurrentHashMap<>();
+
+    private final String exporter;
+    private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> bytes = new ConcurrentHashMap<>();
+
+    private ExportMetrics(String exporter) {
+        this.exporter = exporter;
+    }
+
+    /**
+     * get the metrics of an exporter type, the metrics get registered at JMX on first use
+     *
+     * @param exporter the exporter type, e.g. Newspaper or AdmNegative
+     * @return
+     */
+    public static ExportMetrics get(String exporter) {
+        return INSTANCES.computeIfAbsent(exporter, ExportMetrics::register);
+    }
+
+    /**
+     * start a timer for a phase, the duration gets recorded when the timer is closed
+     *
+     * @param exporter the exporter type
+     * @param phase name of the phase
+     * @return
+     */
+    public static Timer time(String exporter, String phase) {
+        return time(exporter, phase, null, null);
+    }
+
+    /**
+     * start a timer that additionally records the duration in the report of a single export
+     */
+    static Timer time(String exporter, String phase, ExportReport report, String file) {
+        return new Timer(get(exporter).phases.computeIfAbsent(phase, p -> new Phase()), report, phase, file);
+    }
+
+    /**
+     * record the duration of a phase that was measured without a timer, e.g. because the exporter type was not known at the start
+     *
+     * @param exporter the exporter type
+     * @param phase name of the phase
+     * @param nanos duration in nanoseconds
+     * @param success false if the phase failed
+     */
+    public static void record(String exporter, String phase, long nanos, boolean success) {
+        get(exporter).phases.computeIfAbsent(phase, p -> new Phase()).record(nanos, success);
+    }
+
+    /**
+     * add the size of written or copied data to a byte counter
+     *
+     * @param exporter the exporter type
+     * @param name name of the counter
+     * @param size number of bytes
+     */
+    public static void addBytes(String exporter, String name, long size) {
+        get(exporter).bytes.computeIfAbsent(name, n -> new LongAdder()).add(size);
+    }
+
+    private static ExportMetrics register(String exporter) {
+        ExportMetrics metrics = new ExportMetrics(exporter);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=ExportMetrics,exporter=" + ObjectName.quote(exporter));
+            // the plugin may have been loaded before by another class loader
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            log.warn("Cannot register the export metrics for " + exporter + " at JMX", e);
+        }
+        return metrics;
+    }
+
+    @Override
+    public String getExporter() {
+        return exporter;
+    }
+
+    @Override
+    public List<PhaseStatistics> getPhases() {
+        List<PhaseStatistics> answer = new ArrayList<>();
+        for (Map.Entry<String, Phase> entry : new TreeMap<>(phases).entrySet()) {
+            answer.add(entry.getValue().getStatistics(entry.getKey()));
+        }
+        return answer;
+    }
+
+    @Override
+    public Map<String, Long> getByteCounters() {
+        Map<String, Long> answer = new TreeMap<>();
+        bytes.forEach((name, counter) -> answer.put(name, counter.sum()));
+        return answer;
+    }
+
+    @Override
+    public void reset() {
+        phases.clear();
+        bytes.clear();
+    }
+
+    private static class Phase {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos, boolean success) {
+            count.increment();
+            if (!success) {
+                failures.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        private PhaseStatistics getStatistics(String name) {
+            long c = count.sum();
+            long total = TimeUnit.NANOSECONDS.toMillis(totalNanos.sum());
+            return new PhaseStatistics(name, c, failures.sum(), total, TimeUnit.NANOSECONDS.toMillis(maxNanos.get()),
+                    c == 0 ? 0 : (double) total / c);
+        }
+    }
+
+    /**
+     * Running timer of a phase. A timer that gets closed without a call to {@link #success()} is counted as failure.
+     */
+    public static class Timer implements AutoCloseable {
+        private final Phase phase;
+        private final ExportReport report;
+        private final String phaseName;
+        private final String file;
+        private final long start = System.nanoTime();
+        private boolean success;
+        private boolean closed;
+
+        private Timer(Phase phase, ExportReport report, String phaseName, String file) {
+            this.phase = phase;
+            this.report = report;
+            this.phaseName = phaseName;
+            this.file = file;
+        }
+
+        /**
+         * mark the phase as successful
+         */
+        public void success() {
+            success = true;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                long nanos = System.nanoTime() - start;
+                phase.record(nanos, success);
+                if (report != null) {
+                    report.addPhase(phaseName, file, nanos, success);
+                }
+            }
+        }
+    }
+}
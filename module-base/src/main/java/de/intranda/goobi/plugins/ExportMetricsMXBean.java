@@ -0,0 +1,18 @@
+package de.intranda.goobi.plugins;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX view of the export metrics of one exporter type
+ */
+public interface ExportMetricsMXBean {
+
+    String getExporter();
+
+    List<PhaseStatistics> getPhases();
+
+    Map<String, Long> getByteCounters();
+
+    void reset();
+}
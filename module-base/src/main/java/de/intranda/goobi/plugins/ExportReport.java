@@ -0,0 +1,287 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Timings and volumes of a single export. The phases are measured with the same timers as the {@link ExportMetrics}, at the end of the export a
+ * summary is written into the journal and the complete report as JSON file into the process folder.
+ *
+ * All methods may be called from several threads of the same export.
+ */
+public class ExportReport {
+
+    private static final int SLOWEST_FILES = 10;
+    private static final String IMAGE_PROBE = "imageProbe";
+
+    @Getter
+    private String started = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
+    private long start = System.nanoTime();
+    @Getter
+    private long durationMillis;
+    @Getter
+    private String type;
+    @Getter
+    private boolean success;
+
+    private Map<String, long[]> phases = new LinkedHashMap<>();
+    private Map<String, Long> fileCounts = new TreeMap<>();
+    private Map<String, Long> bytes = new TreeMap<>();
+    private List<PdfFile> pdfFiles = new ArrayList<>();
+    private Map<String, long[]> caches = new TreeMap<>();
+    // the slowest file is kept at the end of the queue, the fastest can be removed from the head
+    private PriorityQueue<SlowFile> slowestFiles = new PriorityQueue<>(Comparator.comparingLong(SlowFile::getMillis));
+
+    /**
+     * start a timer for a phase of this export, the duration is recorded in the report and in the metrics of the exporter type
+     *
+     * @param exporter the exporter type
+     * @param phase name of the phase
+     * @return
+     */
+    public ExportMetrics.Timer time(String exporter, String phase) {
+        return ExportMetrics.time(exporter, phase, this, null);
+    }
+
+    /**
+     * start a timer for a phase that handles a single file, the file is listed in the report if it is among the slowest ones
+     *
+     * @param exporter the exporter type
+     * @param phase name of the phase
+     * @param file name of the file
+     * @return
+     */
+    public ExportMetrics.Timer time(String exporter, String phase, String file) {
+        return ExportMetrics.time(exporter, phase, this, file);
+    }
+
+    /**
+     * record the duration of a phase that was measured without a timer
+     *
+     * @param exporter the exporter type
+     * @param phase name of the phase
+     * @param nanos duration in nanoseconds
+     * @param success false if the phase failed
+     */
+    public void record(String exporter, String phase, long nanos, boolean success) {
+        ExportMetrics.record(exporter, phase, nanos, success);
+        addPhase(phase, null, nanos, success);
+    }
+
+    synchronized void addPhase(String phase, String file, long nanos, boolean success) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        long[] values = phases.computeIfAbsent(phase, p -> new long[4]);
+        values[0]++;
+        if (!success) {
+            values[1]++;
+        }
+        values[2] += millis;
+        values[3] = Math.max(values[3], millis);
+        if (file != null) {
+            addSlowFile(new SlowFile(file, phase, millis));
+        }
+    }
+
+    /**
+     * count a copied file
+     *
+     * @param exporter the exporter type
+     * @param kind kind of the file, e.g. copy.tif
+     * @param file name of the file
+     * @param nanos time needed to copy the file
+     * @param size size of the file
+     */
+    public void addFile(String exporter, String kind, String file, long nanos, long size) {
+        ExportMetrics.addBytes(exporter, kind, size);
+        synchronized (this) {
+            fileCounts.merge(kind, 1L, Long::sum);
+            bytes.merge(kind, size, Long::sum);
+            addSlowFile(new SlowFile(file, kind, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        }
+    }
+
+    /**
+     * record a generated PDF file
+     *
+     * @param exporter the exporter type
+     * @param file name of the file
+     * @param size size of the file
+     */
+    public void addPdfFile(String exporter, String file, long size) {
+        ExportMetrics.addBytes(exporter, "pdf", size);
+        synchronized (this) {
+            pdfFiles.add(new PdfFile(file, size));
+            fileCounts.merge("pdf", 1L, Long::sum);
+            bytes.merge("pdf", size, Long::sum);
+        }
+    }
+
+    /**
+     * count an access to a cache
+     *
+     * @param cache name of the cache
+     * @param hit true if the value was found in the cache
+     */
+    public synchronized void addCacheAccess(String cache, boolean hit) {
+        caches.computeIfAbsent(cache, c -> new long[2])[hit ? 0 : 1]++;
+    }
+
+    /**
+     * mark the export as finished
+     *
+     * @param type type of the top docstruct
+     * @param success
+     */
+    public synchronized void finish(String type, boolean success) {
+        this.type = type;
+        this.success = success;
+        durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    public synchronized List<PhaseStatistics> getPhases() {
+        List<PhaseStatistics> answer = new ArrayList<>();
+        phases.forEach((phase, values) -> answer.add(
+                new PhaseStatistics(phase, values[0], values[1], values[2], values[3], values[0] == 0 ? 0 : (double) values[2] / values[0])));
+        return answer;
+    }
+
+    public synchronized Map<String, Long> getFileCounts() {
+        return new TreeMap<>(fileCounts);
+    }
+
+    public synchronized Map<String, Long> getBytes() {
+        return new TreeMap<>(bytes);
+    }
+
+    public synchronized List<PdfFile> getPdfFiles() {
+        return new ArrayList<>(pdfFiles);
+    }
+
+    public synchronized long getPagesProbed() {
+        long[] values = phases.get(IMAGE_PROBE);
+        return values == null ? 0 : values[0];
+    }
+
+    public synchronized List<CacheStatistics> getCaches() {
+        List<CacheStatistics> answer = new ArrayList<>();
+        caches.forEach((cache, values) -> answer.add(new CacheStatistics(cache, values[0], values[1],
+                values[0] + values[1] == 0 ? 0 : (double) values[0] / (values[0] + values[1]))));
+        return answer;
+    }
+
+    /**
+     * get the slowest files, starting with the slowest one
+     *
+     * @return
+     */
+    public synchronized List<SlowFile> getSlowestFiles() {
+        List<SlowFile> answer = new ArrayList<>(slowestFiles);
+        answer.sort(Comparator.comparingLong(SlowFile::getMillis).reversed());
+        return answer;
+    }
+
+    /**
+     * create a short summary for the journal
+     *
+     * @return
+     */
+    public synchronized String createSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Export ").append(success ? "finished" : "failed").append(" after ").append(formatMillis(durationMillis));
+        summary.append(", ").append(getPagesProbed()).append(" pages probed");
+        long copiedFiles = 0;
+        long copiedBytes = 0;
+        for (Map.Entry<String, Long> entry : fileCounts.entrySet()) {
+            if (!"pdf".equals(entry.getKey())) {
+                copiedFiles += entry.getValue();
+                copiedBytes += bytes.getOrDefault(entry.getKey(), 0L);
+            }
+        }
+        summary.append(", ").append(copiedFiles).append(" files copied (").append(formatBytes(copiedBytes)).append(")");
+        if (!pdfFiles.isEmpty()) {
+            summary.append(", ").append(pdfFiles.size()).append(" PDF files (").append(formatBytes(bytes.getOrDefault("pdf", 0L))).append(")");
+        }
+        phases.entrySet()
+                .stream()
+                .filter(e -> !"export".equals(e.getKey()))
+                .max(Comparator.comparingLong(e -> e.getValue()[2]))
+                .ifPresent(e -> summary.append(". Longest phase: ").append(e.getKey()).append(" (").append(formatMillis(e.getValue()[2])).append(")"));
+        List<SlowFile> slowest = getSlowestFiles();
+        if (!slowest.isEmpty()) {
+            SlowFile file = slowest.get(0);
+            summary.append(", slowest file: ")
+                    .append(file.getFile())
+                    .append(" (")
+                    .append(file.getPhase())
+                    .append(", ")
+                    .append(formatMillis(file.getMillis()))
+                    .append(")");
+        }
+        return summary.toString();
+    }
+
+    /**
+     * write the report as JSON file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void writeJson(File file) throws IOException {
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, this);
+    }
+
+    private void addSlowFile(SlowFile file) {
+        slowestFiles.add(file);
+        if (slowestFiles.size() > SLOWEST_FILES) {
+            slowestFiles.poll();
+        }
+    }
+
+    private static String formatMillis(long millis) {
+        return String.format(Locale.ENGLISH, "%.1f s", millis / 1000.0);
+    }
+
+    private static String formatBytes(long size) {
+        return String.format(Locale.ENGLISH, "%.1f MB", size / (1024.0 * 1024.0));
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class PdfFile {
+        private String file;
+        private long bytes;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class SlowFile {
+        private String file;
+        private String phase;
+        private long millis;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class CacheStatistics {
+        private String cache;
+        private long hits;
+        private long misses;
+        private double hitRate;
+    }
+}
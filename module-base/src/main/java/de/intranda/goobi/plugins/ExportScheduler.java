@@ -0,0 +1,302 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+
+/**
+ * Limits the number of exports running at the same time inside of the JVM and decides which waiting export starts next:
+ *
+ * <ul>
+ * <li>exports with a higher priority of their docstruct type start first</li>
+ * <li>within the same priority, the export with the smallest number of pages starts first</li>
+ * <li>exports of a bulk export only start during the configured off-peak windows, without any window they start like all other exports</li>
+ * <li>exports waiting longer than maxWait start before all others, so that large exports cannot starve, this includes bulk exports outside of
+ * the off-peak windows</li>
+ * </ul>
+ *
+ * The scheduler is configured by the element scheduler of the plugin configuration, queue depth and wait times are available at JMX as
+ * de.intranda.goobi.plugins:type=ExportScheduler.
+ */
+@Log4j2
+public class ExportScheduler implements ExportSchedulerMXBean {
+
+    private static final ExportScheduler INSTANCE = register();
+
+    // waiting bulk exports check the off-peak windows at least once per minute
+    private static final long RECHECK_INTERVAL = 60000;
+
+    @Getter
+    private boolean enabled;
+    private int slots = 1;
+    private Map<String, Integer> priorities = new HashMap<>();
+    private int defaultPriority;
+    private List<TimeWindow> offPeakWindows = new ArrayList<>();
+    private long maxWait;
+
+    private final List<Ticket> waiting = new ArrayList<>();
+    private int running;
+    private long sequence;
+    private long startedExports;
+    private long totalWait;
+    private long longestWait;
+
+    @Getter
+    @AllArgsConstructor
+    static class Ticket {
+        private String type;
+        private int pages;
+        private boolean bulk;
+        private int priority;
+        private long sequence;
+        // System.nanoTime() when the export was added
+        private long enqueued;
+
+        @Override
+        public String toString() {
+            return type + " (" + pages + " pages" + (bulk ? ", bulk" : "") + ")";
+        }
+    }
+
+    ExportScheduler() {
+    }
+
+    public static ExportScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    private static ExportScheduler register() {
+        ExportScheduler scheduler = new ExportScheduler();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(ExportMetrics.DOMAIN + ":type=ExportScheduler");
+            // the plugin may have been loaded before by another class loader
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(scheduler, name);
+        } catch (JMException e) {
+            log.warn("Cannot register the export scheduler at JMX", e);
+        }
+        return scheduler;
+    }
+
+    /**
+     * read the settings from the plugin configuration, exports already waiting keep their priority, nothing happens if the settings did not
+     * change
+     *
+     * @param config
+     */
+    public static void configure(XMLConfiguration config) {
+        Map<String, Integer> priorities = new HashMap<>();
+        for (HierarchicalConfiguration priority : config.configurationsAt("/scheduler/priority")) {
+            priorities.put(priority.getString("@type"), priority.getInt("@value", 0));
+        }
+        List<TimeWindow> windows = new ArrayList<>();
+        for (HierarchicalConfiguration window : config.configurationsAt("/scheduler/offPeak")) {
+            try {
+                windows.add(TimeWindow.read(window));
+            } catch (DateTimeParseException e) {
+                log.error("Invalid time in off-peak window of the scheduler, the window is ignored: " + e.getParsedString());
+            }
+        }
+        INSTANCE.setSettings(config.getBoolean("/scheduler/@enabled", false), config.getInt("/scheduler/@slots", 2), priorities,
+                config.getInt("/scheduler/@defaultPriority", 0), windows, TimeUnit.SECONDS.toNanos(config.getLong("/scheduler/@maxWait", 3600)));
+    }
+
+    synchronized void setSettings(boolean enabled, int slots, Map<String, Integer> priorities, int defaultPriority, List<TimeWindow> offPeakWindows,
+            long maxWait) {
+        int newSlots = Math.max(1, slots);
+        if (enabled == this.enabled && newSlots == this.slots && priorities.equals(this.priorities) && defaultPriority == this.defaultPriority
+                && offPeakWindows.equals(this.offPeakWindows) && maxWait == this.maxWait) {
+            return;
+        }
+        this.enabled = enabled;
+        this.slots = newSlots;
+        this.priorities = priorities;
+        this.defaultPriority = defaultPriority;
+        this.offPeakWindows = offPeakWindows;
+        this.maxWait = maxWait;
+        if (enabled && offPeakWindows.isEmpty()) {
+            log.warn("No off-peak window is configured for the export scheduler, bulk exports start like all other exports");
+        }
+        notifyAll();
+    }
+
+    /**
+     * run an export as soon as the scheduler allows it, the waiting time is recorded in the report of the context
+     *
+     * @param context
+     * @param dd the document to export, its type and number of pages decide about the order
+     * @param bulk true if the export is part of a bulk export, which may only start during the off-peak windows
+     * @param export the export itself
+     * @return the result of the export
+     * @throws InterruptedException
+     */
+    public boolean run(ExportContext context, DigitalDocument dd, boolean bulk, BooleanSupplier export) throws InterruptedException {
+        if (!isEnabled()) {
+            return export.getAsBoolean();
+        }
+        String type = dd.getLogicalDocStruct().getType().getName();
+        DocStruct physical = dd.getPhysicalDocStruct();
+        int pages = physical == null || physical.getAllChildren() == null ? 0 : physical.getAllChildren().size();
+
+        Ticket ticket = enqueue(type, pages, bulk, System.nanoTime());
+        long wait = awaitStart(ticket);
+        context.getReport().record(type, "schedulerWait", wait, true);
+        if (wait > TimeUnit.SECONDS.toNanos(1)) {
+            log.debug("Export of process with ID " + context.getProcessId() + " started after waiting " + TimeUnit.NANOSECONDS.toSeconds(wait) + " s");
+        }
+        try {
+            return export.getAsBoolean();
+        } finally {
+            finish();
+        }
+    }
+
+    synchronized Ticket enqueue(String type, int pages, boolean bulk, long now) {
+        Ticket ticket = new Ticket(type, pages, bulk, priorities.getOrDefault(type, defaultPriority), sequence++, now);
+        waiting.add(ticket);
+        return ticket;
+    }
+
+    private synchronized long awaitStart(Ticket ticket) throws InterruptedException {
+        try {
+            while (running >= slots || next(LocalTime.now(), System.nanoTime()) != ticket) {
+                wait(RECHECK_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            waiting.remove(ticket);
+            notifyAll();
+            throw e;
+        }
+        return start(ticket, System.nanoTime());
+    }
+
+    /**
+     * mark a waiting export as running
+     *
+     * @param ticket
+     * @param now
+     * @return the waiting time in nanoseconds
+     */
+    synchronized long start(Ticket ticket, long now) {
+        waiting.remove(ticket);
+        running++;
+        long wait = now - ticket.getEnqueued();
+        startedExports++;
+        totalWait += wait;
+        longestWait = Math.max(longestWait, wait);
+        // another export may be allowed to start as well
+        notifyAll();
+        return wait;
+    }
+
+    synchronized void finish() {
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * get the waiting export that may start next
+     *
+     * @param time time of day to check the off-peak windows
+     * @param now current value of System.nanoTime()
+     * @return the export or null if no waiting export may start at the given time
+     */
+    synchronized Ticket next(LocalTime time, long now) {
+        boolean offPeak = offPeakWindows.isEmpty() || offPeakWindows.stream().anyMatch(w -> w.contains(time));
+        Ticket best = null;
+        for (Ticket ticket : waiting) {
+            // starving bulk exports start outside of the off-peak windows as well
+            if (ticket.isBulk() && !offPeak && !isStarving(ticket, now)) {
+                continue;
+            }
+            if (best == null || compare(ticket, best, now) < 0) {
+                best = ticket;
+            }
+        }
+        return best;
+    }
+
+    private int compare(Ticket a, Ticket b, long now) {
+        boolean aStarving = isStarving(a, now);
+        boolean bStarving = isStarving(b, now);
+        if (aStarving != bStarving) {
+            return aStarving ? -1 : 1;
+        }
+        if (!aStarving) {
+            if (a.getPriority() != b.getPriority()) {
+                return Integer.compare(b.getPriority(), a.getPriority());
+            }
+            if (a.getPages() != b.getPages()) {
+                return Integer.compare(a.getPages(), b.getPages());
+            }
+        }
+        return Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    private boolean isStarving(Ticket ticket, long now) {
+        return maxWait > 0 && now - ticket.getEnqueued() > maxWait;
+    }
+
+    @Override
+    public synchronized int getQueueDepth() {
+        return waiting.size();
+    }
+
+    @Override
+    public synchronized int getRunningExports() {
+        return running;
+    }
+
+    @Override
+    public synchronized long getStartedExports() {
+        return startedExports;
+    }
+
+    /**
+     * @return average waiting time of the started exports in milliseconds
+     */
+    @Override
+    public synchronized long getAverageWaitTime() {
+        return startedExports == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWait / startedExports);
+    }
+
+    /**
+     * @return longest waiting time of the started exports in milliseconds
+     */
+    @Override
+    public synchronized long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(longestWait);
+    }
+
+    @Override
+    public synchronized List<String> getWaitingExports() {
+        long now = System.nanoTime();
+        List<String> answer = new ArrayList<>();
+        for (Ticket ticket : waiting) {
+            answer.add(ticket + ", waiting for " + TimeUnit.NANOSECONDS.toSeconds(now - ticket.getEnqueued()) + " s");
+        }
+        return answer;
+    }
+}
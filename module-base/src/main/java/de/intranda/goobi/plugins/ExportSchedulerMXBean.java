@@ -0,0 +1,21 @@
+package de.intranda.goobi.plugins;
+
+import java.util.List;
+
+/**
+ * JMX view of the export scheduler
+ */
+public interface ExportSchedulerMXBean {
+
+    int getQueueDepth();
+
+    int getRunningExports();
+
+    long getStartedExports();
+
+    long getAverageWaitTime();
+
+    long getMaxWaitTime();
+
+    List<String> getWaitingExports();
+}
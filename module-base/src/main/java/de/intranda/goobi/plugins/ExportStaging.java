@@ -0,0 +1,128 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.lang.StringUtils;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Staging folder for a single export. All files of an export are written into the staging folder first and moved into the target folder at the
+ * end. The staging folder is located on the same file system as the target folder by default (hidden folder .staging inside of the target folder),
+ * so that each file appears in the target folder in one step.
+ */
+@Log4j2
+public class ExportStaging {
+
+    private static final String DEFAULT_STAGING_FOLDER = ".staging";
+
+    private Path targetFolder;
+    @Getter
+    private Path folder;
+
+    private ExportStaging(Path targetFolder, Path folder) {
+        this.targetFolder = targetFolder;
+        this.folder = folder;
+    }
+
+    /**
+     * create a new staging folder for an export into the given target folder
+     *
+     * @param config plugin configuration, the optional element stagingDirectory overrides the default location
+     * @param targetFolder
+     * @return
+     * @throws IOException
+     */
+    public static ExportStaging create(XMLConfiguration config, String targetFolder) throws IOException {
+        String stagingDirectory = config.getString("stagingDirectory", "");
+        Path base = StringUtils.isBlank(stagingDirectory) ? Paths.get(targetFolder, DEFAULT_STAGING_FOLDER) : Paths.get(stagingDirectory.trim());
+        Files.createDirectories(base);
+        Path folder = Files.createTempDirectory(base, "export-");
+        log.debug("Using staging folder " + folder + " for export into " + targetFolder);
+        return new ExportStaging(Paths.get(targetFolder), folder);
+    }
+
+    /**
+     * get the path of the staging folder including a trailing separator, to be used instead of the target folder
+     *
+     * @return
+     */
+    public String getPath() {
+        return folder.toString() + File.separator;
+    }
+
+    /**
+     * move all staged files into the target folder. Data files are moved first, the xml files afterwards, so that a consumer reacting on the xml
+     * files finds all referenced files. Sub folders are no part of the export, they are removed together with the staging folder.
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        List<Path> xmlFiles = new ArrayList<>();
+        for (Path file : listFiles()) {
+            if (file.getFileName().toString().endsWith(".xml")) {
+                xmlFiles.add(file);
+            } else {
+                AdmBsmeExportHelper.moveAtomically(file, targetFolder.resolve(file.getFileName()));
+            }
+        }
+        for (Path file : xmlFiles) {
+            AdmBsmeExportHelper.moveAtomically(file, targetFolder.resolve(file.getFileName()));
+        }
+        discard();
+    }
+
+    /**
+     * remove the staging folder and all files in it
+     */
+    public void discard() {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Cannot delete staged file " + file, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Cannot delete staging folder " + folder, e);
+        }
+    }
+
+    /**
+     * commit the staged files if the export was successful, otherwise discard them
+     *
+     * @param success result of the export
+     * @return true if the export was successful and all files were moved into the target folder
+     */
+    public boolean finish(boolean success) {
+        if (!success) {
+            discard();
+            return false;
+        }
+        try {
+            commit();
+            return true;
+        } catch (IOException e) {
+            log.error("Error while moving the exported files from " + folder + " into " + targetFolder, e);
+            discard();
+            return false;
+        }
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * Replacement of variables inside of configured values
+ */
+@FunctionalInterface
+public interface ExportVariableReplacer {
+
+    String replace(String value);
+}
@@ -0,0 +1,90 @@
+package de.intranda.goobi.plugins;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pool for the file transfers of all exports running inside of the same JVM, e.g. copies, PDF merging or the validation of the masters.
+ * The pool only bounds the number of threads, the number of parallel transfers is bounded by the {@link AdaptiveConcurrencyLimiter} of each
+ * stage and by the {@link BandwidthLimiter}.
+ *
+ * A task may submit further tasks and wait for them. Waiting with {@link AdmBsmeExportHelper#waitForTransfers(java.util.List)} runs the tasks
+ * that did not start yet in the waiting thread, so waiting tasks cannot block the pool.
+ */
+public class IoWorkers {
+
+    private IoWorkers() {
+    }
+
+    // created on first use only
+    private static class Pool {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        private static final ThreadPoolExecutor EXECUTOR =
+                new ThreadPoolExecutor(8, 8, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "io-worker-" + THREADS.incrementAndGet());
+                    // the pool lives as long as the JVM
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        static {
+            // idle threads end, the pool is only used while exports are running
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * a task of the pool, can be run by a waiting thread as long as it did not start
+     */
+    private static class Task<T> extends FutureTask<T> {
+        private Task(Callable<T> callable) {
+            super(callable);
+        }
+    }
+
+    /**
+     * set the number of threads, called with the configuration of the limiters
+     *
+     * @param threads
+     */
+    public static synchronized void setThreads(int threads) {
+        int size = Math.max(1, threads);
+        // the core size must never exceed the maximum size
+        if (size > Pool.EXECUTOR.getMaximumPoolSize()) {
+            Pool.EXECUTOR.setMaximumPoolSize(size);
+            Pool.EXECUTOR.setCorePoolSize(size);
+        } else {
+            Pool.EXECUTOR.setCorePoolSize(size);
+            Pool.EXECUTOR.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * run a task in the pool
+     *
+     * @param task
+     * @return
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        Task<T> future = new Task<>(task);
+        Pool.EXECUTOR.execute(future);
+        return future;
+    }
+
+    /**
+     * run a task of the pool in the calling thread if it did not start yet, nothing happens for other futures or tasks that already started
+     *
+     * @param future
+     */
+    public static void runIfWaiting(Future<?> future) {
+        if (future instanceof Task<?> task) {
+            // a started, finished or cancelled task is not run again
+            task.run();
+        }
+    }
+}
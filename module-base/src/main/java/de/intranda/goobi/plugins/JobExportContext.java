@@ -0,0 +1,236 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.goobi.production.enums.LogType;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Export context read from a job file, used to run the export outside of Goobi workflow. The job file is a properties file as created by
+ * {@link ProcessExportContext#createJob()}.
+ */
+@Log4j2
+public class JobExportContext implements ExportContext {
+
+    public static final String PROCESS_ID = "processId";
+    public static final String PROCESS_TITLE = "processTitle";
+    public static final String RULESET = "ruleset";
+    public static final String METADATA_FILE = "metadataFile";
+    public static final String IMAGES_ORIG_DIRECTORY = "imagesOrigDirectory";
+    public static final String OCR_TXT_DIRECTORY = "ocrTxtDirectory";
+    public static final String OCR_ALTO_DIRECTORY = "ocrAltoDirectory";
+    public static final String OCR_PDF_DIRECTORY = "ocrPdfDirectory";
+    public static final String PROCESS_DATA_DIRECTORY = "processDataDirectory";
+    public static final String PROJECT_PREFIX = "project.";
+    public static final String PROPERTY_PREFIX = "property.";
+    public static final String NOTE_PREFIX = "note.";
+    public static final String JOURNAL_PREFIX = "journal.";
+
+    // variables like $(meta.CatalogIDDigital) or ${process.Template}
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$[({]([^)}]+)[)}]");
+
+    private Properties job;
+
+    // journal messages created during the export, there is no database to store them. The worker writes them into the job queue and Goobi
+    // workflow adds them to the journal of the process, see readJournal
+    @Getter
+    private Properties journal = new Properties();
+    @Getter
+    private ExportReport report = new ExportReport();
+
+    public JobExportContext(Properties job) {
+        this.job = job;
+        journal.setProperty(PROCESS_ID, job.getProperty(PROCESS_ID, ""));
+    }
+
+    /**
+     * read the job from a file
+     *
+     * @param jobFile
+     * @return
+     * @throws IOException
+     */
+    public static JobExportContext read(Path jobFile) throws IOException {
+        Properties job = new Properties();
+        try (Reader reader = Files.newBufferedReader(jobFile, StandardCharsets.UTF_8)) {
+            job.load(reader);
+        }
+        if (StringUtils.isBlank(job.getProperty(PROCESS_ID)) || StringUtils.isBlank(job.getProperty(METADATA_FILE))) {
+            throw new IOException("Job file " + jobFile + " does not contain a process id and a metadata file");
+        }
+        return new JobExportContext(job);
+    }
+
+    @Override
+    public int getProcessId() {
+        return Integer.parseInt(job.getProperty(PROCESS_ID).trim());
+    }
+
+    @Override
+    public String getProcessTitle() {
+        return job.getProperty(PROCESS_TITLE, "");
+    }
+
+    @Override
+    public String getImagesOrigDirectory() {
+        return job.getProperty(IMAGES_ORIG_DIRECTORY);
+    }
+
+    @Override
+    public String getOcrTxtDirectory() {
+        return job.getProperty(OCR_TXT_DIRECTORY);
+    }
+
+    @Override
+    public String getOcrAltoDirectory() {
+        return job.getProperty(OCR_ALTO_DIRECTORY);
+    }
+
+    @Override
+    public String getOcrPdfDirectory() {
+        return job.getProperty(OCR_PDF_DIRECTORY);
+    }
+
+    @Override
+    public String getProcessDataDirectory() {
+        return job.getProperty(PROCESS_DATA_DIRECTORY);
+    }
+
+    @Override
+    public Prefs getPreferences() throws PreferencesException {
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(job.getProperty(RULESET));
+        return prefs;
+    }
+
+    @Override
+    public Fileformat readMetadataFile(Prefs prefs) throws ReadException, PreferencesException {
+        Fileformat ff = new MetsMods(prefs);
+        ff.read(job.getProperty(METADATA_FILE));
+        return ff;
+    }
+
+    @Override
+    public List<TechnicalNote> getTechnicalNotes() {
+        List<TechnicalNote> notes = new ArrayList<>();
+        for (int i = 1; job.containsKey(NOTE_PREFIX + i + ".content"); i++) {
+            notes.add(new TechnicalNote(job.getProperty(NOTE_PREFIX + i + ".date", ""), job.getProperty(NOTE_PREFIX + i + ".type", ""),
+                    job.getProperty(NOTE_PREFIX + i + ".content")));
+        }
+        return notes;
+    }
+
+    @Override
+    public String getProjectSetting(String name) {
+        return job.getProperty(PROJECT_PREFIX + name, "");
+    }
+
+    @Override
+    public ExportVariableReplacer createVariableReplacer(DigitalDocument dd, Prefs prefs) {
+        return value -> replaceVariables(value, dd);
+    }
+
+    @Override
+    public synchronized void addJournalEntry(LogType type, String message) {
+        log.info("Journal entry for process " + job.getProperty(PROCESS_ID) + ": " + message);
+        int counter = 1;
+        while (journal.containsKey(JOURNAL_PREFIX + counter + ".type")) {
+            counter++;
+        }
+        journal.setProperty(JOURNAL_PREFIX + counter + ".type", type.name());
+        journal.setProperty(JOURNAL_PREFIX + counter + ".message", message);
+    }
+
+    /**
+     * get the entries of a journal as created by {@link #addJournalEntry(LogType, String)}
+     *
+     * @param journal
+     * @return type and message of each entry in the order of their creation
+     */
+    public static List<Map.Entry<LogType, String>> readJournal(Properties journal) {
+        List<Map.Entry<LogType, String>> entries = new ArrayList<>();
+        for (int i = 1; journal.containsKey(JOURNAL_PREFIX + i + ".type"); i++) {
+            LogType type;
+            try {
+                type = LogType.valueOf(journal.getProperty(JOURNAL_PREFIX + i + ".type"));
+            } catch (IllegalArgumentException e) {
+                type = LogType.INFO;
+            }
+            entries.add(Map.entry(type, journal.getProperty(JOURNAL_PREFIX + i + ".message", "")));
+        }
+        return entries;
+    }
+
+    /**
+     * simple replacement of the variables used within the plugin configuration: metadata of the document, process properties, process id and
+     * title. Unknown variables are replaced by an empty string.
+     *
+     * @param value
+     * @param dd
+     * @return
+     */
+    String replaceVariables(String value, DigitalDocument dd) {
+        if (value == null) {
+            return null;
+        }
+        DocStruct topstruct = dd.getLogicalDocStruct();
+        DocStruct firstchild = null;
+        if (topstruct.getType().isAnchor() && topstruct.getAllChildren() != null && !topstruct.getAllChildren().isEmpty()) {
+            firstchild = topstruct.getAllChildren().get(0);
+        }
+
+        Matcher matcher = VARIABLE_PATTERN.matcher(value);
+        StringBuilder sb = new StringBuilder();
+        while (matcher.find()) {
+            String variable = matcher.group(1);
+            String replacement = "";
+            if (variable.startsWith("meta.topstruct.")) {
+                replacement = getMetadata(topstruct, variable.substring("meta.topstruct.".length()));
+            } else if (variable.startsWith("meta.firstchild.")) {
+                replacement = getMetadata(firstchild, variable.substring("meta.firstchild.".length()));
+            } else if (variable.startsWith("meta.")) {
+                // use the value of the first child, the anchor is used if the child does not have it
+                replacement = getMetadata(firstchild, variable.substring("meta.".length()));
+                if (StringUtils.isBlank(replacement)) {
+                    replacement = getMetadata(topstruct, variable.substring("meta.".length()));
+                }
+            } else if ("processid".equals(variable)) {
+                replacement = job.getProperty(PROCESS_ID, "");
+            } else if ("processtitle".equals(variable)) {
+                replacement = getProcessTitle();
+            } else if (variable.startsWith("process.")) {
+                replacement = job.getProperty(PROPERTY_PREFIX + variable.substring("process.".length()), "");
+            }
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static String getMetadata(DocStruct ds, String name) {
+        if (ds == null || ds.getAllMetadata() == null) {
+            return "";
+        }
+        return AdmBsmeExportHelper.getMetdata(ds, name);
+    }
+}
@@ -0,0 +1,174 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+import de.sub.goobi.helper.StorageProvider;
+import lombok.Getter;
+
+/**
+ * Concatenates the plain text files of several pages into a single file. The target is opened once and the sources are transferred between the
+ * file channels without decoding them, so the files must use the same encoding (UTF-8 for the OCR results of Goobi workflow).
+ *
+ * An optional separator is written between two pages, the placeholder {page} is replaced with the number of the following page. Line breaks can
+ * be given as &amp;#10; in the configuration.
+ */
+public class OcrTextMerger {
+
+    private static final String PAGE_PLACEHOLDER = "{page}";
+
+    private String separator;
+
+    @Getter
+    private boolean issueText;
+
+    public OcrTextMerger(String separator, boolean issueText) {
+        this.separator = separator == null ? "" : separator;
+        this.issueText = issueText;
+    }
+
+    /**
+     * create a merger with the settings of the element fullText
+     *
+     * @param config
+     * @return
+     */
+    public static OcrTextMerger create(XMLConfiguration config) {
+        return new OcrTextMerger(config.getString("/fullText/@separator", ""), config.getBoolean("/fullText/@issueText", false));
+    }
+
+    /**
+     * list the files of a folder in natural order, e.g. page_2.txt before page_10.txt
+     *
+     * @param folder
+     * @return
+     * @throws IOException
+     */
+    public static List<Path> listInNaturalOrder(String folder) throws IOException {
+        List<Path> files = new ArrayList<>(StorageProvider.getInstance().listFiles(folder));
+        files.sort((a, b) -> compareNatural(a.getFileName().toString(), b.getFileName().toString()));
+        return files;
+    }
+
+    /**
+     * compare two file names, sequences of digits are compared by their numeric value
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public static int compareNatural(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int startA = i;
+                int startB = j;
+                while (i < a.length() && Character.isDigit(a.charAt(i))) {
+                    i++;
+                }
+                while (j < b.length() && Character.isDigit(b.charAt(j))) {
+                    j++;
+                }
+                String numberA = stripLeadingZeros(a.substring(startA, i));
+                String numberB = stripLeadingZeros(b.substring(startB, j));
+                if (numberA.length() != numberB.length()) {
+                    return Integer.compare(numberA.length(), numberB.length());
+                }
+                int result = numberA.compareTo(numberB);
+                if (result != 0) {
+                    return result;
+                }
+            } else {
+                int result = Character.compare(Character.toLowerCase(ca), Character.toLowerCase(cb));
+                if (result != 0) {
+                    return result;
+                }
+                i++;
+                j++;
+            }
+        }
+        int result = Integer.compare(a.length() - i, b.length() - j);
+        return result != 0 ? result : a.compareTo(b);
+    }
+
+    private static String stripLeadingZeros(String number) {
+        int start = 0;
+        while (start < number.length() - 1 && number.charAt(start) == '0') {
+            start++;
+        }
+        return number.substring(start);
+    }
+
+    /**
+     * write the sources one after the other into the target, an existing target gets replaced
+     *
+     * @param report the duration is recorded as phase mergeText, the size as file of the kind text
+     * @param exporter
+     * @param sources text files in the order of the pages, missing files are skipped but still counted as page
+     * @param target
+     * @return the number of merged files
+     * @throws IOException
+     */
+    public int merge(ExportReport report, String exporter, List<Path> sources, Path target) throws IOException {
+        long start = System.nanoTime();
+        int merged = 0;
+        long size;
+        try (ExportMetrics.Timer timer = report.time(exporter, "mergeText", target.getFileName().toString());
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            boolean endsWithLineBreak = true;
+            int page = 0;
+            for (Path source : sources) {
+                page++;
+                if (!Files.isRegularFile(source)) {
+                    continue;
+                }
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                    long length = in.size();
+                    BandwidthLimiter.getInstance().acquire(length);
+                    if (merged > 0) {
+                        // each page starts on a new line, as the single files do
+                        if (!endsWithLineBreak) {
+                            write(out, "\n");
+                        }
+                        write(out, separator.replace(PAGE_PLACEHOLDER, String.valueOf(page)));
+                    }
+                    long position = 0;
+                    while (position < length) {
+                        position += in.transferTo(position, length - position, out);
+                    }
+                    endsWithLineBreak = length == 0 || lastByte(in, length) == '\n';
+                }
+                merged++;
+            }
+            size = out.size();
+            timer.success();
+        }
+        report.addFile(exporter, "text", target.getFileName().toString(), System.nanoTime() - start, size);
+        return merged;
+    }
+
+    private static void write(FileChannel out, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static byte lastByte(FileChannel in, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        in.read(buffer, length - 1);
+        return buffer.get(0);
+    }
+}
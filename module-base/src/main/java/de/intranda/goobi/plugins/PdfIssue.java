@@ -1,6 +1,8 @@
 package de.intranda.goobi.plugins;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -45,4 +47,22 @@ public class PdfIssue {
                 "altos", sba.toString());
         return map;
     }
+
+    /**
+     * @return the plain text files of the pages inside of the folder, in the order of the pages
+     */
+    public List<Path> getTextFiles() {
+        List<Path> textFiles = new ArrayList<>();
+        for (String f : files) {
+            textFiles.add(Paths.get(folder, f + ".txt"));
+        }
+        return textFiles;
+    }
+
+    /**
+     * @return the name of the full text file of the issue, next to the PDF file
+     */
+    public String getTextFileName() {
+        return name.substring(0, name.lastIndexOf(".")) + ".txt";
+    }
 }
@@ -0,0 +1,29 @@
+package de.intranda.goobi.plugins;
+
+import java.beans.ConstructorProperties;
+
+import lombok.Getter;
+
+/**
+ * Statistics of a single export phase as exposed through JMX
+ */
+@Getter
+public class PhaseStatistics {
+
+    private String phase;
+    private long count;
+    private long failures;
+    private long totalMillis;
+    private long maxMillis;
+    private double averageMillis;
+
+    @ConstructorProperties({ "phase", "count", "failures", "totalMillis", "maxMillis", "averageMillis" })
+    public PhaseStatistics(String phase, long count, long failures, long totalMillis, long maxMillis, double averageMillis) {
+        this.phase = phase;
+        this.count = count;
+        this.failures = failures;
+        this.totalMillis = totalMillis;
+        this.maxMillis = maxMillis;
+        this.averageMillis = averageMillis;
+    }
+}
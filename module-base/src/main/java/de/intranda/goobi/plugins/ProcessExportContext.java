@@ -0,0 +1,230 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Processproperty;
+import org.goobi.beans.Project;
+import org.goobi.production.enums.LogType;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.helper.exceptions.DAOException;
+import de.sub.goobi.helper.exceptions.SwapException;
+import de.sub.goobi.metadaten.MetadatenImagesHelper;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DigitalDocument;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+import ugh.exceptions.TypeNotAllowedForParentException;
+import ugh.exceptions.UGHException;
+
+/**
+ * Export context for a process of Goobi workflow
+ */
+@Log4j2
+public class ProcessExportContext implements ExportContext {
+
+    // names of all METS settings of the project
+    static final List<String> PROJECT_SETTINGS = List.of("metsPointerPath", "metsPointerPathAnchor", "rightsOwner", "rightsOwnerLogo",
+            "rightsOwnerSiteURL", "rightsOwnerContact", "digiprovPresentation", "digiprovReference", "digiprovPresentationAnchor",
+            "digiprovReferenceAnchor", "rightsLicense", "rightsSponsor", "rightsSponsorLogo", "rightsSponsorSiteURL", "purl", "contentIds");
+
+    @Getter
+    private Process process;
+    @Getter
+    private ExportReport report = new ExportReport();
+
+    public ProcessExportContext(Process process) {
+        this.process = process;
+    }
+
+    @Override
+    public int getProcessId() {
+        return process.getId();
+    }
+
+    @Override
+    public String getProcessTitle() {
+        return process.getTitel();
+    }
+
+    @Override
+    public String getImagesOrigDirectory() throws IOException {
+        try {
+            return process.getImagesOrigDirectory(false);
+        } catch (SwapException | DAOException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String getOcrTxtDirectory() throws IOException {
+        try {
+            return process.getOcrTxtDirectory();
+        } catch (SwapException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String getOcrAltoDirectory() throws IOException {
+        try {
+            return process.getOcrAltoDirectory();
+        } catch (SwapException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String getOcrPdfDirectory() throws IOException {
+        try {
+            return process.getOcrPdfDirectory();
+        } catch (SwapException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String getProcessDataDirectory() throws IOException {
+        try {
+            return process.getProcessDataDirectory();
+        } catch (SwapException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public Prefs getPreferences() {
+        return process.getRegelsatz().getPreferences();
+    }
+
+    /**
+     * read the metadata file, if it does not contain any images yet the pagination gets created
+     */
+    @Override
+    public Fileformat readMetadataFile(Prefs prefs) throws ReadException, PreferencesException, IOException {
+        try {
+            Fileformat ff = process.readMetadataFile();
+            DigitalDocument dd = ff.getDigitalDocument();
+
+            if (dd.getFileSet() == null || dd.getFileSet().getAllFiles().isEmpty()) {
+                Helper.setMeldung(process.getTitel() + ": digital document does not contain images; adding them for mets file creation");
+                try (ExportMetrics.Timer timer = report.time(dd.getLogicalDocStruct().getType().getName(), "pagination")) {
+                    MetadatenImagesHelper mih = new MetadatenImagesHelper(prefs, dd);
+                    mih.createPagination(process, null);
+                    timer.success();
+                }
+                try {
+                    process.writeMetadataFile(ff);
+                } catch (UGHException | IOException | SwapException e) {
+                    log.error(e);
+                }
+            }
+            return ff;
+        } catch (SwapException | DAOException | TypeNotAllowedForParentException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<TechnicalNote> getTechnicalNotes() {
+        return Optional.ofNullable(process.getJournal())
+                .map(j -> j.stream()
+                        .filter(e -> e.getType() == LogType.IMPORTANT_USER)
+                        .map(e -> new TechnicalNote(e.getFormattedCreationDate(), e.getType().getTitle(), e.getFormattedContent()))
+                        .toList())
+                .orElse(List.of());
+    }
+
+    @Override
+    public String getProjectSetting(String name) {
+        Project project = process.getProjekt();
+        return switch (name) {
+            case "metsPointerPath" -> project.getMetsPointerPath();
+            case "metsPointerPathAnchor" -> project.getMetsPointerPathAnchor();
+            case "rightsOwner" -> project.getMetsRightsOwner();
+            case "rightsOwnerLogo" -> project.getMetsRightsOwnerLogo();
+            case "rightsOwnerSiteURL" -> project.getMetsRightsOwnerSite();
+            case "rightsOwnerContact" -> project.getMetsRightsOwnerMail();
+            case "digiprovPresentation" -> project.getMetsDigiprovPresentation();
+            case "digiprovReference" -> project.getMetsDigiprovReference();
+            case "digiprovPresentationAnchor" -> project.getMetsDigiprovPresentationAnchor();
+            case "digiprovReferenceAnchor" -> project.getMetsDigiprovReferenceAnchor();
+            case "rightsLicense" -> project.getMetsRightsLicense();
+            case "rightsSponsor" -> project.getMetsRightsSponsor();
+            case "rightsSponsorLogo" -> project.getMetsRightsSponsorLogo();
+            case "rightsSponsorSiteURL" -> project.getMetsRightsSponsorSiteURL();
+            case "purl" -> project.getMetsPurl();
+            case "contentIds" -> project.getMetsContentIDs();
+            default -> null;
+        };
+    }
+
+    @Override
+    public ExportVariableReplacer createVariableReplacer(DigitalDocument dd, Prefs prefs) {
+        return new VariableReplacer(dd, prefs, process, null)::replace;
+    }
+
+    @Override
+    public void addJournalEntry(LogType type, String message) {
+        Helper.addMessageToProcessJournal(process.getId(), type, message);
+    }
+
+    /**
+     * create the job description to run the export of this process with a standalone worker, a missing pagination is created and saved first
+     *
+     * @return
+     * @throws IOException
+     */
+    public Properties createJob() throws IOException {
+        // the worker cannot create the pagination without the database, therefore it is created and saved here if it is missing
+        try {
+            readMetadataFile(getPreferences());
+        } catch (ReadException | PreferencesException e) {
+            throw new IOException(e);
+        }
+        Properties job = new Properties();
+        job.setProperty(JobExportContext.PROCESS_ID, String.valueOf(process.getId()));
+        job.setProperty(JobExportContext.PROCESS_TITLE, process.getTitel());
+        job.setProperty(JobExportContext.RULESET, ConfigurationHelper.getInstance().getRulesetFolder() + process.getRegelsatz().getDatei());
+        job.setProperty(JobExportContext.IMAGES_ORIG_DIRECTORY, getImagesOrigDirectory());
+        job.setProperty(JobExportContext.OCR_TXT_DIRECTORY, getOcrTxtDirectory());
+        job.setProperty(JobExportContext.OCR_ALTO_DIRECTORY, getOcrAltoDirectory());
+        job.setProperty(JobExportContext.OCR_PDF_DIRECTORY, getOcrPdfDirectory());
+        job.setProperty(JobExportContext.PROCESS_DATA_DIRECTORY, getProcessDataDirectory());
+        try {
+            job.setProperty(JobExportContext.METADATA_FILE, process.getMetadataFilePath());
+        } catch (SwapException e) {
+            throw new IOException(e);
+        }
+        for (String name : PROJECT_SETTINGS) {
+            String value = getProjectSetting(name);
+            if (value != null) {
+                job.setProperty(JobExportContext.PROJECT_PREFIX + name, value);
+            }
+        }
+        if (process.getEigenschaften() != null) {
+            for (Processproperty property : process.getEigenschaften()) {
+                if (property.getTitel() != null && property.getWert() != null) {
+                    job.setProperty(JobExportContext.PROPERTY_PREFIX + property.getTitel(), property.getWert());
+                }
+            }
+        }
+        int counter = 0;
+        for (TechnicalNote note : getTechnicalNotes()) {
+            counter++;
+            job.setProperty(JobExportContext.NOTE_PREFIX + counter + ".date", note.getDate());
+            job.setProperty(JobExportContext.NOTE_PREFIX + counter + ".type", note.getType());
+            job.setProperty(JobExportContext.NOTE_PREFIX + counter + ".content", note.getContent());
+        }
+        return job;
+    }
+}
@@ -0,0 +1,16 @@
+package de.intranda.goobi.plugins;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Journal entry of a process to be exported as technical note
+ */
+@Data
+@AllArgsConstructor
+public class TechnicalNote {
+
+    private String date;
+    private String type;
+    private String content;
+}
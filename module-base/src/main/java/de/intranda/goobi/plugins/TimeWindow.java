@@ -0,0 +1,45 @@
+package de.intranda.goobi.plugins;
+
+import java.time.LocalTime;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Range of the time of day, the range ends on the next day if to is before from. If from and to are equal, the range covers the whole day.
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+public class TimeWindow {
+
+    private LocalTime from;
+    private LocalTime to;
+
+    /**
+     * read the attributes from and to of a configuration element
+     *
+     * @param config
+     * @return
+     * @throws java.time.format.DateTimeParseException if a time is not given as HH:mm
+     */
+    public static TimeWindow read(HierarchicalConfiguration config) {
+        return new TimeWindow(LocalTime.parse(config.getString("@from", "00:00")), LocalTime.parse(config.getString("@to", "00:00")));
+    }
+
+    public boolean contains(LocalTime time) {
+        if (from.isBefore(to)) {
+            return !time.isBefore(from) && time.isBefore(to);
+        }
+        // the range ends on the next day
+        return !time.isBefore(from) || time.isBefore(to);
+    }
+
+    @Override
+    public String toString() {
+        return from + "-" + to;
+    }
+}
@@ -0,0 +1,443 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.lang.StringUtils;
+
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.ExportReport;
+import de.sub.goobi.helper.StorageProvider;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Copies ALTO files and replaces the references to the original image names with the new names of the export. The file name inside of
+ * sourceImageInformation is replaced with the new image name, and the original name is replaced in all ID and reference attributes where it is a
+ * whole token or a prefix, delimited by _, - or a space. The file is streamed, everything else is copied unchanged.
+ *
+ * Optionally the {@link AltoStatistics} of each file are collected from the same stream, also if the files are copied without rewriting.
+ */
+@Log4j2
+public class AltoRewriter {
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private String imageExtension;
+
+    // statistics by the new name of the page, null if no statistics are collected
+    @Getter
+    private Map<String, AltoStatistics> statistics;
+
+    /**
+     * Constructor
+     *
+     * @param imageExtension extension of the exported images, used for the file name inside of sourceImageInformation
+     */
+    public AltoRewriter(String imageExtension) {
+        this(imageExtension, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param imageExtension extension of the exported images, used for the file name inside of sourceImageInformation
+     * @param collectStatistics true to collect the OCR statistics of each file
+     */
+    public AltoRewriter(String imageExtension, boolean collectStatistics) {
+        this.imageExtension = imageExtension;
+        if (collectStatistics) {
+            statistics = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * check if the ALTO files shall be rewritten, configured in the element alto
+     *
+     * @param config
+     * @return
+     */
+    public static boolean isEnabled(XMLConfiguration config) {
+        return config.getBoolean("/alto/@rewrite", true);
+    }
+
+    /**
+     * check if the OCR statistics shall be collected, configured in the element alto
+     *
+     * @param config
+     * @return
+     */
+    public static boolean isStatisticsEnabled(XMLConfiguration config) {
+        return config.getBoolean("/alto/@statistics", false);
+    }
+
+    /**
+     * copy the ALTO files of a folder into the target folder, the files are rewritten unless disabled in the configuration
+     *
+     * @param config
+     * @param report
+     * @param exporter
+     * @param altoFolder
+     * @param fileMap
+     * @param targetFolder
+     * @return the OCR statistics by the new name of the page, empty if the statistics are disabled
+     * @throws IOException
+     */
+    public static Map<String, AltoStatistics> copyFolder(XMLConfiguration config, ExportReport report, String exporter, String altoFolder,
+            Map<String, String> fileMap, String targetFolder) throws IOException {
+        boolean collectStatistics = isStatisticsEnabled(config);
+        AltoRewriter rewriter = new AltoRewriter("tif", collectStatistics);
+        if (isEnabled(config)) {
+            AdmBsmeExportHelper.copyFolderContent(report, exporter, altoFolder, "xml", fileMap, targetFolder, rewriter::rewrite);
+        } else if (collectStatistics) {
+            AdmBsmeExportHelper.copyFolderContent(report, exporter, altoFolder, "xml", fileMap, targetFolder, rewriter::copy);
+        } else {
+            AdmBsmeExportHelper.copyFolderContent(report, exporter, altoFolder, "xml", fileMap, targetFolder);
+        }
+        return collectStatistics ? rewriter.getStatistics() : Collections.emptyMap();
+    }
+
+    /**
+     * rewrite an ALTO file, the old and the new name are taken from the file names of source and target
+     *
+     * @param source
+     * @param target
+     * @throws IOException
+     */
+    public void rewrite(Path source, Path target) throws IOException {
+        String oldName = getBaseName(source);
+        String newName = getBaseName(target);
+        AltoStatistics pageStatistics = statistics == null ? null : new AltoStatistics();
+        try (InputStream in = new BufferedInputStream(StorageProvider.getInstance().newInputStream(source), BUFFER_SIZE);
+                OutputStream out = Files.newOutputStream(target)) {
+            rewrite(in, out, oldName, newName, pageStatistics);
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot rewrite ALTO file " + source, e);
+        }
+        if (pageStatistics != null) {
+            statistics.put(newName, pageStatistics);
+        }
+    }
+
+    /**
+     * copy an ALTO file unchanged and collect the statistics from the copied bytes, a file that cannot be parsed is still copied completely
+     *
+     * @param source
+     * @param target
+     * @throws IOException
+     */
+    public void copy(Path source, Path target) throws IOException {
+        AltoStatistics pageStatistics = new AltoStatistics();
+        try (InputStream in = StorageProvider.getInstance().newInputStream(source); OutputStream out = Files.newOutputStream(target)) {
+            TeeInputStream tee = new TeeInputStream(in, out);
+            try {
+                collect(new BufferedInputStream(tee, BUFFER_SIZE), pageStatistics);
+            } catch (XMLStreamException e) {
+                log.warn("Cannot read the OCR statistics of ALTO file " + source + ": " + e.getMessage());
+                pageStatistics = null;
+            }
+            // the parser may stop before the end of the file, the bytes in its buffer are already written
+            tee.transferTo(OutputStream.nullOutputStream());
+        }
+        if (pageStatistics != null && statistics != null) {
+            statistics.put(getBaseName(target), pageStatistics);
+        }
+    }
+
+    /**
+     * collect the statistics of an ALTO document without writing it
+     *
+     * @param in
+     * @param pageStatistics
+     * @throws XMLStreamException
+     */
+    public static void collect(InputStream in, AltoStatistics pageStatistics) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    pageStatistics.update(reader);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * rewrite an ALTO document, the result is always written in UTF-8
+     *
+     * @param in
+     * @param out
+     * @param oldName original name of the page without extension
+     * @param newName new name of the page without extension
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void rewrite(InputStream in, OutputStream out, String oldName, String newName) throws XMLStreamException, IOException {
+        rewrite(in, out, oldName, newName, null);
+    }
+
+    /**
+     * rewrite an ALTO document and collect its statistics, the result is always written in UTF-8
+     *
+     * @param in
+     * @param out
+     * @param oldName original name of the page without extension
+     * @param newName new name of the page without extension
+     * @param pageStatistics statistics to fill, or null
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void rewrite(InputStream in, OutputStream out, String oldName, String newName, AltoStatistics pageStatistics)
+            throws XMLStreamException, IOException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+        // the elements are serialized directly, the XMLStreamWriter of the JDK is much slower than the reader
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            boolean inFileName = false;
+            boolean emptyElement = false;
+            writer.write("<?xml version=\"" + (reader.getVersion() == null ? "1.0" : reader.getVersion()) + "\" encoding=\"UTF-8\"?>\n");
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (emptyElement && event != XMLStreamConstants.END_ELEMENT) {
+                    writer.write('>');
+                    emptyElement = false;
+                }
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        writeStartElement(reader, writer, oldName, newName);
+                        emptyElement = true;
+                        if (pageStatistics != null) {
+                            pageStatistics.update(reader);
+                        }
+                        if ("fileName".equals(reader.getLocalName())) {
+                            inFileName = true;
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        if (inFileName) {
+                            if (emptyElement) {
+                                writer.write('>');
+                                emptyElement = false;
+                            }
+                            writeEscaped(writer, newName + "." + imageExtension, false);
+                            inFileName = false;
+                        }
+                        if (emptyElement) {
+                            writer.write("/>");
+                            emptyElement = false;
+                        } else {
+                            writer.write("</");
+                            writer.write(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+                            writer.write('>');
+                        }
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+                        // the original file name is replaced
+                        if (!inFileName) {
+                            writeEscaped(writer, reader.getText(), false);
+                        }
+                    }
+                    case XMLStreamConstants.CDATA -> {
+                        writer.write("<![CDATA[");
+                        writer.write(reader.getText());
+                        writer.write("]]>");
+                    }
+                    case XMLStreamConstants.COMMENT -> {
+                        writer.write("<!--");
+                        writer.write(reader.getText());
+                        writer.write("-->");
+                    }
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION -> {
+                        writer.write("<?");
+                        writer.write(reader.getPITarget());
+                        if (StringUtils.isNotEmpty(reader.getPIData())) {
+                            writer.write(' ');
+                            writer.write(reader.getPIData());
+                        }
+                        writer.write("?>");
+                    }
+                    default -> {
+                        // DTD and entity references are not supported by the input factory
+                    }
+                }
+            }
+            writer.write('\n');
+            writer.flush();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void writeStartElement(XMLStreamReader reader, Writer writer, String oldName, String newName) throws IOException {
+        writer.write('<');
+        writer.write(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            writer.write(StringUtils.isEmpty(prefix) ? " xmlns=\"" : " xmlns:" + prefix + "=\"");
+            writeEscaped(writer, reader.getNamespaceURI(i), true);
+            writer.write('"');
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String name = reader.getAttributeLocalName(i);
+            String value = reader.getAttributeValue(i);
+            if (isIdAttribute(name)) {
+                value = replaceName(value, oldName, newName);
+            }
+            writer.write(' ');
+            writer.write(getQualifiedName(reader.getAttributePrefix(i), name));
+            writer.write("=\"");
+            writeEscaped(writer, value, true);
+            writer.write('"');
+        }
+    }
+
+    private static String getQualifiedName(String prefix, String localName) {
+        return StringUtils.isEmpty(prefix) ? localName : prefix + ":" + localName;
+    }
+
+    private static void writeEscaped(Writer writer, String text, boolean attribute) throws IOException {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            String replacement = switch (text.charAt(i)) {
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                case '&' -> "&amp;";
+                case '"' -> attribute ? "&quot;" : null;
+                case '\n' -> attribute ? "&#10;" : null;
+                case '\r' -> "&#13;";
+                case '\t' -> attribute ? "&#9;" : null;
+                default -> null;
+            };
+            if (replacement != null) {
+                writer.write(text, start, i - start);
+                writer.write(replacement);
+                start = i + 1;
+            }
+        }
+        writer.write(text, start, text.length() - start);
+    }
+
+    /**
+     * ID, IDNEXT and all references like TAGREFS or STYLEREFS
+     */
+    private static boolean isIdAttribute(String name) {
+        return name.startsWith("ID") || name.endsWith("REFS");
+    }
+
+    /**
+     * replace the old name where it is a whole token or the prefix of a token like 00000007_block_1, but not inside of another name
+     *
+     * @param value
+     * @param oldName
+     * @param newName
+     * @return
+     */
+    static String replaceName(String value, String oldName, String newName) {
+        int index = value.indexOf(oldName);
+        if (index < 0 || oldName.isEmpty()) {
+            return value;
+        }
+        StringBuilder result = null;
+        int start = 0;
+        while (index >= 0) {
+            int end = index + oldName.length();
+            if (isDelimiter(value, index - 1) && isDelimiter(value, end)) {
+                if (result == null) {
+                    result = new StringBuilder(value.length() + newName.length());
+                }
+                result.append(value, start, index).append(newName);
+                start = end;
+                index = value.indexOf(oldName, end);
+            } else {
+                index = value.indexOf(oldName, index + 1);
+            }
+        }
+        return result == null ? value : result.append(value, start, value.length()).toString();
+    }
+
+    private static boolean isDelimiter(String value, int index) {
+        if (index < 0 || index >= value.length()) {
+            return true;
+        }
+        char c = value.charAt(index);
+        return c == '_' || c == '-' || Character.isWhitespace(c);
+    }
+
+    private static String getBaseName(Path file) {
+        String name = file.getFileName().toString();
+        return name.contains(".") ? name.substring(0, name.indexOf(".")) : name;
+    }
+
+    /**
+     * writes all bytes read from the stream into the output, closing is left to the owner of the streams because the parser closes its input
+     */
+    private static class TeeInputStream extends FilterInputStream {
+
+        private OutputStream out;
+
+        TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                out.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                out.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes must be copied as well
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public void close() {
+            // the streams are closed by the owner
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
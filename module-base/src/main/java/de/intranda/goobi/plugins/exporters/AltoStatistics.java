@@ -0,0 +1,134 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.jdom2.Document;
+import org.jdom2.Element;
+
+import lombok.Getter;
+
+/**
+ * OCR statistics of a single ALTO file: the number of words, the average word confidence and the most frequent language. The values are
+ * collected from the start elements of the reader that copies or rewrites the file, so no additional read is needed.
+ */
+public class AltoStatistics {
+
+    @Getter
+    private int words;
+    @Getter
+    private int confidenceCount;
+    @Getter
+    private double confidenceSum;
+
+    private Map<String, Integer> languages = new HashMap<>();
+
+    // the language is inherited from the block to the line and from the line to the string
+    private String blockLanguage;
+    private String lineLanguage;
+
+    /**
+     * collect the values of the current start element
+     *
+     * @param reader
+     */
+    public void update(XMLStreamReader reader) {
+        switch (reader.getLocalName()) {
+            case "TextBlock" -> {
+                blockLanguage = reader.getAttributeValue(null, "LANG");
+                lineLanguage = blockLanguage;
+            }
+            case "TextLine" -> lineLanguage = StringUtils.defaultIfBlank(reader.getAttributeValue(null, "LANG"), blockLanguage);
+            case "String" -> addWord(StringUtils.defaultIfBlank(reader.getAttributeValue(null, "LANG"), lineLanguage),
+                    reader.getAttributeValue(null, "WC"));
+            default -> {
+                // other elements do not contain words
+            }
+        }
+    }
+
+    void addWord(String language, String confidence) {
+        words++;
+        if (StringUtils.isNotBlank(language)) {
+            languages.merge(language.trim(), 1, Integer::sum);
+        }
+        if (StringUtils.isNotBlank(confidence)) {
+            try {
+                confidenceSum += Double.parseDouble(confidence.trim());
+                confidenceCount++;
+            } catch (NumberFormatException e) {
+                // invalid confidence values are not counted
+            }
+        }
+    }
+
+    /**
+     * average confidence of all words with a WC attribute
+     *
+     * @return the average between 0 and 1, or null if no word has a confidence
+     */
+    public Double getAverageConfidence() {
+        return confidenceCount == 0 ? null : confidenceSum / confidenceCount;
+    }
+
+    /**
+     * the language used for most of the words
+     *
+     * @return the language, or null if no language is given
+     */
+    public String getLanguage() {
+        String language = null;
+        int count = 0;
+        for (Map.Entry<String, Integer> entry : languages.entrySet()) {
+            if (entry.getValue() > count || entry.getValue() == count && entry.getKey().compareTo(language) < 0) {
+                language = entry.getKey();
+                count = entry.getValue();
+            }
+        }
+        return language;
+    }
+
+    /**
+     * add the statistics as elements to a page of the simple xml file, missing values are left out
+     *
+     * @param page
+     */
+    public void addTo(Element page) {
+        page.addContent(new Element("ocrWordCount").setText(String.valueOf(words)));
+        Double confidence = getAverageConfidence();
+        if (confidence != null) {
+            page.addContent(new Element("ocrWordConfidence").setText(String.format(Locale.ENGLISH, "%.3f", confidence)));
+        }
+        String language = getLanguage();
+        if (language != null) {
+            page.addContent(new Element("ocrLanguage").setText(language));
+        }
+    }
+
+    /**
+     * add the statistics to all pages of a simple xml file, the pages are matched by the name of their alto element
+     *
+     * @param doc
+     * @param statistics statistics by the exported file name without extension
+     */
+    public static void addToPages(Document doc, Map<String, AltoStatistics> statistics) {
+        Element pages = doc.getRootElement().getChild("Pages");
+        if (pages == null || statistics.isEmpty()) {
+            return;
+        }
+        for (Element page : pages.getChildren("Page")) {
+            Element alto = page.getChild("alto");
+            if (alto == null) {
+                continue;
+            }
+            AltoStatistics pageStatistics = statistics.get(StringUtils.substringBeforeLast(alto.getText(), "."));
+            if (pageStatistics != null) {
+                pageStatistics.addTo(page);
+            }
+        }
+    }
+}
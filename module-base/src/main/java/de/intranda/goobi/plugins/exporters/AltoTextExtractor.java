@@ -0,0 +1,176 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.intranda.goobi.plugins.AdaptiveConcurrencyLimiter;
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.BandwidthLimiter;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportReport;
+import de.intranda.goobi.plugins.IoWorkers;
+import de.sub.goobi.helper.StorageProvider;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Derives plain text from ALTO files for pages without a plain text OCR result. The ALTO file is streamed, so the memory usage does not depend on
+ * the size of the page. The words are written in the order of the file, one line per TextLine and an empty line between two TextBlocks.
+ */
+@Log4j2
+public class AltoTextExtractor {
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private AltoTextExtractor() {
+    }
+
+    /**
+     * write the text of an ALTO file
+     *
+     * @param alto the ALTO file
+     * @param out
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public static void extract(InputStream alto, Writer out) throws IOException, XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(alto);
+        try {
+            boolean firstBlock = true;
+            boolean lineHasContent = false;
+            boolean pendingSpace = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "TextBlock" -> {
+                            if (!firstBlock) {
+                                out.write('\n');
+                            }
+                            firstBlock = false;
+                        }
+                        case "TextLine" -> {
+                            lineHasContent = false;
+                            pendingSpace = false;
+                        }
+                        case "String" -> {
+                            // some ALTO files do not contain SP elements between the words of a line
+                            if (lineHasContent && pendingSpace) {
+                                out.write(' ');
+                            }
+                            String content = reader.getAttributeValue(null, "CONTENT");
+                            if (content != null) {
+                                out.write(content);
+                                lineHasContent = true;
+                            }
+                            pendingSpace = true;
+                        }
+                        case "SP" -> pendingSpace = true;
+                        case "HYP" -> {
+                            String content = reader.getAttributeValue(null, "CONTENT");
+                            if (content != null) {
+                                out.write(content);
+                            }
+                            pendingSpace = false;
+                        }
+                        default -> {
+                            // other elements do not contain text
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "TextLine".equals(reader.getLocalName())) {
+                    out.write('\n');
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * write the text of an ALTO file into a plain text file in UTF-8
+     *
+     * @param alto
+     * @param text
+     * @throws IOException
+     */
+    public static void writeText(Path alto, Path text) throws IOException {
+        try (InputStream in = StorageProvider.getInstance().newInputStream(alto);
+                Writer out = Files.newBufferedWriter(text, StandardCharsets.UTF_8)) {
+            extract(in, out);
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot read ALTO file " + alto, e);
+        }
+    }
+
+    /**
+     * derive the plain text files for all ALTO files without a plain text file, the files are written in parallel as allowed by the
+     * {@link AdaptiveConcurrencyLimiter} of the copy stage
+     *
+     * @param report
+     * @param exporter
+     * @param altoFolder folder with the ALTO files
+     * @param textFolder folder with the existing plain text files, may be null if no plain text exists at all
+     * @param fileMap new names of the files, or null to keep the names
+     * @param targetFolder
+     * @return the number of derived files
+     * @throws IOException
+     */
+    public static int deriveMissingText(ExportReport report, String exporter, String altoFolder, String textFolder, Map<String, String> fileMap,
+            String targetFolder) throws IOException {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.getStage(AdaptiveConcurrencyLimiter.COPY);
+        try (ExportMetrics.Timer timer = report.time(exporter, "altoText")) {
+            List<Future<Void>> texts = new ArrayList<>();
+            for (Path alto : StorageProvider.getInstance().listFiles(altoFolder)) {
+                String name = alto.getFileName().toString();
+                name = name.substring(0, name.indexOf("."));
+                String targetName = fileMap == null ? name : fileMap.get(name);
+                // skip files that are not mapped or have a plain text already
+                if (targetName == null || textFolder != null && StorageProvider.getInstance().isFileExists(Paths.get(textFolder, name + ".txt"))) {
+                    continue;
+                }
+                Path text = Paths.get(targetFolder, targetName + ".txt");
+                texts.add(IoWorkers.submit(() -> {
+                    long size = StorageProvider.getInstance().getFileSize(alto);
+                    BandwidthLimiter.getInstance().acquire(size);
+                    limiter.acquire();
+                    long start = System.nanoTime();
+                    boolean success = false;
+                    try {
+                        writeText(alto, text);
+                        success = true;
+                    } finally {
+                        limiter.release(System.nanoTime() - start, size, success);
+                    }
+                    report.addFile(exporter, "altoText", text.getFileName().toString(), System.nanoTime() - start, Files.size(text));
+                    return null;
+                }));
+            }
+            AdmBsmeExportHelper.waitForTransfers(texts);
+            if (!texts.isEmpty()) {
+                log.debug("Derived " + texts.size() + " plain text files from ALTO in " + altoFolder);
+            }
+            timer.success();
+            return texts.size();
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
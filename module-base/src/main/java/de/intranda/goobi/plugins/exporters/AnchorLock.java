@@ -0,0 +1,92 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock for a single anchor file. Exports running in the same JVM are serialized by an in-memory lock, exports running in other JVMs or on
+ * other machines by a file lock on a hidden lock file next to the anchor file.
+ */
+public class AnchorLock implements AutoCloseable {
+
+    // file locks are held by the whole JVM, therefore threads of the same JVM need to be serialized separately. An entry is removed as soon as no
+    // thread holds or waits for it, otherwise the map would grow with every anchor file ever exported
+    private static final Map<Path, LocalLock> localLocks = new ConcurrentHashMap<>();
+
+    private Path lockFile;
+    private LocalLock localLock;
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    private AnchorLock(Path lockFile, LocalLock localLock, FileChannel channel, FileLock fileLock) {
+        this.lockFile = lockFile;
+        this.localLock = localLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * wait until the lock for the given anchor file is available and acquire it
+     *
+     * @param anchor the anchor file to lock, does not need to exist yet
+     * @return the lock, must be closed to release it
+     * @throws IOException
+     */
+    public static AnchorLock acquire(Path anchor) throws IOException {
+        Path lockFile = anchor.toAbsolutePath().normalize().resolveSibling("." + anchor.getFileName() + ".lock");
+        LocalLock localLock = localLocks.compute(lockFile, (k, lock) -> {
+            LocalLock used = lock == null ? new LocalLock() : lock;
+            used.users++;
+            return used;
+        });
+        localLock.lock();
+        try {
+            FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                return new AnchorLock(lockFile, localLock, channel, channel.lock());
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            release(lockFile, localLock);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            fileLock.release();
+            channel.close();
+        } finally {
+            release(lockFile, localLock);
+        }
+    }
+
+    private static void release(Path lockFile, LocalLock localLock) {
+        localLock.unlock();
+        localLocks.computeIfPresent(lockFile, (k, lock) -> --lock.users == 0 ? null : lock);
+    }
+
+    /**
+     * get the number of anchor files currently locked or waited for inside of this JVM
+     *
+     * @return
+     */
+    static int getLocalLockCount() {
+        return localLocks.size();
+    }
+
+    // in-memory lock counting the threads holding or waiting for it, the counter is only changed inside of the atomic map operations
+    private static class LocalLock extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+        private int users;
+    }
+}
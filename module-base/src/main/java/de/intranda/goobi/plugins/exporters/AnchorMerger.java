@@ -0,0 +1,421 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.lang.StringUtils;
+
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Merges the volumes of a newly created anchor file into an existing anchor file. The existing file is streamed, everything outside of the list of
+ * volumes inside of the logical structMap is copied unchanged. Volumes are identified by their METS pointer url, optionally a small registry file
+ * next to the anchor keeps the known volumes so that a re-export of a volume does not need to touch the anchor at all. The anchor file is locked
+ * while it gets updated and is always replaced in one step.
+ */
+@Log4j2
+public class AnchorMerger {
+
+    private static final String METS_NS = "http://www.loc.gov/METS/";
+    private static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+    private static final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+    private boolean useRegistry;
+
+    /**
+     * Constructor
+     *
+     * @param useRegistry true if the known volumes shall be kept in a registry file next to the anchor
+     */
+    public AnchorMerger(boolean useRegistry) {
+        this.useRegistry = useRegistry;
+    }
+
+    /**
+     * merge the volumes of the new anchor file into the anchor file in the target folder, the anchor file is created if it does not exist yet. The
+     * anchor file is locked during the merge, so that parallel exports of the same newspaper do not lose any volume.
+     *
+     * @param targetAnchor anchor file in the target folder
+     * @param newAnchor new anchor file containing the volumes to add
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public void mergeInto(Path targetAnchor, Path newAnchor) throws IOException, XMLStreamException {
+        // held until the anchor file is replaced
+        AnchorLock lock = AnchorLock.acquire(targetAnchor);
+        try {
+            if (Files.exists(targetAnchor)) {
+                merge(targetAnchor, newAnchor);
+            } else {
+                Path tempFile = createTempFile(targetAnchor);
+                try {
+                    Files.copy(newAnchor, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                    AdmBsmeExportHelper.moveAtomically(tempFile, targetAnchor);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+                if (useRegistry) {
+                    writeRegistry(getRegistryPath(targetAnchor), targetAnchor, readVolumes(targetAnchor).keySet());
+                }
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * merge the volumes of the new anchor file into the existing one, the caller must hold the lock for the existing anchor file
+     *
+     * @param oldAnchor existing anchor file, gets replaced with the merged result
+     * @param newAnchor new anchor file containing the volumes to add
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private void merge(Path oldAnchor, Path newAnchor) throws IOException, XMLStreamException {
+        Map<String, Volume> newVolumes = readVolumes(newAnchor);
+
+        Path registry = getRegistryPath(oldAnchor);
+        if (useRegistry && readRegistry(registry, oldAnchor).containsAll(newVolumes.keySet())) {
+            // reexport, anchor does not need to be merged
+            log.debug("All volumes are already listed in anchor file " + oldAnchor);
+            return;
+        }
+
+        // write into a temporary file in the same folder and replace the anchor file in one step afterwards
+        Path mergedAnchor = createTempFile(oldAnchor);
+        Set<String> volumeKeys;
+        try {
+            volumeKeys = writeMergedAnchor(oldAnchor, newVolumes, mergedAnchor);
+            AdmBsmeExportHelper.moveAtomically(mergedAnchor, oldAnchor);
+        } finally {
+            Files.deleteIfExists(mergedAnchor);
+        }
+
+        if (useRegistry) {
+            writeRegistry(registry, oldAnchor, volumeKeys);
+        }
+    }
+
+    /**
+     * read all volumes listed in the logical structMap of an anchor file
+     *
+     * @param anchorFile
+     * @return volumes by their key
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    static Map<String, Volume> readVolumes(Path anchorFile) throws IOException, XMLStreamException {
+        Map<String, Volume> volumes = new LinkedHashMap<>();
+        try (InputStream in = Files.newInputStream(anchorFile)) {
+            XMLEventReader reader = inputFactory.createXMLEventReader(in);
+            int depth = 0;
+            int structMapDepth = -1;
+            int anchorDivDepth = -1;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    depth++;
+                    StartElement start = event.asStartElement();
+                    if (anchorDivDepth > 0 && depth == anchorDivDepth + 1 && isMetsElement(start, "div")) {
+                        Volume volume = readVolume(start, reader);
+                        volumes.putIfAbsent(volume.getKey(), volume);
+                        depth--;
+                    } else if (structMapDepth < 0 && isLogicalStructMap(start)) {
+                        structMapDepth = depth;
+                    } else if (structMapDepth > 0 && anchorDivDepth < 0 && depth == structMapDepth + 1 && isMetsElement(start, "div")) {
+                        anchorDivDepth = depth;
+                    }
+                } else if (event.isEndElement()) {
+                    if (depth == anchorDivDepth) {
+                        break;
+                    }
+                    depth--;
+                }
+            }
+            reader.close();
+        }
+        return volumes;
+    }
+
+    /**
+     * copy the existing anchor file into the target file and replace the volume list with the merged and sorted list of volumes
+     *
+     * @param oldAnchor
+     * @param newVolumes
+     * @param target
+     * @return the keys of all volumes of the merged anchor
+     * @throws IOException if the existing anchor file has no logical structMap or no anchor div
+     * @throws XMLStreamException
+     */
+    private Set<String> writeMergedAnchor(Path oldAnchor, Map<String, Volume> newVolumes, Path target) throws IOException, XMLStreamException {
+        Map<String, Volume> volumes = new LinkedHashMap<>();
+        try (InputStream in = Files.newInputStream(oldAnchor); OutputStream out = Files.newOutputStream(target)) {
+            XMLEventReader reader = inputFactory.createXMLEventReader(in);
+            XMLEventWriter writer = outputFactory.createXMLEventWriter(out, StandardCharsets.UTF_8.name());
+            int depth = 0;
+            int structMapDepth = -1;
+            int anchorDivDepth = -1;
+            StartElement anchorDiv = null;
+            boolean merged = false;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    depth++;
+                    StartElement start = event.asStartElement();
+                    if (anchorDivDepth > 0 && depth == anchorDivDepth + 1 && isMetsElement(start, "div")) {
+                        // existing volume, gets written again together with the new ones
+                        Volume volume = readVolume(start, reader);
+                        volumes.putIfAbsent(volume.getKey(), volume);
+                        depth--;
+                        continue;
+                    }
+                    if (!merged && structMapDepth < 0 && isLogicalStructMap(start)) {
+                        structMapDepth = depth;
+                    } else if (structMapDepth > 0 && anchorDivDepth < 0 && depth == structMapDepth + 1 && isMetsElement(start, "div")) {
+                        anchorDivDepth = depth;
+                        anchorDiv = start;
+                    }
+                } else if (event.isEndElement()) {
+                    if (depth == anchorDivDepth) {
+                        newVolumes.forEach(volumes::putIfAbsent);
+                        writeVolumes(writer, anchorDiv, depth, volumes);
+                        anchorDivDepth = -1;
+                        structMapDepth = -1;
+                        merged = true;
+                    }
+                    depth--;
+                } else if (anchorDivDepth > 0 && depth == anchorDivDepth && event.isCharacters() && event.asCharacters().isWhiteSpace()) {
+                    // formatting between the volumes gets created again
+                    continue;
+                }
+                writer.add(event);
+                if (event.isStartDocument()) {
+                    writer.add(eventFactory.createCharacters("\n"));
+                }
+            }
+            writer.flush();
+            writer.close();
+            reader.close();
+            if (!merged) {
+                // the existing anchor file would be replaced by a copy without the new volumes
+                throw new IOException("The anchor file " + oldAnchor + " has no logical structMap with an anchor div");
+            }
+        }
+        return volumes.keySet();
+    }
+
+    /**
+     * write the sorted list of volumes as children of the anchor div
+     *
+     * @param writer
+     * @param anchorDiv start element of the anchor div, used to get the prefixes of the namespaces
+     * @param depth depth of the anchor div
+     * @param volumes
+     * @throws XMLStreamException
+     */
+    private static void writeVolumes(XMLEventWriter writer, StartElement anchorDiv, int depth, Map<String, Volume> volumes)
+            throws XMLStreamException {
+        String metsPrefix = anchorDiv.getName().getPrefix();
+        String xlinkPrefix = anchorDiv.getNamespaceContext().getPrefix(XLINK_NS);
+        List<Namespace> mptrNamespaces = new ArrayList<>();
+        if (xlinkPrefix == null) {
+            xlinkPrefix = "xlink";
+            mptrNamespaces.add(eventFactory.createNamespace(xlinkPrefix, XLINK_NS));
+        }
+        String indent = "\n" + StringUtils.repeat("  ", depth - 1);
+
+        List<Volume> sortedVolumes = new ArrayList<>(volumes.values());
+        sortedVolumes.sort(volumeComparator);
+
+        int logId = 1;
+        for (Volume vol : sortedVolumes) {
+            List<Attribute> attributes = new ArrayList<>();
+            attributes.add(eventFactory.createAttribute("ID", "LOG_" + String.format("%04d", logId++)));
+            if (StringUtils.isNotEmpty(vol.getLabel())) {
+                attributes.add(eventFactory.createAttribute("LABEL", vol.getLabel()));
+            }
+            if (StringUtils.isNotEmpty(vol.getContentids())) {
+                attributes.add(eventFactory.createAttribute("CONTENTIDS", vol.getContentids()));
+            }
+            if (StringUtils.isNotEmpty(vol.getOrder())) {
+                attributes.add(eventFactory.createAttribute("ORDER", vol.getOrder()));
+                attributes.add(eventFactory.createAttribute("ORDERLABEL", vol.getOrder()));
+            }
+            attributes.add(eventFactory.createAttribute("TYPE", vol.getType()));
+
+            String url = vol.getUrl();
+            if (!url.endsWith(".xml")) {
+                url = url + ".xml";
+            }
+            List<Attribute> mptrAttributes = new ArrayList<>();
+            mptrAttributes.add(eventFactory.createAttribute("LOCTYPE", "URL"));
+            mptrAttributes.add(eventFactory.createAttribute(xlinkPrefix, XLINK_NS, "href", url));
+
+            writer.add(eventFactory.createCharacters(indent + "  "));
+            writer.add(eventFactory.createStartElement(metsPrefix, METS_NS, "div", attributes.iterator(), Collections.emptyIterator()));
+            writer.add(eventFactory.createCharacters(indent + "    "));
+            writer.add(eventFactory.createStartElement(metsPrefix, METS_NS, "mptr", mptrAttributes.iterator(), mptrNamespaces.iterator()));
+            writer.add(eventFactory.createEndElement(metsPrefix, METS_NS, "mptr"));
+            writer.add(eventFactory.createCharacters(indent + "  "));
+            writer.add(eventFactory.createEndElement(metsPrefix, METS_NS, "div"));
+        }
+        writer.add(eventFactory.createCharacters(indent));
+    }
+
+    /**
+     * read a single volume div, the reader is positioned after the end of the div afterwards
+     *
+     * @param volumeDiv
+     * @param reader
+     * @return
+     * @throws XMLStreamException
+     */
+    private static Volume readVolume(StartElement volumeDiv, XMLEventReader reader) throws XMLStreamException {
+        String url = "";
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+                StartElement start = event.asStartElement();
+                if (isMetsElement(start, "mptr")) {
+                    url = getAttributeValue(start, new QName(XLINK_NS, "href"));
+                }
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        }
+        return new Volume(getAttributeValue(volumeDiv, new QName("LABEL")), getAttributeValue(volumeDiv, new QName("TYPE")), url,
+                getAttributeValue(volumeDiv, new QName("CONTENTIDS")), getAttributeValue(volumeDiv, new QName("ORDER")));
+    }
+
+    /**
+     * read the keys of the known volumes from the registry file, the registry is ignored if the anchor file was changed by someone else
+     *
+     * @param registry
+     * @param anchor
+     * @return
+     * @throws IOException
+     */
+    private static Set<String> readRegistry(Path registry, Path anchor) throws IOException {
+        Set<String> keys = new HashSet<>();
+        if (!Files.exists(registry)) {
+            return keys;
+        }
+        List<String> lines = Files.readAllLines(registry, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(getRegistryHeader(anchor))) {
+            log.debug("Ignoring outdated volume registry " + registry);
+            return keys;
+        }
+        keys.addAll(lines.subList(1, lines.size()));
+        return keys;
+    }
+
+    private static void writeRegistry(Path registry, Path anchor, Set<String> keys) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(getRegistryHeader(anchor));
+        lines.addAll(keys);
+        Path tempFile = createTempFile(registry);
+        try {
+            Files.write(tempFile, lines, StandardCharsets.UTF_8);
+            AdmBsmeExportHelper.moveAtomically(tempFile, registry);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * create a hidden temporary file next to the given file, so that it can be renamed to the file in one step
+     */
+    private static Path createTempFile(Path file) throws IOException {
+        Path folder = file.toAbsolutePath().getParent();
+        return Files.createTempFile(folder, "." + file.getFileName().toString(), ".tmp");
+    }
+
+    private static String getRegistryHeader(Path anchor) throws IOException {
+        return "# " + Files.size(anchor) + " " + Files.getLastModifiedTime(anchor).toMillis();
+    }
+
+    static Path getRegistryPath(Path anchor) {
+        return anchor.resolveSibling("." + anchor.getFileName().toString().replace(".xml", "") + ".volumes");
+    }
+
+    private static boolean isLogicalStructMap(StartElement start) {
+        return isMetsElement(start, "structMap") && "LOGICAL".equals(getAttributeValue(start, new QName("TYPE")));
+    }
+
+    private static boolean isMetsElement(StartElement start, String name) {
+        return METS_NS.equals(start.getName().getNamespaceURI()) && name.equals(start.getName().getLocalPart());
+    }
+
+    private static String getAttributeValue(StartElement start, QName name) {
+        Attribute attribute = start.getAttributeByName(name);
+        return attribute == null ? "" : attribute.getValue();
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * simple comparator for volumes
+     */
+    private static Comparator<Volume> volumeComparator = (o1, o2) -> {
+        if (StringUtils.isNotEmpty(o1.getOrder()) && StringUtils.isNotEmpty(o2.getOrder())) {
+            return o1.getOrder().compareToIgnoreCase(o2.getOrder());
+        }
+        return o1.getUrl().compareToIgnoreCase(o2.getUrl());
+    };
+
+    @Data
+    @AllArgsConstructor
+    static class Volume {
+        private String label;
+        private String type;
+        private String url;
+        private String contentids;
+        private String order;
+
+        /**
+         * volumes are identified by their url, independent of the file extension
+         */
+        String getKey() {
+            return StringUtils.removeEnd(url.trim(), ".xml");
+        }
+    }
+}
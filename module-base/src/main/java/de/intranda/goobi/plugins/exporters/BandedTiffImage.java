@@ -0,0 +1,254 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Vector;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+
+/**
+ * First image of a file, decoded in bands of full width when an image writer requests the data, so that only one band is in memory at a time.
+ * Optionally each band is averaged into the first reduced level of a pyramid while it is decoded.
+ */
+class BandedTiffImage implements RenderedImage {
+
+    private ImageReader reader;
+    private ColorModel colorModel;
+    private SampleModel sampleModel;
+    private int width;
+    private int height;
+    private int bandHeight;
+    private int bands;
+
+    private int currentBand = -1;
+    private Raster band;
+    private WritableRaster reduced;
+    private boolean[] reducedBands;
+
+    /**
+     * Constructor
+     *
+     * @param reader reader with the file as input
+     * @param type type of the decoded bands
+     * @param width
+     * @param height
+     * @param bandHeight number of rows per band, must be even if the reduced level is needed
+     * @param reduce true to create the first reduced level
+     */
+    BandedTiffImage(ImageReader reader, ImageTypeSpecifier type, int width, int height, int bandHeight, boolean reduce) {
+        this.reader = reader;
+        this.colorModel = type.getColorModel();
+        this.sampleModel = type.getSampleModel().createCompatibleSampleModel(width, bandHeight);
+        this.width = width;
+        this.height = height;
+        this.bandHeight = bandHeight;
+        bands = (height + bandHeight - 1) / bandHeight;
+        if (reduce) {
+            reduced = Raster.createWritableRaster(type.getSampleModel().createCompatibleSampleModel((width + 1) / 2, (height + 1) / 2), null);
+            reducedBands = new boolean[bands];
+        }
+    }
+
+    /**
+     * the first reduced level, complete after the full resolution was written
+     *
+     * @return the level, or null if the image is too small or no reduced level is created
+     * @throws IOException
+     */
+    BufferedImage getReducedLevel() throws IOException {
+        if (reduced == null || width < 2 || height < 2) {
+            return null;
+        }
+        // bands the writer did not request are decoded now
+        for (int i = 0; i < bands; i++) {
+            if (!reducedBands[i]) {
+                loadBand(i);
+            }
+        }
+        return new BufferedImage(colorModel, reduced, colorModel.isAlphaPremultiplied(), null);
+    }
+
+    private Raster loadBand(int index) throws IOException {
+        if (index != currentBand) {
+            int y = index * bandHeight;
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, y, width, Math.min(bandHeight, height - y)));
+            band = reader.read(0, param).getRaster();
+            currentBand = index;
+            if (reduced != null && !reducedBands[index]) {
+                // the band height is even, so each band fills whole rows of the reduced level
+                halve(band, y, y + band.getHeight(), reduced);
+                reducedBands[index] = true;
+            }
+        }
+        return band;
+    }
+
+    /**
+     * average the rows between firstRow and lastRow (exclusive) of the source into the rows firstRow / 2 and following of the target, each
+     * sample is the average of up to four samples
+     */
+    static void halve(Raster source, int firstRow, int lastRow, WritableRaster target) {
+        int width = source.getWidth();
+        int targetWidth = target.getWidth();
+        int[] upper = new int[width];
+        int[] lower = new int[width];
+        int[] averaged = new int[targetWidth];
+        for (int y = firstRow; y < lastRow; y += 2) {
+            boolean twoRows = y + 1 < lastRow;
+            for (int b = 0; b < source.getNumBands(); b++) {
+                source.getSamples(source.getMinX(), source.getMinY() + y - firstRow, width, 1, b, upper);
+                if (twoRows) {
+                    source.getSamples(source.getMinX(), source.getMinY() + y - firstRow + 1, width, 1, b, lower);
+                }
+                for (int x = 0; x < targetWidth; x++) {
+                    int sum = upper[2 * x];
+                    int count = 1;
+                    if (2 * x + 1 < width) {
+                        sum += upper[2 * x + 1];
+                        count++;
+                    }
+                    if (twoRows) {
+                        sum += lower[2 * x];
+                        count++;
+                        if (2 * x + 1 < width) {
+                            sum += lower[2 * x + 1];
+                            count++;
+                        }
+                    }
+                    averaged[x] = (sum + count / 2) / count;
+                }
+                target.setSamples(0, y / 2, targetWidth, 1, b, averaged);
+            }
+        }
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle bounds = rect.intersection(new Rectangle(0, 0, width, height));
+        WritableRaster result =
+                Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(bounds.width, bounds.height), new Point(bounds.x, bounds.y));
+        try {
+            for (int index = bounds.y / bandHeight; index * bandHeight < bounds.y + bounds.height; index++) {
+                result.setRect(0, index * bandHeight, loadBand(index));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read the image data", e);
+        }
+        return result;
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            return (WritableRaster) getData();
+        }
+        raster.setRect(getData(raster.getBounds()));
+        return raster;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return getData(new Rectangle(0, tileY * bandHeight, width, bandHeight));
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return bands;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return bandHeight;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
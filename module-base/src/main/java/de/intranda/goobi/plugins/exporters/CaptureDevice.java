@@ -0,0 +1,54 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.util.Locale;
+
+import org.apache.commons.lang.StringUtils;
+import org.jdom2.Element;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Capture device of a master as written by the camera or scanner: the TIFF tags Make and Model and the serial number of the EXIF or DNG tags.
+ * The tags are read by the {@link TiffValidator} while it checks the masters, so no additional read of the files is needed.
+ */
+@Getter
+@AllArgsConstructor
+public class CaptureDevice {
+
+    private String make;
+    private String model;
+    private String serialNumber;
+
+    /**
+     * make and model of the device, the make is omitted if the model already starts with it
+     *
+     * @return the name, or null if neither tag exists
+     */
+    public String getName() {
+        if (StringUtils.isBlank(model)) {
+            return StringUtils.isBlank(make) ? null : make.trim();
+        }
+        if (StringUtils.isBlank(make) || model.trim().toLowerCase(Locale.ENGLISH).startsWith(make.trim().toLowerCase(Locale.ENGLISH))) {
+            return model.trim();
+        }
+        return make.trim() + " " + model.trim();
+    }
+
+    /**
+     * add the elements ScanningDevice and ScanningDeviceID to a master
+     *
+     * @param master
+     * @param device the device of the master, can be null
+     * @param processDevice the device of the process, used if the master has no device tags
+     */
+    public static void addTo(Element master, CaptureDevice device, String processDevice) {
+        String name = device == null ? null : device.getName();
+        master.addContent(new Element("ScanningDevice").setText(name == null ? processDevice : name));
+        Element id = new Element("ScanningDeviceID");
+        if (device != null && StringUtils.isNotBlank(device.getSerialNumber())) {
+            id.setText(device.getSerialNumber().trim());
+        }
+        master.addContent(id);
+    }
+}
@@ -0,0 +1,348 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.jdom2.Element;
+import org.jdom2.filter.Filters;
+
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.AdmBsmeExportHelper.FileTransfer;
+import de.intranda.goobi.plugins.BandwidthLimiter;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportReport;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Creates web-sized access derivatives of the exported master images, a JPEG file and optionally a JPEG 2000 file next to each master. The
+ * derivatives are decoded from the original master at the same time as it is copied, so the second read of the master is mostly served from
+ * the page cache and the copy on the target share is never read back. All derivatives are encoded in parallel on the pool of the
+ * {@link ImageWorkers}, which is shared by all exports.
+ *
+ * The memory is bounded in two ways: the master is decoded with subsampling to at most twice the size of the derivative, and each encoding takes
+ * permits for its decoded pixels from the derivatives budget of the JVM before it decodes the image. Writing the derivatives takes the bytes from
+ * the {@link BandwidthLimiter}, the bytes of the master are already taken by its copy.
+ */
+@Log4j2
+public class DerivativeGenerator implements AutoCloseable {
+
+    private static final long MB = 1024 * 1024;
+
+    // log the missing JPEG 2000 encoder only once
+    private static final AtomicBoolean jp2Missing = new AtomicBoolean();
+
+    private ExportReport report;
+    private String exporter;
+
+    @Getter
+    private boolean enabled;
+    private int maxSize;
+    private float quality;
+    private boolean jp2;
+
+    private ImageWorkers.MemoryBudget memory;
+
+    // derivatives of wrapped transfers
+    private List<Future<List<Derivative>>> pending = Collections.synchronizedList(new ArrayList<>());
+    // all derivatives of this export, cancelled on close
+    private List<Future<List<Derivative>>> submitted = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * a single derivative of a master
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Derivative {
+        // name of the master without extension
+        private String master;
+        private String fileName;
+        private String mimeType;
+        private int width;
+        private int height;
+    }
+
+    DerivativeGenerator(ExportReport report, String exporter, boolean enabled, int maxSize, float quality, boolean jp2, int memoryMb) {
+        this.report = report;
+        this.exporter = exporter;
+        this.enabled = enabled;
+        this.maxSize = Math.max(1, maxSize);
+        this.quality = Math.max(0f, Math.min(1f, quality));
+        this.jp2 = jp2;
+        if (enabled) {
+            memory = ImageWorkers.getBudget(ImageWorkers.DERIVATIVES, memoryMb);
+        }
+    }
+
+    /**
+     * create a generator with the settings of the element derivatives
+     *
+     * @param config
+     * @param report
+     * @param exporter
+     * @return
+     */
+    public static DerivativeGenerator create(XMLConfiguration config, ExportReport report, String exporter) {
+        return new DerivativeGenerator(report, exporter, config.getBoolean("/derivatives/@enabled", false), config.getInt("/derivatives/@maxSize", 1600),
+                config.getFloat("/derivatives/@quality", 0.85f), config.getBoolean("/derivatives/@jp2", false), config.getInt("/derivatives/@memory", 512));
+    }
+
+    /**
+     * extend a transfer of master files, the derivatives of each master get created in the background while the master is copied
+     *
+     * @param transfer
+     * @return
+     */
+    public FileTransfer wrap(FileTransfer transfer) {
+        if (!enabled) {
+            return transfer;
+        }
+        return (source, target) -> {
+            Future<List<Derivative>> derivatives = submit(source, target);
+            try {
+                transfer.transfer(source, target);
+            } catch (IOException | RuntimeException e) {
+                derivatives.cancel(true);
+                throw e;
+            }
+            pending.add(derivatives);
+        };
+    }
+
+    /**
+     * create the derivatives of a master in the background
+     *
+     * @param master the original master to decode
+     * @param target the exported master, the derivatives get its name and are written into the same folder
+     * @return
+     */
+    public Future<List<Derivative>> submit(Path master, Path target) {
+        Future<List<Derivative>> future = ImageWorkers.getExecutor().submit(() -> encode(master, target));
+        submitted.add(future);
+        return future;
+    }
+
+    /**
+     * wait for all derivatives of wrapped transfers, the first failure is thrown
+     *
+     * @return
+     * @throws IOException
+     */
+    public List<Derivative> await() throws IOException {
+        List<Derivative> derivatives = new ArrayList<>();
+        if (enabled) {
+            List<Future<List<Derivative>>> running;
+            synchronized (pending) {
+                running = new ArrayList<>(pending);
+                pending.clear();
+            }
+            AdmBsmeExportHelper.waitForTransfers(running).forEach(derivatives::addAll);
+        }
+        return derivatives;
+    }
+
+    /**
+     * decode the master and write all derivatives next to the exported master
+     *
+     * @param master
+     * @param target
+     * @return
+     * @throws IOException
+     */
+    List<Derivative> encode(Path master, Path target) throws IOException {
+        String name = target.getFileName().toString();
+        String baseName = name.contains(".") ? name.substring(0, name.lastIndexOf(".")) : name;
+        List<Derivative> derivatives = new ArrayList<>();
+        try (ExportMetrics.Timer timer = report.time(exporter, "derivative", name);
+                ImageInputStream in = ImageIO.createImageInputStream(master.toFile())) {
+            Iterator<ImageReader> readers = in == null ? Collections.emptyIterator() : ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader found for " + master);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                // subsample while decoding, the rest is scaled down with interpolation
+                int subsampling = Math.max(1, Math.max(width, height) / (2 * maxSize));
+                int permits = memory.acquire(getMemoryPermits(width, height, subsampling));
+                try {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    BufferedImage image = scale(reader.read(0, param), maxSize);
+
+                    Path jpeg = target.resolveSibling(baseName + ".jpg");
+                    long start = System.nanoTime();
+                    writeJpeg(image, jpeg);
+                    long written = Files.size(jpeg);
+                    report.addFile(exporter, "derivative.jpg", jpeg.getFileName().toString(), System.nanoTime() - start, written);
+                    // the size of a derivative is only known afterwards, the following transfers wait for its bytes
+                    BandwidthLimiter.getInstance().acquire(written);
+                    derivatives.add(new Derivative(baseName, jpeg.getFileName().toString(), "image/jpeg", image.getWidth(), image.getHeight()));
+
+                    Path jpeg2000 = target.resolveSibling(baseName + ".jp2");
+                    start = System.nanoTime();
+                    if (jp2 && writeJpeg2000(image, jpeg2000)) {
+                        written = Files.size(jpeg2000);
+                        report.addFile(exporter, "derivative.jp2", jpeg2000.getFileName().toString(), System.nanoTime() - start, written);
+                        BandwidthLimiter.getInstance().acquire(written);
+                        derivatives.add(new Derivative(baseName, jpeg2000.getFileName().toString(), "image/jp2", image.getWidth(), image.getHeight()));
+                    }
+                } finally {
+                    memory.release(permits);
+                }
+            } finally {
+                reader.dispose();
+            }
+            timer.success();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for memory to create the derivatives of " + master);
+        }
+        return derivatives;
+    }
+
+    /**
+     * one permit per megabyte of the decoded image and of the scaled copies, at most the whole budget
+     */
+    int getMemoryPermits(int width, int height, int subsampling) {
+        long decoded = (long) ((width + subsampling - 1) / subsampling) * ((height + subsampling - 1) / subsampling) * 4;
+        long bytes = decoded + decoded / 2;
+        return (int) Math.max(1, Math.min(memory.getLimit(), (bytes + MB - 1) / MB));
+    }
+
+    /**
+     * scale an image so that the longer side is at most maxSize, the result is always an RGB or grey image without alpha as required by JPEG
+     *
+     * @param image
+     * @param maxSize
+     * @return
+     */
+    static BufferedImage scale(BufferedImage image, int maxSize) {
+        double factor = Math.min(1.0, (double) maxSize / Math.max(image.getWidth(), image.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        int type = image.getColorModel().getNumColorComponents() == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+
+        // halve the image in steps, a single bilinear step would skip pixels for large factors
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = resize(current, current.getWidth() / 2, current.getHeight() / 2, type);
+        }
+        if (current == image || current.getWidth() != targetWidth || current.getHeight() != targetHeight) {
+            current = resize(current, targetWidth, targetHeight, type);
+        }
+        return current;
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height, int type) {
+        BufferedImage result = new BufferedImage(width, height, type);
+        Graphics2D graphics = result.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return result;
+    }
+
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        write(writer, param, image, target);
+    }
+
+    private static boolean writeJpeg2000(BufferedImage image, Path target) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg2000");
+        if (!writers.hasNext()) {
+            if (!jp2Missing.getAndSet(true)) {
+                log.warn("No JPEG 2000 encoder is installed, only JPEG derivatives are created");
+            }
+            return false;
+        }
+        ImageWriter writer = writers.next();
+        write(writer, writer.getDefaultWriteParam(), image, target);
+        return true;
+    }
+
+    private static void write(ImageWriter writer, ImageWriteParam param, BufferedImage image, Path target) throws IOException {
+        // the file image output stream does not truncate an existing file
+        Files.deleteIfExists(target);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * add the derivatives to the simple xml file, each derivative is added after the master element with the same file name
+     *
+     * @param root
+     * @param derivatives
+     */
+    public static void addToMasters(Element root, List<Derivative> derivatives) {
+        if (derivatives.isEmpty()) {
+            return;
+        }
+        // collect the masters first, the derivatives are added to their parents
+        List<Element> masters = new ArrayList<>();
+        root.getDescendants(Filters.element("master")).forEach(masters::add);
+        for (Element master : masters) {
+            String file = master.getChildText("file");
+            if (file == null || master.getParentElement() == null) {
+                continue;
+            }
+            String baseName = file.contains(".") ? file.substring(0, file.lastIndexOf(".")) : file;
+            Element parent = master.getParentElement();
+            int index = parent.indexOf(master);
+            for (Derivative derivative : derivatives) {
+                if (derivative.getMaster().equals(baseName)) {
+                    Element element = new Element("derivative");
+                    element.addContent(new Element("Format").setText(derivative.getMimeType()));
+                    element.addContent(new Element("Width").setText(String.valueOf(derivative.getWidth())));
+                    element.addContent(new Element("Height").setText(String.valueOf(derivative.getHeight())));
+                    element.addContent(new Element("file").setText(derivative.getFileName()));
+                    parent.addContent(++index, element);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // the pool is shared, only the conversions of this export are stopped
+        synchronized (submitted) {
+            submitted.forEach(future -> future.cancel(true));
+            submitted.clear();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.exceptions.MetadataTypeNotAllowedException;
+
+/**
+ * Read-only view on a digital document for the export. Changes of metadata are not written into the document itself, instead the metadata of the
+ * changed docstruct gets copied on the first change and all further reads of this docstruct return the changed copy. This way the same document can
+ * be used by several exports at the same time.
+ */
+public class DigitalDocumentView {
+
+    private DigitalDocument dd;
+
+    // changed metadata lists by docstruct, docstructs are compared by identity
+    private Map<DocStruct, List<Metadata>> changedMetadata = new IdentityHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param dd the document to export, it is never changed through this view
+     */
+    public DigitalDocumentView(DigitalDocument dd) {
+        this.dd = dd;
+    }
+
+    public DocStruct getLogicalDocStruct() {
+        return dd.getLogicalDocStruct();
+    }
+
+    public DocStruct getPhysicalDocStruct() {
+        return dd.getPhysicalDocStruct();
+    }
+
+    /**
+     * get all metadata of a docstruct including the changes made through this view
+     *
+     * @param ds
+     * @return unmodifiable list of metadata, never null
+     */
+    public List<Metadata> getAllMetadata(DocStruct ds) {
+        List<Metadata> metadata = changedMetadata.get(ds);
+        if (metadata == null) {
+            metadata = ds.getAllMetadata();
+        }
+        return metadata == null ? Collections.emptyList() : Collections.unmodifiableList(metadata);
+    }
+
+    /**
+     * add a new metadata to the docstruct, the type must be allowed for the docstruct in the ruleset just like in
+     * {@link DocStruct#addMetadata(Metadata)}
+     *
+     * @param ds
+     * @param type
+     * @param value
+     * @throws MetadataTypeNotAllowedException if the type is not allowed or is allowed only once and already exists
+     */
+    public void addMetadata(DocStruct ds, MetadataType type, String value) throws MetadataTypeNotAllowedException {
+        String allowedNumber = ds.getType().getNumberOfMetadataType(type);
+        if (allowedNumber == null || "0".equals(allowedNumber)) {
+            throw new MetadataTypeNotAllowedException("Metadata of type " + type.getName() + " is not allowed for " + ds.getType().getName());
+        }
+        if ("1m".equals(allowedNumber) || "1o".equals(allowedNumber)) {
+            for (Metadata md : getAllMetadata(ds)) {
+                if (md.getType().getName().equals(type.getName())) {
+                    throw new MetadataTypeNotAllowedException(
+                            "Metadata of type " + type.getName() + " is allowed only once for " + ds.getType().getName());
+                }
+            }
+        }
+        Metadata md = new Metadata(type);
+        md.setValue(value);
+        getChangeableMetadata(ds).add(md);
+    }
+
+    /**
+     * change the values of all metadata of the given type
+     *
+     * @param ds
+     * @param type
+     * @param function calculates the new value from the old one
+     * @throws MetadataTypeNotAllowedException
+     */
+    public void updateValues(DocStruct ds, MetadataType type, UnaryOperator<String> function) throws MetadataTypeNotAllowedException {
+        for (Metadata md : getChangeableMetadata(ds)) {
+            if (md.getType().getName().equals(type.getName())) {
+                md.setValue(function.apply(md.getValue()));
+            }
+        }
+    }
+
+    /**
+     * get the copy of the metadata of a docstruct, the copy is created on first access
+     */
+    private List<Metadata> getChangeableMetadata(DocStruct ds) throws MetadataTypeNotAllowedException {
+        List<Metadata> metadata = changedMetadata.get(ds);
+        if (metadata == null) {
+            metadata = new ArrayList<>();
+            if (ds.getAllMetadata() != null) {
+                for (Metadata md : ds.getAllMetadata()) {
+                    metadata.add(copyMetadata(md));
+                }
+            }
+            changedMetadata.put(ds, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * create a copy of a single metadata
+     *
+     * @param md
+     * @return
+     * @throws MetadataTypeNotAllowedException
+     */
+    public static Metadata copyMetadata(Metadata md) throws MetadataTypeNotAllowedException {
+        Metadata clone = new Metadata(md.getType());
+        clone.setValue(md.getValue());
+        clone.setAuthorityFile(md.getAuthorityID(), md.getAuthorityURI(), md.getAuthorityValue());
+        return clone;
+    }
+}
@@ -5,33 +5,34 @@ import static de.intranda.goobi.plugins.AdmBsmeExportHelper.createTechnicalNotes
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import org.apache.commons.configuration.XMLConfiguration;
-import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
-import org.goobi.beans.Process;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
 import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.BandwidthLimiter;
+import de.intranda.goobi.plugins.ExportContext;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportStaging;
+import de.intranda.goobi.plugins.ExportVariableReplacer;
+import de.intranda.goobi.plugins.OcrTextMerger;
 import de.sub.goobi.helper.StorageProvider;
-import de.sub.goobi.helper.VariableReplacer;
-import de.sub.goobi.helper.exceptions.DAOException;
-import de.sub.goobi.helper.exceptions.SwapException;
 import de.unigoettingen.sub.commons.contentlib.exceptions.ImageManagerException;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageInterpreter;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageManager;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 import ugh.dl.DigitalDocument;
@@ -43,31 +44,37 @@ import ugh.dl.Reference;
 @Log4j2
 public class GenericExporter {
 
+    private static final String EXPORTER = "AdmGeneric";
+
     private XMLConfiguration config;
-    private Process process;
+    private ExportContext context;
     private Prefs prefs;
     private DigitalDocument dd;
     private String targetFolder;
+    private ExportStaging staging;
 
     // keep a list of all image files as they need to be renamed
     private Map<String, String> fileMap;
-    private VariableReplacer vr;
+    private ExportVariableReplacer vr;
 
     @Getter
     private List<String> problems;
 
+    // devices read from the tags of the masters by file name, see TiffValidator
+    @Setter
+    private Map<String, CaptureDevice> captureDevices = Collections.emptyMap();
+
     /**
      * Constructor
      * 
      * @param config
-     * @param process
+     * @param context
      * @param prefs
      * @param dd
      */
-    public GenericExporter(XMLConfiguration config, Process process, Prefs prefs, DigitalDocument dd) {
+    public GenericExporter(XMLConfiguration config, ExportContext context, Prefs prefs, DigitalDocument dd) {
         this.config = config;
-        config.setExpressionEngine(new XPathExpressionEngine());
-        this.process = process;
+        this.context = context;
         this.prefs = prefs;
         this.dd = dd;
         targetFolder = config.getString("targetDirectoryGeneric", "/opt/digiverso/goobi/output/");
@@ -81,10 +88,27 @@ public class GenericExporter {
      * @return
      */
     public boolean startExport() {
-        vr = new VariableReplacer(dd, prefs, process, null);
+        vr = context.createVariableReplacer(dd, prefs);
         problems = new ArrayList<>();
         fileMap = new HashMap<>();
         log.debug("Export directory for AdmBsmeExportPlugin: " + targetFolder);
+
+        // all files are written into a staging folder first and moved into the target folder at the end
+        try {
+            staging = ExportStaging.create(config, targetFolder);
+        } catch (IOException e) {
+            log.error("Error while creating the staging folder", e);
+            return false;
+        }
+        return staging.finish(writeExportFiles());
+    }
+
+    /**
+     * create all export files inside of the staging folder
+     * 
+     * @return
+     */
+    private boolean writeExportFiles() {
         DocStruct topStruct = dd.getLogicalDocStruct();
 
         // prepare xml document
@@ -137,13 +161,14 @@ public class GenericExporter {
         info.addContent(new Element("Backprint").setText(backprint));
 
         // add all journal entries as technical notes
-        info.addContent(createTechnicalNotesElementFromRelevantJournalEntries(process));
+        info.addContent(createTechnicalNotesElementFromRelevantJournalEntries(context));
 
         // add file information
         Element files = new Element("Files");
         doc.getRootElement().addContent(files);
 
         String ocrFileName = null;
+        boolean ocrFromAlto = false;
         List<Reference> refs = topStruct.getAllToReferences("logical_physical");
         if (refs != null) {
             for (Reference ref : refs) {
@@ -163,9 +188,11 @@ public class GenericExporter {
 
                 // add image information
                 try {
-                    File realFile = new File(process.getImagesOrigDirectory(false),
+                    File realFile = new File(context.getImagesOrigDirectory(),
                             realFileNameWithoutExtension + ".tif");
-                    try (ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
+                    BandwidthLimiter.getInstance().acquire(realFile.length());
+                    try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "imageProbe", realFile.getName());
+                            ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
                         ImageInterpreter si = sourcemanager.getMyInterpreter();
 
                         // MimeType
@@ -188,11 +215,8 @@ public class GenericExporter {
                         // master.setAttribute("ColorSpace", si.getFormatType().getColortype().getLabel());
                         master.addContent(new Element("ColorSpace").setText(si.getFormatType().getColortype().getLabel()));
 
-                        // Scanning device
-                        master.addContent(new Element("ScanningDevice").setText(vr.replace("${process.Capturing device}")));
-
-                        // Scanning device id
-                        master.addContent(new Element("ScanningDeviceID"));
+                        // Scanning device and its id, from the tags of the master or from the process
+                        CaptureDevice.addTo(master, captureDevices.get(realFile.getName()), vr.replace("${process.Capturing device}"));
 
                         // Width
                         master.addContent(new Element("Width").setText(String.valueOf(si.getOriginalImageWidth())));
@@ -200,8 +224,9 @@ public class GenericExporter {
                         // Height
                         master.addContent(new Element("Height").setText(String.valueOf(si.getOriginalImageHeight())));
                         sourcemanager.close();
+                        timer.success();
                     }
-                } catch (IOException | SwapException | DAOException | ImageManagerException e) {
+                } catch (IOException | ImageManagerException e) {
                     log.error("Error while reading image metadata", e);
                     return false;
                 }
@@ -211,11 +236,16 @@ public class GenericExporter {
 
                 // add ocr entry if any ocr result is available
                 try {
-                    if (!StorageProvider.getInstance().listFiles(process.getOcrTxtDirectory()).isEmpty()) {
+                    if (!StorageProvider.getInstance().listFiles(context.getOcrTxtDirectory()).isEmpty()) {
+                        files.addContent(new Element("text").setText(exportFileName + ".txt").setAttribute("Format", "text/plain"));
+                        ocrFileName = exportFileName + ".txt";
+                    } else if (!StorageProvider.getInstance().listFiles(context.getOcrAltoDirectory()).isEmpty()) {
+                        // the plain text gets derived from ALTO
                         files.addContent(new Element("text").setText(exportFileName + ".txt").setAttribute("Format", "text/plain"));
                         ocrFileName = exportFileName + ".txt";
+                        ocrFromAlto = true;
                     }
-                } catch (IOException | SwapException e) {
+                } catch (IOException e) {
                     log.error("Error while reading image metadata", e);
                     return false;
                 }
@@ -225,25 +255,34 @@ public class GenericExporter {
             }
         }
 
+        TiffRecompressor recompressor = TiffRecompressor.create(config, context.getReport(), EXPORTER);
         // first do image and ocr copy work
-        try {
-            // copy all important files to target folder
-            AdmBsmeExportHelper.copyFolderContent(process.getImagesOrigDirectory(false), "tif", fileMap, targetFolder);
-            if (ocrFileName != null) {
-                createMergedOcrFile(Path.of(process.getOcrTxtDirectory()), Path.of(targetFolder, ocrFileName));
+        try (DerivativeGenerator derivatives = DerivativeGenerator.create(config, context.getReport(), EXPORTER);
+                PyramidTiffWriter pyramids = PyramidTiffWriter.create(config, context.getReport(), EXPORTER)) {
+            // copy all important files to target folder, the access derivatives are created from the masters while they are copied, the pyramids from the copies
+            AdmBsmeExportHelper.copyFolderContent(context.getReport(), EXPORTER, context.getImagesOrigDirectory(), "tif", fileMap, staging.getPath(),
+                    derivatives.wrap(pyramids.wrap(recompressor.wrap(StorageProvider.getInstance()::copyFile))));
+            if (ocrFileName != null && ocrFromAlto) {
+                createMergedOcrFileFromAlto(Path.of(staging.getPath(), ocrFileName));
+            } else if (ocrFileName != null) {
+                createMergedOcrFile(Path.of(context.getOcrTxtDirectory()), Path.of(staging.getPath(), ocrFileName));
             }
+            DerivativeGenerator.addToMasters(doc.getRootElement(), derivatives.await());
+            DerivativeGenerator.addToMasters(doc.getRootElement(), pyramids.await());
 
-        } catch (IOException | SwapException | DAOException e) {
-            log.error("Error while copying the image files to export folder", e);
+        } catch (IOException e) {
+            log.error("Error while copying the image and ocr files to export folder", e);
             return false;
         }
 
         // write the xml file
         XMLOutputter xmlOutputter = new XMLOutputter();
         xmlOutputter.setFormat(Format.getPrettyFormat());
-        File xmlfile = new File(targetFolder + identifier + ".xml");
-        try (FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
+        File xmlfile = new File(staging.getPath() + identifier + ".xml");
+        try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "simpleXmlWrite", xmlfile.getName());
+                FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
             xmlOutputter.output(doc, fileOutputStream);
+            timer.success();
         } catch (IOException e) {
             log.error("Error writing the simple xml file", e);
             return false;
@@ -252,18 +291,28 @@ public class GenericExporter {
         return true;
     }
 
-    private void createMergedOcrFile(Path scan, Path target) {
+    private void createMergedOcrFile(Path scan, Path target) throws IOException {
+        OcrTextMerger.create(config).merge(context.getReport(), EXPORTER, OcrTextMerger.listInNaturalOrder(scan.toString()), target);
+    }
+
+    /**
+     * derive the plain text of all pages from ALTO into a temporary folder inside of the staging folder and merge it
+     *
+     * @param target
+     * @throws IOException
+     */
+    private void createMergedOcrFileFromAlto(Path target) throws IOException {
+        Path textFolder = Files.createTempDirectory(Path.of(staging.getPath()), ".alto-text");
         try {
-            if (StorageProvider.getInstance().isFileExists(target)) {
-                StorageProvider.getInstance().deleteFile(target);
-            }
-            Charset charset = StandardCharsets.UTF_8;
-            for (Path ocrFile : StorageProvider.getInstance().listFiles(scan.toString())) {
-                List<String> lines = Files.readAllLines(ocrFile, charset);
-                Files.write(target, lines, charset, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            AltoTextExtractor.deriveMissingText(context.getReport(), EXPORTER, context.getOcrAltoDirectory(), null, null, textFolder.toString());
+            createMergedOcrFile(textFolder, target);
+        } finally {
+            try (Stream<Path> texts = Files.list(textFolder)) {
+                for (Path text : texts.toList()) {
+                    Files.delete(text);
+                }
             }
-        } catch (IOException e) {
-            log.error("Error writing combined ocr txt file", e);
+            Files.delete(textFolder);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pool and memory budgets for the image conversions of all exports running inside of the same JVM. The conversions of all exports share
+ * one pool with a thread per core, so parallel exports do not start a pool each.
+ *
+ * There is one memory budget per kind of conversion, e.g. derivatives or pyramids. A conversion takes one permit per megabyte of its decoded
+ * pixels before it decodes the image, the size of a budget is taken from the plugin configuration.
+ */
+public class ImageWorkers {
+
+    public static final String DERIVATIVES = "derivatives";
+    public static final String PYRAMIDS = "pyramids";
+
+    private static final Map<String, MemoryBudget> BUDGETS = new ConcurrentHashMap<>();
+
+    private ImageWorkers() {
+    }
+
+    // created on first use only
+    private static class Pool {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "image-worker-" + THREADS.incrementAndGet());
+            // the pool lives as long as the JVM
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * get the thread pool shared by all image conversions
+     *
+     * @return
+     */
+    public static ExecutorService getExecutor() {
+        return Pool.EXECUTOR;
+    }
+
+    /**
+     * get the memory budget of a kind of conversion
+     *
+     * @param name
+     * @param megabytes size of the budget, replaces the size of a previous call
+     * @return
+     */
+    public static MemoryBudget getBudget(String name, int megabytes) {
+        MemoryBudget budget = BUDGETS.computeIfAbsent(name, n -> new MemoryBudget());
+        budget.setLimit(megabytes);
+        return budget;
+    }
+
+    /**
+     * memory budget in megabytes, a request larger than the whole budget waits until the budget is unused
+     */
+    public static class MemoryBudget {
+
+        private int limit = 1;
+        private int used;
+
+        private synchronized void setLimit(int megabytes) {
+            limit = Math.max(1, megabytes);
+            notifyAll();
+        }
+
+        public synchronized int getLimit() {
+            return limit;
+        }
+
+        /**
+         * wait until the given number of permits is available
+         *
+         * @param permits
+         * @return the number of permits taken, at most the whole budget
+         * @throws InterruptedException
+         */
+        public synchronized int acquire(int permits) throws InterruptedException {
+            int taken = Math.max(1, Math.min(limit, permits));
+            while (used > 0 && used + taken > limit) {
+                wait();
+            }
+            used += taken;
+            return taken;
+        }
+
+        /**
+         * return permits taken by {@link #acquire(int)}
+         *
+         * @param permits
+         */
+        public synchronized void release(int permits) {
+            used = Math.max(0, used - permits);
+            notifyAll();
+        }
+    }
+}
@@ -8,30 +8,33 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.apache.commons.configuration.XMLConfiguration;
-import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
 import org.apache.commons.lang.StringUtils;
-import org.goobi.beans.Process;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
 import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.BandwidthLimiter;
+import de.intranda.goobi.plugins.ExportContext;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportStaging;
+import de.intranda.goobi.plugins.ExportVariableReplacer;
+import de.intranda.goobi.plugins.OcrTextMerger;
 import de.intranda.goobi.plugins.PdfIssue;
 import de.sub.goobi.helper.StorageProvider;
-import de.sub.goobi.helper.VariableReplacer;
-import de.sub.goobi.helper.exceptions.DAOException;
-import de.sub.goobi.helper.exceptions.SwapException;
 import de.unigoettingen.sub.commons.contentlib.exceptions.ImageManagerException;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageInterpreter;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageManager;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 import ugh.dl.DigitalDocument;
@@ -43,34 +46,40 @@ import ugh.dl.Reference;
 @Log4j2
 public class MagazineExporter {
 
+    private static final String EXPORTER = "Periodical";
+
     private XMLConfiguration config;
-    private Process process;
+    private ExportContext context;
     private Prefs prefs;
     private DigitalDocument dd;
     private String viewerUrl;
     private String targetFolder;
+    private ExportStaging staging;
     private String pdfCopyFolder;
 
     // keep a list of all image files as they need to be renamed
     private Map<String, String> fileMap;
     private int fileCounter;
-    private VariableReplacer vr;
+    private ExportVariableReplacer vr;
 
     @Getter
     private List<String> problems;
 
+    // devices read from the tags of the masters by file name, see TiffValidator
+    @Setter
+    private Map<String, CaptureDevice> captureDevices = Collections.emptyMap();
+
     /**
      * Constructor
      * 
      * @param config
-     * @param process
+     * @param context
      * @param prefs
      * @param dd
      */
-    public MagazineExporter(XMLConfiguration config, Process process, Prefs prefs, DigitalDocument dd) {
+    public MagazineExporter(XMLConfiguration config, ExportContext context, Prefs prefs, DigitalDocument dd) {
         this.config = config;
-        config.setExpressionEngine(new XPathExpressionEngine());
-        this.process = process;
+        this.context = context;
         this.prefs = prefs;
         this.dd = dd;
         viewerUrl = config.getString("viewerUrl", "https://viewer.goobi.io");
@@ -86,12 +95,29 @@ public class MagazineExporter {
      * @return
      */
     public boolean startExport() {
-        vr = new VariableReplacer(dd, prefs, process, null);
+        vr = context.createVariableReplacer(dd, prefs);
         problems = new ArrayList<>();
         fileMap = new HashMap<>();
         fileCounter = 0;
         log.debug("Export directory for AdmBsmeExportPlugin: " + targetFolder);
 
+        // all files are written into a staging folder first and moved into the target folder at the end
+        try {
+            staging = ExportStaging.create(config, targetFolder);
+        } catch (IOException e) {
+            log.error("Error while creating the staging folder", e);
+            return false;
+        }
+        return staging.finish(writeExportFiles());
+    }
+
+    /**
+     * create all export files inside of the staging folder
+     * 
+     * @return
+     */
+    private boolean writeExportFiles() {
+
         // in case it is an anchor file get the first child
         DocStruct anchor = dd.getLogicalDocStruct();
         DocStruct topStruct;
@@ -137,7 +163,7 @@ public class MagazineExporter {
         // volume.addContent(new Element("Publication_ID").setText(volumeId));
 
         // add all journal entries as technical notes
-        volume.addContent(createTechnicalNotesElementFromRelevantJournalEntries(process));
+        volume.addContent(createTechnicalNotesElementFromRelevantJournalEntries(context));
 
         // add issue information
         Element issue = new Element("issueInfo");
@@ -175,8 +201,8 @@ public class MagazineExporter {
         doc.getRootElement().addContent(files);
 
         PdfIssue pdfi = new PdfIssue();
-        pdfi.setFolder(targetFolder);
-        pdfi.setName(targetFolder + volumeId + ".pdf");
+        pdfi.setFolder(staging.getPath());
+        pdfi.setName(staging.getPath() + volumeId + ".pdf");
 
         List<Reference> refs = topStruct.getAllToReferences("logical_physical");
         if (refs != null) {
@@ -205,13 +231,15 @@ public class MagazineExporter {
 
                 // add image information
                 try {
-                    File realFile = new File(process.getImagesOrigDirectory(false),
+                    File realFile = new File(context.getImagesOrigDirectory(),
                             realFileNameWithoutExtension + ".tif");
-                    txtFile = new File(process.getOcrTxtDirectory(),
+                    txtFile = new File(context.getOcrTxtDirectory(),
                             realFileNameWithoutExtension + ".txt");
-                    altoFile = new File(process.getOcrAltoDirectory(),
+                    altoFile = new File(context.getOcrAltoDirectory(),
                             realFileNameWithoutExtension + ".xml");
-                    try (ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
+                    BandwidthLimiter.getInstance().acquire(realFile.length());
+                    try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "imageProbe", realFile.getName());
+                            ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
                         ImageInterpreter si = sourcemanager.getMyInterpreter();
 
                         // MimeType
@@ -234,11 +262,8 @@ public class MagazineExporter {
                         // master.setAttribute("ColorSpace", si.getFormatType().getColortype().getLabel());
                         master.addContent(new Element("ColorSpace").setText(si.getFormatType().getColortype().getLabel()));
 
-                        // Scanning device
-                        master.addContent(new Element("ScanningDevice").setText(vr.replace("${process.Capturing device}")));
-
-                        // Scanning device id
-                        master.addContent(new Element("ScanningDeviceID"));
+                        // Scanning device and its id, from the tags of the master or from the process
+                        CaptureDevice.addTo(master, captureDevices.get(realFile.getName()), vr.replace("${process.Capturing device}"));
 
                         // Width
                         master.addContent(new Element("Width").setText(String.valueOf(si.getOriginalImageWidth())));
@@ -246,16 +271,17 @@ public class MagazineExporter {
                         // Height
                         master.addContent(new Element("Height").setText(String.valueOf(si.getOriginalImageHeight())));
                         sourcemanager.close();
+                        timer.success();
                     }
-                } catch (IOException | SwapException | DAOException | ImageManagerException e) {
+                } catch (IOException | ImageManagerException e) {
                     log.error("Error while reading image metadata", e);
                     return false;
                 }
 
                 master.addContent(new Element("file").setText(exportFileName + ".tif"));
                 file.addContent(master);
-                // add ocr entry if ocr txt file is available for a page
-                if (StorageProvider.getInstance().isFileExists(txtFile.toPath())) {
+                // add ocr entry if ocr txt file is available for a page or can be derived from ALTO
+                if (StorageProvider.getInstance().isFileExists(txtFile.toPath()) || StorageProvider.getInstance().isFileExists(altoFile.toPath())) {
                     file.addContent(new Element("text").setText(exportFileName + ".txt").setAttribute("Format", "text/plain"));
                 }
                 if (StorageProvider.getInstance().isFileExists(altoFile.toPath())) {
@@ -274,21 +300,45 @@ public class MagazineExporter {
                 .setText(
                         String.valueOf(files.getChildren().size()));
 
-        try {
-            // copy all important files to target folder
-            AdmBsmeExportHelper.copyFolderContent(process.getImagesOrigDirectory(false), "tif", fileMap, targetFolder);
-            AdmBsmeExportHelper.copyFolderContent(process.getOcrAltoDirectory(), "xml", fileMap, targetFolder);
-            AdmBsmeExportHelper.copyFolderContent(process.getOcrTxtDirectory(), "txt", fileMap, targetFolder);
-        } catch (IOException | SwapException | DAOException e) {
+        Map<String, AltoStatistics> altoStatistics = Collections.emptyMap();
+        TiffRecompressor recompressor = TiffRecompressor.create(config, context.getReport(), EXPORTER);
+        try (PyramidTiffWriter pyramids = PyramidTiffWriter.create(config, context.getReport(), EXPORTER)) {
+            // copy all important files to target folder, the pyramids are created from the copies
+            AdmBsmeExportHelper.copyFolderContent(context.getReport(), EXPORTER, context.getImagesOrigDirectory(), "tif", fileMap, staging.getPath(),
+                    pyramids.wrap(recompressor.wrap(StorageProvider.getInstance()::copyFile)));
+            altoStatistics = AltoRewriter.copyFolder(config, context.getReport(), EXPORTER, context.getOcrAltoDirectory(), fileMap,
+                    staging.getPath());
+            AdmBsmeExportHelper.copyFolderContent(context.getReport(), EXPORTER, context.getOcrTxtDirectory(), "txt", fileMap, staging.getPath());
+            // derive the plain text from ALTO for pages without a plain text file
+            AltoTextExtractor.deriveMissingText(context.getReport(), EXPORTER, context.getOcrAltoDirectory(), context.getOcrTxtDirectory(), fileMap,
+                    staging.getPath());
+            DerivativeGenerator.addToMasters(doc.getRootElement(), pyramids.await());
+        } catch (IOException e) {
             log.error("Error while copying the image files to export folder", e);
             return false;
         }
 
+        // write the text of all pages into a single file for the issue
+        OcrTextMerger textMerger = OcrTextMerger.create(config);
+        if (textMerger.isIssueText() && files.getChildren("Page").stream().anyMatch(p -> p.getChild("text") != null)) {
+            try {
+                textMerger.merge(context.getReport(), EXPORTER, pdfi.getTextFiles(), Paths.get(pdfi.getTextFileName()));
+                // directly after the issue file, as for newspapers
+                issue.addContent(issue.indexOf(issue.getChild("issueFile")) + 1,
+                        new Element("issueTextFile").setText(volumeId + ".txt").setAttribute("Format", "text/plain"));
+            } catch (IOException e) {
+                log.error("Error while writing the full text file of the issue", e);
+                return false;
+            }
+        }
+
         // generate PDF files per issue
         try {
             gluePDF(
+                    context.getReport(),
+                    EXPORTER,
                     StorageProvider.getInstance()
-                            .listFiles(process.getOcrPdfDirectory())
+                            .listFiles(context.getOcrPdfDirectory())
                             .stream()
                             .map(p -> new File(p.toString()))
                             .collect(Collectors.toList()),
@@ -296,20 +346,23 @@ public class MagazineExporter {
 
             // if a separate PDF copy shall be stored
             if (StringUtils.isNotBlank(pdfCopyFolder)) {
-                StorageProvider.getInstance().copyFile(Paths.get(pdfi.getName()), Paths.get(pdfCopyFolder, volumeId + ".pdf"));
+                AdmBsmeExportHelper.copyFileAtomically(Paths.get(pdfi.getName()), Paths.get(pdfCopyFolder, volumeId + ".pdf"));
             }
 
-        } catch (IOException | SwapException e) {
+        } catch (IOException e) {
             log.error("Error while generating PDF files", e);
             return false;
         }
 
-        // write the xml file
+        // write the xml file, with the OCR statistics collected while copying the ALTO files
+        AltoStatistics.addToPages(doc, altoStatistics);
         XMLOutputter xmlOutputter = new XMLOutputter();
         xmlOutputter.setFormat(Format.getPrettyFormat());
-        File xmlfile = new File(targetFolder + volumeId + ".xml");
-        try (FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
+        File xmlfile = new File(staging.getPath() + volumeId + ".xml");
+        try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "simpleXmlWrite", xmlfile.getName());
+                FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
             xmlOutputter.output(doc, fileOutputStream);
+            timer.success();
         } catch (IOException e) {
             log.error("Error writing the simple xml file", e);
             return false;
@@ -0,0 +1,139 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import lombok.Getter;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.DocStructType;
+import ugh.exceptions.TypeNotAllowedAsChildException;
+import ugh.exceptions.TypeNotAllowedForParentException;
+
+/**
+ * Builds the month and day structure below a newspaper year and keeps an index of the created nodes by date, so that each issue can be attached to
+ * its day without searching through the children of the year and month elements.
+ */
+public class NewspaperCalendar {
+
+    private DigitalDocument digitalDocument;
+    private DocStruct yearVolume;
+    private DocStructType monthType;
+    private DocStructType dayType;
+
+    // index of the already created month and day elements, key is yyyy-MM or yyyy-MM-dd
+    private Map<String, DocStruct> monthIndex = new HashMap<>();
+    private Map<String, CalendarDay> dayIndex = new HashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param digitalDocument the document the year belongs to
+     * @param yearVolume the year element to add the months to
+     * @param monthType
+     * @param dayType
+     */
+    public NewspaperCalendar(DigitalDocument digitalDocument, DocStruct yearVolume, DocStructType monthType, DocStructType dayType) {
+        this.digitalDocument = digitalDocument;
+        this.yearVolume = yearVolume;
+        this.monthType = monthType;
+        this.dayType = dayType;
+    }
+
+    /**
+     * create the month and day elements for all given dates in chronological order, independent of the order of the issues in the volume
+     *
+     * @param dates dates in format yyyy-MM-dd, duplicates are allowed
+     * @throws TypeNotAllowedForParentException
+     * @throws TypeNotAllowedAsChildException
+     */
+    public void addDates(Collection<String> dates) throws TypeNotAllowedForParentException, TypeNotAllowedAsChildException {
+        for (String date : new TreeSet<>(dates)) {
+            getDay(date);
+        }
+    }
+
+    /**
+     * get the day for the given date, month and day elements get created if they are not available yet
+     *
+     * @param date date in format yyyy-MM-dd
+     * @return
+     * @throws TypeNotAllowedForParentException
+     * @throws TypeNotAllowedAsChildException
+     */
+    public CalendarDay getDay(String date) throws TypeNotAllowedForParentException, TypeNotAllowedAsChildException {
+        CalendarDay day = dayIndex.get(date);
+        if (day != null) {
+            return day;
+        }
+        day = new CalendarDay(date);
+
+        DocStruct month = monthIndex.get(day.getMonth());
+        if (month == null) {
+            month = digitalDocument.createDocStruct(monthType);
+            month.setOrderLabel(day.getMonth());
+            yearVolume.addChild(month);
+            monthIndex.put(day.getMonth(), month);
+        }
+
+        DocStruct dayDocStruct = digitalDocument.createDocStruct(dayType);
+        dayDocStruct.setOrderLabel(date);
+        month.addChild(dayDocStruct);
+        day.setDocStruct(dayDocStruct);
+        dayIndex.put(date, day);
+        return day;
+    }
+
+    /**
+     * create the month and day hierarchy for the stub structure of a single issue file
+     *
+     * @param issueDigDoc the document of the issue
+     * @param issueYear the year element inside of the issue document
+     * @param day the day the issue belongs to
+     * @return the new day element inside of the issue document
+     * @throws TypeNotAllowedForParentException
+     * @throws TypeNotAllowedAsChildException
+     */
+    public DocStruct createStubHierarchy(DigitalDocument issueDigDoc, DocStruct issueYear, CalendarDay day)
+            throws TypeNotAllowedForParentException, TypeNotAllowedAsChildException {
+        issueYear.setOrderLabel(day.getYear());
+
+        DocStruct issueMonth = issueDigDoc.createDocStruct(monthType);
+        issueMonth.setOrderLabel(day.getMonth());
+        issueYear.addChild(issueMonth);
+
+        DocStruct issueDay = issueDigDoc.createDocStruct(dayType);
+        issueDay.setOrderLabel(day.getDate());
+        issueMonth.addChild(issueDay);
+        return issueDay;
+    }
+
+    /**
+     * a single day of the calendar with the date parts already split up
+     */
+    public static class CalendarDay {
+        @Getter
+        private String date;
+        @Getter
+        private String year;
+        @Getter
+        private String month;
+        @Getter
+        private String simpleDate;
+        @Getter
+        private DocStruct docStruct;
+
+        CalendarDay(String date) {
+            this.date = date;
+            year = date.substring(0, 4);
+            month = date.substring(0, 7);
+            simpleDate = date.replace("-", "");
+        }
+
+        void setDocStruct(DocStruct docStruct) {
+            this.docStruct = docStruct;
+        }
+    }
+}
@@ -18,27 +18,33 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.configuration.XMLConfiguration;
-import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
 import org.apache.commons.lang.StringUtils;
-import org.goobi.beans.Process;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
 import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.BandwidthLimiter;
+import de.intranda.goobi.plugins.ExportContext;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportStaging;
+import de.intranda.goobi.plugins.ExportVariableReplacer;
+import de.intranda.goobi.plugins.IoWorkers;
+import de.intranda.goobi.plugins.OcrTextMerger;
 import de.intranda.goobi.plugins.PdfIssue;
 import de.sub.goobi.helper.Helper;
 import de.sub.goobi.helper.StorageProvider;
-import de.sub.goobi.helper.VariableReplacer;
-import de.sub.goobi.helper.exceptions.DAOException;
-import de.sub.goobi.helper.exceptions.SwapException;
 import de.unigoettingen.sub.commons.contentlib.exceptions.ImageManagerException;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageInterpreter;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageManager;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 import ugh.dl.DigitalDocument;
@@ -46,44 +52,47 @@ import ugh.dl.DocStruct;
 import ugh.dl.Metadata;
 import ugh.dl.Prefs;
 import ugh.dl.Reference;
-import ugh.exceptions.MetadataTypeNotAllowedException;
-import ugh.exceptions.PreferencesException;
-import ugh.exceptions.TypeNotAllowedForParentException;
-import ugh.exceptions.WriteException;
 
 @PluginImplementation
 @Log4j2
 public class NewspaperExporter {
 
+    private static final String EXPORTER = "Newspaper";
+
     private XMLConfiguration config;
-    private Process process;
+    private ExportContext context;
     private Prefs prefs;
     private DigitalDocument dd;
     private String viewerUrl;
     private String targetFolder;
+    private ExportStaging staging;
+    private NewspaperMetsCreator metsCreator;
     private String pdfCopyFolder;
 
     // keep a list of all image files as they need to be renamed
     private Map<String, String> fileMap;
     private List<PdfIssue> pdfIssues;
     private int fileCounter;
-    private VariableReplacer vr;
+    private ExportVariableReplacer vr;
 
     @Getter
     private List<String> problems;
 
+    // devices read from the tags of the masters by file name, see TiffValidator
+    @Setter
+    private Map<String, CaptureDevice> captureDevices = Collections.emptyMap();
+
     /**
      * Constructor
      * 
      * @param config
-     * @param process
+     * @param context
      * @param prefs
      * @param dd
      */
-    public NewspaperExporter(XMLConfiguration config, Process process, Prefs prefs, DigitalDocument dd) {
+    public NewspaperExporter(XMLConfiguration config, ExportContext context, Prefs prefs, DigitalDocument dd) {
         this.config = config;
-        config.setExpressionEngine(new XPathExpressionEngine());
-        this.process = process;
+        this.context = context;
         this.prefs = prefs;
         this.dd = dd;
         viewerUrl = config.getString("viewerUrl", "https://viewer.goobi.io");
@@ -100,13 +109,44 @@ public class NewspaperExporter {
      * @return
      */
     public boolean startExport() {
-        vr = new VariableReplacer(dd, prefs, process, null);
+        vr = context.createVariableReplacer(dd, prefs);
         problems = new ArrayList<>();
         fileMap = new HashMap<>();
-        HashMap<String, Document> simpleXmlMap = new HashMap<>();
         fileCounter = 0;
         log.debug("Export directory for AdmBsmeExportPlugin: " + targetFolder);
 
+        // all files are written into a staging folder first and moved into the target folder at the end
+        try {
+            staging = ExportStaging.create(config, targetFolder);
+        } catch (IOException e) {
+            log.error("Error while creating the staging folder", e);
+            return false;
+        }
+        metsCreator = null;
+        boolean success = false;
+        try {
+            success = writeExportFiles();
+        } finally {
+            // the staging folder is removed on any failure, the anchor is only merged once all files of the volume are in the target folder
+            success = staging.finish(success);
+            if (metsCreator != null) {
+                metsCreator.finishAnchor(success);
+                if (metsCreator.getProblems() != null) {
+                    problems.addAll(metsCreator.getProblems());
+                }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * create all export files inside of the staging folder
+     * 
+     * @return
+     */
+    private boolean writeExportFiles() {
+        HashMap<String, Document> simpleXmlMap = new HashMap<>();
+
         // in case it is an anchor file get the first child
         DocStruct anchor = dd.getLogicalDocStruct();
         DocStruct topStruct;
@@ -118,452 +158,557 @@ public class NewspaperExporter {
 
         List<Path> pdfFiles = Collections.emptyList();
         try {
-            pdfFiles = StorageProvider.getInstance().listFiles(process.getOcrPdfDirectory());
-        } catch (IOException | SwapException e) {
+            pdfFiles = StorageProvider.getInstance().listFiles(context.getOcrPdfDirectory());
+        } catch (IOException e) {
             log.warn("Unable to find OCR PDF files", e);
         }
 
-        final String viewerProcessPath = viewerUrl
-                + "/image/"
-                + AdmBsmeExportHelper.getMetdata(topStruct, "CatalogIDDigital").replace("-", "")
-                + "/";
-
-        // run through all NewspaperIssues
-        for (DocStruct ds : topStruct.getAllChildrenAsFlatList()) {
-            if (ds.getType().getName().equals(config.getString("/docstruct/issue"))) {
-                String simpleDate = AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueDate")).replace("-", "");
-
-                // prepare xml document
-                Document doc = new Document();
-                doc.setRootElement(new Element("newspaper"));
-
-                // add volume information
-                Element volume = new Element("volumeInfo");
-                doc.getRootElement().addContent(volume);
-                String volumeId = AdmBsmeExportHelper.getMetdata(topStruct, config.getString("/metadata/identifier"));
-
-                String rightsToUse = vr.replace(config.getString("/rightsToUse"));
-                String rightsDetails = vr.replace(config.getString("/rightsDetails"));
-                String source = vr.replace(config.getString("/source"));
-                String mediaType = vr.replace(config.getString("/mediaType"));
-                String mediaGroup = vr.replace(config.getString("/mediaGroup"));
-                String sourceOrganisation = vr.replace(config.getString("/sourceOrganisation"));
-                String frequency = vr.replace(config.getString("/frequency"));
-                String volumeNumber = vr.replace(config.getString("/volumeNumber"));
-
-                volume.addContent(new Element("Rights_to_Use").setText(rightsToUse));
-                volume.addContent(new Element("Right_Details").setText(rightsDetails));
-                volume.addContent(new Element("Media_Source").setText(source));
-                volume.addContent(new Element("Media_type").setText(mediaType));
-                volume.addContent(new Element("Media_Group").setText(mediaGroup));
-                volume.addContent(new Element("Publication_Name")
-                        .setText(AdmBsmeExportHelper.getMetdata(anchor, config.getString("/metadata/titleLabel"))));
-                volume.addContent(new Element("Language")
-                        .setText(AdmBsmeExportHelper.getLanguageFullname(anchor, config.getString("/metadata/language"))));
-                volume.addContent(
-                        new Element("Source_Organization").setText(sourceOrganisation));
-                volume.addContent(
-                        new Element("Volume_Number").setText(volumeNumber));
-
-                // volume.addContent(new Element("Publication_ID").setText(volumeId));
-
-                // add all journal entries as technical notes
-                volume.addContent(createTechnicalNotesElementFromRelevantJournalEntries(process));
-
-                volume.addContent(new Element("Barcode").setText(volumeId));
-                volume.addContent(new Element("MetadataMetsFile").setText(volumeId + ".xml").setAttribute("Format", "application/xml"));
-
-                // add issue information
-                Element issue = new Element("issueInfo");
-                volume.addContent(issue);
-                issue.addContent(
-                        new Element("issueNumber").setText(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueNumber"))));
-                issue.addContent(new Element("issueID").setText(volumeId + "-" + simpleDate + "-" + "MI"));
-                issue.addContent(new Element("issueFrequency").setText(frequency));
-
-                // get all title information
-                String issueName =
-                        AdmBsmeExportHelper.getCleanIssueLabel(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueName")));
-                String issueTitleEng = AdmBsmeExportHelper.getEnglishPartOfString(issueName);
-                String issueTitleAra = AdmBsmeExportHelper.getArabicPartOfString(issueName);
-
-                // convert date from from yyyy-mm-dd to dd-mm-yyyy
-                String date = AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueDate"));
-                date = AdmBsmeExportHelper.convertDateFormatToDayMonthYear(date);
-
-                // add an English title
-                issue.addContent(new Element("issueTitleENG").setText(issueTitleEng + "-" + date));
-                // add an Arabic title
-                issue.addContent(new Element("issueTitleARA").setText(date + "-" + issueTitleAra));
-
-                issue.addContent(new Element("issueName").setText(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueName"))));
-                issue.addContent(new Element("issueNotes").setText(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueNotes"))));
-
-                issue.addContent(new Element("issueDate").setText(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueDate"))));
-                issue.addContent(new Element("No_of_Pages"));
-                issue.addContent(new Element("Open_In_Viewer").setText(viewerProcessPath
-                        + ds.getAllToReferences()
-                                .getFirst()
-                                .getTarget()
-                                .getAllMetadata()
-                                .stream()
-                                .filter(m -> "physPageNumber".equals(m.getType().getName()))
-                                .findFirst()
-                                .map(Metadata::getValue)
-                                .orElse("")));
-                issue.addContent(
-                        new Element("issueFile").setText(volumeId + "-" + simpleDate + "-MI" + ".pdf").setAttribute("Format", "application/pdf"));
-                issue.addContent(
-                        new Element("MetadataMetsFile").setText(volumeId + "-" + simpleDate + "-mets.xml").setAttribute("Format", "application/xml"));
-
-                // add file information
-                Element files = new Element("Pages");
-                doc.getRootElement().addContent(files);
-
-                PdfIssue pdfi = new PdfIssue();
-                pdfi.setFolder(targetFolder);
-                pdfi.setName(targetFolder + volumeId + "-" + simpleDate + "-" + "MI" + ".pdf");
+        // a full text file is written per issue if configured and if any plain text is available, also if it is derived from ALTO
+        OcrTextMerger textMerger = OcrTextMerger.create(config);
+        boolean issueText = false;
+        if (textMerger.isIssueText()) {
+            try {
+                issueText = !StorageProvider.getInstance().listFiles(context.getOcrTxtDirectory()).isEmpty()
+                        || !StorageProvider.getInstance().listFiles(context.getOcrAltoDirectory()).isEmpty();
+            } catch (IOException e) {
+                log.warn("Unable to find OCR text files", e);
+            }
+        }
 
-                List<Reference> refs = ds.getAllToReferences("logical_physical");
-                if (refs != null) {
-                    for (Reference ref : refs) {
-                        DocStruct page = ref.getTarget();
-                        String realFileName = page.getImageName();
-                        String realFileNameWithoutExtension = realFileName.substring(0, realFileName.indexOf("."));
+        // the new file names are needed by both the METS files and the simple xml files
+        String volumeId = AdmBsmeExportHelper.getMetdata(topStruct, config.getString("/metadata/identifier"));
+        createFileMap(topStruct, volumeId);
+
+        // the METS files are written in parallel to the simple xml files, both only read the digital document
+        NewspaperMetsCreator nmc = new NewspaperMetsCreator(config, context, prefs, dd, fileMap, staging);
+        metsCreator = nmc;
+        // the permit is held while the METS files are written, after a cancel it is taken to wait for the end of the task or to prevent its start
+        Semaphore metsRunning = new Semaphore(1);
+        Future<Boolean> metsExport = IoWorkers.submit(() -> {
+            if (!metsRunning.tryAcquire()) {
+                return false;
+            }
+            try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "metsFile")) {
+                boolean written = nmc.exportMetsFile();
+                if (written) {
+                    timer.success();
+                }
+                return written;
+            } finally {
+                metsRunning.release();
+            }
+        });
 
-                        // get the new file name for the image and reuse if created previously
-                        String exportFileName = fileMap.get(realFileNameWithoutExtension);
-                        if (exportFileName == null) {
-                            String counter = String.format("%04d", ++fileCounter);
-                            exportFileName = volumeId + "-" + counter;
-                            fileMap.put(realFileNameWithoutExtension, exportFileName);
-                        }
-                        pdfi.getFiles().add(exportFileName);
-                        pdfFiles.stream()
-                                .map(Path::toFile)
-                                .filter(f -> f.getName().substring(0, f.getName().lastIndexOf(".")).equals(realFileNameWithoutExtension))
-                                .findFirst()
-                                .ifPresent(pdf -> pdfi.getPdfFiles().add(pdf));
-
-                        // add file element
-                        Element file = new Element("Page");
-                        Element master = new Element("master");
-
-                        // add image information
-                        try {
-                            File realFile = new File(process.getImagesOrigDirectory(false),
-                                    realFileNameWithoutExtension + ".tif");
-                            try (ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
-                                ImageInterpreter si = sourcemanager.getMyInterpreter();
-
-                                // MimeType
-                                // master.setAttribute("Format", si.getFormatType().getFormat().getMimeType());
-                                master.addContent(new Element("Format").setText(si.getFormatType().getFormat().getMimeType()));
-
-                                // Unit for the resolution, always ppi
-                                // master.setAttribute("ResolutionUnit", "PPI");
-                                master.addContent(new Element("ResolutionUnit").setText("PPI"));
-
-                                // Resolution
-                                // master.setAttribute("Resolution", String.valueOf(si.getOriginalImageXResolution()));
-                                master.addContent(new Element("Resolution").setText(String.valueOf(si.getOriginalImageXResolution())));
-
-                                // ColorDepth
-                                // master.setAttribute("BitDepth", String.valueOf(si.getColordepth()));
-                                master.addContent(new Element("BitDepth").setText(String.valueOf(si.getColordepth() * si.getSamplesperpixel())));
-
-                                // bitonal, grey, "color"
-                                // master.setAttribute("ColorSpace", si.getFormatType().getColortype().getLabel());
-                                master.addContent(new Element("ColorSpace").setText(si.getFormatType().getColortype().getLabel()));
-
-                                // Scanning device
-                                master.addContent(new Element("ScanningDevice").setText(vr.replace("${process.Capturing device}")));
-
-                                // Scanning device id
-                                master.addContent(new Element("ScanningDeviceID"));
-
-                                // Width
-                                master.addContent(new Element("Width").setText(String.valueOf(si.getOriginalImageWidth())));
-
-                                // Height
-                                master.addContent(new Element("Height").setText(String.valueOf(si.getOriginalImageHeight())));
-
-                                // Color channels (1 für grey, 3 für RGB,...)
-                                // file.addContent(new
-                                // Element("SamplesPerPixel").setText(String.valueOf(si.getSamplesperpixel())));
-                                // jpeg- oder andere Kompression
-                                // file.addContent(new
-                                // Element("Compression").setText(si.getFormatType().getCompression().name()));
-                                // ColorProfile available
-                                // file.addContent(new
-                                // Element("ColorProfile").setText(String.valueOf(si.getFormatType().isEmbeddedColorProfile())));
-                                sourcemanager.close();
+        try {
+            final String viewerProcessPath = viewerUrl
+                    + "/image/"
+                    + AdmBsmeExportHelper.getMetdata(topStruct, "CatalogIDDigital").replace("-", "")
+                    + "/";
+
+            // run through all NewspaperIssues
+            for (DocStruct ds : topStruct.getAllChildrenAsFlatList()) {
+                if (ds.getType().getName().equals(config.getString("/docstruct/issue"))) {
+                    String simpleDate = AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueDate")).replace("-", "");
+
+                    // prepare xml document
+                    Document doc = new Document();
+                    doc.setRootElement(new Element("newspaper"));
+
+                    // add volume information
+                    Element volume = new Element("volumeInfo");
+                    doc.getRootElement().addContent(volume);
+
+                    String rightsToUse = vr.replace(config.getString("/rightsToUse"));
+                    String rightsDetails = vr.replace(config.getString("/rightsDetails"));
+                    String source = vr.replace(config.getString("/source"));
+                    String mediaType = vr.replace(config.getString("/mediaType"));
+                    String mediaGroup = vr.replace(config.getString("/mediaGroup"));
+                    String sourceOrganisation = vr.replace(config.getString("/sourceOrganisation"));
+                    String frequency = vr.replace(config.getString("/frequency"));
+                    String volumeNumber = vr.replace(config.getString("/volumeNumber"));
+
+                    volume.addContent(new Element("Rights_to_Use").setText(rightsToUse));
+                    volume.addContent(new Element("Right_Details").setText(rightsDetails));
+                    volume.addContent(new Element("Media_Source").setText(source));
+                    volume.addContent(new Element("Media_type").setText(mediaType));
+                    volume.addContent(new Element("Media_Group").setText(mediaGroup));
+                    volume.addContent(new Element("Publication_Name")
+                            .setText(AdmBsmeExportHelper.getMetdata(anchor, config.getString("/metadata/titleLabel"))));
+                    volume.addContent(new Element("Language")
+                            .setText(AdmBsmeExportHelper.getLanguageFullname(anchor, config.getString("/metadata/language"))));
+                    volume.addContent(
+                            new Element("Source_Organization").setText(sourceOrganisation));
+                    volume.addContent(
+                            new Element("Volume_Number").setText(volumeNumber));
+
+                    // volume.addContent(new Element("Publication_ID").setText(volumeId));
+
+                    // add all journal entries as technical notes
+                    volume.addContent(createTechnicalNotesElementFromRelevantJournalEntries(context));
+
+                    volume.addContent(new Element("Barcode").setText(volumeId));
+                    volume.addContent(new Element("MetadataMetsFile").setText(volumeId + ".xml").setAttribute("Format", "application/xml"));
+
+                    // add issue information
+                    Element issue = new Element("issueInfo");
+                    volume.addContent(issue);
+                    issue.addContent(
+                            new Element("issueNumber").setText(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueNumber"))));
+                    issue.addContent(new Element("issueID").setText(volumeId + "-" + simpleDate + "-" + "MI"));
+                    issue.addContent(new Element("issueFrequency").setText(frequency));
+
+                    // get all title information
+                    String issueName =
+                            AdmBsmeExportHelper.getCleanIssueLabel(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueName")));
+                    String issueTitleEng = AdmBsmeExportHelper.getEnglishPartOfString(issueName);
+                    String issueTitleAra = AdmBsmeExportHelper.getArabicPartOfString(issueName);
+
+                    // convert date from from yyyy-mm-dd to dd-mm-yyyy
+                    String date = AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueDate"));
+                    date = AdmBsmeExportHelper.convertDateFormatToDayMonthYear(date);
+
+                    // add an English title
+                    issue.addContent(new Element("issueTitleENG").setText(issueTitleEng + "-" + date));
+                    // add an Arabic title
+                    issue.addContent(new Element("issueTitleARA").setText(date + "-" + issueTitleAra));
+
+                    issue.addContent(new Element("issueName").setText(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueName"))));
+                    issue.addContent(new Element("issueNotes").setText(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueNotes"))));
+
+                    issue.addContent(new Element("issueDate").setText(AdmBsmeExportHelper.getMetdata(ds, config.getString("/metadata/issueDate"))));
+                    issue.addContent(new Element("No_of_Pages"));
+                    issue.addContent(new Element("Open_In_Viewer").setText(viewerProcessPath
+                            + ds.getAllToReferences()
+                                    .getFirst()
+                                    .getTarget()
+                                    .getAllMetadata()
+                                    .stream()
+                                    .filter(m -> "physPageNumber".equals(m.getType().getName()))
+                                    .findFirst()
+                                    .map(Metadata::getValue)
+                                    .orElse("")));
+                    issue.addContent(
+                            new Element("issueFile").setText(volumeId + "-" + simpleDate + "-MI" + ".pdf").setAttribute("Format", "application/pdf"));
+                    if (issueText) {
+                        issue.addContent(new Element("issueTextFile").setText(volumeId + "-" + simpleDate + "-MI" + ".txt")
+                                .setAttribute("Format", "text/plain"));
+                    }
+                    issue.addContent(
+                            new Element("MetadataMetsFile").setText(volumeId + "-" + simpleDate + "-mets.xml").setAttribute("Format", "application/xml"));
+
+                    // add file information
+                    Element files = new Element("Pages");
+                    doc.getRootElement().addContent(files);
+
+                    PdfIssue pdfi = new PdfIssue();
+                    pdfi.setFolder(staging.getPath());
+                    pdfi.setName(staging.getPath() + volumeId + "-" + simpleDate + "-" + "MI" + ".pdf");
+
+                    List<Reference> refs = ds.getAllToReferences("logical_physical");
+                    if (refs != null) {
+                        for (Reference ref : refs) {
+                            DocStruct page = ref.getTarget();
+                            String realFileName = page.getImageName();
+                            String realFileNameWithoutExtension = realFileName.substring(0, realFileName.indexOf("."));
+
+                            // get the new file name for the image
+                            String exportFileName = fileMap.get(realFileNameWithoutExtension);
+                            pdfi.getFiles().add(exportFileName);
+                            pdfFiles.stream()
+                                    .map(Path::toFile)
+                                    .filter(f -> f.getName().substring(0, f.getName().lastIndexOf(".")).equals(realFileNameWithoutExtension))
+                                    .findFirst()
+                                    .ifPresent(pdf -> pdfi.getPdfFiles().add(pdf));
+
+                            // add file element
+                            Element file = new Element("Page");
+                            Element master = new Element("master");
+
+                            // add image information
+                            try {
+                                File realFile = new File(context.getImagesOrigDirectory(),
+                                        realFileNameWithoutExtension + ".tif");
+                                BandwidthLimiter.getInstance().acquire(realFile.length());
+                                try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "imageProbe", realFile.getName());
+                                        ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
+                                    ImageInterpreter si = sourcemanager.getMyInterpreter();
+
+                                    // MimeType
+                                    // master.setAttribute("Format", si.getFormatType().getFormat().getMimeType());
+                                    master.addContent(new Element("Format").setText(si.getFormatType().getFormat().getMimeType()));
+
+                                    // Unit for the resolution, always ppi
+                                    // master.setAttribute("ResolutionUnit", "PPI");
+                                    master.addContent(new Element("ResolutionUnit").setText("PPI"));
+
+                                    // Resolution
+                                    // master.setAttribute("Resolution", String.valueOf(si.getOriginalImageXResolution()));
+                                    master.addContent(new Element("Resolution").setText(String.valueOf(si.getOriginalImageXResolution())));
+
+                                    // ColorDepth
+                                    // master.setAttribute("BitDepth", String.valueOf(si.getColordepth()));
+                                    master.addContent(new Element("BitDepth").setText(String.valueOf(si.getColordepth() * si.getSamplesperpixel())));
+
+                                    // bitonal, grey, "color"
+                                    // master.setAttribute("ColorSpace", si.getFormatType().getColortype().getLabel());
+                                    master.addContent(new Element("ColorSpace").setText(si.getFormatType().getColortype().getLabel()));
+
+                                    // Scanning device and its id, from the tags of the master or from the process
+                                    CaptureDevice.addTo(master, captureDevices.get(realFile.getName()), vr.replace("${process.Capturing device}"));
+
+                                    // Width
+                                    master.addContent(new Element("Width").setText(String.valueOf(si.getOriginalImageWidth())));
+
+                                    // Height
+                                    master.addContent(new Element("Height").setText(String.valueOf(si.getOriginalImageHeight())));
+
+                                    // Color channels (1 für grey, 3 für RGB,...)
+                                    // file.addContent(new
+                                    // Element("SamplesPerPixel").setText(String.valueOf(si.getSamplesperpixel())));
+                                    // jpeg- oder andere Kompression
+                                    // file.addContent(new
+                                    // Element("Compression").setText(si.getFormatType().getCompression().name()));
+                                    // ColorProfile available
+                                    // file.addContent(new
+                                    // Element("ColorProfile").setText(String.valueOf(si.getFormatType().isEmbeddedColorProfile())));
+                                    sourcemanager.close();
+                                    timer.success();
+                                }
+                            } catch (IOException | ImageManagerException e) {
+                                log.error("Error while reading image metadata", e);
+                                return false;
                             }
-                        } catch (IOException | SwapException | DAOException | ImageManagerException e) {
-                            log.error("Error while reading image metadata", e);
-                            return false;
-                        }
 
-                        master.addContent(new Element("file").setText(exportFileName + ".tif"));
-                        file.addContent(master);
-                        file.addContent(new Element("alto").setText(exportFileName + ".xml").setAttribute("Format", "application/xml+alto"));
-                        file.addContent(new Element("text").setText(exportFileName + ".txt").setAttribute("Format", "text/plain"));
-                        files.addContent(file);
+                            master.addContent(new Element("file").setText(exportFileName + ".tif"));
+                            file.addContent(master);
+                            file.addContent(new Element("alto").setText(exportFileName + ".xml").setAttribute("Format", "application/xml+alto"));
+                            file.addContent(new Element("text").setText(exportFileName + ".txt").setAttribute("Format", "text/plain"));
+                            files.addContent(file);
 
+                        }
                     }
-                }
 
-                simpleXmlMap.put(targetFolder + volumeId + "-" + simpleDate + "-MI" + ".xml", doc);
-                pdfIssues.add(pdfi);
-
-                Set<String> supplementPages = new HashSet<>();
-                Set<String> realSupplementPages = new HashSet<>();
-
-                // Export each supplement on its own
-                for (DocStruct supplementDs : ds.getAllChildrenAsFlatList()) {
-                    if (supplementDs.getType().getName().equals(config.getString("/docstruct/supplement"))) {
-                        Document supplementDoc = doc.clone();
-
-                        Set<String> pagesToKeep = new HashSet<>();
-                        List<String> realSupplementPageFileNames = new LinkedList<>();
-                        List<Reference> supplementRefs = supplementDs.getAllToReferences("logical_physical");
-                        if (refs != null) {
-                            for (Reference ref : supplementRefs) {
-                                DocStruct page = ref.getTarget();
-                                String realFileName = page.getImageName();
-                                String realFileNameWithoutExtension = realFileName.substring(0, realFileName.indexOf("."));
-                                pagesToKeep.add(fileMap.get(realFileNameWithoutExtension));
-                                realSupplementPageFileNames.add(realFileNameWithoutExtension);
+                    simpleXmlMap.put(staging.getPath() + volumeId + "-" + simpleDate + "-MI" + ".xml", doc);
+                    pdfIssues.add(pdfi);
+
+                    Set<String> supplementPages = new HashSet<>();
+                    Set<String> realSupplementPages = new HashSet<>();
+
+                    // Export each supplement on its own
+                    for (DocStruct supplementDs : ds.getAllChildrenAsFlatList()) {
+                        if (supplementDs.getType().getName().equals(config.getString("/docstruct/supplement"))) {
+                            Document supplementDoc = doc.clone();
+
+                            Set<String> pagesToKeep = new HashSet<>();
+                            List<String> realSupplementPageFileNames = new LinkedList<>();
+                            List<Reference> supplementRefs = supplementDs.getAllToReferences("logical_physical");
+                            if (refs != null) {
+                                for (Reference ref : supplementRefs) {
+                                    DocStruct page = ref.getTarget();
+                                    String realFileName = page.getImageName();
+                                    String realFileNameWithoutExtension = realFileName.substring(0, realFileName.indexOf("."));
+                                    pagesToKeep.add(fileMap.get(realFileNameWithoutExtension));
+                                    realSupplementPageFileNames.add(realFileNameWithoutExtension);
+                                }
                             }
-                        }
-                        supplementPages.addAll(pagesToKeep);
-                        realSupplementPages.addAll(realSupplementPageFileNames);
-
-                        // Remove all Page elements not belonging to this supplement
-                        List<Element> pages = supplementDoc.getRootElement().getChild("Pages").getChildren("Page");
-                        Iterator<Element> iterator = pages.iterator();
-                        while (iterator.hasNext()) {
-                            Element child = iterator.next();
-                            Element master = child.getChild("master");
-                            if (master != null) {
-                                Element file = master.getChild("file");
-                                if (file == null) {
-                                    iterator.remove();
-                                } else {
-                                    String value = file.getTextTrim();
-                                    String fileNameWithoutExtension = value.substring(0, value.lastIndexOf("."));
-                                    if (!pagesToKeep.contains(fileNameWithoutExtension)) {
+                            supplementPages.addAll(pagesToKeep);
+                            realSupplementPages.addAll(realSupplementPageFileNames);
+
+                            // Remove all Page elements not belonging to this supplement
+                            List<Element> pages = supplementDoc.getRootElement().getChild("Pages").getChildren("Page");
+                            Iterator<Element> iterator = pages.iterator();
+                            while (iterator.hasNext()) {
+                                Element child = iterator.next();
+                                Element master = child.getChild("master");
+                                if (master != null) {
+                                    Element file = master.getChild("file");
+                                    if (file == null) {
                                         iterator.remove();
+                                    } else {
+                                        String value = file.getTextTrim();
+                                        String fileNameWithoutExtension = value.substring(0, value.lastIndexOf("."));
+                                        if (!pagesToKeep.contains(fileNameWithoutExtension)) {
+                                            iterator.remove();
+                                        }
                                     }
                                 }
                             }
-                        }
 
-                        // Generate Page element numbering starting from 1
-                        for (int i = 0; i < pages.size(); i++) {
-                            pages.get(i).setAttribute("pg", String.format("%04d", i + 1));
-                        }
+                            // Generate Page element numbering starting from 1
+                            for (int i = 0; i < pages.size(); i++) {
+                                pages.get(i).setAttribute("pg", String.format("%04d", i + 1));
+                            }
 
-                        // Update No_of_Pages value
-                        supplementDoc.getRootElement()
-                                .getChild("volumeInfo")
-                                .getChild("issueInfo")
-                                .getChild("No_of_Pages")
-                                .setText(
-                                        String.valueOf(supplementDoc.getRootElement()
-                                                .getChild("Pages")
-                                                .getChildren("Page")
-                                                .size()));
-
-                        String suffix = determineSupplementBasedOnIssueName(
-                                Optional.ofNullable(supplementDs.getAllMetadata())
-                                        .map(allMetadata -> allMetadata.stream()
-                                                .filter(m -> "IssueName".equals(m.getType().getName()))
-                                                .findFirst()
-                                                .map(Metadata::getValue)
-                                                .orElse(null))
-                                        .orElse(null));
-
-                        // Create supplement pdf file
-                        PdfIssue pdfs = new PdfIssue();
-                        pdfs.setFolder(targetFolder);
-                        pdfs.setName(targetFolder + volumeId + "-" + simpleDate + "-" + suffix + ".pdf");
-                        for (String supplementPage : realSupplementPageFileNames) {
-                            pdfFiles.stream()
-                                    .map(Path::toFile)
-                                    .filter(f -> f.getName().substring(0, f.getName().lastIndexOf(".")).equals(supplementPage))
-                                    .findFirst()
-                                    .ifPresent(pdf -> pdfs.getPdfFiles().add(pdf));
+                            // Update No_of_Pages value
+                            supplementDoc.getRootElement()
+                                    .getChild("volumeInfo")
+                                    .getChild("issueInfo")
+                                    .getChild("No_of_Pages")
+                                    .setText(
+                                            String.valueOf(supplementDoc.getRootElement()
+                                                    .getChild("Pages")
+                                                    .getChildren("Page")
+                                                    .size()));
+
+                            String suffix = determineSupplementBasedOnIssueName(
+                                    Optional.ofNullable(supplementDs.getAllMetadata())
+                                            .map(allMetadata -> allMetadata.stream()
+                                                    .filter(m -> "IssueName".equals(m.getType().getName()))
+                                                    .findFirst()
+                                                    .map(Metadata::getValue)
+                                                    .orElse(null))
+                                            .orElse(null));
+
+                            // Create supplement pdf file
+                            PdfIssue pdfs = new PdfIssue();
+                            pdfs.setFolder(staging.getPath());
+                            pdfs.setName(staging.getPath() + volumeId + "-" + simpleDate + "-" + suffix + ".pdf");
+                            for (String supplementPage : realSupplementPageFileNames) {
+                                pdfFiles.stream()
+                                        .map(Path::toFile)
+                                        .filter(f -> f.getName().substring(0, f.getName().lastIndexOf(".")).equals(supplementPage))
+                                        .findFirst()
+                                        .ifPresent(pdf -> pdfs.getPdfFiles().add(pdf));
+                                pdfs.getFiles().add(fileMap.get(supplementPage));
+                            }
+                            pdfIssues.add(pdfs);
+
+                            // Update viewer URL
+                            supplementDoc.getRootElement()
+                                    .getChild("volumeInfo")
+                                    .getChild("issueInfo")
+                                    .getChild("Open_In_Viewer")
+                                    .setText(viewerProcessPath
+                                            + supplementDs.getAllToReferences()
+                                                    .getFirst()
+                                                    .getTarget()
+                                                    .getAllMetadata()
+                                                    .stream()
+                                                    .filter(m -> "physPageNumber".equals(m.getType().getName()))
+                                                    .findFirst()
+                                                    .map(Metadata::getValue)
+                                                    .orElse(""));
+
+                            // Update issueID
+                            supplementDoc.getRootElement()
+                                    .getChild("volumeInfo")
+                                    .getChild("issueInfo")
+                                    .getChild("issueID")
+                                    .setText(volumeId + "-" + simpleDate + "-" + suffix);
+
+                            // Update issueFile
+                            supplementDoc.getRootElement()
+                                    .getChild("volumeInfo")
+                                    .getChild("issueInfo")
+                                    .getChild("issueFile")
+                                    .setText(volumeId + "-" + simpleDate + "-" + suffix + ".pdf");
+                            if (issueText) {
+                                supplementDoc.getRootElement()
+                                        .getChild("volumeInfo")
+                                        .getChild("issueInfo")
+                                        .getChild("issueTextFile")
+                                        .setText(volumeId + "-" + simpleDate + "-" + suffix + ".txt");
+                            }
+
+                            // Update issueName
+                            supplementDoc.getRootElement()
+                                    .getChild("volumeInfo")
+                                    .getChild("issueInfo")
+                                    .getChild("issueName")
+                                    .setText(AdmBsmeExportHelper.getMetdata(supplementDs, config.getString("/metadata/issueName")));
+
+                            // Update issueNotes
+                            supplementDoc.getRootElement()
+                                    .getChild("volumeInfo")
+                                    .getChild("issueInfo")
+                                    .getChild("issueNotes")
+                                    .setText(AdmBsmeExportHelper.getMetdata(supplementDs, config.getString("/metadata/issueNotes")));
+
+                            // Update english and arabic titles
+                            String supplementName = AdmBsmeExportHelper
+                                    .getCleanIssueLabel(AdmBsmeExportHelper.getMetdata(supplementDs, config.getString("/metadata/issueName")));
+                            String supplementTitleEng = AdmBsmeExportHelper.getEnglishPartOfString(supplementName);
+                            String supplementTitleAra = AdmBsmeExportHelper.getArabicPartOfString(supplementName);
+                            supplementDoc.getRootElement()
+                                    .getChild("volumeInfo")
+                                    .getChild("issueInfo")
+                                    .getChild("issueTitleENG")
+                                    .setText(supplementTitleEng + "-" + date);
+                            supplementDoc.getRootElement()
+                                    .getChild("volumeInfo")
+                                    .getChild("issueInfo")
+                                    .getChild("issueTitleARA")
+                                    .setText(date + "-" + supplementTitleAra);
+
+                            simpleXmlMap.put(staging.getPath() + volumeId + "-" + simpleDate + "-" + suffix + ".xml", supplementDoc);
                         }
-                        pdfIssues.add(pdfs);
-
-                        // Update viewer URL
-                        supplementDoc.getRootElement()
-                                .getChild("volumeInfo")
-                                .getChild("issueInfo")
-                                .getChild("Open_In_Viewer")
-                                .setText(viewerProcessPath
-                                        + supplementDs.getAllToReferences()
-                                                .getFirst()
-                                                .getTarget()
-                                                .getAllMetadata()
-                                                .stream()
-                                                .filter(m -> "physPageNumber".equals(m.getType().getName()))
-                                                .findFirst()
-                                                .map(Metadata::getValue)
-                                                .orElse(""));
-
-                        // Update issueID
-                        supplementDoc.getRootElement()
-                                .getChild("volumeInfo")
-                                .getChild("issueInfo")
-                                .getChild("issueID")
-                                .setText(volumeId + "-" + simpleDate + "-" + suffix);
-
-                        // Update issueFile
-                        supplementDoc.getRootElement()
-                                .getChild("volumeInfo")
-                                .getChild("issueInfo")
-                                .getChild("issueFile")
-                                .setText(volumeId + "-" + simpleDate + "-" + suffix + ".pdf");
-
-                        // Update issueName
-                        supplementDoc.getRootElement()
-                                .getChild("volumeInfo")
-                                .getChild("issueInfo")
-                                .getChild("issueName")
-                                .setText(AdmBsmeExportHelper.getMetdata(supplementDs, config.getString("/metadata/issueName")));
-
-                        // Update issueNotes
-                        supplementDoc.getRootElement()
-                                .getChild("volumeInfo")
-                                .getChild("issueInfo")
-                                .getChild("issueNotes")
-                                .setText(AdmBsmeExportHelper.getMetdata(supplementDs, config.getString("/metadata/issueNotes")));
-
-                        // Update english and arabic titles
-                        String supplementName = AdmBsmeExportHelper
-                                .getCleanIssueLabel(AdmBsmeExportHelper.getMetdata(supplementDs, config.getString("/metadata/issueName")));
-                        String supplementTitleEng = AdmBsmeExportHelper.getEnglishPartOfString(supplementName);
-                        String supplementTitleAra = AdmBsmeExportHelper.getArabicPartOfString(supplementName);
-                        supplementDoc.getRootElement()
-                                .getChild("volumeInfo")
-                                .getChild("issueInfo")
-                                .getChild("issueTitleENG")
-                                .setText(supplementTitleEng + "-" + date);
-                        supplementDoc.getRootElement()
-                                .getChild("volumeInfo")
-                                .getChild("issueInfo")
-                                .getChild("issueTitleARA")
-                                .setText(date + "-" + supplementTitleAra);
-
-                        simpleXmlMap.put(targetFolder + volumeId + "-" + simpleDate + "-" + suffix + ".xml", supplementDoc);
                     }
-                }
 
-                // Remove all supplement Page elements from the issue
-                List<Element> pages = doc.getRootElement().getChild("Pages").getChildren("Page");
-                Iterator<Element> iterator = pages.iterator();
-                while (iterator.hasNext()) {
-                    Element child = iterator.next();
-                    Element master = child.getChild("master");
-                    if (master != null) {
-                        Element file = master.getChild("file");
-                        if (file == null) {
-                            iterator.remove();
-                        } else {
-                            String value = file.getTextTrim();
-                            String fileNameWithoutExtension = value.substring(0, value.lastIndexOf("."));
-                            if (supplementPages.contains(fileNameWithoutExtension)) {
+                    // Remove all supplement Page elements from the issue
+                    List<Element> pages = doc.getRootElement().getChild("Pages").getChildren("Page");
+                    Iterator<Element> iterator = pages.iterator();
+                    while (iterator.hasNext()) {
+                        Element child = iterator.next();
+                        Element master = child.getChild("master");
+                        if (master != null) {
+                            Element file = master.getChild("file");
+                            if (file == null) {
                                 iterator.remove();
+                            } else {
+                                String value = file.getTextTrim();
+                                String fileNameWithoutExtension = value.substring(0, value.lastIndexOf("."));
+                                if (supplementPages.contains(fileNameWithoutExtension)) {
+                                    iterator.remove();
+                                }
                             }
                         }
                     }
-                }
-                pdfi.getFiles().removeIf(supplementPages::contains);
-                pdfi.getPdfFiles().removeIf(pdf -> realSupplementPages.contains(pdf.getName().substring(0, pdf.getName().lastIndexOf("."))));
+                    pdfi.getFiles().removeIf(supplementPages::contains);
+                    pdfi.getPdfFiles().removeIf(pdf -> realSupplementPages.contains(pdf.getName().substring(0, pdf.getName().lastIndexOf("."))));
 
-                // Generate Page element numbering starting from 1
-                for (int i = 0; i < pages.size(); i++) {
-                    pages.get(i).setAttribute("pg", String.format("%04d", i + 1));
-                }
+                    // Generate Page element numbering starting from 1
+                    for (int i = 0; i < pages.size(); i++) {
+                        pages.get(i).setAttribute("pg", String.format("%04d", i + 1));
+                    }
 
-                // Update No_of_Pages value
-                doc.getRootElement()
-                        .getChild("volumeInfo")
-                        .getChild("issueInfo")
-                        .getChild("No_of_Pages")
-                        .setText(
-                                String.valueOf(pages.size()));
+                    // Update No_of_Pages value
+                    doc.getRootElement()
+                            .getChild("volumeInfo")
+                            .getChild("issueInfo")
+                            .getChild("No_of_Pages")
+                            .setText(
+                                    String.valueOf(pages.size()));
+                }
             }
-        }
 
-        boolean success = true;
+            boolean success = true;
 
-        // write the newspaper METS files
-        try {
-            NewspaperMetsCreator nmc = new NewspaperMetsCreator(config, process, prefs, dd, fileMap);
-            nmc.exportMetsFile();
-        } catch (WriteException | PreferencesException | MetadataTypeNotAllowedException
-                | TypeNotAllowedForParentException | IOException | SwapException | DAOException e) {
-            String message = "Error writing the mets file";
-            log.error(message, e);
-            Helper.setFehlerMeldung(message, e);
-            success = false;
-        }
-
-        // copy all important files to target folder
-        try {
-            AdmBsmeExportHelper.copyFolderContent(process.getImagesOrigDirectory(false), "tif", fileMap, targetFolder);
-            AdmBsmeExportHelper.copyFolderContent(process.getOcrAltoDirectory(), "xml", fileMap, targetFolder);
-            AdmBsmeExportHelper.copyFolderContent(process.getOcrTxtDirectory(), "txt", fileMap, targetFolder);
-        } catch (IOException | SwapException | DAOException e) {
-            String message = "Error while copying the image files to export folder";
-            log.error(message, e);
-            Helper.setFehlerMeldung(message, e);
-            success = false;
-        }
-
-        // generate PDF files per issue
-        for (PdfIssue pi : pdfIssues) {
+            // wait until the newspaper METS files are written
             try {
-                // TODO: Create pdf per issue with correct pages
-                gluePDF(
-                        pi.getPdfFiles(),
-                        new File(pi.getName()));
-
-                // TODO: Create pdf per supplement with correct pages
-
-                // if a separate PDF copy shall be stored
-                if (StringUtils.isNotBlank(pdfCopyFolder) && StorageProvider.getInstance().isFileExists(Paths.get(pi.getName()))) {
-                    StorageProvider.getInstance()
-                            .copyFile(Paths.get(pi.getName()), Paths.get(pdfCopyFolder, Paths.get(pi.getName()).getFileName().toString()));
+                // the METS files are written by this thread if the pool did not start them yet
+                IoWorkers.runIfWaiting(metsExport);
+                if (!metsExport.get()) {
+                    success = false;
                 }
+            } catch (ExecutionException e) {
+                String message = "Error writing the mets file";
+                log.error(message, e.getCause());
+                Helper.setFehlerMeldung(message, e);
+                success = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted while writing the mets file", e);
+                success = false;
+            }
 
+            // copy all important files to target folder
+            Map<String, AltoStatistics> altoStatistics = Collections.emptyMap();
+            List<DerivativeGenerator.Derivative> pyramidFiles = Collections.emptyList();
+            TiffRecompressor recompressor = TiffRecompressor.create(config, context.getReport(), EXPORTER);
+            try (PyramidTiffWriter pyramids = PyramidTiffWriter.create(config, context.getReport(), EXPORTER)) {
+                // the pyramids are created from the copies
+                AdmBsmeExportHelper.copyFolderContent(context.getReport(), EXPORTER, context.getImagesOrigDirectory(), "tif", fileMap, staging.getPath(),
+                        pyramids.wrap(recompressor.wrap(StorageProvider.getInstance()::copyFile)));
+                altoStatistics = AltoRewriter.copyFolder(config, context.getReport(), EXPORTER, context.getOcrAltoDirectory(), fileMap,
+                        staging.getPath());
+                AdmBsmeExportHelper.copyFolderContent(context.getReport(), EXPORTER, context.getOcrTxtDirectory(), "txt", fileMap, staging.getPath());
+                // derive the plain text from ALTO for pages without a plain text file
+                AltoTextExtractor.deriveMissingText(context.getReport(), EXPORTER, context.getOcrAltoDirectory(), context.getOcrTxtDirectory(), fileMap,
+                        staging.getPath());
+                pyramidFiles = pyramids.await();
             } catch (IOException e) {
-                String message = "Error while generating PDF files";
+                String message = "Error while copying the image files to export folder";
                 log.error(message, e);
                 Helper.setFehlerMeldung(message, e);
                 success = false;
             }
-        }
 
-        // finally write all simple xml files
-        for (String key : simpleXmlMap.keySet()) {
-            XMLOutputter xmlOutputter = new XMLOutputter();
-            xmlOutputter.setFormat(Format.getPrettyFormat());
-            File xmlfile = new File(key);
-            try (FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
-                xmlOutputter.output(simpleXmlMap.get(key), fileOutputStream);
+            // generate PDF and full text files per issue, the issues are processed in parallel as allowed by the limiter of the pdf stage
+            List<Future<Void>> pdfExports = new ArrayList<>();
+            boolean writeIssueText = issueText;
+            for (PdfIssue pi : pdfIssues) {
+                pdfExports.add(IoWorkers.submit(() -> {
+                    // TODO: Create pdf per issue with correct pages
+                    gluePDF(
+                            context.getReport(),
+                            EXPORTER,
+                            pi.getPdfFiles(),
+                            new File(pi.getName()));
+
+                    // TODO: Create pdf per supplement with correct pages
+
+                    if (writeIssueText) {
+                        textMerger.merge(context.getReport(), EXPORTER, pi.getTextFiles(), Paths.get(pi.getTextFileName()));
+                    }
+
+                    // if a separate PDF copy shall be stored
+                    if (StringUtils.isNotBlank(pdfCopyFolder) && StorageProvider.getInstance().isFileExists(Paths.get(pi.getName()))) {
+                        AdmBsmeExportHelper.copyFileAtomically(Paths.get(pi.getName()),
+                                Paths.get(pdfCopyFolder, Paths.get(pi.getName()).getFileName().toString()));
+                    }
+                    return null;
+                }));
+            }
+            try {
+                AdmBsmeExportHelper.waitForTransfers(pdfExports);
             } catch (IOException e) {
-                String message = "Error writing the simple xml file";
+                String message = "Error while generating PDF files";
                 log.error(message, e);
                 Helper.setFehlerMeldung(message, e);
                 success = false;
             }
+
+            // finally write all simple xml files, with the OCR statistics collected while copying the ALTO files
+            for (String key : simpleXmlMap.keySet()) {
+                AltoStatistics.addToPages(simpleXmlMap.get(key), altoStatistics);
+                DerivativeGenerator.addToMasters(simpleXmlMap.get(key).getRootElement(), pyramidFiles);
+                XMLOutputter xmlOutputter = new XMLOutputter();
+                xmlOutputter.setFormat(Format.getPrettyFormat());
+                File xmlfile = new File(key);
+                try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "simpleXmlWrite", xmlfile.getName());
+                        FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
+                    xmlOutputter.output(simpleXmlMap.get(key), fileOutputStream);
+                    timer.success();
+                } catch (IOException e) {
+                    String message = "Error writing the simple xml file";
+                    log.error(message, e);
+                    Helper.setFehlerMeldung(message, e);
+                    success = false;
+                }
+            }
+
+            return success;
+        } finally {
+            // a METS export still running on an early exit must not write into the staging folder while it is removed
+            if (metsExport.cancel(true)) {
+                metsRunning.acquireUninterruptibly();
+            }
         }
+    }
 
-        return success;
+    /**
+     * create the new file names for all images of all issues in the order of the issues
+     * 
+     * @param topStruct
+     * @param volumeId
+     */
+    private void createFileMap(DocStruct topStruct, String volumeId) {
+        for (DocStruct ds : topStruct.getAllChildrenAsFlatList()) {
+            if (ds.getType().getName().equals(config.getString("/docstruct/issue"))) {
+                List<Reference> refs = ds.getAllToReferences("logical_physical");
+                if (refs != null) {
+                    for (Reference ref : refs) {
+                        String realFileName = ref.getTarget().getImageName();
+                        String realFileNameWithoutExtension = realFileName.substring(0, realFileName.indexOf("."));
+                        // reuse the file name if created previously
+                        if (!fileMap.containsKey(realFileNameWithoutExtension)) {
+                            String counter = String.format("%04d", ++fileCounter);
+                            fileMap.put(realFileNameWithoutExtension, volumeId + "-" + counter);
+                        }
+                    }
+                }
+            }
+        }
     }
 
     private static String determineSupplementBasedOnIssueName(String issueName) {
@@ -1,36 +1,25 @@
 package de.intranda.goobi.plugins.exporters;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.configuration.XMLConfiguration;
-import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
 import org.apache.commons.lang.StringUtils;
-import org.goobi.beans.Process;
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 
 import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.ExportContext;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportStaging;
+import de.intranda.goobi.plugins.ExportVariableReplacer;
 import de.sub.goobi.helper.StorageProvider;
-import de.sub.goobi.helper.VariableReplacer;
-import de.sub.goobi.helper.XmlTools;
-import de.sub.goobi.helper.exceptions.DAOException;
-import de.sub.goobi.helper.exceptions.SwapException;
-import lombok.AllArgsConstructor;
-import lombok.Data;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
@@ -56,18 +45,25 @@ import ugh.fileformats.mets.MetsModsImportExport;
 @Log4j2
 public class NewspaperMetsCreator {
 
-    private static final Namespace metsNamespace = Namespace.getNamespace("mets", "http://www.loc.gov/METS/");
-    private static final Namespace xlink = Namespace.getNamespace("xlink", "http://www.w3.org/1999/xlink");
+    private static final String EXPORTER = "Newspaper";
+
     private boolean addFileExtension = true;
 
     private XMLConfiguration config;
-    private Process process;
+    private ExportContext context;
     private Prefs prefs;
     private DigitalDocument dd;
+    // all reads and changes of the source document are done through the view, the document itself is never changed
+    private DigitalDocumentView view;
     private String targetFolder;
-    private VariableReplacer vr;
+    private ExportVariableReplacer vr;
     private Map<String, String> fileMap;
 
+    private ExportStaging staging;
+    // anchor file written outside of the staging folder, merged after the staging folder was committed
+    private Path anchorFile;
+    private String anchorIdentifier;
+
     @Getter
     private List<String> problems;
 
@@ -75,19 +71,23 @@ public class NewspaperMetsCreator {
      * Constructor
      * 
      * @param config
-     * @param process
+     * @param context
      * @param prefs
      * @param dd
+     * @param fileMap
+     * @param staging staging folder of the export, the METS files are moved into the target folder together with all other files
      */
-    public NewspaperMetsCreator(XMLConfiguration config, Process process, Prefs prefs, DigitalDocument dd,
-            Map<String, String> fileMap) {
+    public NewspaperMetsCreator(XMLConfiguration config, ExportContext context, Prefs prefs, DigitalDocument dd,
+            Map<String, String> fileMap, ExportStaging staging) {
         this.config = config;
-        this.process = process;
+        this.staging = staging;
+        this.context = context;
         this.prefs = prefs;
         this.dd = dd;
         this.fileMap = fileMap;
+        view = new DigitalDocumentView(dd);
         targetFolder = config.getString("targetDirectoryNewspapers", "/opt/digiverso/goobi/output/");
-        vr = new VariableReplacer(dd, prefs, process, null);
+        vr = context.createVariableReplacer(dd, prefs);
     }
 
     /**
@@ -99,14 +99,11 @@ public class NewspaperMetsCreator {
      * @throws PreferencesException
      * @throws MetadataTypeNotAllowedException
      * @throws TypeNotAllowedForParentException
-     * @throws SwapException
-     * @throws DAOException
      */
     public boolean exportMetsFile() throws IOException, WriteException, PreferencesException,
-            MetadataTypeNotAllowedException, TypeNotAllowedForParentException, SwapException, DAOException {
+            MetadataTypeNotAllowedException, TypeNotAllowedForParentException {
         problems = new ArrayList<>();
-        String goobiId = String.valueOf(process.getId());
-        config.setExpressionEngine(new XPathExpressionEngine());
+        String goobiId = String.valueOf(context.getProcessId());
 
         // read configuration parameters from config file
         MetadataType purlType = prefs.getMetadataTypeByName(config.getString("/metadata/purl"));
@@ -141,10 +138,8 @@ public class NewspaperMetsCreator {
         addFileExtension = config.getBoolean("/metsUrl/@addFileExtension", false);
         String piResolverUrl = config.getString("/resolverUrl");
 
-        Path tmpExportFolder = Files.createTempDirectory("mets_export");
-
-        DocStruct logical = dd.getLogicalDocStruct();
-        DocStruct oldPhysical = dd.getPhysicalDocStruct();
+        DocStruct logical = view.getLogicalDocStruct();
+        DocStruct oldPhysical = view.getPhysicalDocStruct();
 
         // check if it is a newspaper
         if (!logical.getType().isAnchor()) {
@@ -157,7 +152,7 @@ public class NewspaperMetsCreator {
         String language = null;
         String location = null;
 
-        for (Metadata md : logical.getAllMetadata()) {
+        for (Metadata md : view.getAllMetadata(logical)) {
             // get identifier
             if (md.getType().getName().equals(identifierType.getName())) {
                 identifier = md.getValue();
@@ -172,9 +167,7 @@ public class NewspaperMetsCreator {
             }
         }
         if (StringUtils.isBlank(mainTitle) && StringUtils.isNotBlank(titleLabel)) {
-            Metadata md = new Metadata(mainTitleType);
-            md.setValue(titleLabel);
-            logical.addMetadata(md);
+            view.addMetadata(logical, mainTitleType, titleLabel);
         }
 
         DocStruct volume = logical.getAllChildren().get(0);
@@ -184,7 +177,7 @@ public class NewspaperMetsCreator {
         String sortNumber = null;
         String issueNumber = null;
 
-        for (Metadata md : volume.getAllMetadata()) {
+        for (Metadata md : view.getAllMetadata(volume)) {
             // get current year
             if (md.getType().getName().equals(yearDateType.getName())) {
                 publicationYear = md.getValue();
@@ -211,9 +204,7 @@ public class NewspaperMetsCreator {
 
         if (StringUtils.isBlank(volumeTitle) && StringUtils.isNotBlank(volumeLabel)) {
             try {
-                Metadata md = new Metadata(mainTitleType);
-                md.setValue(volumeLabel);
-                volume.addMetadata(md);
+                view.addMetadata(volume, mainTitleType, volumeLabel);
             } catch (UGHException e) {
                 log.info(e);
             }
@@ -222,9 +213,7 @@ public class NewspaperMetsCreator {
         if (StringUtils.isBlank(sortNumber) && StringUtils.isNotBlank(issueNumber)
                 && StringUtils.isNumeric(issueNumber)) {
             try {
-                Metadata md = new Metadata(sortNumberType);
-                md.setValue(issueNumber);
-                volume.addMetadata(md);
+                view.addMetadata(volume, sortNumberType, issueNumber);
             } catch (UGHException e) {
                 log.info(e);
             }
@@ -240,10 +229,10 @@ public class NewspaperMetsCreator {
 
         DigitalDocument anchorDigitalDocument = new DigitalDocument();
         newspaperExport.setDigitalDocument(anchorDigitalDocument);
-        String anchor = config.getString("/metsPointerPathAnchor", process.getProjekt().getMetsPointerPathAnchor());
+        String anchor = config.getString("/metsPointerPathAnchor", context.getProjectSetting("metsPointerPathAnchor"));
         anchor = vr.replace(anchor);
         newspaperExport.setMptrAnchorUrl(anchor);
-        String pointer = config.getString("/metsPointerPath", process.getProjekt().getMetsPointerPath());
+        String pointer = config.getString("/metsPointerPath", context.getProjectSetting("metsPointerPath"));
         pointer = vr.replace(pointer);
         setMetsParameter(goobiId, pointer, anchor, newspaperExport);
 
@@ -277,6 +266,29 @@ public class NewspaperMetsCreator {
             return false;
         }
 
+        // create months and days for all issues in chronological order, several issues of the same day share the day
+        NewspaperCalendar calendar = new NewspaperCalendar(anchorDigitalDocument, yearVolume, monthType, dayType);
+        List<String> issueDates = new ArrayList<>();
+        for (DocStruct issue : issues) {
+            String date = AdmBsmeExportHelper.getMetdata(issue, issueDateType.getName());
+            if (date.matches("\\d{4}-\\d{2}-\\d{2}")) {
+                issueDates.add(date);
+            }
+        }
+        try {
+            calendar.addDates(issueDates);
+        } catch (TypeNotAllowedAsChildException e) {
+            problems.add("Cannot add months and days to year");
+            log.error(e);
+            return false;
+        }
+
+        // EITHER: add the anchor label as prefix in front of each issue
+        String englishNewspaperName = AdmBsmeExportHelper.getEnglishPartOfString(titleLabel);
+        UnaryOperator<String> issueLabelFunction = value -> englishNewspaperName + " " + AdmBsmeExportHelper.getCleanIssueLabel(value);
+        // OR: use original title (incl. arabic font)
+        // UnaryOperator<String> issueLabelFunction = value -> titleLabel + " " + getTranslatedIssueLabels(value);
+
         for (DocStruct issue : issues) {
             // create issues, link issues to day
             // https://wiki.deutsche-digitale-bibliothek.de/display/DFD/Ausgabe+Zeitung+1.0
@@ -292,14 +304,13 @@ public class NewspaperMetsCreator {
             String issueLocation = null;
 
             String issueIdentifier = null;
-            String simpleDate = null;
             String dateValue = null;
             String resource = null;
             String purl = null;
             String anchorId = null;
             String anchorTitle = null;
 
-            for (Metadata md : issue.getAllMetadata()) {
+            for (Metadata md : view.getAllMetadata(issue)) {
                 if (md.getType().getName().equals(anchorIdType.getName())) {
                     anchorId = md.getValue();
                 }
@@ -310,19 +321,10 @@ public class NewspaperMetsCreator {
                     issueIdentifier = md.getValue();
                 }
                 if (md.getType().getName().equals(labelType.getName())) {
-
-                    // EITHER: add the anchor label as prefix in front of each issue
-                    String englishNewspaperName = AdmBsmeExportHelper.getEnglishPartOfString(titleLabel);
-                    md.setValue(englishNewspaperName + " " + AdmBsmeExportHelper.getCleanIssueLabel(md.getValue()));
-
-                    // OR: use original title (incl. arabic font)
-                    // md.setValue(titleLabel + " " + getTranslatedIssueLabels(md.getValue()));
-
-                    issueLabel = md.getValue();
+                    issueLabel = issueLabelFunction.apply(md.getValue());
                 }
                 if (md.getType().getName().equals(mainTitleType.getName())) {
-                    md.setValue(AdmBsmeExportHelper.getCleanIssueLabel(md.getValue()));
-                    issueTitle = md.getValue();
+                    issueTitle = AdmBsmeExportHelper.getCleanIssueLabel(md.getValue());
                 }
                 if (md.getType().getName().equals(issueNumberType.getName())) {
                     issueNo = md.getValue();
@@ -349,12 +351,16 @@ public class NewspaperMetsCreator {
                 }
 
             }
+            if (issueLabel != null) {
+                view.updateValues(issue, labelType, issueLabelFunction);
+            }
+            if (issueTitle != null) {
+                view.updateValues(issue, mainTitleType, AdmBsmeExportHelper::getCleanIssueLabel);
+            }
             // copy metadata from anchor into the issue
             if (StringUtils.isBlank(issueTitle) && StringUtils.isNotBlank(issueLabel)) {
                 try {
-                    Metadata md = new Metadata(mainTitleType);
-                    md.setValue(issueLabel);
-                    issue.addMetadata(md);
+                    view.addMetadata(issue, mainTitleType, issueLabel);
                 } catch (UGHException e) {
                     log.info(e);
                 }
@@ -370,115 +376,59 @@ public class NewspaperMetsCreator {
             }
             if (StringUtils.isBlank(issueSortingNumber) && StringUtils.isNotBlank(issueNo)
                     && StringUtils.isNumeric(issueNo)) {
-                Metadata md = new Metadata(sortNumberType);
-                md.setValue(issueNo);
-                issue.addMetadata(md);
+                view.addMetadata(issue, sortNumberType, issueNo);
                 issueSortingNumber = issueNo;
             }
             if (StringUtils.isBlank(issueLanguage) && StringUtils.isNotBlank(language)) {
-                Metadata md = new Metadata(languageType);
-                md.setValue(language);
-                issue.addMetadata(md);
+                view.addMetadata(issue, languageType, language);
             }
             if (StringUtils.isBlank(issueLocation) && StringUtils.isNotBlank(location)) {
-                Metadata md = new Metadata(locationType);
-                md.setValue(location);
-                issue.addMetadata(md);
+                view.addMetadata(issue, locationType, location);
             }
             if (StringUtils.isBlank(issueIdentifier)) {
-                simpleDate = dateValue.replace("-", "");
-                issueIdentifier = yearIdentifier + "-" + simpleDate;
-                Metadata md = new Metadata(identifierType);
-                md.setValue(issueIdentifier);
-                issue.addMetadata(md);
+                issueIdentifier = yearIdentifier + "-" + dateValue.replace("-", "");
+                view.addMetadata(issue, identifierType, issueIdentifier);
             }
             if (StringUtils.isBlank(resource)) {
-                Metadata md = new Metadata(resourceType);
-                md.setValue(config.getString("/constants/mediaType"));
-                issue.addMetadata(md);
+                view.addMetadata(issue, resourceType, config.getString("/constants/mediaType"));
             }
 
             if (StringUtils.isBlank(purl)) {
-                Metadata md = new Metadata(purlType);
-                md.setValue(piResolverUrl + yearIdentifier + "-" + dateValue.replace("-", ""));
-                issue.addMetadata(md);
+                view.addMetadata(issue, purlType, piResolverUrl + yearIdentifier + "-" + dateValue.replace("-", ""));
             }
 
             if (StringUtils.isBlank(anchorId)) {
-                Metadata md = new Metadata(anchorIdType);
-                md.setValue(identifier);
-                issue.addMetadata(md);
+                view.addMetadata(issue, anchorIdType, identifier);
             }
 
             if (StringUtils.isBlank(anchorTitle)) {
-                Metadata md = new Metadata(anchorTitleType);
-                md.setValue(titleLabel);
-                issue.addMetadata(md);
+                view.addMetadata(issue, anchorTitleType, titleLabel);
             }
 
-            if (StringUtils.isBlank(yearVolume.getOrderLabel())) {
-                yearVolume.setOrderLabel(dateValue.substring(0, 4));
+            NewspaperCalendar.CalendarDay day;
+            try {
+                day = calendar.getDay(dateValue);
+            } catch (TypeNotAllowedAsChildException e) {
+                problems.add("Cannot add day " + dateValue + " to year");
+                log.error(e);
+                return false;
             }
-
-            String monthValue = dateValue.substring(0, 7);
-
-            DocStruct currentMonth = null;
-            DocStruct currentDay = null;
-            if (yearVolume.getAllChildren() != null) {
-                for (DocStruct monthDocStruct : yearVolume.getAllChildren()) {
-                    String currentDate = monthDocStruct.getOrderLabel();
-                    if (monthValue.equals(currentDate)) {
-                        currentMonth = monthDocStruct;
-                        break;
-                    }
-                }
+            if (StringUtils.isBlank(yearVolume.getOrderLabel())) {
+                yearVolume.setOrderLabel(day.getYear());
             }
-            if (currentMonth == null) {
-                try {
-                    currentMonth = anchorDigitalDocument.createDocStruct(monthType);
-                    currentMonth.setOrderLabel(monthValue);
 
-                    yearVolume.addChild(currentMonth);
-                } catch (TypeNotAllowedAsChildException e) {
-                    log.error(e);
-                }
-            }
-            if (currentMonth.getAllChildren() != null) {
-                for (DocStruct dayDocStruct : currentMonth.getAllChildren()) {
-                    String currentDate = dayDocStruct.getOrderLabel();
-                    if (dateValue.equals(currentDate)) {
-                        currentDay = dayDocStruct;
-                        break;
-                    }
-                }
-            }
-            if (currentDay == null) {
-                try {
-                    currentDay = anchorDigitalDocument.createDocStruct(dayType);
-                    currentDay.setOrderLabel(dateValue);
-                    currentMonth.addChild(currentDay);
-                } catch (TypeNotAllowedAsChildException e) {
-                    log.error(e);
-                }
-            }
             try {
                 DocStruct dummyIssue = anchorDigitalDocument.createDocStruct(issueType);
                 dummyIssue.setOrderLabel(dateValue);
-                currentDay.addChild(dummyIssue);
-                if (issue.getAllMetadata() != null) {
-                    for (Metadata md : issue.getAllMetadata()) {
-                        if (md.getType().getName().equals(labelType.getName())) {
-                            Metadata label = new Metadata(labelType);
-                            label.setValue(md.getValue());
-                            dummyIssue.addMetadata(label);
-
-                        }
+                day.getDocStruct().addChild(dummyIssue);
+                for (Metadata md : view.getAllMetadata(issue)) {
+                    if (md.getType().getName().equals(labelType.getName())) {
+                        dummyIssue.addMetadata(DigitalDocumentView.copyMetadata(md));
                     }
                 }
                 // create identifier if missing, add zdb id if missing
                 if (addFileExtension) {
-                    dummyIssue
-                            .setLink(metsResolverUrl + yearIdentifier + "-" + dateValue.replace("-", "") + "-mets.xml");
+                    dummyIssue.setLink(metsResolverUrl + yearIdentifier + "-" + day.getSimpleDate() + "-mets.xml");
                 } else {
                     dummyIssue.setLink(metsResolverUrl + issueIdentifier);
                 }
@@ -506,7 +456,6 @@ public class NewspaperMetsCreator {
                 }
                 // year
                 DocStruct issueYear = issueDigDoc.createDocStruct(yearType);
-                issueYear.setOrderLabel(dateValue.substring(0, 4));
 
                 if (addFileExtension) {
                     issueYear.setLink(metsResolverUrl + yearIdentifier + ".xml");
@@ -522,14 +471,8 @@ public class NewspaperMetsCreator {
                 }
                 dummyNewspaper.addChild(issueYear);
 
-                // month
-                DocStruct issueMonth = issueDigDoc.createDocStruct(monthType);
-                issueMonth.setOrderLabel(monthValue);
-                issueYear.addChild(issueMonth);
-                // day
-                DocStruct issueDay = issueDigDoc.createDocStruct(dayType);
-                issueDay.setOrderLabel(dateValue);
-                issueMonth.addChild(issueDay);
+                // month and day
+                DocStruct issueDay = calendar.createStubHierarchy(issueDigDoc, issueYear, day);
 
                 // issue
                 DocStruct newIssue = copyDocstruct(issueType, issue, issueDigDoc);
@@ -599,7 +542,7 @@ public class NewspaperMetsCreator {
 
                 // export to configured folder
                 String issueName = Paths
-                        .get(tmpExportFolder.toString(), yearIdentifier + "-" + simpleDate + "-mets.xml")
+                        .get(staging.getPath(), yearIdentifier + "-" + day.getSimpleDate() + "-mets.xml")
                         .toString();
                 issueExport.write(issueName);
             } catch (TypeNotAllowedAsChildException e) {
@@ -607,38 +550,46 @@ public class NewspaperMetsCreator {
             }
         }
 
-        String newspaperName = Paths.get(tmpExportFolder.toString(), yearIdentifier + ".xml").toString();
+        String newspaperName = Paths.get(staging.getPath(), yearIdentifier + ".xml").toString();
         newspaperExport.write(newspaperName);
 
-        // rename anchor file
+        // move the anchor file out of the staging folder, it gets merged after all other files are available
         Path anchorPath = Paths.get(newspaperName.replace(".xml", "_anchor.xml"));
-        Path newAnchorPath = Paths.get(tmpExportFolder.toString(), identifier + ".xml");
-        StorageProvider.getInstance().move(anchorPath, newAnchorPath);
-
-        // check if newspaper anchor file exists in destination folder
-        Path existingAnchor = Paths.get(targetFolder, identifier + ".xml");
-        if (StorageProvider.getInstance().isFileExists(existingAnchor)) {
-            // if yes: merge anchor with existing one
-            // open anchor, run through structMap
+        anchorFile = staging.getFolder().resolveSibling(staging.getFolder().getFileName() + "-" + identifier + ".xml");
+        StorageProvider.getInstance().move(anchorPath, anchorFile);
+        anchorIdentifier = identifier;
+        return true;
+    }
+
+    /**
+     * merge the anchor file written by {@link #exportMetsFile()} with an existing one in the target folder or create it there. The anchor is only
+     * merged if all other files of the export were moved into the target folder, otherwise it is just removed.
+     *
+     * @param committed true if the staging folder was committed
+     */
+    public void finishAnchor(boolean committed) {
+        if (anchorFile == null) {
+            return;
+        }
+        try {
+            if (committed) {
+                Path existingAnchor = Paths.get(targetFolder, anchorIdentifier + ".xml");
+                try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "anchorMerge")) {
+                    new AnchorMerger(config.getBoolean("/anchorVolumeRegistry", false)).mergeInto(existingAnchor, anchorFile);
+                    timer.success();
+                } catch (XMLStreamException | IOException e) {
+                    problems.add("Cannot update the anchor file " + existingAnchor);
+                    log.error(e);
+                }
+            }
+        } finally {
             try {
-                mergeAnchorWithVolumes(existingAnchor, newAnchorPath);
-            } catch (JDOMException | IOException e) {
-                log.error(e);
+                Files.deleteIfExists(anchorFile);
+            } catch (IOException e) {
+                log.warn("Cannot delete the anchor file " + anchorFile, e);
             }
-            // remove anchor file from temp folder
-            StorageProvider.getInstance().deleteFile(newAnchorPath);
+            anchorFile = null;
         }
-
-        // move all files to export folder
-        List<Path> files = StorageProvider.getInstance().listFiles(tmpExportFolder.toString());
-        for (Path file : files) {
-            Path dest = Paths.get(targetFolder, file.getFileName().toString());
-            StorageProvider.getInstance().move(file, dest);
-        }
-
-        // delete targetDir
-        StorageProvider.getInstance().deleteDir(tmpExportFolder);
-        return true;
     }
 
     /**
@@ -666,39 +617,37 @@ public class NewspaperMetsCreator {
     private void setMetsParameter(String goobiId, String pointer, String anchorPointer, ExportFileformat fileFormat) {
         fileFormat.setGoobiID(goobiId);
 
-        fileFormat.setRightsOwner(
-                vr.replace(config.getString("/rightsOwner", process.getProjekt().getMetsRightsOwner())));
-        fileFormat.setRightsOwnerLogo(
-                vr.replace(config.getString("/rightsOwnerLogo", process.getProjekt().getMetsRightsOwnerLogo())));
-        fileFormat.setRightsOwnerSiteURL(
-                vr.replace(config.getString("/rightsOwnerSiteURL", process.getProjekt().getMetsRightsOwnerSite())));
-        fileFormat.setRightsOwnerContact(
-                vr.replace(config.getString("/rightsOwnerContact", process.getProjekt().getMetsRightsOwnerMail())));
-        fileFormat.setDigiprovPresentation(vr.replace(
-                config.getString("/digiprovPresentation", process.getProjekt().getMetsDigiprovPresentation())));
-        fileFormat.setDigiprovReference(
-                vr.replace(config.getString("/digiprovReference", process.getProjekt().getMetsDigiprovReference())));
-        fileFormat.setDigiprovPresentationAnchor(vr.replace(config.getString("/digiprovPresentationAnchor",
-                process.getProjekt().getMetsDigiprovPresentationAnchor())));
-        fileFormat.setDigiprovReferenceAnchor(vr.replace(
-                config.getString("/digiprovReferenceAnchor", process.getProjekt().getMetsDigiprovReferenceAnchor())));
-
-        fileFormat.setMetsRightsLicense(
-                vr.replace(config.getString("/rightsLicense", process.getProjekt().getMetsRightsLicense())));
-        fileFormat.setMetsRightsSponsor(
-                vr.replace(config.getString("/rightsSponsor", process.getProjekt().getMetsRightsSponsor())));
-        fileFormat.setMetsRightsSponsorLogo(
-                vr.replace(config.getString("/rightsSponsorLogo", process.getProjekt().getMetsRightsSponsorLogo())));
-        fileFormat.setMetsRightsSponsorSiteURL(vr.replace(
-                config.getString("/rightsSponsorSiteURL", process.getProjekt().getMetsRightsSponsorSiteURL())));
-
-        fileFormat.setPurlUrl(vr.replace(config.getString("/purl", process.getProjekt().getMetsPurl())));
-        fileFormat.setContentIDs(vr.replace(config.getString("/contentIds", process.getProjekt().getMetsContentIDs())));
+        fileFormat.setRightsOwner(getMetsSetting("rightsOwner"));
+        fileFormat.setRightsOwnerLogo(getMetsSetting("rightsOwnerLogo"));
+        fileFormat.setRightsOwnerSiteURL(getMetsSetting("rightsOwnerSiteURL"));
+        fileFormat.setRightsOwnerContact(getMetsSetting("rightsOwnerContact"));
+        fileFormat.setDigiprovPresentation(getMetsSetting("digiprovPresentation"));
+        fileFormat.setDigiprovReference(getMetsSetting("digiprovReference"));
+        fileFormat.setDigiprovPresentationAnchor(getMetsSetting("digiprovPresentationAnchor"));
+        fileFormat.setDigiprovReferenceAnchor(getMetsSetting("digiprovReferenceAnchor"));
+
+        fileFormat.setMetsRightsLicense(getMetsSetting("rightsLicense"));
+        fileFormat.setMetsRightsSponsor(getMetsSetting("rightsSponsor"));
+        fileFormat.setMetsRightsSponsorLogo(getMetsSetting("rightsSponsorLogo"));
+        fileFormat.setMetsRightsSponsorSiteURL(getMetsSetting("rightsSponsorSiteURL"));
+
+        fileFormat.setPurlUrl(getMetsSetting("purl"));
+        fileFormat.setContentIDs(getMetsSetting("contentIds"));
         fileFormat.setMptrUrl(pointer);
         fileFormat.setMptrAnchorUrl(anchorPointer);
         fileFormat.setWriteLocal(false);
     }
 
+    /**
+     * get a METS setting from the plugin configuration, the project setting is used if it is not configured
+     * 
+     * @param name
+     * @return
+     */
+    private String getMetsSetting(String name) {
+        return vr.replace(config.getString("/" + name, context.getProjectSetting(name)));
+    }
+
     /**
      * copy all docstruct details into another one
      *
@@ -718,234 +667,13 @@ public class NewspaperMetsCreator {
         }
 
         // copy metadata
-        if (oldDocstruct.getAllMetadata() != null) {
-            for (Metadata md : oldDocstruct.getAllMetadata()) {
-                try {
-                    Metadata clone = new Metadata(md.getType());
-                    clone.setValue(md.getValue());
-                    clone.setAuthorityFile(md.getAuthorityID(), md.getAuthorityURI(), md.getAuthorityValue());
-                    newDocstruct.addMetadata(clone);
-                } catch (UGHException e) {
-                    log.info(e);
-                }
+        for (Metadata md : view.getAllMetadata(oldDocstruct)) {
+            try {
+                newDocstruct.addMetadata(DigitalDocumentView.copyMetadata(md));
+            } catch (UGHException e) {
+                log.info(e);
             }
         }
         return newDocstruct;
     }
-
-    /**
-     * some merging of metadata between anchor and volume
-     *
-     * @param oldAnchor
-     * @param newAnchor
-     * @throws JDOMException
-     * @throws IOException
-     */
-    private void mergeAnchorWithVolumes(Path oldAnchor, Path newAnchor) throws JDOMException, IOException {
-
-        List<Volume> volumes = new ArrayList<>();
-        SAXBuilder parser = XmlTools.getSAXBuilder();
-
-        // alten anchor einlesen
-        Document metsDoc = parser.build(oldAnchor.toFile());
-        Element metsRoot = metsDoc.getRootElement();
-        List<Element> structMapList = metsRoot.getChildren("structMap", metsNamespace);
-        for (Element structMap1 : structMapList) {
-            if (structMap1.getAttribute("TYPE") != null && "LOGICAL".equals(structMap1.getAttributeValue("TYPE"))) {
-                readFilesFromAnchor(volumes, structMap1);
-            }
-        }
-
-        // neuen anchor einlesen
-        Document newMetsDoc = parser.build(newAnchor.toFile());
-        Element newMetsRoot = newMetsDoc.getRootElement();
-
-        List<Element> newStructMapList = newMetsRoot.getChildren("structMap", metsNamespace);
-        for (Element structMap : newStructMapList) {
-            if (structMap.getAttribute("TYPE") != null && "LOGICAL".equals(structMap.getAttributeValue("TYPE"))) {
-                readFilesFromNewAnchor(volumes, structMap);
-            }
-        }
-
-        Collections.sort(volumes, volumeComperator);
-
-        for (Element structMap : structMapList) {
-            if (structMap.getAttribute("TYPE") != null && "LOGICAL".equals(structMap.getAttributeValue("TYPE"))) {
-                writeVolumesToAnchor(volumes, structMap);
-            }
-        }
-        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-
-        try (FileOutputStream output = new FileOutputStream(oldAnchor.toFile())) {
-            outputter.output(metsDoc, output);
-        }
-
-    }
-
-    /**
-     * read files from anchor
-     * 
-     * @param volumes
-     * @param structMap1
-     */
-    private void readFilesFromAnchor(List<Volume> volumes, Element structMap1) {
-        Element anchorDiv = structMap1.getChild("div", metsNamespace);
-        List<Element> volumeDivList = anchorDiv.getChildren("div", metsNamespace);
-        for (Element volumeDiv : volumeDivList) {
-            String label = "";
-            String volumeType = "";
-            String url = "";
-            String contentids = "";
-            String order = "";
-            if (volumeDiv.getAttribute("LABEL") != null) {
-                label = volumeDiv.getAttributeValue("LABEL");
-            }
-            if (volumeDiv.getAttribute("TYPE") != null) {
-                volumeType = volumeDiv.getAttributeValue("TYPE");
-            }
-            if (volumeDiv.getAttribute("CONTENTIDS") != null) {
-                contentids = volumeDiv.getAttributeValue("CONTENTIDS");
-            }
-            if (volumeDiv.getAttribute("ORDER") != null) {
-                order = volumeDiv.getAttributeValue("ORDER");
-            }
-            Element mptr = volumeDiv.getChild("mptr", metsNamespace);
-            url = mptr.getAttributeValue("href", xlink);
-            boolean foundVolume = false;
-            for (Volume vol : volumes) {
-                if (vol.getUrl().equals(url)) {
-                    foundVolume = true;
-                }
-            }
-            if (!foundVolume) {
-                Volume v = this.new Volume(label, volumeType, url, contentids, order);
-                volumes.add(v);
-            }
-        }
-    }
-
-    /**
-     * Reads and adds volumes from structMap which are not already present in provided volumes list to it
-     *
-     * @param volumes
-     * @param structMap
-     * @return
-     */
-    private boolean readFilesFromNewAnchor(List<Volume> volumes, Element structMap) {
-        Element anchorDiv = structMap.getChild("div", metsNamespace);
-        List<Element> volumeDivList = anchorDiv.getChildren("div", metsNamespace);
-        for (Element volumeDiv : volumeDivList) {
-            String label = "";
-            String volumeType = "";
-            String url = "";
-            String contentids = "";
-            String order = "";
-            if (volumeDiv.getAttribute("LABEL") != null) {
-                label = volumeDiv.getAttributeValue("LABEL");
-            }
-            if (volumeDiv.getAttribute("TYPE") != null) {
-                volumeType = volumeDiv.getAttributeValue("TYPE");
-            }
-            if (volumeDiv.getAttribute("CONTENTIDS") != null) {
-                contentids = volumeDiv.getAttributeValue("CONTENTIDS");
-            }
-            if (volumeDiv.getAttribute("ORDER") != null) {
-                order = volumeDiv.getAttributeValue("ORDER");
-            }
-            Element mptr = volumeDiv.getChild("mptr", metsNamespace);
-            url = mptr.getAttributeValue("href", xlink);
-            Volume v = this.new Volume(label, volumeType, url, contentids, order);
-            for (Volume vol : volumes) {
-                if (vol.getUrl().replace(".xml", "").equals(url.replace(".xml", ""))) {
-                    // reexport, muss nicht gemerged werden
-                    return false;
-                }
-            }
-            volumes.add(v);
-        }
-        return true;
-    }
-
-    /**
-     * Adds the entry from the provided volumes List as sub elements to provided structMap Element
-     * 
-     * @param volumes
-     * @param structMap
-     */
-    static void writeVolumesToAnchor(List<Volume> volumes, Element structMap) {
-        Element anchorDiv = structMap.getChild("div", metsNamespace);
-        // clearing anchor document
-        anchorDiv.removeChildren("div", metsNamespace);
-        // creating new children
-        int logId = 1;
-        for (Volume vol : volumes) {
-            Element child = new Element("div", metsNamespace);
-
-            String strId = padIdString(logId);
-            child.setAttribute("ID", "LOG_" + strId);
-            logId++;
-            if (vol.getLabel() != null && vol.getLabel().length() > 0) {
-                child.setAttribute("LABEL", vol.getLabel());
-            }
-            if (vol.getContentids() != null && vol.getContentids().length() > 0) {
-                child.setAttribute("CONTENTIDS", vol.getContentids());
-            }
-            if (vol.getOrder() != null && vol.getOrder().length() > 0) {
-                child.setAttribute("ORDER", vol.getOrder());
-                child.setAttribute("ORDERLABEL", vol.getOrder());
-            }
-            child.setAttribute("TYPE", vol.getType());
-            anchorDiv.addContent(child);
-            Element mptr = new Element("mptr", metsNamespace);
-            mptr.setAttribute("LOCTYPE", "URL");
-            if (!vol.getUrl().endsWith(".xml")) {
-                vol.setUrl(vol.getUrl() + ".xml");
-            }
-            mptr.setAttribute("href", vol.getUrl(), xlink);
-            child.addContent(mptr);
-        }
-    }
-
-    /**
-     * adds 0 to front of passed id to ensure length of 4 digits
-     *
-     * @param logId
-     * @return
-     */
-    private static String padIdString(int logId) {
-        String strId = String.valueOf(logId);
-        if (logId < 10) {
-            strId = "000" + strId;
-        } else if (logId < 100) {
-            strId = "00" + strId;
-        } else if (logId < 1000) {
-            strId = "0" + strId;
-        }
-        return strId;
-    }
-
-    /**
-     * simple comparator for volumes
-     */
-    private static Comparator<Volume> volumeComperator = new Comparator<>() { // NOSONAR
-
-        @Override
-        public int compare(Volume o1, Volume o2) {
-            if (o1.getOrder() != null && o1.getOrder().length() > 0 && o2.getOrder() != null
-                    && o2.getOrder().length() > 0) {
-                return o1.getOrder().compareToIgnoreCase(o2.getOrder());
-            }
-            return o1.getUrl().compareToIgnoreCase(o2.getUrl());
-        }
-    };
-
-    @Data
-    @AllArgsConstructor
-    class Volume {
-        private String label;
-        private String type;
-        private String url;
-        private String contentids = null;
-        private String order = null;
-    }
-}
\ No newline at end of file
+}
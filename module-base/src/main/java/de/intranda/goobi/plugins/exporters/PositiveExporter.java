@@ -6,25 +6,31 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.configuration.XMLConfiguration;
-import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
-import org.goobi.beans.Process;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
 import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.BandwidthLimiter;
+import de.intranda.goobi.plugins.ExportContext;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportStaging;
+import de.intranda.goobi.plugins.ExportVariableReplacer;
+import de.intranda.goobi.plugins.IoWorkers;
 import de.sub.goobi.helper.StorageProvider;
-import de.sub.goobi.helper.VariableReplacer;
-import de.sub.goobi.helper.exceptions.DAOException;
-import de.sub.goobi.helper.exceptions.SwapException;
 import de.unigoettingen.sub.commons.contentlib.exceptions.ImageManagerException;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageInterpreter;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageManager;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 import ugh.dl.DigitalDocument;
@@ -39,30 +45,39 @@ import static de.intranda.goobi.plugins.AdmBsmeExportHelper.createTechnicalNotes
 @Log4j2
 public class PositiveExporter {
 
+    private static final String EXPORTER = "AdmPositiveEnvelope";
+
     private XMLConfiguration config;
-    private Process process;
+    private ExportContext context;
     private Prefs prefs;
     private DigitalDocument dd;
     private String targetFolder;
+    private ExportStaging staging;
+    private DerivativeGenerator derivatives;
+    private PyramidTiffWriter pyramids;
+    private TiffRecompressor recompressor;
 
     // keep a list of all image files as they need to be renamed
-    private VariableReplacer vr;
+    private ExportVariableReplacer vr;
 
     @Getter
     private List<String> problems;
 
+    // devices read from the tags of the masters by file name, see TiffValidator
+    @Setter
+    private Map<String, CaptureDevice> captureDevices = Collections.emptyMap();
+
     /**
      * Constructor
      * 
      * @param config
-     * @param process
+     * @param context
      * @param prefs
      * @param dd
      */
-    public PositiveExporter(XMLConfiguration config, Process process, Prefs prefs, DigitalDocument dd) {
+    public PositiveExporter(XMLConfiguration config, ExportContext context, Prefs prefs, DigitalDocument dd) {
         this.config = config;
-        config.setExpressionEngine(new XPathExpressionEngine());
-        this.process = process;
+        this.context = context;
         this.prefs = prefs;
         this.dd = dd;
         targetFolder = config.getString("targetDirectoryPositives", "/opt/digiverso/goobi/output/");
@@ -76,9 +91,26 @@ public class PositiveExporter {
      * @return
      */
     public boolean startExport() {
-        vr = new VariableReplacer(dd, prefs, process, null);
+        vr = context.createVariableReplacer(dd, prefs);
         problems = new ArrayList<>();
         log.debug("Export directory for AdmBsmeExportPlugin: " + targetFolder);
+
+        // all files are written into a staging folder first and moved into the target folder at the end
+        try {
+            staging = ExportStaging.create(config, targetFolder);
+        } catch (IOException e) {
+            log.error("Error while creating the staging folder", e);
+            return false;
+        }
+        return staging.finish(writeExportFiles());
+    }
+
+    /**
+     * create all export files inside of the staging folder
+     * 
+     * @return
+     */
+    private boolean writeExportFiles() {
         DocStruct topStruct = dd.getLogicalDocStruct();
 
         // prepare process information
@@ -125,150 +157,218 @@ public class PositiveExporter {
         info.addContent(new Element("Description").setText(description));
 
         // add all journal entries as technical notes
-        info.addContent(createTechnicalNotesElementFromRelevantJournalEntries(process));
+        info.addContent(createTechnicalNotesElementFromRelevantJournalEntries(context));
 
         // get all Positives inside of the Envelope
         List<DocStruct> positiveList = topStruct.getAllChildren();
         if (positiveList != null) {
-
-            // EACH POSITIVE - START
-            for (DocStruct ds : positiveList) {
-                // prepare xml document
-                Document doc = new Document();
-                doc.setRootElement(new Element("Envelope"));
-                info.detach();
-                doc.getRootElement().addContent(info);
-                File xmlfile = null;
-
-                // get the backprint for the positive
-                String backprintText = "";
-                List<? extends Metadata> mds = ds.getAllMetadataByType(prefs.getMetadataTypeByName("AdmBackprint"));
-                if (mds != null && mds.size() > 0) {
-                    backprintText = mds.get(0).getValue().trim();
+            // the positives are exported in parallel, so that probing, copying and writing of different positives overlap. Each positive gets
+            // its own copy of the envelope information. The positives run on the shared pool of the IoWorkers, the number of running copies is
+            // limited by the limiter of the copy stage
+            String scanningDevice = vr.replace("${process.Capturing device}");
+            derivatives = DerivativeGenerator.create(config, context.getReport(), EXPORTER);
+            pyramids = PyramidTiffWriter.create(config, context.getReport(), EXPORTER);
+            recompressor = TiffRecompressor.create(config, context.getReport(), EXPORTER);
+            AtomicBoolean failed = new AtomicBoolean();
+            List<Future<Boolean>> exports = new ArrayList<>();
+            try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "positives")) {
+                for (DocStruct ds : positiveList) {
+                    Element header = info.clone();
+                    exports.add(IoWorkers.submit(() -> {
+                        // skip the remaining positives after the first error
+                        if (failed.get()) {
+                            return false;
+                        }
+                        boolean exported = exportPositive(ds, header, scanningDevice);
+                        if (!exported) {
+                            failed.set(true);
+                        }
+                        return exported;
+                    }));
                 }
+                if (AdmBsmeExportHelper.waitForTransfers(exports).contains(false)) {
+                    return false;
+                }
+                timer.success();
+            } catch (IOException e) {
+                log.error("Error while exporting the positives", e);
+                return false;
+            } finally {
+                derivatives.close();
+                pyramids.close();
+            }
+        }
 
-                // add file information
-                Element files = new Element("Images");
-                doc.getRootElement().addContent(files);
-
-                List<Reference> refs = ds.getAllToReferences("logical_physical");
-                if (refs != null) {
+        return true;
+    }
 
-                    // EACH IMAGE OF CURRENT POSITIVE - START
-                    for (Reference ref : refs) {
+    /**
+     * export the images and the xml file of a single positive
+     * 
+     * @param ds the positive
+     * @param header envelope information, owned by this positive
+     * @param scanningDevice
+     * @return
+     */
+    private boolean exportPositive(DocStruct ds, Element header, String scanningDevice) {
+        // prepare xml document
+        Document doc = new Document();
+        doc.setRootElement(new Element("Envelope"));
+        doc.getRootElement().addContent(header);
+        File xmlfile = null;
+        List<Future<List<DerivativeGenerator.Derivative>>> derivativeResults = new ArrayList<>();
+
+        // get the backprint for the positive
+        String backprintText = "";
+        List<? extends Metadata> mds = ds.getAllMetadataByType(prefs.getMetadataTypeByName("AdmBackprint"));
+        if (mds != null && mds.size() > 0) {
+            backprintText = mds.get(0).getValue().trim();
+        }
 
-                        // Image details
-                        DocStruct page = ref.getTarget();
-                        String realFileName = page.getImageName();
-                        String realFileNameWithoutExtension = realFileName.substring(0, realFileName.indexOf("."));
+        // add file information
+        Element files = new Element("Images");
+        doc.getRootElement().addContent(files);
 
-                        if (realFileNameWithoutExtension.endsWith("b")) {
-                            continue;
-                        }
+        List<Reference> refs = ds.getAllToReferences("logical_physical");
+        if (refs != null) {
 
-                        // define the name for the xml file for the first image only
-                        if (xmlfile == null) {
-                            xmlfile = new File(targetFolder + realFileNameWithoutExtension + ".xml");
-                        }
+            // EACH IMAGE OF CURRENT POSITIVE - START
+            for (Reference ref : refs) {
 
-                        // add file element
-                        Element file = new Element("Image");
-                        file.addContent(new Element("Barcode").setText(realFileNameWithoutExtension));
-                        file.addContent(new Element("Backprint").setText(backprintText));
-                        Element master = new Element("master");
-
-                        // add image information
-                        try {
-                            File realFile = new File(process.getImagesOrigDirectory(false),
-                                    realFileNameWithoutExtension + ".tif");
-                            try (ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
-                                ImageInterpreter si = sourcemanager.getMyInterpreter();
-
-                                // MimeType
-                                // master.setAttribute("Format", si.getFormatType().getFormat().getMimeType());
-                                master.addContent(new Element("Format").setText(si.getFormatType().getFormat().getMimeType()));
-
-                                // Unit for the resolution, always ppi
-                                // master.setAttribute("ResolutionUnit", "PPI");
-                                master.addContent(new Element("ResolutionUnit").setText("PPI"));
-
-                                // Resolution
-                                // master.setAttribute("Resolution", String.valueOf(si.getOriginalImageXResolution()));
-                                master.addContent(new Element("Resolution").setText(String.valueOf(si.getOriginalImageXResolution())));
-
-                                // ColorDepth
-                                // master.setAttribute("BitDepth", String.valueOf(si.getColordepth()));
-                                master.addContent(new Element("BitDepth").setText(String.valueOf(si.getColordepth() * si.getSamplesperpixel())));
-
-                                // bitonal, grey, "color"
-                                // master.setAttribute("ColorSpace", si.getFormatType().getColortype().getLabel());
-                                master.addContent(new Element("ColorSpace").setText(si.getFormatType().getColortype().getLabel()));
-
-                                // Scanning device
-                                master.addContent(new Element("ScanningDevice").setText(vr.replace("${process.Capturing device}")));
-
-                                // Scanning device id
-                                master.addContent(new Element("ScanningDeviceID"));
-
-                                // Width
-                                master.addContent(new Element("Width").setText(String.valueOf(si.getOriginalImageWidth())));
-
-                                // Height
-                                master.addContent(new Element("Height").setText(String.valueOf(si.getOriginalImageHeight())));
-                                sourcemanager.close();
-                            }
-                        } catch (IOException | SwapException | DAOException | ImageManagerException e) {
-                            log.error("Error while reading image metadata", e);
-                            return false;
-                        }
+                // Image details
+                DocStruct page = ref.getTarget();
+                String realFileName = page.getImageName();
+                String realFileNameWithoutExtension = realFileName.substring(0, realFileName.indexOf("."));
 
-                        master.addContent(new Element("file").setText(realFileName));
-                        file.addContent(master);
-
-                        try {
-                            // copy image file to target folder if it is not a backside
-                            if (!realFileNameWithoutExtension.endsWith("b")) {
-                                Path in = Paths.get(process.getImagesOrigDirectory(false), realFileName);
-                                Path out = Paths.get(targetFolder, realFileName);
-                                StorageProvider.getInstance().copyFile(in, out);
-
-                                // copy plaintext file to target folder and add it to xml
-                                Path ocrPlaintextPath = Paths.get(process.getOcrTxtDirectory(), realFileNameWithoutExtension + ".txt");
-                                if (StorageProvider.getInstance().isFileExists(ocrPlaintextPath)) {
-                                    file.addContent(
-                                            new Element("text").setText(realFileNameWithoutExtension + ".txt").setAttribute("Format", "text/plain"));
-                                    out = Paths.get(targetFolder, realFileNameWithoutExtension + ".txt");
-                                    StorageProvider.getInstance().copyFile(ocrPlaintextPath, out);
-                                } else {
-                                    file.addContent(new Element("text").setAttribute("Format", "text/plain"));
-                                }
-                            }
-
-                        } catch (IOException | SwapException | DAOException e) {
-                            log.error("Error while copying the image and ocr files to export folder", e);
-                            return false;
-                        }
+                if (realFileNameWithoutExtension.endsWith("b")) {
+                    continue;
+                }
 
-                        files.addContent(file);
+                // define the name for the xml file for the first image only
+                if (xmlfile == null) {
+                    xmlfile = new File(staging.getPath() + realFileNameWithoutExtension + ".xml");
+                }
 
+                // add file element
+                Element file = new Element("Image");
+                file.addContent(new Element("Barcode").setText(realFileNameWithoutExtension));
+                file.addContent(new Element("Backprint").setText(backprintText));
+                Element master = new Element("master");
+
+                // add image information
+                try {
+                    File realFile = new File(context.getImagesOrigDirectory(),
+                            realFileNameWithoutExtension + ".tif");
+                    BandwidthLimiter.getInstance().acquire(realFile.length());
+                    try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "imageProbe", realFile.getName());
+                            ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
+                        ImageInterpreter si = sourcemanager.getMyInterpreter();
+
+                        // MimeType
+                        // master.setAttribute("Format", si.getFormatType().getFormat().getMimeType());
+                        master.addContent(new Element("Format").setText(si.getFormatType().getFormat().getMimeType()));
+
+                        // Unit for the resolution, always ppi
+                        // master.setAttribute("ResolutionUnit", "PPI");
+                        master.addContent(new Element("ResolutionUnit").setText("PPI"));
+
+                        // Resolution
+                        // master.setAttribute("Resolution", String.valueOf(si.getOriginalImageXResolution()));
+                        master.addContent(new Element("Resolution").setText(String.valueOf(si.getOriginalImageXResolution())));
+
+                        // ColorDepth
+                        // master.setAttribute("BitDepth", String.valueOf(si.getColordepth()));
+                        master.addContent(new Element("BitDepth").setText(String.valueOf(si.getColordepth() * si.getSamplesperpixel())));
+
+                        // bitonal, grey, "color"
+                        // master.setAttribute("ColorSpace", si.getFormatType().getColortype().getLabel());
+                        master.addContent(new Element("ColorSpace").setText(si.getFormatType().getColortype().getLabel()));
+
+                        // Scanning device and its id, from the tags of the master or from the process
+                        CaptureDevice.addTo(master, captureDevices.get(realFile.getName()), scanningDevice);
+
+                        // Width
+                        master.addContent(new Element("Width").setText(String.valueOf(si.getOriginalImageWidth())));
+
+                        // Height
+                        master.addContent(new Element("Height").setText(String.valueOf(si.getOriginalImageHeight())));
+                        sourcemanager.close();
+                        timer.success();
                     }
-                    // EACH IMAGE OF CURRENT POSITIVE - END
-
+                } catch (IOException | ImageManagerException e) {
+                    log.error("Error while reading image metadata", e);
+                    return false;
                 }
 
-                // write the xml file per positive
-                XMLOutputter xmlOutputter = new XMLOutputter();
-                xmlOutputter.setFormat(Format.getPrettyFormat());
-                try (FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
-                    xmlOutputter.output(doc, fileOutputStream);
+                master.addContent(new Element("file").setText(realFileName));
+                file.addContent(master);
+
+                try {
+                    // copy image file to target folder if it is not a backside
+                    if (!realFileNameWithoutExtension.endsWith("b")) {
+                        Path in = Paths.get(context.getImagesOrigDirectory(), realFileName);
+                        Path out = Paths.get(staging.getPath(), realFileName);
+                        // the access derivatives are decoded from the master while it is copied
+                        if (derivatives.isEnabled()) {
+                            derivativeResults.add(derivatives.submit(in, out));
+                        }
+                        AdmBsmeExportHelper.copyFile(context.getReport(), EXPORTER, "tif", recompressor.wrap(StorageProvider.getInstance()::copyFile),
+                                in, out);
+                        if (pyramids.isEnabled()) {
+                            derivativeResults.add(pyramids.submit(out));
+                        }
+
+                        // copy plaintext file to target folder and add it to xml
+                        Path ocrPlaintextPath = Paths.get(context.getOcrTxtDirectory(), realFileNameWithoutExtension + ".txt");
+                        Path ocrAltoPath = Paths.get(context.getOcrAltoDirectory(), realFileNameWithoutExtension + ".xml");
+                        if (StorageProvider.getInstance().isFileExists(ocrPlaintextPath)) {
+                            file.addContent(
+                                    new Element("text").setText(realFileNameWithoutExtension + ".txt").setAttribute("Format", "text/plain"));
+                            out = Paths.get(staging.getPath(), realFileNameWithoutExtension + ".txt");
+                            AdmBsmeExportHelper.copyFile(context.getReport(), EXPORTER, "txt", ocrPlaintextPath, out);
+                        } else if (StorageProvider.getInstance().isFileExists(ocrAltoPath)) {
+                            // derive the plain text from ALTO
+                            file.addContent(
+                                    new Element("text").setText(realFileNameWithoutExtension + ".txt").setAttribute("Format", "text/plain"));
+                            BandwidthLimiter.getInstance().acquire(StorageProvider.getInstance().getFileSize(ocrAltoPath));
+                            AltoTextExtractor.writeText(ocrAltoPath, Paths.get(staging.getPath(), realFileNameWithoutExtension + ".txt"));
+                        } else {
+                            file.addContent(new Element("text").setAttribute("Format", "text/plain"));
+                        }
+                    }
+
                 } catch (IOException e) {
-                    log.error("Error writing the simple xml file", e);
+                    log.error("Error while copying the image and ocr files to export folder", e);
                     return false;
                 }
 
+                files.addContent(file);
+
+            }
+            // EACH IMAGE OF CURRENT POSITIVE - END
+
+        }
+
+        // add the access derivatives and pyramids, they are created while the next images are copied
+        try {
+            for (List<DerivativeGenerator.Derivative> created : AdmBsmeExportHelper.waitForTransfers(derivativeResults)) {
+                DerivativeGenerator.addToMasters(doc.getRootElement(), created);
             }
-            // EACH POSITIVE - END
+        } catch (IOException e) {
+            log.error("Error while creating the derivatives", e);
+            return false;
+        }
 
+        // write the xml file per positive
+        XMLOutputter xmlOutputter = new XMLOutputter();
+        xmlOutputter.setFormat(Format.getPrettyFormat());
+        try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "simpleXmlWrite", xmlfile.getName());
+                FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
+            xmlOutputter.output(doc, fileOutputStream);
+            timer.success();
+        } catch (IOException e) {
+            log.error("Error writing the simple xml file", e);
+            return false;
         }
 
         return true;
@@ -0,0 +1,320 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.plugins.tiff.TIFFTag;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.lang.StringUtils;
+
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.AdmBsmeExportHelper.FileTransfer;
+import de.intranda.goobi.plugins.BandwidthLimiter;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportReport;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes tiled multi-resolution TIFF files for the viewer. The first image of the file is the master in full resolution with all tags of the
+ * original, each following image has half the size of the previous one and is marked as reduced resolution image.
+ *
+ * The full resolution is never decoded completely: the master is read in bands of one tile row while the writer requests the tiles, and each
+ * band is also averaged into the first reduced level. Only the reduced levels are kept in memory, their size and the band take permits from the
+ * pyramids budget of the JVM. The files are converted in parallel on the pool of the {@link ImageWorkers}, from the exported copy of the master
+ * right after it has been copied. Reading the master and writing the pyramid take the bytes from the {@link BandwidthLimiter}.
+ */
+@Log4j2
+public class PyramidTiffWriter implements AutoCloseable {
+
+    private static final long MB = 1024 * 1024;
+
+    public enum Mode {
+        // no pyramid files
+        OFF,
+        // a pyramid file next to the master
+        DERIVATIVE,
+        // the master itself gets replaced with the pyramid
+        REPLACE
+    }
+
+    private ExportReport report;
+    private String exporter;
+
+    @Getter
+    private Mode mode;
+    private int tileSize;
+    private int minSize;
+    private String compression;
+
+    private ImageWorkers.MemoryBudget memory;
+
+    // pyramids of wrapped transfers
+    private List<Future<List<DerivativeGenerator.Derivative>>> pending = Collections.synchronizedList(new ArrayList<>());
+    // all pyramids of this export, cancelled on close
+    private List<Future<List<DerivativeGenerator.Derivative>>> submitted = Collections.synchronizedList(new ArrayList<>());
+
+    PyramidTiffWriter(ExportReport report, String exporter, Mode mode, int tileSize, int minSize, String compression, int memoryMb) {
+        this.report = report;
+        this.exporter = exporter;
+        this.mode = mode;
+        // tiles must be a multiple of 16 pixels
+        this.tileSize = Math.max(16, tileSize / 16 * 16);
+        this.minSize = Math.max(1, minSize);
+        this.compression = StringUtils.isBlank(compression) || "none".equalsIgnoreCase(compression) ? null : compression;
+        if (mode != Mode.OFF) {
+            memory = ImageWorkers.getBudget(ImageWorkers.PYRAMIDS, memoryMb);
+        }
+    }
+
+    /**
+     * create a writer with the settings of the element pyramid
+     *
+     * @param config
+     * @param report
+     * @param exporter
+     * @return
+     */
+    public static PyramidTiffWriter create(XMLConfiguration config, ExportReport report, String exporter) {
+        Mode mode;
+        try {
+            mode = Mode.valueOf(config.getString("/pyramid/@mode", "off").toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid pyramid mode, no pyramid files are written: " + config.getString("/pyramid/@mode"));
+            mode = Mode.OFF;
+        }
+        return new PyramidTiffWriter(report, exporter, mode, config.getInt("/pyramid/@tileSize", 512), config.getInt("/pyramid/@minSize", 512),
+                config.getString("/pyramid/@compression", "Deflate"), config.getInt("/pyramid/@memory", 1024));
+    }
+
+    public boolean isEnabled() {
+        return mode != Mode.OFF;
+    }
+
+    /**
+     * extend a transfer of master files, the pyramid of each copied master gets written in the background
+     *
+     * @param transfer
+     * @return
+     */
+    public FileTransfer wrap(FileTransfer transfer) {
+        if (!isEnabled()) {
+            return transfer;
+        }
+        return (source, target) -> {
+            transfer.transfer(source, target);
+            pending.add(submit(target));
+        };
+    }
+
+    /**
+     * write the pyramid of a master in the background
+     *
+     * @param master the exported master
+     * @return the pyramid file if it is written next to the master
+     */
+    public Future<List<DerivativeGenerator.Derivative>> submit(Path master) {
+        Future<List<DerivativeGenerator.Derivative>> future = ImageWorkers.getExecutor().submit(() -> convert(master));
+        submitted.add(future);
+        return future;
+    }
+
+    /**
+     * wait for all pyramids of wrapped transfers, the first failure is thrown
+     *
+     * @return the pyramid files written next to the masters
+     * @throws IOException
+     */
+    public List<DerivativeGenerator.Derivative> await() throws IOException {
+        List<DerivativeGenerator.Derivative> pyramids = new ArrayList<>();
+        if (isEnabled()) {
+            List<Future<List<DerivativeGenerator.Derivative>>> running;
+            synchronized (pending) {
+                running = new ArrayList<>(pending);
+                pending.clear();
+            }
+            AdmBsmeExportHelper.waitForTransfers(running).forEach(pyramids::addAll);
+        }
+        return pyramids;
+    }
+
+    List<DerivativeGenerator.Derivative> convert(Path master) throws IOException {
+        String name = master.getFileName().toString();
+        String baseName = name.contains(".") ? name.substring(0, name.lastIndexOf(".")) : name;
+        Path target = mode == Mode.REPLACE ? master.resolveSibling("." + name + ".pyramid") : master.resolveSibling(baseName + "_pyramid.tif");
+        long start = System.nanoTime();
+        Dimension size;
+        try (ExportMetrics.Timer timer = report.time(exporter, "pyramid", name)) {
+            size = write(master, target);
+            if (size == null) {
+                Files.deleteIfExists(target);
+                return Collections.emptyList();
+            }
+            if (mode == Mode.REPLACE) {
+                AdmBsmeExportHelper.moveAtomically(target, master);
+                target = master;
+            }
+            timer.success();
+        } finally {
+            if (mode == Mode.REPLACE) {
+                Files.deleteIfExists(master.resolveSibling("." + name + ".pyramid"));
+            }
+        }
+        long written = Files.size(target);
+        report.addFile(exporter, "pyramid", target.getFileName().toString(), System.nanoTime() - start, written);
+        // the size of the pyramid is only known afterwards, the following transfers wait for its bytes
+        BandwidthLimiter.getInstance().acquire(written);
+        if (mode == Mode.REPLACE) {
+            return Collections.emptyList();
+        }
+        return List.of(new DerivativeGenerator.Derivative(baseName, target.getFileName().toString(), "image/tiff", size.width, size.height));
+    }
+
+    /**
+     * write the pyramid of a TIFF file
+     *
+     * @param source
+     * @param target
+     * @return the size of the full resolution, or null if the image is not supported
+     * @throws IOException
+     */
+    Dimension write(Path source, Path target) throws IOException {
+        BandwidthLimiter.getInstance().acquire(Files.size(source));
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in == null ? Collections.emptyIterator() : ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader found for " + source);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, false);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                // the type of the decoded bands
+                ImageTypeSpecifier type = reader.getImageTypes(0).next();
+                if (type.getColorModel() instanceof IndexColorModel) {
+                    // the reduced levels of palette images cannot be averaged
+                    log.warn("No pyramid is written for the palette image " + source);
+                    return null;
+                }
+
+                int permits = memory.acquire(getMemoryPermits(width, height, type.getSampleModel()));
+                try {
+                    writePyramid(reader, type, width, height, target);
+                } finally {
+                    memory.release(permits);
+                }
+                return new Dimension(width, height);
+            } finally {
+                reader.dispose();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for memory to write the pyramid of " + source);
+        }
+    }
+
+    private void writePyramid(ImageReader reader, ImageTypeSpecifier type, int width, int height, Path target) throws IOException {
+        BandedTiffImage fullResolution = new BandedTiffImage(reader, type, width, height, tileSize, true);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        // the file image output stream does not truncate an existing file
+        Files.deleteIfExists(target);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(tileSize, tileSize, 0, 0);
+            if (compression != null) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionType(compression);
+            }
+            writer.prepareWriteSequence(null);
+            // the full resolution keeps all tags of the master, e.g. the resolution and the device
+            writer.writeToSequence(new IIOImage(fullResolution, null, reader.getImageMetadata(0)), param);
+
+            BufferedImage level = fullResolution.getReducedLevel();
+            while (level != null) {
+                writer.writeToSequence(new IIOImage(level, null, getReducedMetadata(writer, level, param)), param);
+                level = Math.max(level.getWidth(), level.getHeight()) / 2 >= minSize ? halve(level) : null;
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * the band of one tile row and the first reduced level, at most the whole budget
+     */
+    int getMemoryPermits(int width, int height, SampleModel sampleModel) {
+        long bitsPerPixel = 0;
+        for (int size : sampleModel.getSampleSize()) {
+            bitsPerPixel += size;
+        }
+        long band = (long) width * tileSize * bitsPerPixel / 8;
+        long reduced = (long) ((width + 1) / 2) * ((height + 1) / 2) * bitsPerPixel / 8;
+        return (int) Math.max(1, Math.min(memory.getLimit(), (band + reduced + MB - 1) / MB));
+    }
+
+    private static IIOMetadata getReducedMetadata(ImageWriter writer, BufferedImage level, ImageWriteParam param) throws IOException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(level), param);
+        try {
+            TIFFDirectory directory = TIFFDirectory.createFromMetadata(metadata);
+            BaselineTIFFTagSet tags = BaselineTIFFTagSet.getInstance();
+            directory.addTIFFField(new TIFFField(tags.getTag(BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE), TIFFTag.TIFF_LONG, 1,
+                    new long[] { BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION }));
+            return directory.getAsMetadata();
+        } catch (IIOInvalidTreeException e) {
+            throw new IOException("Cannot create the metadata of a reduced resolution", e);
+        }
+    }
+
+    /**
+     * half the size of an image, each sample is the average of up to four samples
+     *
+     * @param image
+     * @return
+     */
+    static BufferedImage halve(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        WritableRaster result = raster.createCompatibleWritableRaster((raster.getWidth() + 1) / 2, (raster.getHeight() + 1) / 2);
+        BandedTiffImage.halve(raster, 0, raster.getHeight(), result);
+        return new BufferedImage(image.getColorModel(), result, image.isAlphaPremultiplied(), null);
+    }
+
+    @Override
+    public void close() {
+        // the pool is shared, only the conversions of this export are stopped
+        synchronized (submitted) {
+            submitted.forEach(future -> future.cancel(true));
+            submitted.clear();
+        }
+    }
+}
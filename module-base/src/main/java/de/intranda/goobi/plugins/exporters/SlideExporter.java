@@ -4,26 +4,29 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.configuration.XMLConfiguration;
-import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
-import org.goobi.beans.Process;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
 import de.intranda.goobi.plugins.AdmBsmeExportHelper;
-import de.sub.goobi.helper.VariableReplacer;
-import de.sub.goobi.helper.exceptions.DAOException;
-import de.sub.goobi.helper.exceptions.SwapException;
+import de.intranda.goobi.plugins.BandwidthLimiter;
+import de.intranda.goobi.plugins.ExportContext;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportStaging;
+import de.intranda.goobi.plugins.ExportVariableReplacer;
+import de.sub.goobi.helper.StorageProvider;
 import de.unigoettingen.sub.commons.contentlib.exceptions.ImageManagerException;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageInterpreter;
 import de.unigoettingen.sub.commons.contentlib.imagelib.ImageManager;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 import ugh.dl.DigitalDocument;
@@ -37,31 +40,37 @@ import static de.intranda.goobi.plugins.AdmBsmeExportHelper.createTechnicalNotes
 @Log4j2
 public class SlideExporter {
 
+    private static final String EXPORTER = "AdmSlide";
+
     private XMLConfiguration config;
-    private Process process;
+    private ExportContext context;
     private Prefs prefs;
     private DigitalDocument dd;
     private String targetFolder;
+    private ExportStaging staging;
 
     // keep a list of all image files as they need to be renamed
     private Map<String, String> fileMap;
-    private VariableReplacer vr;
+    private ExportVariableReplacer vr;
 
     @Getter
     private List<String> problems;
 
+    // devices read from the tags of the masters by file name, see TiffValidator
+    @Setter
+    private Map<String, CaptureDevice> captureDevices = Collections.emptyMap();
+
     /**
      * Constructor
      * 
      * @param config
-     * @param process
+     * @param context
      * @param prefs
      * @param dd
      */
-    public SlideExporter(XMLConfiguration config, Process process, Prefs prefs, DigitalDocument dd) {
+    public SlideExporter(XMLConfiguration config, ExportContext context, Prefs prefs, DigitalDocument dd) {
         this.config = config;
-        config.setExpressionEngine(new XPathExpressionEngine());
-        this.process = process;
+        this.context = context;
         this.prefs = prefs;
         this.dd = dd;
         targetFolder = config.getString("targetDirectorySlides", "/opt/digiverso/goobi/output/");
@@ -75,10 +84,27 @@ public class SlideExporter {
      * @return
      */
     public boolean startExport() {
-        vr = new VariableReplacer(dd, prefs, process, null);
+        vr = context.createVariableReplacer(dd, prefs);
         problems = new ArrayList<>();
         fileMap = new HashMap<String, String>();
         log.debug("Export directory for AdmBsmeExportPlugin: " + targetFolder);
+
+        // all files are written into a staging folder first and moved into the target folder at the end
+        try {
+            staging = ExportStaging.create(config, targetFolder);
+        } catch (IOException e) {
+            log.error("Error while creating the staging folder", e);
+            return false;
+        }
+        return staging.finish(writeExportFiles());
+    }
+
+    /**
+     * create all export files inside of the staging folder
+     * 
+     * @return
+     */
+    private boolean writeExportFiles() {
         DocStruct topStruct = dd.getLogicalDocStruct();
 
         // prepare xml document
@@ -137,7 +163,7 @@ public class SlideExporter {
         // info.addContent(new Element("Media_Group").setText(mediaGroup));
 
         // add all journal entries as technical notes
-        info.addContent(createTechnicalNotesElementFromRelevantJournalEntries(process));
+        info.addContent(createTechnicalNotesElementFromRelevantJournalEntries(context));
 
         // add file information
         List<Reference> refs = topStruct.getAllToReferences("logical_physical");
@@ -159,9 +185,11 @@ public class SlideExporter {
 
                 // add image information
                 try {
-                    File realFile = new File(process.getImagesOrigDirectory(false),
+                    File realFile = new File(context.getImagesOrigDirectory(),
                             realFileNameWithoutExtension + ".tif");
-                    try (ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
+                    BandwidthLimiter.getInstance().acquire(realFile.length());
+                    try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "imageProbe", realFile.getName());
+                            ImageManager sourcemanager = new ImageManager(realFile.toURI())) {
                         ImageInterpreter si = sourcemanager.getMyInterpreter();
 
                         // MimeType
@@ -184,11 +212,8 @@ public class SlideExporter {
                         // master.setAttribute("ColorSpace", si.getFormatType().getColortype().getLabel());
                         master.addContent(new Element("ColorSpace").setText(si.getFormatType().getColortype().getLabel()));
 
-                        // Scanning device
-                        master.addContent(new Element("ScanningDevice").setText(vr.replace("${process.Capturing device}")));
-
-                        // Scanning device id
-                        master.addContent(new Element("ScanningDeviceID"));
+                        // Scanning device and its id, from the tags of the master or from the process
+                        CaptureDevice.addTo(master, captureDevices.get(realFile.getName()), vr.replace("${process.Capturing device}"));
 
                         // Width
                         master.addContent(new Element("Width").setText(String.valueOf(si.getOriginalImageWidth())));
@@ -196,8 +221,9 @@ public class SlideExporter {
                         // Height
                         master.addContent(new Element("Height").setText(String.valueOf(si.getOriginalImageHeight())));
                         sourcemanager.close();
+                        timer.success();
                     }
-                } catch (IOException | SwapException | DAOException | ImageManagerException e) {
+                } catch (IOException | ImageManagerException e) {
                     log.error("Error while reading image metadata", e);
                     return false;
                 }
@@ -207,10 +233,15 @@ public class SlideExporter {
             }
         }
 
-        // copy all important files to target folder
-        try {
-            AdmBsmeExportHelper.copyFolderContent(process.getImagesOrigDirectory(false), "tif", fileMap, targetFolder);
-        } catch (IOException | SwapException | DAOException e) {
+        TiffRecompressor recompressor = TiffRecompressor.create(config, context.getReport(), EXPORTER);
+        // copy all important files to target folder, the access derivatives are created from the masters while they are copied, the pyramids from the copies
+        try (DerivativeGenerator derivatives = DerivativeGenerator.create(config, context.getReport(), EXPORTER);
+                PyramidTiffWriter pyramids = PyramidTiffWriter.create(config, context.getReport(), EXPORTER)) {
+            AdmBsmeExportHelper.copyFolderContent(context.getReport(), EXPORTER, context.getImagesOrigDirectory(), "tif", fileMap, staging.getPath(),
+                    derivatives.wrap(pyramids.wrap(recompressor.wrap(StorageProvider.getInstance()::copyFile))));
+            DerivativeGenerator.addToMasters(doc.getRootElement(), derivatives.await());
+            DerivativeGenerator.addToMasters(doc.getRootElement(), pyramids.await());
+        } catch (IOException e) {
             log.error("Error while copying the image files to export folder", e);
             return false;
         }
@@ -218,9 +249,11 @@ public class SlideExporter {
         // write the xml file
         XMLOutputter xmlOutputter = new XMLOutputter();
         xmlOutputter.setFormat(Format.getPrettyFormat());
-        File xmlfile = new File(targetFolder + identifier + ".xml");
-        try (FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
+        File xmlfile = new File(staging.getPath() + identifier + ".xml");
+        try (ExportMetrics.Timer timer = context.getReport().time(EXPORTER, "simpleXmlWrite", xmlfile.getName());
+                FileOutputStream fileOutputStream = new FileOutputStream(xmlfile)) {
             xmlOutputter.output(doc, fileOutputStream);
+            timer.success();
         } catch (IOException e) {
             log.error("Error writing the simple xml file", e);
             return false;
@@ -0,0 +1,211 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.AdmBsmeExportHelper.FileTransfer;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportReport;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes uncompressed TIFF masters as Deflate or LZW compressed files instead of copying them. The pixels and all tags of the master are kept,
+ * only the compression and the layout of the strips change, so the technical metadata of the master stays the same.
+ *
+ * Only single images with grey or RGB samples and 8 or 16 bits per sample are recompressed, all other files and files that would not get
+ * smaller are copied unchanged. The master is decoded in bands, so the memory does not depend on the size of the image. The files are
+ * recompressed in parallel by the transfers of the copy stage.
+ */
+@Log4j2
+public class TiffRecompressor {
+
+    // number of rows decoded at once
+    private static final int BAND_HEIGHT = 256;
+    // target size of an uncompressed strip
+    private static final long STRIP_SIZE = 256 * 1024;
+
+    private ExportReport report;
+    private String exporter;
+
+    @Getter
+    private boolean enabled;
+    private String compression;
+    private int level;
+
+    TiffRecompressor(ExportReport report, String exporter, boolean enabled, String compression, int level) {
+        this.report = report;
+        this.exporter = exporter;
+        this.enabled = enabled;
+        this.level = Math.max(1, Math.min(9, level));
+        if ("lzw".equalsIgnoreCase(compression)) {
+            this.compression = "LZW";
+        } else {
+            if (!"deflate".equalsIgnoreCase(compression)) {
+                log.error("Unsupported compression " + compression + " for the recompression of TIFF files, Deflate is used");
+            }
+            // the writer uses the obsolete code 32946 for Deflate, ZLib is the same compression with the code 8 of the specification
+            this.compression = "ZLib";
+        }
+    }
+
+    /**
+     * create a recompressor with the settings of the element recompression
+     *
+     * @param config
+     * @param report
+     * @param exporter
+     * @return
+     */
+    public static TiffRecompressor create(XMLConfiguration config, ExportReport report, String exporter) {
+        return new TiffRecompressor(report, exporter, config.getBoolean("/recompression/@enabled", false),
+                config.getString("/recompression/@compression", "Deflate"), config.getInt("/recompression/@level", 6));
+    }
+
+    /**
+     * replace a transfer of master files, masters that cannot be recompressed are transferred with the given transfer
+     *
+     * @param transfer
+     * @return
+     */
+    public FileTransfer wrap(FileTransfer transfer) {
+        if (!enabled) {
+            return transfer;
+        }
+        return (source, target) -> {
+            if (!recompress(source, target)) {
+                transfer.transfer(source, target);
+            }
+        };
+    }
+
+    /**
+     * write a compressed copy of a master
+     *
+     * @param source
+     * @param target
+     * @return true if the target was written, false if the master cannot be recompressed
+     * @throws IOException
+     */
+    public boolean recompress(Path source, Path target) throws IOException {
+        Path tempFile = target.resolveSibling("." + target.getFileName() + ".compressed");
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in == null ? Collections.emptyIterator() : ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, false, false);
+                if (!"tif".equals(reader.getFormatName().toLowerCase(Locale.ENGLISH)) || reader.getNumImages(true) != 1) {
+                    return false;
+                }
+                TIFFDirectory directory = TIFFDirectory.createFromMetadata(reader.getImageMetadata(0));
+                if (!isSupported(directory)) {
+                    return false;
+                }
+                try (ExportMetrics.Timer timer = report.time(exporter, "recompress", source.getFileName().toString())) {
+                    write(reader, directory, tempFile);
+                    timer.success();
+                }
+            } finally {
+                reader.dispose();
+            }
+
+            if (Files.size(tempFile) >= Files.size(source)) {
+                log.debug("Recompression does not reduce the size of " + source + ", the file is copied");
+                return false;
+            }
+            AdmBsmeExportHelper.moveAtomically(tempFile, target);
+            return true;
+        } catch (IIOInvalidTreeException e) {
+            throw new IOException("Cannot read the tags of " + source, e);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * uncompressed grey or RGB images with 8 or 16 bits per sample, these are decoded and written without any conversion
+     */
+    static boolean isSupported(TIFFDirectory directory) {
+        int compression = getInt(directory, BaselineTIFFTagSet.TAG_COMPRESSION, BaselineTIFFTagSet.COMPRESSION_NONE);
+        int photometric = getInt(directory, BaselineTIFFTagSet.TAG_PHOTOMETRIC_INTERPRETATION, -1);
+        int samples = getInt(directory, BaselineTIFFTagSet.TAG_SAMPLES_PER_PIXEL, 1);
+        int planar = getInt(directory, BaselineTIFFTagSet.TAG_PLANAR_CONFIGURATION, BaselineTIFFTagSet.PLANAR_CONFIGURATION_CHUNKY);
+        if (compression != BaselineTIFFTagSet.COMPRESSION_NONE || planar != BaselineTIFFTagSet.PLANAR_CONFIGURATION_CHUNKY
+                || directory.getTIFFField(BaselineTIFFTagSet.TAG_EXTRA_SAMPLES) != null) {
+            return false;
+        }
+        boolean grey = photometric == BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_BLACK_IS_ZERO && samples == 1;
+        boolean rgb = photometric == BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_RGB && samples == 3;
+        if (!grey && !rgb) {
+            return false;
+        }
+        TIFFField bitsPerSample = directory.getTIFFField(BaselineTIFFTagSet.TAG_BITS_PER_SAMPLE);
+        for (int i = 0; i < samples; i++) {
+            int bits = bitsPerSample == null ? 1 : bitsPerSample.getAsInt(Math.min(i, bitsPerSample.getCount() - 1));
+            if (bits != 8 && bits != 16) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getInt(TIFFDirectory directory, int tag, int defaultValue) {
+        TIFFField field = directory.getTIFFField(tag);
+        return field == null ? defaultValue : field.getAsInt(0);
+    }
+
+    private void write(ImageReader reader, TIFFDirectory directory, Path target) throws IOException {
+        ImageTypeSpecifier type = reader.getImageTypes(0).next();
+        int width = reader.getWidth(0);
+        BandedTiffImage image = new BandedTiffImage(reader, type, width, reader.getHeight(0), BAND_HEIGHT, false);
+        BaselineTIFFTagSet tags = BaselineTIFFTagSet.getInstance();
+        // horizontal differencing improves the compression of photographs, the writer ignores it for 16 bits per sample
+        directory.addTIFFField(new TIFFField(tags.getTag(BaselineTIFFTagSet.TAG_PREDICTOR), BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING));
+        // uncompressed masters often have strips of a single row, each strip is compressed on its own
+        long bytesPerRow = Math.max(1, (long) width * type.getSampleModel().getNumBands() * type.getSampleModel().getSampleSize(0) / 8);
+        int rowsPerStrip = (int) Math.max(1, Math.min(BAND_HEIGHT, STRIP_SIZE / bytesPerRow));
+        directory.addTIFFField(new TIFFField(tags.getTag(BaselineTIFFTagSet.TAG_ROWS_PER_STRIP), rowsPerStrip));
+        IIOMetadata metadata = directory.getAsMetadata();
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        // the file image output stream does not truncate an existing file
+        Files.deleteIfExists(target);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(compression);
+            if ("ZLib".equals(compression)) {
+                // the writer maps the quality to the levels 1 to 9 and uses the slow level 9 by default
+                param.setCompressionQuality((level - 1) / 8f);
+            }
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package de.intranda.goobi.plugins.exporters;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+import de.intranda.goobi.plugins.AdaptiveConcurrencyLimiter;
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.BandwidthLimiter;
+import de.intranda.goobi.plugins.ExportMetrics;
+import de.intranda.goobi.plugins.ExportReport;
+import de.intranda.goobi.plugins.IoWorkers;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DocStruct;
+import ugh.dl.Reference;
+
+/**
+ * Checks the structure of all TIFF masters of an export before any file is written, so that truncated or corrupted files from failed
+ * transfers abort the export with a list of the broken files instead of failing in the middle of it.
+ *
+ * Each file is checked for a valid header, a consistent chain of image file directories whose entries lie inside of the file, and strips or
+ * tiles that end before the end of the file. Optionally the first image is decoded completely. The files are checked in parallel.
+ *
+ * While the first directory is read, the capture device of the master is taken from its tags, see {@link CaptureDevice}. If the validation is
+ * disabled, the files are not read at all and the masters get the capture device of the process.
+ */
+@Log4j2
+public class TiffValidator {
+
+    // number of rows decoded at once
+    private static final int BAND_HEIGHT = 256;
+    // protection against endless or absurd directory chains
+    private static final int MAX_DIRECTORIES = 10000;
+
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_ROWS_PER_STRIP = 278;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_PLANAR_CONFIGURATION = 284;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_TILE_LENGTH = 323;
+    private static final int TAG_TILE_OFFSETS = 324;
+    private static final int TAG_TILE_BYTE_COUNTS = 325;
+    private static final int TAG_MAKE = 271;
+    private static final int TAG_MODEL = 272;
+    private static final int TAG_EXIF_IFD = 34665;
+    private static final int TAG_BODY_SERIAL_NUMBER = 42033;
+    private static final int TAG_CAMERA_SERIAL_NUMBER = 50735;
+    // longer texts are cut
+    private static final int MAX_TEXT_LENGTH = 1024;
+
+    // size in bytes of the field types, unknown types are 0
+    private static final int[] TYPE_SIZES = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4, 0, 0, 8, 8, 8 };
+
+    private ExportReport report;
+    private String exporter;
+
+    @Getter
+    private boolean enabled;
+    private boolean decode;
+
+    // devices of the checked files by file name
+    @Getter
+    private Map<String, CaptureDevice> captureDevices = new ConcurrentHashMap<>();
+
+    TiffValidator(ExportReport report, String exporter, boolean enabled, boolean decode) {
+        this.report = report;
+        this.exporter = exporter;
+        this.enabled = enabled;
+        this.decode = decode;
+    }
+
+    /**
+     * create a validator with the settings of the element validation
+     *
+     * @param config
+     * @param report
+     * @param exporter
+     * @return
+     */
+    public static TiffValidator create(XMLConfiguration config, ExportReport report, String exporter) {
+        return new TiffValidator(report, exporter, config.getBoolean("/validation/@enabled", false), config.getBoolean("/validation/@decode", false));
+    }
+
+    /**
+     * check all TIFF masters referenced by the logical structure
+     *
+     * @param imageFolder folder of the masters
+     * @param logical top docstruct of the logical structure
+     * @return a description of each broken file, empty if all files are valid
+     * @throws IOException
+     */
+    public List<String> validate(String imageFolder, DocStruct logical) throws IOException {
+        Set<String> imageNames = new LinkedHashSet<>();
+        collectImageNames(logical, imageNames);
+        List<Path> files = new ArrayList<>();
+        for (String imageName : imageNames) {
+            String lowerCase = imageName.toLowerCase(Locale.ENGLISH);
+            if (lowerCase.endsWith(".tif") || lowerCase.endsWith(".tiff")) {
+                files.add(Paths.get(imageFolder, Paths.get(imageName).getFileName().toString()));
+            }
+        }
+        return validate(files);
+    }
+
+    private static void collectImageNames(DocStruct ds, Set<String> imageNames) {
+        List<Reference> refs = ds.getAllToReferences("logical_physical");
+        if (refs != null) {
+            for (Reference ref : refs) {
+                if (ref.getTarget().getImageName() != null) {
+                    imageNames.add(ref.getTarget().getImageName());
+                }
+            }
+        }
+        if (ds.getAllChildren() != null) {
+            for (DocStruct child : ds.getAllChildren()) {
+                collectImageNames(child, imageNames);
+            }
+        }
+    }
+
+    /**
+     * check the files in parallel, every file is checked so that the result lists all broken files
+     *
+     * @param files
+     * @return a description of each broken file, empty if all files are valid or the validation is disabled
+     * @throws IOException
+     */
+    public List<String> validate(List<Path> files) throws IOException {
+        List<String> problems = new ArrayList<>();
+        if (!enabled || files.isEmpty()) {
+            return problems;
+        }
+        try (ExportMetrics.Timer timer = report.time(exporter, "validation")) {
+            forEachFile(files, this::check).stream().filter(Objects::nonNull).forEach(problems::add);
+            if (problems.isEmpty()) {
+                timer.success();
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * run an action for each file in parallel, as many files as allowed by the limiter of the copy stage are read at once
+     */
+    private <T> List<T> forEachFile(List<Path> files, Function<Path, T> action) throws IOException {
+        // each task of the pool takes the next file until all files are done, the results keep the order of the files
+        int parallel = Math.min(files.size(), AdaptiveConcurrencyLimiter.getStage(AdaptiveConcurrencyLimiter.COPY).getMaxLimit());
+        AtomicInteger next = new AtomicInteger();
+        List<T> results = new ArrayList<>(Collections.nCopies(files.size(), null));
+        List<Future<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < parallel; i++) {
+            workers.add(IoWorkers.submit(() -> {
+                for (int index = next.getAndIncrement(); index < files.size(); index = next.getAndIncrement()) {
+                    results.set(index, action.apply(files.get(index)));
+                }
+                return null;
+            }));
+        }
+        AdmBsmeExportHelper.waitForTransfers(workers);
+        return results;
+    }
+
+    /**
+     * check a single file
+     *
+     * @param file
+     * @return a description of the problem, or null if the file is valid
+     */
+    String check(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            checkStructure(file, name);
+            if (decode) {
+                checkDecoding(file);
+            }
+            return null;
+        } catch (BrokenTiffException e) {
+            log.error("Broken image " + file + ": " + e.getMessage());
+            return name + ": " + e.getMessage();
+        } catch (NoSuchFileException e) {
+            log.error("Missing image " + file);
+            return name + ": the file does not exist";
+        } catch (IOException | RuntimeException e) {
+            // decoders report corrupted data with all kinds of runtime exceptions
+            log.error("Cannot read image " + file, e);
+            return name + ": the file cannot be read, " + e.getMessage();
+        }
+    }
+
+    private void checkStructure(Path file, String name) throws IOException, BrokenTiffException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            TiffFile tiff = new TiffFile(channel);
+            Set<Long> visited = new HashSet<>();
+            long offset = tiff.firstDirectory;
+            int index = 0;
+            while (offset != 0) {
+                if (!visited.add(offset) || visited.size() > MAX_DIRECTORIES) {
+                    throw new BrokenTiffException("the image file directories form a loop");
+                }
+                String directory = "image file directory " + index;
+                Map<Integer, long[]> fields = new HashMap<>();
+                Map<Integer, String> texts = new HashMap<>();
+                offset = readDirectory(tiff, directory, offset, fields, texts);
+                checkImageData(tiff, directory, fields);
+                if (index++ == 0) {
+                    readCaptureDevice(tiff, name, fields, texts);
+                }
+            }
+        }
+    }
+
+    /**
+     * take the device from the tags of the first directory and its EXIF directory, errors in the EXIF directory are ignored
+     */
+    private void readCaptureDevice(TiffFile tiff, String name, Map<Integer, long[]> fields, Map<Integer, String> texts) throws IOException {
+        long exifDirectory = getValue(fields, TAG_EXIF_IFD, 0);
+        if (exifDirectory != 0) {
+            try {
+                readDirectory(tiff, "EXIF directory", exifDirectory, new HashMap<>(), texts);
+            } catch (BrokenTiffException e) {
+                log.warn("Cannot read the EXIF tags of " + name + ": " + e.getMessage());
+            }
+        }
+        String serialNumber = texts.containsKey(TAG_BODY_SERIAL_NUMBER) ? texts.get(TAG_BODY_SERIAL_NUMBER) : texts.get(TAG_CAMERA_SERIAL_NUMBER);
+        if (texts.containsKey(TAG_MAKE) || texts.containsKey(TAG_MODEL) || serialNumber != null) {
+            captureDevices.put(name, new CaptureDevice(texts.get(TAG_MAKE), texts.get(TAG_MODEL), serialNumber));
+        }
+    }
+
+    /**
+     * read a directory, the numbers of the image structure tags and the EXIF directory and the texts of the device tags are collected
+     *
+     * @return the offset of the next directory, or 0
+     */
+    private static long readDirectory(TiffFile tiff, String directory, long offset, Map<Integer, long[]> fields, Map<Integer, String> texts)
+            throws IOException, BrokenTiffException {
+        if (offset < tiff.headerSize || offset >= tiff.size) {
+            throw new BrokenTiffException(directory + " starts at byte " + offset + " outside of the file of " + tiff.size + " bytes");
+        }
+        int countSize = tiff.bigTiff ? 8 : 2;
+        int entrySize = tiff.bigTiff ? 20 : 12;
+        int offsetSize = tiff.bigTiff ? 8 : 4;
+        long count = tiff.readUnsigned(tiff.read(offset, countSize, directory), countSize);
+        if (count == 0) {
+            throw new BrokenTiffException(directory + " has no entries");
+        }
+        ByteBuffer entries = tiff.read(offset + countSize, Math.multiplyExact(count, entrySize) + offsetSize, directory);
+
+        for (long i = 0; i < count; i++) {
+            int tag = Short.toUnsignedInt(entries.getShort());
+            int type = Short.toUnsignedInt(entries.getShort());
+            long valueCount = tiff.readUnsigned(entries, offsetSize);
+            int typeSize = type < TYPE_SIZES.length ? TYPE_SIZES[type] : 0;
+            ByteBuffer value = entries.slice(entries.position(), offsetSize).order(tiff.order);
+            entries.position(entries.position() + offsetSize);
+            if (typeSize == 0) {
+                // unknown types are ignored, as the specification requires
+                continue;
+            }
+            long length = Math.multiplyExact(valueCount, typeSize);
+            boolean text = isDeviceTag(tag) && type == 2;
+            if (length > offsetSize) {
+                long valueOffset = tiff.readUnsigned(value, offsetSize);
+                if (valueOffset + length > tiff.size) {
+                    throw new BrokenTiffException("the value of tag " + tag + " in " + directory + " ends after the end of the file");
+                }
+                if (isNumericTag(tag)) {
+                    value = tiff.read(valueOffset, length, directory);
+                } else if (text) {
+                    value = tiff.read(valueOffset, Math.min(length, MAX_TEXT_LENGTH), directory);
+                }
+            }
+            if (text) {
+                String content = readText(value, (int) Math.min(length, Math.min(value.remaining(), MAX_TEXT_LENGTH)));
+                if (!content.isEmpty()) {
+                    texts.put(tag, content);
+                }
+            } else if (isNumericTag(tag) && (typeSize == 2 || typeSize == 4 || typeSize == 8)) {
+                if (valueCount > Integer.MAX_VALUE) {
+                    throw new BrokenTiffException("tag " + tag + " in " + directory + " has too many values");
+                }
+                long[] values = new long[(int) valueCount];
+                for (int v = 0; v < values.length; v++) {
+                    values[v] = tiff.readUnsigned(value, typeSize);
+                }
+                fields.put(tag, values);
+            }
+        }
+        return tiff.readUnsigned(entries, offsetSize);
+    }
+
+    /**
+     * the text up to the first null character
+     */
+    private static String readText(ByteBuffer value, int length) {
+        byte[] bytes = new byte[length];
+        value.get(bytes);
+        int end = 0;
+        while (end < bytes.length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, 0, end, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    private static boolean isDeviceTag(int tag) {
+        return tag == TAG_MAKE || tag == TAG_MODEL || tag == TAG_BODY_SERIAL_NUMBER || tag == TAG_CAMERA_SERIAL_NUMBER;
+    }
+
+    private static boolean isNumericTag(int tag) {
+        return tag == TAG_IMAGE_WIDTH || tag == TAG_IMAGE_LENGTH || tag == TAG_STRIP_OFFSETS || tag == TAG_SAMPLES_PER_PIXEL
+                || tag == TAG_ROWS_PER_STRIP || tag == TAG_STRIP_BYTE_COUNTS || tag == TAG_PLANAR_CONFIGURATION || tag == TAG_TILE_WIDTH
+                || tag == TAG_TILE_LENGTH || tag == TAG_TILE_OFFSETS || tag == TAG_TILE_BYTE_COUNTS || tag == TAG_EXIF_IFD;
+    }
+
+    /**
+     * the strips or tiles must match the size of the image and end inside of the file
+     */
+    private static void checkImageData(TiffFile tiff, String directory, Map<Integer, long[]> fields) throws BrokenTiffException {
+        long width = getValue(fields, TAG_IMAGE_WIDTH, 0);
+        long height = getValue(fields, TAG_IMAGE_LENGTH, 0);
+        if (width == 0 || height == 0) {
+            throw new BrokenTiffException(directory + " has no image size");
+        }
+        long planes = getValue(fields, TAG_PLANAR_CONFIGURATION, 1) == 2 ? getValue(fields, TAG_SAMPLES_PER_PIXEL, 1) : 1;
+
+        String kind;
+        long[] offsets;
+        long[] byteCounts;
+        long expected;
+        if (fields.containsKey(TAG_TILE_OFFSETS)) {
+            kind = "tile";
+            offsets = fields.get(TAG_TILE_OFFSETS);
+            byteCounts = fields.get(TAG_TILE_BYTE_COUNTS);
+            long tileWidth = getValue(fields, TAG_TILE_WIDTH, 0);
+            long tileLength = getValue(fields, TAG_TILE_LENGTH, 0);
+            if (tileWidth == 0 || tileLength == 0) {
+                throw new BrokenTiffException(directory + " has tiles without a tile size");
+            }
+            expected = ((width + tileWidth - 1) / tileWidth) * ((height + tileLength - 1) / tileLength) * planes;
+        } else {
+            kind = "strip";
+            offsets = fields.get(TAG_STRIP_OFFSETS);
+            byteCounts = fields.get(TAG_STRIP_BYTE_COUNTS);
+            long rowsPerStrip = Math.min(height, getValue(fields, TAG_ROWS_PER_STRIP, height));
+            if (rowsPerStrip == 0) {
+                throw new BrokenTiffException(directory + " has strips without rows");
+            }
+            expected = ((height + rowsPerStrip - 1) / rowsPerStrip) * planes;
+        }
+        if (offsets == null || byteCounts == null) {
+            throw new BrokenTiffException(directory + " has no " + kind + " offsets or byte counts");
+        }
+        if (offsets.length != byteCounts.length || offsets.length < expected) {
+            throw new BrokenTiffException(directory + " has " + offsets.length + " " + kind + " offsets and " + byteCounts.length
+                    + " byte counts, but the image needs " + expected);
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] + byteCounts[i] > tiff.size) {
+                throw new BrokenTiffException(kind + " " + i + " of " + directory + " ends at byte " + (offsets[i] + byteCounts[i])
+                        + " after the end of the file of " + tiff.size + " bytes");
+            }
+        }
+    }
+
+    private static long getValue(Map<Integer, long[]> fields, int tag, long defaultValue) {
+        long[] values = fields.get(tag);
+        return values == null || values.length == 0 ? defaultValue : values[0];
+    }
+
+    /**
+     * decode the first image in bands, the decoder fails on corrupted compressed data
+     */
+    private void checkDecoding(Path file) throws IOException, BrokenTiffException {
+        BandwidthLimiter.getInstance().acquire(Files.size(file));
+        try (ExportMetrics.Timer timer = report.time(exporter, "validationDecode", file.getFileName().toString());
+                ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new BrokenTiffException("no image reader found");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                for (int y = 0; y < height; y += BAND_HEIGHT) {
+                    param.setSourceRegion(new Rectangle(0, y, width, Math.min(BAND_HEIGHT, height - y)));
+                    reader.read(0, param);
+                }
+            } finally {
+                reader.dispose();
+            }
+            timer.success();
+        }
+    }
+
+    /**
+     * header of an open TIFF or BigTIFF file
+     */
+    private static class TiffFile {
+        private FileChannel channel;
+        private long size;
+        private ByteOrder order;
+        private boolean bigTiff;
+        private int headerSize;
+        private long firstDirectory;
+
+        private TiffFile(FileChannel channel) throws IOException, BrokenTiffException {
+            this.channel = channel;
+            size = channel.size();
+            if (size < 8) {
+                throw new BrokenTiffException("the file has only " + size + " bytes");
+            }
+            ByteBuffer header = ByteBuffer.allocate(8);
+            channel.read(header, 0);
+            header.flip();
+            short byteOrder = header.getShort();
+            if (byteOrder == 0x4949) {
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else if (byteOrder == 0x4d4d) {
+                order = ByteOrder.BIG_ENDIAN;
+            } else {
+                throw new BrokenTiffException("the file does not start with a TIFF header");
+            }
+            header.order(order);
+            int version = Short.toUnsignedInt(header.getShort());
+            if (version == 42) {
+                headerSize = 8;
+                firstDirectory = Integer.toUnsignedLong(header.getInt());
+            } else if (version == 43) {
+                bigTiff = true;
+                headerSize = 16;
+                ByteBuffer rest = read(8, 8, "the header");
+                firstDirectory = rest.getLong();
+            } else {
+                throw new BrokenTiffException("the file has the unknown TIFF version " + version);
+            }
+            if (firstDirectory == 0) {
+                throw new BrokenTiffException("the file contains no image");
+            }
+        }
+
+        /**
+         * read a part of the file that must lie completely inside of it
+         */
+        private ByteBuffer read(long offset, long length, String part) throws IOException, BrokenTiffException {
+            if (offset < 0 || length < 0 || offset + length > size) {
+                throw new BrokenTiffException(part + " ends after the end of the file of " + size + " bytes");
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new BrokenTiffException(part + " is too large");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) length).order(order);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new BrokenTiffException(part + " ends after the end of the file");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private long readUnsigned(ByteBuffer buffer, int length) {
+            return switch (length) {
+                case 1 -> Byte.toUnsignedLong(buffer.get());
+                case 2 -> Short.toUnsignedLong(buffer.getShort());
+                case 4 -> Integer.toUnsignedLong(buffer.getInt());
+                default -> buffer.getLong();
+            };
+        }
+    }
+
+    /**
+     * a structural problem of a file, the message describes it for the list of broken files
+     */
+    private static class BrokenTiffException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private BrokenTiffException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long MS = 1000000;
+
+    @Test
+    public void testLimitGrowsWhileTransfersAreFast() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 4, 1, 2.0, 0.5);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            now += 10 * MS;
+            limiter.release(10 * MS, MB, true, now);
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testLimitShrinksOnSlowOrFailedTransfers() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 8, 8, 2.0, 0.5);
+        long now = 0;
+        limiter.acquire();
+        now += 10 * MS;
+        limiter.release(10 * MS, MB, true, now);
+
+        // slow transfer
+        limiter.acquire();
+        now += 100 * MS;
+        limiter.release(100 * MS, MB, true, now);
+        assertEquals(4, limiter.getLimit());
+
+        // a second slow transfer of the same round is ignored
+        limiter.acquire();
+        now += MS;
+        limiter.release(100 * MS, MB, true, now);
+        assertEquals(4, limiter.getLimit());
+
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire();
+            now += 100 * MS;
+            limiter.release(10 * MS, MB, false, now);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testAcquireBlocksAtLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 2.0, 0.5);
+        limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        other.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        limiter.release(10 * MS, MB, true);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        other.join();
+        assertEquals(1, limiter.getInFlight());
+    }
+}
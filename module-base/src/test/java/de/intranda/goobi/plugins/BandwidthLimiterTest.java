@@ -0,0 +1,68 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BandwidthLimiterTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long SECOND = 1000000000L;
+
+    private static final LocalTime NOON = LocalTime.of(12, 0);
+    private static final LocalTime NIGHT = LocalTime.of(23, 0);
+
+    @Test
+    public void testProfileForTimeOfDay() {
+        BandwidthLimiter limiter = createLimiter();
+        assertEquals(10 * MB, limiter.getProfile(NOON).getRate());
+        assertEquals(0, limiter.getProfile(NIGHT).getRate());
+        assertEquals(0, limiter.getProfile(LocalTime.of(3, 0)).getRate());
+
+        limiter.setProfiles(List.of(new BandwidthLimiter.Profile(new TimeWindow(LocalTime.of(6, 0), LocalTime.of(20, 0)), 10 * MB, MB)));
+        assertNull(limiter.getProfile(NIGHT));
+    }
+
+    @Test
+    public void testTransfersWaitForTokens() {
+        BandwidthLimiter limiter = createLimiter();
+        // the burst is available at once
+        assertEquals(0, limiter.reserve(2 * MB, NOON, 0));
+        // 20 MB need two seconds
+        assertEquals(2 * SECOND, limiter.reserve(20 * MB, NOON, 0));
+        // the next transfer waits for the previous one
+        assertEquals(3 * SECOND, limiter.reserve(10 * MB, NOON, 0));
+        // one second later the debt is one second shorter
+        assertEquals(2 * SECOND, limiter.reserve(0, NOON, SECOND));
+    }
+
+    @Test
+    public void testNoLimitOutsideOfWorkingHours() {
+        BandwidthLimiter limiter = createLimiter();
+        assertEquals(2 * SECOND, limiter.reserve(22 * MB, NOON, 0));
+        assertEquals(0, limiter.reserve(1000 * MB, NIGHT, 0));
+        // a new profile starts with a full bucket
+        assertEquals(0, limiter.reserve(2 * MB, NOON, 0));
+    }
+
+    @Test
+    public void testSameProfilesKeepTheBucket() {
+        BandwidthLimiter limiter = createLimiter();
+        assertEquals(0, limiter.reserve(2 * MB, NOON, 0));
+        // loading the same configuration again must not refill the bucket
+        limiter.setProfiles(List.of(new BandwidthLimiter.Profile(new TimeWindow(LocalTime.of(6, 0), LocalTime.of(20, 0)), 10 * MB, 2 * MB),
+                new BandwidthLimiter.Profile(new TimeWindow(LocalTime.of(20, 0), LocalTime.of(6, 0)), 0, MB)));
+        assertEquals(SECOND, limiter.reserve(10 * MB, NOON, 0));
+    }
+
+    private static BandwidthLimiter createLimiter() {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setProfiles(List.of(new BandwidthLimiter.Profile(new TimeWindow(LocalTime.of(6, 0), LocalTime.of(20, 0)), 10 * MB, 2 * MB),
+                new BandwidthLimiter.Profile(new TimeWindow(LocalTime.of(20, 0), LocalTime.of(6, 0)), 0, MB)));
+        return limiter;
+    }
+}
@@ -0,0 +1,58 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BulkExporterTest {
+
+    @Test
+    public void testLimitedTypeDoesNotBlockThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            BulkExporter.TypeDispatcher dispatcher = new BulkExporter.TypeDispatcher(executor, Map.of("Newspaper", 1));
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger runningNewspapers = new AtomicInteger();
+            AtomicInteger maxNewspapers = new AtomicInteger();
+
+            CompletableFuture<String> first = new CompletableFuture<>();
+            dispatcher.dispatch("Newspaper", first, () -> {
+                maxNewspapers.accumulateAndGet(runningNewspapers.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                runningNewspapers.decrementAndGet();
+                return "newspaper 1";
+            });
+            CompletableFuture<String> second = new CompletableFuture<>();
+            dispatcher.dispatch("Newspaper", second, () -> {
+                maxNewspapers.accumulateAndGet(runningNewspapers.incrementAndGet(), Math::max);
+                runningNewspapers.decrementAndGet();
+                return "newspaper 2";
+            });
+            // the waiting newspaper does not take the second thread
+            CompletableFuture<String> magazine = new CompletableFuture<>();
+            dispatcher.dispatch("Periodical", magazine, () -> "magazine");
+            assertEquals("magazine", magazine.get(10, TimeUnit.SECONDS));
+            assertFalse(second.isDone());
+
+            release.countDown();
+            assertEquals(List.of("newspaper 1", "newspaper 2"), List.of(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS)));
+            assertEquals(1, maxNewspapers.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
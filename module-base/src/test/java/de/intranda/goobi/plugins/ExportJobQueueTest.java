@@ -0,0 +1,157 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportJobQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path queueFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        queueFolder = folder.newFolder("queue").toPath();
+    }
+
+    @Test
+    public void testLeaseAndComplete() throws Exception {
+        ExportJobQueue queue = new ExportJobQueue(queueFolder, 60000, 2);
+        String name = queue.submit(createJob("42"));
+
+        ExportJobQueue.Lease lease = queue.lease("worker1");
+        assertNotNull(lease);
+        assertEquals(name, lease.getName());
+        assertEquals(0, lease.getRetries());
+        assertNull(queue.lease("worker2"));
+
+        queue.complete(lease);
+        assertTrue(Files.exists(queueFolder.resolve("done").resolve(name + ".job")));
+        assertEquals(0, queue.getPendingJobs());
+    }
+
+    @Test
+    public void testExpiredLeaseIsRetriedUntilFailed() throws Exception {
+        ExportJobQueue queue = new ExportJobQueue(queueFolder, 1000, 1);
+        String name = queue.submit(createJob("42"));
+
+        ExportJobQueue.Lease lease = queue.lease("worker1");
+        expire(lease);
+        assertEquals(1, queue.requeueExpiredLeases());
+
+        lease = queue.lease("worker2");
+        assertEquals(1, lease.getRetries());
+        expire(lease);
+        assertEquals(1, queue.requeueExpiredLeases());
+
+        assertEquals(0, queue.getPendingJobs());
+        assertTrue(Files.exists(queueFolder.resolve("failed").resolve(name + ".job")));
+    }
+
+    @Test
+    public void testPermanentFailureIsNotRetried() throws Exception {
+        ExportJobQueue queue = new ExportJobQueue(queueFolder, 60000, 3);
+        String retried = queue.submit(createJob("42"));
+        String broken = queue.submit(createJob("43"));
+
+        ExportJobQueue.Lease first = queue.lease("worker1");
+        ExportJobQueue.Lease second = queue.lease("worker1");
+        queue.fail(first, true);
+        queue.fail(second, false);
+
+        assertEquals(1, queue.getPendingJobs());
+        assertEquals(retried, queue.lease("worker1").getName());
+        assertTrue(Files.exists(queueFolder.resolve("failed").resolve(broken + ".job")));
+    }
+
+    @Test
+    public void testJournalIsImportedOnce() throws Exception {
+        ExportJobQueue queue = new ExportJobQueue(queueFolder, 60000, 3);
+        queue.submit(createJob("42"));
+        ExportJobQueue.Lease lease = queue.lease("worker1");
+        Properties journal = new Properties();
+        journal.setProperty("processId", "42");
+        queue.writeJournal(lease, journal);
+        queue.fail(lease, true);
+        queue.writeJournal(queue.lease("worker1"), journal);
+
+        List<Properties> imported = new ArrayList<>();
+        assertEquals(2, queue.importJournals(imported::add));
+        assertEquals("42", imported.get(0).getProperty("processId"));
+        assertEquals(0, queue.importJournals(imported::add));
+        assertEquals(2, imported.size());
+    }
+
+    @Test
+    public void testEachJobIsLeasedOnce() throws Exception {
+        ExportJobQueue queue = new ExportJobQueue(queueFolder, 60000, 0);
+        for (int i = 0; i < 50; i++) {
+            queue.submit(createJob(String.valueOf(i)));
+        }
+        Set<String> leased = ConcurrentHashMap.newKeySet();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String workerId = "worker" + i;
+            Thread worker = new Thread(() -> {
+                try {
+                    ExportJobQueue.Lease lease;
+                    while ((lease = queue.lease(workerId)) != null) {
+                        assertTrue(leased.add(lease.getName()));
+                        queue.complete(lease);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(50, leased.size());
+    }
+
+    @Test
+    public void testLeaseUsesTheTimeOfTheShare() throws Exception {
+        ExportJobQueue queue = new ExportJobQueue(queueFolder, 1000, 1);
+        queue.submit(createJob("42"));
+        ExportJobQueue.Lease lease = queue.lease("worker1");
+        long before = queue.getShareTime();
+        lease.heartbeat();
+        assertTrue(Files.getLastModifiedTime(lease.getFile()).toMillis() >= before);
+        assertEquals(0, queue.requeueExpiredLeases());
+        // the probe files are removed
+        try (Stream<Path> files = Files.list(queueFolder.resolve("tmp"))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static Properties createJob(String processId) {
+        Properties job = new Properties();
+        job.setProperty("processId", processId);
+        job.setProperty("metadataFile", "/opt/digiverso/goobi/metadata/" + processId + "/meta.xml");
+        return job;
+    }
+
+    private static void expire(ExportJobQueue.Lease lease) throws Exception {
+        Files.setLastModifiedTime(lease.getFile(), FileTime.fromMillis(System.currentTimeMillis() - 5000));
+    }
+}
@@ -0,0 +1,47 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+public class ExportMetricsTest {
+
+    @Test
+    public void testTimersAndCounters() throws Exception {
+        ExportMetrics.get("Test").reset();
+        try (ExportMetrics.Timer timer = ExportMetrics.time("Test", "copy.tif")) {
+            timer.success();
+        }
+        // closed without success, counted as failed
+        ExportMetrics.time("Test", "copy.tif").close();
+        ExportMetrics.addBytes("Test", "copy.tif", 100);
+        ExportMetrics.addBytes("Test", "copy.tif", 50);
+
+        List<PhaseStatistics> phases = ExportMetrics.get("Test").getPhases();
+        assertEquals(1, phases.size());
+        assertEquals("copy.tif", phases.get(0).getPhase());
+        assertEquals(2, phases.get(0).getCount());
+        assertEquals(1, phases.get(0).getFailures());
+        assertEquals(Long.valueOf(150), ExportMetrics.get("Test").getByteCounters().get("copy.tif"));
+    }
+
+    @Test
+    public void testJmxRegistration() throws Exception {
+        ExportMetrics.record("JmxTest", "readMetadataFile", 1000000, true);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("de.intranda.goobi.plugins:type=ExportMetrics,exporter=\"JmxTest\"");
+        assertTrue(server.isRegistered(name));
+        CompositeData[] phases = (CompositeData[]) server.getAttribute(name, "Phases");
+        assertEquals(1, phases.length);
+        assertEquals("readMetadataFile", phases[0].get("phase"));
+        assertEquals(1L, phases[0].get("count"));
+    }
+}
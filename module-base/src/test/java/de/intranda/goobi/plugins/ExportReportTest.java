@@ -0,0 +1,44 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ExportReportTest {
+
+    @Test
+    public void testVolumesAndSlowestFiles() {
+        ExportReport report = new ExportReport();
+        for (int i = 1; i <= 15; i++) {
+            report.addFile("Test", "copy.tif", i + ".tif", TimeUnit.MILLISECONDS.toNanos(i), 1024 * 1024);
+        }
+        report.addPdfFile("Test", "volume.pdf", 2 * 1024 * 1024);
+        try (ExportMetrics.Timer timer = report.time("Test", "imageProbe", "1.tif")) {
+            timer.success();
+        }
+        report.addCacheAccess("ruleset", false);
+        report.addCacheAccess("ruleset", true);
+        report.addCacheAccess("ruleset", true);
+        report.addCacheAccess("ruleset", true);
+        report.finish("Test", true);
+
+        assertEquals(Long.valueOf(15), report.getFileCounts().get("copy.tif"));
+        assertEquals(Long.valueOf(15 * 1024 * 1024), report.getBytes().get("copy.tif"));
+        assertEquals(1, report.getPagesProbed());
+        assertEquals(0.75, report.getCaches().get(0).getHitRate(), 0.001);
+
+        List<ExportReport.SlowFile> slowest = report.getSlowestFiles();
+        assertEquals(10, slowest.size());
+        assertEquals("15.tif", slowest.get(0).getFile());
+        assertEquals("6.tif", slowest.get(9).getFile());
+
+        String summary = report.createSummary();
+        assertTrue(summary, summary.contains("15 files copied (15.0 MB)"));
+        assertTrue(summary, summary.contains("1 PDF files (2.0 MB)"));
+        assertTrue(summary, summary.contains("slowest file: 15.tif"));
+    }
+}
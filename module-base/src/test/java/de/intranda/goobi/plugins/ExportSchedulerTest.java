@@ -0,0 +1,104 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExportSchedulerTest {
+
+    private static final LocalTime NOON = LocalTime.of(12, 0);
+    private static final LocalTime NIGHT = LocalTime.of(23, 0);
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    private ExportScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ExportScheduler();
+        scheduler.setSettings(true, 2, Map.of("AdmSlide", 10, "Newspaper", 0), 5,
+                List.of(new TimeWindow(LocalTime.of(20, 0), LocalTime.of(6, 0))), 2 * HOUR);
+    }
+
+    @Test
+    public void testPriorityBeforeShortestJob() {
+        ExportScheduler.Ticket newspaper = scheduler.enqueue("Newspaper", 10, false, 0);
+        ExportScheduler.Ticket generic = scheduler.enqueue("AdmGeneric", 500, false, 0);
+        ExportScheduler.Ticket slide = scheduler.enqueue("AdmSlide", 1000, false, 0);
+
+        assertEquals(slide, scheduler.next(NOON, 0));
+        scheduler.start(slide, 0);
+        assertEquals(generic, scheduler.next(NOON, 0));
+        scheduler.start(generic, 0);
+        assertEquals(newspaper, scheduler.next(NOON, 0));
+    }
+
+    @Test
+    public void testShortestJobFirst() {
+        ExportScheduler.Ticket large = scheduler.enqueue("Newspaper", 800, false, 0);
+        ExportScheduler.Ticket small = scheduler.enqueue("Newspaper", 12, false, 0);
+        ExportScheduler.Ticket sameSize = scheduler.enqueue("Newspaper", 12, false, 0);
+
+        assertEquals(small, scheduler.next(NOON, 0));
+        scheduler.start(small, 0);
+        assertEquals(sameSize, scheduler.next(NOON, 0));
+        scheduler.start(sameSize, 0);
+        assertEquals(large, scheduler.next(NOON, 0));
+        assertEquals(1, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void testBulkExportsWaitForOffPeak() {
+        ExportScheduler.Ticket bulk = scheduler.enqueue("AdmSlide", 1, true, 0);
+        assertNull(scheduler.next(NOON, 0));
+        assertEquals(bulk, scheduler.next(NIGHT, 0));
+
+        ExportScheduler.Ticket single = scheduler.enqueue("Newspaper", 400, false, 0);
+        assertEquals(single, scheduler.next(NOON, 0));
+        assertEquals(bulk, scheduler.next(NIGHT, 0));
+    }
+
+    @Test
+    public void testStarvingBulkExportsStartOutsideOfOffPeak() {
+        ExportScheduler.Ticket bulk = scheduler.enqueue("AdmSlide", 1, true, 0);
+        ExportScheduler.Ticket single = scheduler.enqueue("Newspaper", 400, false, HOUR);
+        assertEquals(single, scheduler.next(NOON, HOUR));
+        assertEquals(bulk, scheduler.next(NOON, 3 * HOUR));
+    }
+
+    @Test
+    public void testBulkExportsWithoutOffPeakWindow() {
+        scheduler.setSettings(true, 2, Map.of(), 0, List.of(), 0);
+        ExportScheduler.Ticket bulk = scheduler.enqueue("AdmSlide", 1, true, 0);
+        assertEquals(bulk, scheduler.next(NOON, 0));
+    }
+
+    @Test
+    public void testLongWaitingExportsStartFirst() {
+        ExportScheduler.Ticket large = scheduler.enqueue("Newspaper", 800, false, 0);
+        ExportScheduler.Ticket small = scheduler.enqueue("AdmSlide", 1, false, HOUR);
+        assertEquals(small, scheduler.next(NOON, 2 * HOUR));
+        assertEquals(large, scheduler.next(NOON, 3 * HOUR));
+    }
+
+    @Test
+    public void testWaitTimes() {
+        ExportScheduler.Ticket first = scheduler.enqueue("AdmSlide", 1, false, 0);
+        ExportScheduler.Ticket second = scheduler.enqueue("AdmSlide", 1, false, 0);
+        assertEquals(2, scheduler.getQueueDepth());
+        scheduler.start(first, TimeUnit.SECONDS.toNanos(1));
+        scheduler.start(second, TimeUnit.SECONDS.toNanos(3));
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(2, scheduler.getRunningExports());
+        assertEquals(2000, scheduler.getAverageWaitTime());
+        assertEquals(3000, scheduler.getMaxWaitTime());
+        scheduler.finish();
+        assertEquals(1, scheduler.getRunningExports());
+    }
+}
@@ -0,0 +1,80 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportStagingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDataFilesAreMovedBeforeXmlFiles() throws Exception {
+        Path target = folder.newFolder("target").toPath();
+        ExportStaging staging = ExportStaging.create(new XMLConfiguration(), target.toString());
+        for (int i = 1; i <= 5; i++) {
+            Files.writeString(Paths.get(staging.getPath(), "0000000" + i + ".tif"), "image");
+        }
+        Files.writeString(Paths.get(staging.getPath(), "1234.xml"), "<mets/>");
+        // the xml file cannot replace a folder with content, so the commit stops at the xml file
+        Files.createDirectories(target.resolve("1234.xml").resolve("blocked"));
+
+        try {
+            staging.commit();
+            fail("the xml file must not be moved");
+        } catch (IOException e) {
+            // expected
+        }
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(Files.exists(target.resolve("0000000" + i + ".tif")));
+        }
+        assertTrue(Files.exists(Paths.get(staging.getPath(), "1234.xml")));
+    }
+
+    @Test
+    public void testFailedExportIsDiscarded() throws Exception {
+        Path target = folder.newFolder("target").toPath();
+        ExportStaging staging = ExportStaging.create(new XMLConfiguration(), target.toString());
+        Files.writeString(Paths.get(staging.getPath(), "1234.xml"), "<mets/>");
+        Files.writeString(Paths.get(staging.getPath(), "00000001.tif"), "image");
+
+        assertFalse(staging.finish(false));
+        assertFalse(Files.exists(staging.getFolder()));
+        assertEquals(List.of(target.resolve(".staging")), list(target));
+    }
+
+    @Test
+    public void testCommitWithSubFolders() throws Exception {
+        Path target = folder.newFolder("target").toPath();
+        ExportStaging staging = ExportStaging.create(new XMLConfiguration(), target.toString());
+        Files.writeString(Paths.get(staging.getPath(), "1234.xml"), "<mets/>");
+        // left over by a step of the export, e.g. temporary files of a conversion
+        Path subFolder = Files.createDirectories(staging.getFolder().resolve("tmp").resolve("pages"));
+        Files.writeString(subFolder.resolve("page.pdf"), "pdf");
+
+        assertTrue(staging.finish(true));
+        assertFalse(Files.exists(staging.getFolder()));
+        assertEquals("<mets/>", Files.readString(target.resolve("1234.xml")));
+        assertFalse(Files.exists(target.resolve("tmp")));
+    }
+
+    private static List<Path> list(Path folder) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.sorted().toList();
+        }
+    }
+}
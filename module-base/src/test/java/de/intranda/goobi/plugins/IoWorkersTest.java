@@ -0,0 +1,34 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class IoWorkersTest {
+
+    @After
+    public void tearDown() {
+        IoWorkers.setThreads(8);
+    }
+
+    @Test
+    public void testNestedTasksDoNotBlockThePool() throws Exception {
+        IoWorkers.setThreads(1);
+        // the only thread of the pool waits for tasks queued behind it
+        Future<Integer> outer = IoWorkers.submit(() -> {
+            List<Future<Integer>> inner = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) {
+                int value = i;
+                inner.add(IoWorkers.submit(() -> value));
+            }
+            return AdmBsmeExportHelper.waitForTransfers(inner).stream().mapToInt(Integer::intValue).sum();
+        });
+        assertEquals(6, outer.get(10, TimeUnit.SECONDS).intValue());
+    }
+}
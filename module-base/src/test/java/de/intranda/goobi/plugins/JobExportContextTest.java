@@ -0,0 +1,75 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.goobi.production.enums.LogType;
+import org.junit.Test;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+
+public class JobExportContextTest {
+
+    // the ruleset shipped with the plugin
+    private static final String RULESET = "../install/rulesets/newspaper.xml";
+
+    @Test
+    public void testJournal() {
+        JobExportContext context = new JobExportContext(createJob());
+        context.addJournalEntry(LogType.ERROR, "Export aborted because of broken images: 00000001.tif");
+        context.addJournalEntry(LogType.INFO, "Export finished");
+
+        Properties journal = context.getJournal();
+        assertEquals("42", journal.getProperty(JobExportContext.PROCESS_ID));
+        assertEquals(List.of(Map.entry(LogType.ERROR, "Export aborted because of broken images: 00000001.tif"), Map.entry(LogType.INFO,
+                "Export finished")), JobExportContext.readJournal(journal));
+    }
+
+    @Test
+    public void testReplaceVariables() throws Exception {
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(RULESET);
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct newspaper = dd.createDocStruct(prefs.getDocStrctTypeByName("Newspaper"));
+        addMetadata(prefs, newspaper, "TitleDocMain", "Al Bayan");
+        addMetadata(prefs, newspaper, "CatalogIDDigital", "1234");
+        DocStruct year = dd.createDocStruct(prefs.getDocStrctTypeByName("Year"));
+        addMetadata(prefs, year, "CatalogIDDigital", "1234_1985");
+        newspaper.addChild(year);
+        dd.setLogicalDocStruct(newspaper);
+
+        JobExportContext context = new JobExportContext(createJob());
+        // the first child is used before the anchor
+        assertEquals("id 1234_1985", context.replaceVariables("id $(meta.CatalogIDDigital)", dd));
+        assertEquals("Al Bayan", context.replaceVariables("$(meta.TitleDocMain)", dd));
+        assertEquals("1234/1234_1985", context.replaceVariables("$(meta.topstruct.CatalogIDDigital)/$(meta.firstchild.CatalogIDDigital)", dd));
+        assertEquals("42 Issue $1", context.replaceVariables("$(processid) ${processtitle}", dd));
+        assertEquals("Scanner A", context.replaceVariables("${process.Capturing device}", dd));
+        // unknown variables are removed
+        assertEquals("-", context.replaceVariables("$(meta.Unknown)-${process.Unknown}$(unknown)", dd));
+        assertEquals("no variables", context.replaceVariables("no variables", dd));
+        assertNull(context.replaceVariables(null, dd));
+    }
+
+    private static Properties createJob() {
+        Properties job = new Properties();
+        job.setProperty(JobExportContext.PROCESS_ID, "42");
+        job.setProperty(JobExportContext.PROCESS_TITLE, "Issue $1");
+        job.setProperty(JobExportContext.METADATA_FILE, "/opt/digiverso/goobi/metadata/42/meta.xml");
+        job.setProperty(JobExportContext.PROPERTY_PREFIX + "Capturing device", "Scanner A");
+        return job;
+    }
+
+    private static void addMetadata(Prefs prefs, DocStruct ds, String type, String value) throws Exception {
+        Metadata md = new Metadata(prefs.getMetadataTypeByName(type));
+        md.setValue(value);
+        ds.addMetadata(md);
+    }
+}
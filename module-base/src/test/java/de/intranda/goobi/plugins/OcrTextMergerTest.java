@@ -0,0 +1,58 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OcrTextMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNaturalOrder() {
+        List<String> names = new ArrayList<>(List.of("page_10.txt", "page_2.txt", "page_002a.txt", "Page_1.txt", "page_0010.txt"));
+        names.sort(OcrTextMerger::compareNatural);
+        assertEquals(List.of("Page_1.txt", "page_2.txt", "page_002a.txt", "page_0010.txt", "page_10.txt"), names);
+        assertTrue(OcrTextMerger.compareNatural("00000099", "100") < 0);
+    }
+
+    @Test
+    public void testMergeWithSeparator() throws Exception {
+        Path first = write("00000001.txt", "first page\n");
+        Path second = write("00000002.txt", "second page");
+        Path third = write("00000003.txt", "third page\n");
+        Path target = folder.getRoot().toPath().resolve("issue.txt");
+        Files.writeString(target, "old content that is longer than the new one\n".repeat(10));
+
+        ExportReport report = new ExportReport();
+        int merged = new OcrTextMerger("--- {page} ---\n", true).merge(report, "test", List.of(first, second, folder.getRoot().toPath().resolve(
+                "missing.txt"), third), target);
+
+        assertEquals(3, merged);
+        assertEquals("first page\n--- 2 ---\nsecond page\n--- 4 ---\nthird page\n", Files.readString(target, StandardCharsets.UTF_8));
+        assertEquals(Files.size(target), report.getBytes().get("text").longValue());
+    }
+
+    @Test
+    public void testMergeWithoutSeparator() throws Exception {
+        Path first = write("1.txt", "نص عربي");
+        Path second = write("2.txt", "second");
+        Path target = folder.getRoot().toPath().resolve("merged.txt");
+        new OcrTextMerger("", false).merge(new ExportReport(), "test", List.of(first, second), target);
+        assertEquals("نص عربي\nsecond", Files.readString(target, StandardCharsets.UTF_8));
+    }
+
+    private Path write(String name, String content) throws Exception {
+        return Files.writeString(folder.getRoot().toPath().resolve(name), content, StandardCharsets.UTF_8);
+    }
+}
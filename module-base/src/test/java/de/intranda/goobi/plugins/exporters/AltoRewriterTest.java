@@ -0,0 +1,124 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Test;
+
+public class AltoRewriterTest {
+
+    private static final Namespace ALTO_NS = Namespace.getNamespace("http://www.loc.gov/standards/alto/ns-v4#");
+
+    private static final String ALTO = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <alto xmlns="http://www.loc.gov/standards/alto/ns-v4#" xmlns:xlink="http://www.w3.org/1999/xlink">
+              <Description>
+                <sourceImageInformation>
+                  <fileName>/opt/digiverso/goobi/metadata/12/images/master_media/00000007.tif</fileName>
+                </sourceImageInformation>
+              </Description>
+              <Layout>
+                <!-- page 7 -->
+                <Page ID="00000007_Page1" PHYSICAL_IMG_NR="7">
+                  <PrintSpace>
+                    <TextBlock ID="00000007_block_1" IDNEXT="00000007_block_2" TAGREFS="00000007_tag_1" xlink:href="00000007">
+                      <TextLine ID="00000007_line_1">
+                        <String ID="00000007_string_1" CONTENT="00000007 &amp; more" WC="0.9"/>
+                      </TextLine>
+                    </TextBlock>
+                  </PrintSpace>
+                </Page>
+              </Layout>
+            </alto>
+            """;
+
+    @Test
+    public void testRewriteReferences() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AltoRewriter("tif").rewrite(new ByteArrayInputStream(ALTO.getBytes(StandardCharsets.UTF_8)), out, "00000007", "1234-0007");
+        String result = out.toString(StandardCharsets.UTF_8);
+
+        Document doc = new SAXBuilder().build(new ByteArrayInputStream(out.toByteArray()));
+        Element root = doc.getRootElement();
+        assertEquals("1234-0007.tif", root.getChild("Description", ALTO_NS).getChild("sourceImageInformation", ALTO_NS).getChildText("fileName", ALTO_NS));
+
+        Element page = root.getChild("Layout", ALTO_NS).getChild("Page", ALTO_NS);
+        assertEquals("1234-0007_Page1", page.getAttributeValue("ID"));
+        assertEquals("7", page.getAttributeValue("PHYSICAL_IMG_NR"));
+        Element block = page.getChild("PrintSpace", ALTO_NS).getChild("TextBlock", ALTO_NS);
+        assertEquals("1234-0007_block_2", block.getAttributeValue("IDNEXT"));
+        assertEquals("1234-0007_tag_1", block.getAttributeValue("TAGREFS"));
+        // other attributes and the text content are kept
+        assertEquals("00000007", block.getAttributeValue("href", Namespace.getNamespace("http://www.w3.org/1999/xlink")));
+        Element string = block.getChild("TextLine", ALTO_NS).getChild("String", ALTO_NS);
+        assertEquals("00000007 & more", string.getAttributeValue("CONTENT"));
+        assertTrue(result.contains("<!-- page 7 -->"));
+        assertFalse(result.contains("master_media"));
+    }
+
+    @Test
+    public void testNameIsOnlyReplacedAsToken() {
+        assertEquals("1234-0007_block_1", AltoRewriter.replaceName("00000007_block_1", "00000007", "1234-0007"));
+        assertEquals("1234-0007", AltoRewriter.replaceName("00000007", "00000007", "1234-0007"));
+        assertEquals("1234-0007_tag_1 1234-0007_tag_2", AltoRewriter.replaceName("00000007_tag_1 00000007_tag_2", "00000007", "1234-0007"));
+        assertEquals("page-1234-0007", AltoRewriter.replaceName("page-00000007", "00000007", "1234-0007"));
+        // other names containing the old name are kept
+        assertEquals("100000007_block_1", AltoRewriter.replaceName("100000007_block_1", "00000007", "1234-0007"));
+        assertEquals("000000070_line", AltoRewriter.replaceName("000000070_line", "00000007", "1234-0007"));
+        assertEquals("000000070_line 1234-0007_line", AltoRewriter.replaceName("000000070_line 00000007_line", "00000007", "1234-0007"));
+    }
+
+    @Test
+    public void testSerializationKeepsTheDocument() throws Exception {
+        String alto = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <?xml-stylesheet type="text/xsl" href="alto.xsl"?>
+                <alto:alto xmlns:alto="http://www.loc.gov/standards/alto/ns-v4#" xmlns:xlink="http://www.w3.org/1999/xlink">
+                  <alto:Description xmlns="urn:other" xmlns:alto="http://www.loc.gov/standards/alto/ns-v2#"><Other>default namespace</Other></alto:Description>
+                  <alto:Layout>
+                    <?processing page="7"?>
+                    <alto:Page ID="Page1" xlink:type="simple" LABEL="a &quot;b&quot; &lt;c&gt; &amp; d&#9;e&#10;f&#13;g">
+                      <alto:String CONTENT="x"><![CDATA[<b>bold</b> & ]]>text&#13;
+                line</alto:String>
+                      <alto:String CONTENT="&#x1F600; ä"/>
+                    </alto:Page>
+                  </alto:Layout>
+                </alto:alto>
+                """;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AltoRewriter("tif").rewrite(new ByteArrayInputStream(alto.getBytes(StandardCharsets.UTF_8)), out, "00000007", "1234-0007");
+        String result = out.toString(StandardCharsets.UTF_8);
+
+        SAXBuilder builder = new SAXBuilder();
+        Document expected = builder.build(new ByteArrayInputStream(alto.getBytes(StandardCharsets.UTF_8)));
+        Document actual = builder.build(new ByteArrayInputStream(out.toByteArray()));
+        // CDATA sections may be written as escaped text, the content stays the same
+        XMLOutputter outputter = new XMLOutputter(Format.getRawFormat());
+        assertEquals(outputter.outputString(expected).replace("<![CDATA[<b>bold</b> & ]]>", "&lt;b&gt;bold&lt;/b&gt; &amp; "),
+                outputter.outputString(actual).replace("<![CDATA[<b>bold</b> & ]]>", "&lt;b&gt;bold&lt;/b&gt; &amp; "));
+
+        Element root = actual.getRootElement();
+        assertEquals("alto", root.getNamespacePrefix());
+        Element description = root.getChildren().get(0);
+        assertEquals("http://www.loc.gov/standards/alto/ns-v2#", description.getNamespaceURI());
+        assertEquals("urn:other", description.getChildren().get(0).getNamespaceURI());
+        Element page = root.getChild("Layout", root.getNamespace()).getChild("Page", root.getNamespace());
+        assertEquals("a \"b\" <c> & d\te\nf\rg", page.getAttributeValue("LABEL"));
+        assertEquals("simple", page.getAttributeValue("type", Namespace.getNamespace("http://www.w3.org/1999/xlink")));
+        assertEquals("<b>bold</b> & text\r\nline", page.getChildren().get(0).getText());
+        assertEquals("\uD83D\uDE00 \u00e4", page.getChildren().get(1).getAttributeValue("CONTENT"));
+        assertTrue(result.contains("<?xml-stylesheet type=\"text/xsl\" href=\"alto.xsl\"?>"));
+        assertTrue(result.contains("<?processing page=\"7\"?>"));
+    }
+}
@@ -0,0 +1,82 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.junit.Test;
+
+public class AltoStatisticsTest {
+
+    private static final String ALTO = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <alto xmlns="http://www.loc.gov/standards/alto/ns-v4#">
+              <Layout>
+                <Page ID="Page1">
+                  <PrintSpace>
+                    <TextBlock ID="block_1" LANG="ar">
+                      <TextLine ID="line_1">
+                        <String CONTENT="one" WC="0.9"/><SP/><String CONTENT="two" WC="0.7"/>
+                      </TextLine>
+                      <TextLine ID="line_2" LANG="en">
+                        <String CONTENT="three" WC="0.5"/>
+                      </TextLine>
+                    </TextBlock>
+                    <TextBlock ID="block_2" LANG="ar">
+                      <TextLine ID="line_3">
+                        <String CONTENT="four" LANG="en"/><String CONTENT="five" WC="invalid"/><String CONTENT="six"/>
+                      </TextLine>
+                    </TextBlock>
+                  </PrintSpace>
+                </Page>
+              </Layout>
+            </alto>
+            """;
+
+    @Test
+    public void testCollectWhileRewriting() throws Exception {
+        AltoStatistics statistics = new AltoStatistics();
+        new AltoRewriter("tif").rewrite(new ByteArrayInputStream(ALTO.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream(), "Page1",
+                "0001", statistics);
+        assertEquals(6, statistics.getWords());
+        assertEquals(3, statistics.getConfidenceCount());
+        assertEquals(0.7, statistics.getAverageConfidence(), 0.0001);
+        assertEquals("ar", statistics.getLanguage());
+
+        AltoStatistics collected = new AltoStatistics();
+        AltoRewriter.collect(new ByteArrayInputStream(ALTO.getBytes(StandardCharsets.UTF_8)), collected);
+        assertEquals(6, collected.getWords());
+        assertEquals("ar", collected.getLanguage());
+    }
+
+    @Test
+    public void testAddToPages() throws Exception {
+        AltoStatistics statistics = new AltoStatistics();
+        AltoRewriter.collect(new ByteArrayInputStream(ALTO.getBytes(StandardCharsets.UTF_8)), statistics);
+        AltoStatistics empty = new AltoStatistics();
+
+        Element pages = new Element("Pages");
+        pages.addContent(new Element("Page").addContent(new Element("alto").setText("1234-0001.xml")));
+        pages.addContent(new Element("Page").addContent(new Element("alto").setText("1234-0002.xml")));
+        pages.addContent(new Element("Page"));
+        Document doc = new Document(new Element("issue").addContent(pages));
+
+        AltoStatistics.addToPages(doc, Map.of("1234-0001", statistics, "1234-0002", empty));
+        Element first = pages.getChildren("Page").get(0);
+        assertEquals("6", first.getChildText("ocrWordCount"));
+        assertEquals("0.700", first.getChildText("ocrWordConfidence"));
+        assertEquals("ar", first.getChildText("ocrLanguage"));
+        // values without any source are left out
+        Element second = pages.getChildren("Page").get(1);
+        assertEquals("0", second.getChildText("ocrWordCount"));
+        assertNull(second.getChild("ocrWordConfidence"));
+        assertNull(second.getChild("ocrLanguage"));
+        assertNull(pages.getChildren("Page").get(2).getChild("ocrWordCount"));
+    }
+}
@@ -0,0 +1,51 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class AltoTextExtractorTest {
+
+    private static final String ALTO = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <alto xmlns="http://www.loc.gov/standards/alto/ns-v4#">
+              <Layout>
+                <Page ID="Page1">
+                  <PrintSpace>
+                    <TextBlock ID="block_1">
+                      <TextLine ID="line_1">
+                        <String CONTENT="The" WC="0.98"/><SP/><String CONTENT="first" WC="0.91"/><SP/><String CONTENT="line" WC="0.87"/>
+                      </TextLine>
+                      <TextLine ID="line_2">
+                        <String CONTENT="with" WC="0.9"/><SP/><String CONTENT="hyphen" WC="0.8"/><HYP CONTENT="-"/>
+                      </TextLine>
+                    </TextBlock>
+                    <TextBlock ID="block_2">
+                      <TextLine ID="line_3">
+                        <String CONTENT="نص"/><String CONTENT="عربي"/>
+                      </TextLine>
+                    </TextBlock>
+                  </PrintSpace>
+                </Page>
+              </Layout>
+            </alto>
+            """;
+
+    @Test
+    public void testExtractInReadingOrder() throws Exception {
+        StringWriter out = new StringWriter();
+        AltoTextExtractor.extract(new ByteArrayInputStream(ALTO.getBytes(StandardCharsets.UTF_8)), out);
+        assertEquals("The first line\nwith hyphen-\n\nنص عربي\n", out.toString());
+    }
+
+    @Test
+    public void testEmptyPage() throws Exception {
+        StringWriter out = new StringWriter();
+        AltoTextExtractor.extract(new ByteArrayInputStream("<alto><Layout><Page/></Layout></alto>".getBytes(StandardCharsets.UTF_8)), out);
+        assertEquals("", out.toString());
+    }
+}
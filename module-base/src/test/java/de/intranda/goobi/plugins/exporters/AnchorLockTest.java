@@ -0,0 +1,66 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AnchorLockTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLocksAreRemovedAfterRelease() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            AnchorLock lock = AnchorLock.acquire(folder.getRoot().toPath().resolve("anchor" + i + ".xml"));
+            try {
+                assertEquals(1, AnchorLock.getLocalLockCount());
+            } finally {
+                lock.close();
+            }
+        }
+        assertEquals(0, AnchorLock.getLocalLockCount());
+    }
+
+    @Test
+    public void testWaitingThreadsShareTheLock() throws Exception {
+        Path anchor = folder.getRoot().toPath().resolve("anchor.xml");
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger maxHolders = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                futures.add(executor.submit(() -> {
+                    AnchorLock lock = AnchorLock.acquire(anchor);
+                    try {
+                        maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+                        Thread.sleep(1);
+                        holders.decrementAndGet();
+                    } finally {
+                        lock.close();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, maxHolders.get());
+        assertEquals(0, AnchorLock.getLocalLockCount());
+    }
+}
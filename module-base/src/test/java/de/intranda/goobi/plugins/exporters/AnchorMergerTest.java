@@ -0,0 +1,127 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AnchorMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path tempFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        tempFolder = folder.newFolder("anchor").toPath();
+    }
+
+    @Test
+    public void testMergeAddsNewVolumeInOrder() throws Exception {
+        Path oldAnchor = writeAnchor("old.xml", "1990", "1992");
+        Path newAnchor = writeAnchor("new.xml", "1991");
+
+        new AnchorMerger(false).mergeInto(oldAnchor, newAnchor);
+
+        Map<String, AnchorMerger.Volume> volumes = AnchorMerger.readVolumes(oldAnchor);
+        List<String> orders = new ArrayList<>();
+        volumes.values().forEach(v -> orders.add(v.getOrder()));
+        assertEquals(List.of("1990", "1991", "1992"), orders);
+
+        // content outside of the logical structMap is kept
+        String content = Files.readString(oldAnchor);
+        assertTrue(content.contains("<mets:dmdSec ID=\"DMDLOG_0000\">"));
+        assertTrue(content.contains("ID=\"LOG_0003\""));
+    }
+
+    @Test
+    public void testReexportDoesNotDuplicateVolume() throws Exception {
+        Path oldAnchor = writeAnchor("old.xml", "1990", "1991");
+        Path newAnchor = writeAnchor("new.xml", "1991");
+
+        new AnchorMerger(true).mergeInto(oldAnchor, newAnchor);
+        assertEquals(2, AnchorMerger.readVolumes(oldAnchor).size());
+        assertTrue(Files.exists(AnchorMerger.getRegistryPath(oldAnchor)));
+
+        // second merge is answered by the registry
+        new AnchorMerger(true).mergeInto(oldAnchor, newAnchor);
+        assertEquals(2, AnchorMerger.readVolumes(oldAnchor).size());
+    }
+
+    @Test
+    public void testAnchorWithoutLogicalStructMapIsNotReplaced() throws Exception {
+        Path oldAnchor = tempFolder.resolve("old.xml");
+        String content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\">\n"
+                + "  <mets:structMap TYPE=\"PHYSICAL\" />\n</mets:mets>\n";
+        Files.writeString(oldAnchor, content);
+        Path newAnchor = writeAnchor("new.xml", "1991");
+
+        try {
+            new AnchorMerger(false).mergeInto(oldAnchor, newAnchor);
+            fail("the merge must fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(content, Files.readString(oldAnchor));
+        // the temporary file of the merge is removed
+        try (Stream<Path> files = Files.list(tempFolder)) {
+            assertEquals(0, files.filter(f -> f.getFileName().toString().endsWith(".tmp")).count());
+        }
+    }
+
+    @Test
+    public void testParallelMergesKeepAllVolumes() throws Exception {
+        Path targetAnchor = tempFolder.resolve("1234.xml");
+        List<Thread> threads = new ArrayList<>();
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int year = 1950; year < 1970; year++) {
+            Path newAnchor = writeAnchor("new-" + year + ".xml", String.valueOf(year));
+            Thread thread = new Thread(() -> {
+                try {
+                    new AnchorMerger(false).mergeInto(targetAnchor, newAnchor);
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.isEmpty());
+        assertEquals(20, AnchorMerger.readVolumes(targetAnchor).size());
+    }
+
+    private Path writeAnchor(String name, String... years) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n");
+        sb.append("  <mets:dmdSec ID=\"DMDLOG_0000\">\n    <mets:mdWrap MDTYPE=\"MODS\" />\n  </mets:dmdSec>\n");
+        sb.append("  <mets:structMap TYPE=\"LOGICAL\">\n");
+        sb.append("    <mets:div ID=\"LOG_0000\" TYPE=\"Newspaper\" DMDID=\"DMDLOG_0000\">\n");
+        for (String year : years) {
+            sb.append("      <mets:div ID=\"LOG_").append(year).append("\" ORDER=\"").append(year).append("\" TYPE=\"Year\">\n");
+            sb.append("        <mets:mptr LOCTYPE=\"URL\" xlink:href=\"https://example.org/sourcefile?id=1234-").append(year).append(".xml\" />\n");
+            sb.append("      </mets:div>\n");
+        }
+        sb.append("    </mets:div>\n  </mets:structMap>\n</mets:mets>\n");
+        Path file = tempFolder.resolve(name);
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
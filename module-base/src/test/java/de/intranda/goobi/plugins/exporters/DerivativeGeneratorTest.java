@@ -0,0 +1,98 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.jdom2.Element;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.ExportReport;
+
+public class DerivativeGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCreateDerivativesOfCopiedMasters() throws Exception {
+        Path source = folder.newFolder("source").toPath().resolve("00000001.tif");
+        BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(10, 10, 0xff0000);
+        assertTrue(ImageIO.write(image, "tiff", source.toFile()));
+        Path target = folder.newFolder("target").toPath().resolve("1234-0001.tif");
+
+        List<DerivativeGenerator.Derivative> derivatives;
+        try (DerivativeGenerator generator = new DerivativeGenerator(new ExportReport(), "test", true, 100, 0.8f, false, 64)) {
+            generator.wrap(Files::copy).transfer(source, target);
+            derivatives = generator.await();
+        }
+        assertTrue(Files.exists(target));
+        assertEquals(1, derivatives.size());
+        assertEquals("1234-0001", derivatives.get(0).getMaster());
+        BufferedImage jpeg = ImageIO.read(target.resolveSibling("1234-0001.jpg").toFile());
+        assertEquals(100, jpeg.getWidth());
+        assertEquals(50, jpeg.getHeight());
+
+        // the derivative follows the master with the same file name
+        Element image1 = new Element("Image").addContent(new Element("master").addContent(new Element("file").setText("1234-0001.tif")));
+        Element image2 = new Element("Image").addContent(new Element("master").addContent(new Element("file").setText("1234-0002.tif")));
+        Element root = new Element("envelope").addContent(new Element("Images").addContent(image1).addContent(image2));
+        DerivativeGenerator.addToMasters(root, derivatives);
+        Element derivative = (Element) image1.getContent(1);
+        assertEquals("derivative", derivative.getName());
+        assertEquals("image/jpeg", derivative.getChildText("Format"));
+        assertEquals("100", derivative.getChildText("Width"));
+        assertEquals("1234-0001.jpg", derivative.getChildText("file"));
+        assertNull(image2.getChild("derivative"));
+    }
+
+    @Test
+    public void testDerivativesAreDecodedFromTheSource() throws Exception {
+        Path source = folder.newFolder("source").toPath().resolve("00000001.tif");
+        assertTrue(ImageIO.write(new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB), "tiff", source.toFile()));
+        Path target = folder.newFolder("target").toPath().resolve("1234-0001.tif");
+
+        List<DerivativeGenerator.Derivative> derivatives;
+        try (DerivativeGenerator generator = new DerivativeGenerator(new ExportReport(), "test", true, 100, 0.8f, false, 64)) {
+            // the copy cannot be decoded, the derivative is only created if it is taken from the source
+            generator.wrap((s, t) -> Files.write(t, new byte[] { 1, 2, 3 })).transfer(source, target);
+            derivatives = generator.await();
+        }
+        assertEquals(1, derivatives.size());
+        assertEquals(100, ImageIO.read(target.resolveSibling("1234-0001.jpg").toFile()).getWidth());
+    }
+
+    @Test
+    public void testScaleKeepsGreyImages() {
+        BufferedImage grey = new BufferedImage(1000, 3000, BufferedImage.TYPE_USHORT_GRAY);
+        BufferedImage scaled = DerivativeGenerator.scale(grey, 300);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, scaled.getType());
+        assertEquals(100, scaled.getWidth());
+        assertEquals(300, scaled.getHeight());
+
+        // small images are only converted
+        BufferedImage small = DerivativeGenerator.scale(new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB), 300);
+        assertEquals(BufferedImage.TYPE_INT_RGB, small.getType());
+        assertEquals(20, small.getWidth());
+    }
+
+    @Test
+    public void testMemoryPermitsAreBounded() {
+        try (DerivativeGenerator generator = new DerivativeGenerator(new ExportReport(), "test", true, 1000, 0.8f, false, 100)) {
+            assertEquals(1, generator.getMemoryPermits(10, 10, 1));
+            // 2000 x 1000 pixels with 4 bytes each and half of it for the scaled copies
+            assertEquals(12, generator.getMemoryPermits(4000, 2000, 2));
+            assertEquals(100, generator.getMemoryPermits(40000, 20000, 1));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Prefs;
+import ugh.exceptions.MetadataTypeNotAllowedException;
+
+public class DigitalDocumentViewTest {
+
+    private static final String RULESET = "../install/rulesets/newspaper.xml";
+
+    private Prefs prefs;
+    private DigitalDocument dd;
+    private DocStruct issue;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new Prefs();
+        prefs.loadPrefs(RULESET);
+        dd = new DigitalDocument();
+        issue = dd.createDocStruct(prefs.getDocStrctTypeByName("NewspaperIssue"));
+    }
+
+    @Test
+    public void testAddMetadataOnlyChangesTheView() throws Exception {
+        DigitalDocumentView view = new DigitalDocumentView(dd);
+        view.addMetadata(issue, prefs.getMetadataTypeByName("TitleDocMain"), "Issue 1");
+        assertEquals(1, view.getAllMetadata(issue).size());
+        assertTrue(issue.getAllMetadata() == null || issue.getAllMetadata().isEmpty());
+    }
+
+    @Test(expected = MetadataTypeNotAllowedException.class)
+    public void testTypeNotAllowedForDocstruct() throws Exception {
+        new DigitalDocumentView(dd).addMetadata(issue, prefs.getMetadataTypeByName("ISSN"), "1234-5678");
+    }
+
+    @Test(expected = MetadataTypeNotAllowedException.class)
+    public void testTypeAllowedOnlyOnce() throws Exception {
+        DigitalDocumentView view = new DigitalDocumentView(dd);
+        view.addMetadata(issue, prefs.getMetadataTypeByName("TitleDocMain"), "Issue 1");
+        view.addMetadata(issue, prefs.getMetadataTypeByName("TitleDocMain"), "Issue 2");
+    }
+}
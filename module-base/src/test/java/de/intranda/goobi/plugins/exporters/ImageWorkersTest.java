@@ -0,0 +1,33 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ImageWorkersTest {
+
+    @Test
+    public void testBudgetIsSharedAndBounded() throws Exception {
+        ImageWorkers.MemoryBudget budget = ImageWorkers.getBudget("test", 10);
+        assertSame(budget, ImageWorkers.getBudget("test", 10));
+        // a request larger than the budget takes the whole budget
+        assertEquals(10, budget.acquire(50));
+        CompletableFuture<Integer> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.acquire(4);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }, ImageWorkers.getExecutor());
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        budget.release(10);
+        assertEquals(4, (int) waiting.get(10, TimeUnit.SECONDS));
+        budget.release(4);
+    }
+}
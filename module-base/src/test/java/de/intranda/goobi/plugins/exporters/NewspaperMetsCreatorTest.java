@@ -0,0 +1,116 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.ExportContext;
+import de.intranda.goobi.plugins.ExportReport;
+import de.intranda.goobi.plugins.ExportStaging;
+import de.intranda.goobi.plugins.ExportVariableReplacer;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+
+public class NewspaperMetsCreatorTest {
+
+    // the configuration and the ruleset shipped with the plugin
+    private static final String CONFIG = "../install/plugin_intranda_export_adm_bsme.xml";
+    private static final String RULESET = "../install/rulesets/newspaper.xml";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Prefs prefs;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new Prefs();
+        prefs.loadPrefs(RULESET);
+    }
+
+    @Test
+    public void testSourceDocumentIsNotChanged() throws Exception {
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct newspaper = dd.createDocStruct(prefs.getDocStrctTypeByName("Newspaper"));
+        addMetadata(newspaper, "TitleDocMain", "Al Bayan");
+        addMetadata(newspaper, "CatalogIDDigital", "1234");
+        addMetadata(newspaper, "DocLanguage", "ar");
+        DocStruct year = dd.createDocStruct(prefs.getDocStrctTypeByName("Year"));
+        addMetadata(year, "TitleDocMain", "1985");
+        addMetadata(year, "CatalogIDDigital", "1234_1985");
+        addMetadata(year, "CurrentNo", "1");
+        newspaper.addChild(year);
+        DocStruct issue = dd.createDocStruct(prefs.getDocStrctTypeByName("NewspaperIssue"));
+        addMetadata(issue, "TitleDocMain", "Issue 1");
+        addMetadata(issue, "DateIssued", "1985-01-02");
+        year.addChild(issue);
+        dd.setLogicalDocStruct(newspaper);
+        dd.setPhysicalDocStruct(dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook")));
+
+        List<String> newspaperBefore = describe(newspaper);
+        List<String> yearBefore = describe(year);
+        List<String> issueBefore = describe(issue);
+
+        File target = folder.newFolder("target");
+        XMLConfiguration config = new XMLConfiguration();
+        config.setDelimiterParsingDisabled(true);
+        config.load(CONFIG);
+        config.setExpressionEngine(new XPathExpressionEngine());
+        config.setProperty("targetDirectoryNewspapers", target.getAbsolutePath());
+
+        ExportContext context = EasyMock.createNiceMock(ExportContext.class);
+        EasyMock.expect(context.getProcessId()).andReturn(1).anyTimes();
+        EasyMock.expect(context.getReport()).andReturn(new ExportReport()).anyTimes();
+        EasyMock.expect(context.createVariableReplacer(EasyMock.anyObject(), EasyMock.anyObject()))
+                .andReturn((ExportVariableReplacer) value -> value)
+                .anyTimes();
+        EasyMock.replay(context);
+
+        ExportStaging staging = ExportStaging.create(config, target.getAbsolutePath());
+        NewspaperMetsCreator creator = new NewspaperMetsCreator(config, context, prefs, dd, Collections.emptyMap(), staging);
+        try {
+            assertTrue(creator.exportMetsFile());
+            assertTrue(Files.exists(staging.getFolder().resolve("1234_1985-19850102-mets.xml")));
+        } finally {
+            creator.finishAnchor(false);
+            staging.discard();
+        }
+
+        // neither the labels got the prefix nor were the missing metadata added to the source document
+        assertEquals(newspaperBefore, describe(newspaper));
+        assertEquals(yearBefore, describe(year));
+        assertEquals(issueBefore, describe(issue));
+        assertEquals(List.of("TitleDocMain=Issue 1", "DateIssued=1985-01-02"), describe(issue));
+    }
+
+    private void addMetadata(DocStruct ds, String type, String value) throws Exception {
+        Metadata md = new Metadata(prefs.getMetadataTypeByName(type));
+        md.setValue(value);
+        ds.addMetadata(md);
+    }
+
+    private static List<String> describe(DocStruct ds) {
+        List<String> values = new ArrayList<>();
+        if (ds.getAllMetadata() != null) {
+            for (Metadata md : ds.getAllMetadata()) {
+                values.add(md.getType().getName() + "=" + md.getValue());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,107 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.ExportContext;
+import de.intranda.goobi.plugins.ExportReport;
+import de.intranda.goobi.plugins.ExportVariableReplacer;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+
+public class PositiveExporterTest {
+
+    // the configuration and the ruleset shipped with the plugin
+    private static final String CONFIG = "../install/plugin_intranda_export_adm_bsme.xml";
+    private static final String RULESET = "../install/rulesets/ruleset.xml";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Prefs prefs;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new Prefs();
+        prefs.loadPrefs(RULESET);
+    }
+
+    @Test
+    public void testFailingPositiveDiscardsTheWholeEnvelope() throws Exception {
+        File images = folder.newFolder("images");
+        File target = folder.newFolder("target");
+
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct envelope = dd.createDocStruct(prefs.getDocStrctTypeByName("AdmPositiveEnvelope"));
+        Metadata identifier = new Metadata(prefs.getMetadataTypeByName("CatalogIDDigital"));
+        identifier.setValue("1234");
+        envelope.addMetadata(identifier);
+        DocStruct physical = dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
+        dd.setLogicalDocStruct(envelope);
+        dd.setPhysicalDocStruct(physical);
+        for (int i = 1; i <= 4; i++) {
+            String imageName = String.format("%08d.tif", i);
+            // the master of the third positive is missing
+            if (i != 3) {
+                assertTrue(ImageIO.write(new BufferedImage(60, 40, BufferedImage.TYPE_BYTE_GRAY), "tiff", new File(images, imageName)));
+            }
+            DocStruct page = dd.createDocStruct(prefs.getDocStrctTypeByName("page"));
+            page.setImageName(imageName);
+            physical.addChild(page);
+            DocStruct positive = dd.createDocStruct(prefs.getDocStrctTypeByName("AdmPositive"));
+            envelope.addChild(positive);
+            positive.addReferenceTo(page, "logical_physical");
+        }
+
+        XMLConfiguration config = new XMLConfiguration();
+        config.setDelimiterParsingDisabled(true);
+        config.load(CONFIG);
+        config.setExpressionEngine(new XPathExpressionEngine());
+        config.setProperty("targetDirectoryPositives", target.getAbsolutePath());
+
+        ExportContext context = EasyMock.createNiceMock(ExportContext.class);
+        EasyMock.expect(context.getProcessId()).andReturn(1).anyTimes();
+        EasyMock.expect(context.getReport()).andReturn(new ExportReport()).anyTimes();
+        EasyMock.expect(context.getTechnicalNotes()).andReturn(Collections.emptyList()).anyTimes();
+        EasyMock.expect(context.getImagesOrigDirectory()).andReturn(images.getAbsolutePath()).anyTimes();
+        EasyMock.expect(context.getOcrTxtDirectory()).andReturn(folder.newFolder("txt").getAbsolutePath()).anyTimes();
+        EasyMock.expect(context.getOcrAltoDirectory()).andReturn(folder.newFolder("alto").getAbsolutePath()).anyTimes();
+        EasyMock.expect(context.createVariableReplacer(EasyMock.anyObject(), EasyMock.anyObject()))
+                .andReturn((ExportVariableReplacer) value -> value == null ? "" : value)
+                .anyTimes();
+        EasyMock.replay(context);
+
+        assertFalse(new PositiveExporter(config, context, prefs, dd).startExport());
+
+        // neither the xml files of the other positives nor their images reach the target folder, the staging folder is removed
+        try (Stream<Path> files = Files.walk(target.toPath())) {
+            List<Path> left = files.filter(Files::isRegularFile).collect(Collectors.toList());
+            assertEquals(Collections.emptyList(), left);
+        }
+        try (Stream<Path> staging = Files.list(target.toPath().resolve(".staging"))) {
+            assertEquals(0, staging.count());
+        }
+    }
+}
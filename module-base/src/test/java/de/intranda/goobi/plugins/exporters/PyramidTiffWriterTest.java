@@ -0,0 +1,118 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.plugins.tiff.TIFFTag;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.ExportReport;
+
+public class PyramidTiffWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWritePyramidNextToMaster() throws Exception {
+        BufferedImage image = new BufferedImage(1001, 600, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 7 % 256) << 16 | (y * 3 % 256) << 8 | (x + y) % 256);
+            }
+        }
+        Path master = folder.getRoot().toPath().resolve("1234-0001.tif");
+        writeTiff(image, master, 300);
+
+        List<DerivativeGenerator.Derivative> pyramids;
+        try (PyramidTiffWriter writer = new PyramidTiffWriter(new ExportReport(), "test", PyramidTiffWriter.Mode.DERIVATIVE, 256, 200, "Deflate", 64)) {
+            writer.wrap((source, target) -> {
+            }).transfer(master, master);
+            pyramids = writer.await();
+        }
+        assertEquals(1, pyramids.size());
+        assertEquals("1234-0001_pyramid.tif", pyramids.get(0).getFileName());
+        assertEquals(1001, pyramids.get(0).getWidth());
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(master.resolveSibling("1234-0001_pyramid.tif").toFile())) {
+            ImageReader reader = ImageIO.getImageReaders(in).next();
+            reader.setInput(in);
+            // 1001, 501, 251
+            assertEquals(3, reader.getNumImages(true));
+            assertTrue(reader.isImageTiled(0));
+            assertEquals(256, reader.getTileWidth(0));
+            assertEquals(501, reader.getWidth(1));
+            assertEquals(300, reader.getHeight(1));
+            assertEquals(251, reader.getWidth(2));
+
+            // the full resolution keeps the pixels and the tags of the master
+            BufferedImage fullResolution = reader.read(0);
+            for (int y = 0; y < image.getHeight(); y += 37) {
+                for (int x = 0; x < image.getWidth(); x += 13) {
+                    assertEquals(image.getRGB(x, y), fullResolution.getRGB(x, y));
+                }
+            }
+            TIFFDirectory first = TIFFDirectory.createFromMetadata(reader.getImageMetadata(0));
+            assertEquals(300, first.getTIFFField(BaselineTIFFTagSet.TAG_X_RESOLUTION).getAsRational(0)[0]);
+            TIFFDirectory second = TIFFDirectory.createFromMetadata(reader.getImageMetadata(1));
+            assertEquals(BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION, second.getTIFFField(BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE).getAsLong(0));
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReplaceMaster() throws Exception {
+        BufferedImage image = new BufferedImage(300, 300, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setSample(10, 10, 0, 200);
+        Path master = folder.getRoot().toPath().resolve("00000001.tif");
+        writeTiff(image, master, 400);
+
+        try (PyramidTiffWriter writer = new PyramidTiffWriter(new ExportReport(), "test", PyramidTiffWriter.Mode.REPLACE, 128, 100, "none", 64)) {
+            assertTrue(writer.submit(master).get().isEmpty());
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(master.toFile())) {
+            ImageReader reader = ImageIO.getImageReaders(in).next();
+            reader.setInput(in);
+            assertEquals(2, reader.getNumImages(true));
+            assertEquals(200, reader.read(0).getRaster().getSample(10, 10, 0));
+            // the average of 200 and three black pixels
+            assertEquals(50, reader.read(1).getRaster().getSample(5, 5, 0));
+            reader.dispose();
+        }
+        try (var files = Files.list(folder.getRoot().toPath())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    private static void writeTiff(BufferedImage image, Path target, long resolution) throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), writer.getDefaultWriteParam());
+        TIFFDirectory directory = TIFFDirectory.createFromMetadata(metadata);
+        TIFFTag tag = BaselineTIFFTagSet.getInstance().getTag(BaselineTIFFTagSet.TAG_X_RESOLUTION);
+        directory.addTIFFField(new TIFFField(tag, TIFFTag.TIFF_RATIONAL, 1, new long[][] { { resolution, 1 } }));
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, directory.getAsMetadata()), null);
+        }
+        writer.dispose();
+    }
+}
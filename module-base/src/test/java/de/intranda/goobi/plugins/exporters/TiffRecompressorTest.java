@@ -0,0 +1,108 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.plugins.tiff.TIFFTag;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.ExportReport;
+
+public class TiffRecompressorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecompressKeepsPixelsAndTags() throws Exception {
+        BufferedImage rgb = new BufferedImage(700, 600, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < rgb.getHeight(); y++) {
+            for (int x = 0; x < rgb.getWidth(); x++) {
+                rgb.setRGB(x, y, (x % 256) << 16 | (y % 256) << 8 | (x / 8 + y / 8) % 256);
+            }
+        }
+        BufferedImage grey = new BufferedImage(500, 300, BufferedImage.TYPE_USHORT_GRAY);
+        for (int y = 0; y < grey.getHeight(); y++) {
+            for (int x = 0; x < grey.getWidth(); x++) {
+                grey.getRaster().setSample(x, y, 0, x * 100 + y);
+            }
+        }
+
+        TiffRecompressor recompressor = new TiffRecompressor(new ExportReport(), "test", true, "Deflate", 6);
+        for (BufferedImage image : new BufferedImage[] { rgb, grey }) {
+            Path source = folder.newFolder().toPath().resolve("00000001.tif");
+            writeTiff(image, source, null);
+            Path target = source.resolveSibling("1234-0001.tif");
+            recompressor.wrap((s, t) -> {
+                throw new AssertionError("the master must be recompressed");
+            }).transfer(source, target);
+            assertTrue(Files.size(target) < Files.size(source));
+
+            try (ImageInputStream in = ImageIO.createImageInputStream(target.toFile())) {
+                ImageReader reader = ImageIO.getImageReaders(in).next();
+                reader.setInput(in);
+                TIFFDirectory directory = TIFFDirectory.createFromMetadata(reader.getImageMetadata(0));
+                assertEquals(BaselineTIFFTagSet.COMPRESSION_ZLIB, directory.getTIFFField(BaselineTIFFTagSet.TAG_COMPRESSION).getAsInt(0));
+                assertEquals(300, directory.getTIFFField(BaselineTIFFTagSet.TAG_X_RESOLUTION).getAsRational(0)[0]);
+                assertEquals("Scanner", directory.getTIFFField(BaselineTIFFTagSet.TAG_MAKE).getAsString(0));
+                assertEquals(image.getSampleModel().getSampleSize(0), directory.getTIFFField(BaselineTIFFTagSet.TAG_BITS_PER_SAMPLE).getAsInt(0));
+                int[] expected = image.getRaster().getPixels(0, 0, image.getWidth(), image.getHeight(), (int[]) null);
+                int[] actual = reader.read(0).getRaster().getPixels(0, 0, image.getWidth(), image.getHeight(), (int[]) null);
+                assertArrayEquals(expected, actual);
+                reader.dispose();
+            }
+            try (var files = Files.list(source.getParent())) {
+                assertEquals(2, files.count());
+            }
+        }
+    }
+
+    @Test
+    public void testCompressedMastersAreCopied() throws Exception {
+        Path source = folder.getRoot().toPath().resolve("00000001.tif");
+        writeTiff(new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY), source, "LZW");
+        TiffRecompressor recompressor = new TiffRecompressor(new ExportReport(), "test", true, "Deflate", 6);
+        assertFalse(recompressor.recompress(source, source.resolveSibling("1234-0001.tif")));
+        assertFalse(Files.exists(source.resolveSibling("1234-0001.tif")));
+    }
+
+    private static void writeTiff(BufferedImage image, Path target, String compression) throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (compression != null) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(compression);
+        }
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        TIFFDirectory directory = TIFFDirectory.createFromMetadata(metadata);
+        BaselineTIFFTagSet tags = BaselineTIFFTagSet.getInstance();
+        directory.addTIFFField(new TIFFField(tags.getTag(BaselineTIFFTagSet.TAG_X_RESOLUTION), TIFFTag.TIFF_RATIONAL, 1, new long[][] { { 300, 1 } }));
+        directory.addTIFFField(new TIFFField(tags.getTag(BaselineTIFFTagSet.TAG_MAKE), TIFFTag.TIFF_ASCII, 1, new String[] { "Scanner" }));
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, directory.getAsMetadata()), param);
+        }
+        writer.dispose();
+    }
+}
@@ -0,0 +1,166 @@
+package de.intranda.goobi.plugins.exporters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.ExifParentTIFFTagSet;
+import javax.imageio.plugins.tiff.ExifTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.plugins.tiff.TIFFTag;
+import javax.imageio.plugins.tiff.TIFFTagSet;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.jdom2.Element;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.ExportReport;
+
+public class TiffValidatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testValidFiles() throws Exception {
+        Path striped = folder.getRoot().toPath().resolve("00000001.tif");
+        writeTiff(striped, false, null);
+        Path tiled = folder.getRoot().toPath().resolve("00000002.tif");
+        writeTiff(tiled, true, "Deflate");
+        TiffValidator validator = new TiffValidator(new ExportReport(), "test", true, true);
+        assertTrue(validator.validate(List.of(striped, tiled)).isEmpty());
+    }
+
+    @Test
+    public void testBrokenFilesAreListed() throws Exception {
+        // a file of an interrupted transfer, the image data is incomplete
+        Path truncated = folder.getRoot().toPath().resolve("00000001.tif");
+        writeTiff(truncated, false, null);
+        try (FileChannel channel = FileChannel.open(truncated, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+        Path noTiff = folder.getRoot().toPath().resolve("00000002.tif");
+        Files.writeString(noTiff, "<html>error</html>");
+        Path missing = folder.getRoot().toPath().resolve("00000003.tif");
+        Path valid = folder.getRoot().toPath().resolve("00000004.tif");
+        writeTiff(valid, false, null);
+
+        TiffValidator validator = new TiffValidator(new ExportReport(), "test", true, false);
+        List<String> problems = validator.validate(List.of(truncated, noTiff, missing, valid));
+        assertEquals(3, problems.size());
+        assertTrue(problems.get(0), problems.get(0).startsWith("00000001.tif: strip 11 of image file directory 0 ends at byte"));
+        assertEquals("00000002.tif: the file does not start with a TIFF header", problems.get(1));
+        assertEquals("00000003.tif: the file does not exist", problems.get(2));
+    }
+
+    @Test
+    public void testDecodingFindsCorruptedData() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("00000001.tif");
+        writeTiff(file, false, "Deflate");
+        byte[] content = Files.readAllBytes(file);
+        // the image data follows the image file directory
+        for (int i = content.length / 2; i < content.length / 2 + 1000; i++) {
+            content[i] = (byte) 0xff;
+        }
+        Files.write(file, content);
+        assertNull(new TiffValidator(new ExportReport(), "test", true, false).check(file));
+        assertNotNull(new TiffValidator(new ExportReport(), "test", true, true).check(file));
+    }
+
+    @Test
+    public void testCaptureDeviceFromTags() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("00000001.tif");
+        writeTiffWithDevice(file);
+        TiffValidator validator = new TiffValidator(new ExportReport(), "test", true, false);
+        assertTrue(validator.validate(List.of(file)).isEmpty());
+        CaptureDevice device = validator.getCaptureDevices().get("00000001.tif");
+        assertEquals("Phase One IQ4 150MP", device.getName());
+        assertEquals("IQ123456", device.getSerialNumber());
+
+        // the device of the process is only used without tags
+        Element master = new Element("master");
+        CaptureDevice.addTo(master, device, "Scanner of the process");
+        CaptureDevice.addTo(master, null, "Scanner of the process");
+        assertEquals("Phase One IQ4 150MP", master.getChildren("ScanningDevice").get(0).getText());
+        assertEquals("IQ123456", master.getChildren("ScanningDeviceID").get(0).getText());
+        assertEquals("Scanner of the process", master.getChildren("ScanningDevice").get(1).getText());
+        assertEquals("", master.getChildren("ScanningDeviceID").get(1).getText());
+        assertEquals("Phase One IQ4", new CaptureDevice("Phase One", "Phase One IQ4", null).getName());
+    }
+
+    @Test
+    public void testCaptureDeviceWithoutValidation() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("00000001.tif");
+        writeTiffWithDevice(file);
+        Path noTiff = folder.getRoot().toPath().resolve("00000002.tif");
+        Files.writeString(noTiff, "<html>error</html>");
+
+        // without validation the files are not read at all, the masters get the device of the process
+        TiffValidator validator = new TiffValidator(new ExportReport(), "test", false, false);
+        assertTrue(validator.validate(List.of(file, noTiff)).isEmpty());
+        assertTrue(validator.getCaptureDevices().isEmpty());
+    }
+
+    private static void writeTiffWithDevice(Path file) throws Exception {
+        BufferedImage image = new BufferedImage(50, 40, BufferedImage.TYPE_BYTE_GRAY);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        TIFFDirectory directory =
+                TIFFDirectory.createFromMetadata(writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), writer.getDefaultWriteParam()));
+        BaselineTIFFTagSet tags = BaselineTIFFTagSet.getInstance();
+        directory.addTIFFField(new TIFFField(tags.getTag(BaselineTIFFTagSet.TAG_MAKE), TIFFTag.TIFF_ASCII, 1, new String[] { "Phase One" }));
+        directory.addTIFFField(new TIFFField(tags.getTag(BaselineTIFFTagSet.TAG_MODEL), TIFFTag.TIFF_ASCII, 1, new String[] { "IQ4 150MP" }));
+        TIFFDirectory exif = new TIFFDirectory(new TIFFTagSet[] { ExifTIFFTagSet.getInstance() }, null);
+        exif.addTIFFField(new TIFFField(new TIFFTag("BodySerialNumber", 42033, 1 << TIFFTag.TIFF_ASCII), TIFFTag.TIFF_ASCII, 1,
+                new String[] { "IQ123456" }));
+        // the offset is replaced by the writer
+        TIFFTag exifPointer = ExifParentTIFFTagSet.getInstance().getTag(ExifParentTIFFTagSet.TAG_EXIF_IFD_POINTER);
+        directory.addTIFFField(new TIFFField(exifPointer, TIFFTag.TIFF_IFD_POINTER, 1L, exif));
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file.toFile())) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, directory.getAsMetadata()), null);
+        }
+        writer.dispose();
+    }
+
+    private static void writeTiff(Path target, boolean tiled, String compression) throws Exception {
+        BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, x << 16 | y << 8 | (x * y) % 256);
+            }
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (tiled) {
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(128, 128, 0, 0);
+        }
+        if (compression != null) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(compression);
+        }
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+        writer.dispose();
+    }
+}
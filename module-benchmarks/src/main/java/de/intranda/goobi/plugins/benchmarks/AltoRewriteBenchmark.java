@@ -0,0 +1,72 @@
+package de.intranda.goobi.plugins.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.ExportReport;
+import de.intranda.goobi.plugins.exporters.AltoRewriter;
+
+/**
+ * Copying the ALTO files of a folder into the export folder, unchanged and with the references rewritten to the new image names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AltoRewriteBenchmark {
+
+    @Param({ "100" })
+    private int files;
+
+    @Param({ "60", "300" })
+    private int lines;
+
+    private Path folder;
+    private Path source;
+    private Path target;
+    private Map<String, String> fileMap;
+    private AltoRewriter rewriter = new AltoRewriter("tif");
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("alto-benchmark");
+        source = Files.createDirectory(folder.resolve("source"));
+        target = Files.createDirectory(folder.resolve("target"));
+        fileMap = BenchmarkFixtures.writeAltoFiles(source, files, lines);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public void copy() throws IOException {
+        AdmBsmeExportHelper.copyFolderContent(new ExportReport(), "Benchmark", source.toString(), "xml", fileMap, target.toString());
+    }
+
+    @Benchmark
+    public void rewrite() throws IOException {
+        AdmBsmeExportHelper.copyFolderContent(new ExportReport(), "Benchmark", source.toString(), "xml", fileMap, target.toString(),
+                rewriter::rewrite);
+    }
+}
@@ -0,0 +1,76 @@
+package de.intranda.goobi.plugins.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.exporters.AnchorMerger;
+
+/**
+ * Adding a volume to the anchor file of a newspaper. This replaced NewspaperMetsCreator.writeVolumesToAnchor, the registry variant measures a
+ * re-export of a volume that is already part of the anchor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AnchorMergeBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    private int volumes;
+
+    @Param({ "false", "true" })
+    private boolean useRegistry;
+
+    private Path folder;
+    private Path targetAnchor;
+    private Path newAnchor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("anchor-benchmark");
+        targetAnchor = folder.resolve("1234.xml");
+        newAnchor = folder.resolve("new.xml");
+    }
+
+    @Setup(Level.Invocation)
+    public void writeAnchors() throws IOException, XMLStreamException {
+        BenchmarkFixtures.writeAnchor(targetAnchor, 1900, volumes);
+        if (useRegistry) {
+            // the volume is already known
+            BenchmarkFixtures.writeAnchor(newAnchor, 1900, 1);
+            new AnchorMerger(true).mergeInto(targetAnchor, newAnchor);
+        } else {
+            BenchmarkFixtures.writeAnchor(newAnchor, 1900 + volumes, 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public void mergeInto() throws IOException, XMLStreamException {
+        new AnchorMerger(useRegistry).mergeInto(targetAnchor, newAnchor);
+    }
+}
@@ -0,0 +1,249 @@
+package de.intranda.goobi.plugins.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.pdf.PdfWriter;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.UGHException;
+
+/**
+ * Synthetic input data for the benchmarks
+ */
+public final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * load the ruleset of the repository, it is packaged into the benchmark jar
+     *
+     * @return
+     * @throws IOException
+     * @throws PreferencesException
+     */
+    public static Prefs loadRuleset() throws IOException, PreferencesException {
+        Path ruleset = extractResource("ruleset.xml", Files.createTempFile("ruleset", ".xml"));
+        try {
+            Prefs prefs = new Prefs();
+            prefs.loadPrefs(ruleset.toString());
+            return prefs;
+        } finally {
+            Files.delete(ruleset);
+        }
+    }
+
+    /**
+     * copy a file packaged into the benchmark jar, e.g. the ruleset or the plugin configuration
+     *
+     * @param name name of the resource
+     * @param target
+     * @return the target file
+     * @throws IOException
+     */
+    public static Path extractResource(String name, Path target) throws IOException {
+        try (InputStream in = BenchmarkFixtures.class.getResourceAsStream("/" + name)) {
+            if (in == null) {
+                throw new IOException(name + " is missing in the classpath");
+            }
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+
+    /**
+     * create a newspaper issue with all metadata used by the export
+     *
+     * @param prefs
+     * @param number
+     * @return
+     * @throws UGHException
+     */
+    public static DocStruct createIssue(Prefs prefs, int number) throws UGHException {
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct issue = dd.createDocStruct(prefs.getDocStrctTypeByName("NewspaperIssue"));
+        addMetadata(prefs, issue, "CatalogIDDigital", "1234_" + number);
+        addMetadata(prefs, issue, "TitleDocMain", "صحيفة الاتحاد - Al Ittihad");
+        addMetadata(prefs, issue, "MainTitle", "Al Ittihad");
+        addMetadata(prefs, issue, "DateIssued", String.format("1975-%02d-%02d", number % 12 + 1, number % 28 + 1));
+        addMetadata(prefs, issue, "CurrentNo", String.valueOf(number));
+        addMetadata(prefs, issue, "CurrentNoSorting", String.valueOf(number));
+        addMetadata(prefs, issue, "DocLanguage", "ara");
+        addMetadata(prefs, issue, "TypeOfResource", "Newspaper");
+        addMetadata(prefs, issue, "AnchorID", "1234");
+        addMetadata(prefs, issue, "AnchorTitle", "Al Ittihad");
+        addMetadata(prefs, issue, "PhysicalLocation", "Abu Dhabi");
+        addMetadata(prefs, issue, "AccessConditionUse", "Internal use only");
+        addMetadata(prefs, issue, "AccessConditionDetails", "Internal use only");
+        addMetadata(prefs, issue, "Frequency", "daily");
+        return issue;
+    }
+
+    private static void addMetadata(Prefs prefs, DocStruct ds, String type, String value) throws UGHException {
+        Metadata md = new Metadata(prefs.getMetadataTypeByName(type));
+        md.setValue(value);
+        ds.addMetadata(md);
+    }
+
+    /**
+     * write single page PDF files
+     *
+     * @param folder
+     * @param count
+     * @return
+     * @throws IOException
+     */
+    public static List<File> writePdfFiles(Path folder, int count) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            File file = folder.resolve(String.format("%08d.pdf", i)).toFile();
+            writePdf(file, "Page " + i);
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * write a PDF file with a single page containing the given text
+     *
+     * @param file
+     * @param text
+     * @throws IOException
+     */
+    public static void writePdf(File file, String text) throws IOException {
+        // closing the document closes the output stream as well
+        Document document = new Document();
+        try {
+            PdfWriter.getInstance(document, new FileOutputStream(file));
+            document.open();
+            document.add(new Paragraph(text));
+        } catch (DocumentException e) {
+            throw new IOException(e);
+        } finally {
+            document.close();
+        }
+    }
+
+    /**
+     * write files with random content, named like the images of a process
+     *
+     * @param folder
+     * @param count
+     * @param ext file extension
+     * @param size size of each file in bytes
+     * @return map of the file names without extension to the export names as used by the exporters
+     * @throws IOException
+     */
+    public static Map<String, String> writeFiles(Path folder, int count, String ext, int size) throws IOException {
+        Map<String, String> fileMap = new HashMap<>();
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        for (int i = 1; i <= count; i++) {
+            String name = String.format("%08d", i);
+            Files.write(folder.resolve(name + "." + ext), content);
+            fileMap.put(name, "1234-" + String.format("%04d", i));
+        }
+        return fileMap;
+    }
+
+    /**
+     * write ALTO files with the given number of lines of ten words each
+     *
+     * @param folder
+     * @param count number of files
+     * @param lines number of lines per page
+     * @return map of the file names to the names in the export
+     * @throws IOException
+     */
+    public static Map<String, String> writeAltoFiles(Path folder, int count, int lines) throws IOException {
+        Map<String, String> fileMap = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 1; i <= count; i++) {
+            String name = String.format("%08d", i);
+            StringBuilder sb = new StringBuilder();
+            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            sb.append("<alto xmlns=\"http://www.loc.gov/standards/alto/ns-v4#\">\n");
+            sb.append("  <Description>\n    <sourceImageInformation>\n      <fileName>").append(name).append(".tif</fileName>\n");
+            sb.append("    </sourceImageInformation>\n  </Description>\n");
+            sb.append("  <Layout>\n    <Page ID=\"").append(name).append("_Page1\" PHYSICAL_IMG_NR=\"").append(i).append("\">\n");
+            sb.append("      <PrintSpace>\n        <TextBlock ID=\"").append(name).append("_block_1\" LANG=\"ar\">\n");
+            for (int line = 1; line <= lines; line++) {
+                sb.append("          <TextLine ID=\"").append(name).append("_line_").append(line).append("\">\n");
+                for (int word = 1; word <= 10; word++) {
+                    sb.append("            <String ID=\"").append(name).append("_string_").append(line).append('_').append(word);
+                    sb.append("\" CONTENT=\"word").append(random.nextInt(1000)).append("\" WC=\"0.").append(50 + random.nextInt(50)).append("\"/>");
+                    sb.append(word < 10 ? "<SP/>\n" : "\n");
+                }
+                sb.append("          </TextLine>\n");
+            }
+            sb.append("        </TextBlock>\n      </PrintSpace>\n    </Page>\n  </Layout>\n</alto>\n");
+            Files.write(folder.resolve(name + ".xml"), sb.toString().getBytes(StandardCharsets.UTF_8));
+            fileMap.put(name, "1234-" + String.format("%04d", i));
+        }
+        return fileMap;
+    }
+
+    /**
+     * write a newspaper anchor file with one volume per year
+     *
+     * @param file
+     * @param firstYear
+     * @param years
+     * @return
+     * @throws IOException
+     */
+    public static Path writeAnchor(Path file, int firstYear, int years) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n");
+        sb.append("  <mets:dmdSec ID=\"DMDLOG_0000\">\n    <mets:mdWrap MDTYPE=\"MODS\" />\n  </mets:dmdSec>\n");
+        sb.append("  <mets:structMap TYPE=\"LOGICAL\">\n");
+        sb.append("    <mets:div ID=\"LOG_0000\" TYPE=\"Newspaper\" DMDID=\"DMDLOG_0000\">\n");
+        for (int year = firstYear; year < firstYear + years; year++) {
+            sb.append("      <mets:div ID=\"LOG_").append(year).append("\" ORDER=\"").append(year).append("\" TYPE=\"Year\">\n");
+            sb.append("        <mets:mptr LOCTYPE=\"URL\" xlink:href=\"https://example.org/sourcefile?id=1234-").append(year).append(".xml\" />\n");
+            sb.append("      </mets:div>\n");
+        }
+        sb.append("    </mets:div>\n  </mets:structMap>\n</mets:mets>\n");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * delete a folder with all its content
+     *
+     * @param folder
+     * @throws IOException
+     */
+    public static void deleteFolder(Path folder) throws IOException {
+        if (folder == null || !Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package de.intranda.goobi.plugins.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.ExportReport;
+
+/**
+ * Copying and renaming the files of a folder into the export folder. The source files stay in the page cache, so this measures the overhead of
+ * the copy and not the speed of the storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CopyBenchmark {
+
+    @Param({ "100" })
+    private int files;
+
+    @Param({ "65536", "4194304" })
+    private int fileSize;
+
+    private Path folder;
+    private Path source;
+    private Path target;
+    private Map<String, String> fileMap;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("copy-benchmark");
+        source = Files.createDirectory(folder.resolve("source"));
+        target = Files.createDirectory(folder.resolve("target"));
+        fileMap = BenchmarkFixtures.writeFiles(source, files, "tif", fileSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public void copyFolderContent() throws IOException {
+        AdmBsmeExportHelper.copyFolderContent(new ExportReport(), "Benchmark", source.toString(), "tif", fileMap, target.toString());
+    }
+}
@@ -0,0 +1,357 @@
+package de.intranda.goobi.plugins.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+
+import de.intranda.goobi.plugins.JobExportContext;
+import ugh.dl.ContentFile;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.DocStructType;
+import ugh.dl.FileSet;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.exceptions.MetadataTypeNotAllowedException;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Creates synthetic processes for the end to end benchmarks: a METS file following the ruleset, small TIFF images and the ALTO, plain text and PDF
+ * files for each page. Each process is described by a job file that can be exported with a {@link JobExportContext}.
+ *
+ * Supported types are Newspaper (newspaper, volume, issues with supplements), Periodical (periodical and volume), AdmPositiveEnvelope (positives
+ * with front and back) and the other envelope types like AdmNegative, AdmSlide or AdmGeneric with all pages directly below the envelope. The types
+ * must be defined in the ruleset, metadata that is unknown or not allowed in the ruleset is skipped.
+ */
+public class FixtureGenerator {
+
+    private static final String[] WORDS = { "Abu", "Dhabi", "news", "الاتحاد", "government", "oil", "market", "sport", "weather", "culture" };
+
+    private Prefs prefs;
+    private String rulesetFile;
+
+    // size of the generated processes
+    private int issues = 4;
+    private int pagesPerIssue = 8;
+    private int supplementsPerIssue = 1;
+    private int imageWidth = 400;
+    private int imageHeight = 600;
+
+    /**
+     * Constructor
+     *
+     * @param prefs the loaded ruleset
+     * @param rulesetFile path of the ruleset, written into the job files
+     */
+    public FixtureGenerator(Prefs prefs, String rulesetFile) {
+        this.prefs = prefs;
+        this.rulesetFile = rulesetFile;
+    }
+
+    /**
+     * define the size of the generated processes
+     *
+     * @param issues number of issues for newspapers, number of positives for positive envelopes, otherwise ignored
+     * @param pagesPerIssue number of pages per issue, or per process for types without issues
+     * @param supplementsPerIssue number of supplements of each newspaper issue
+     * @param imageWidth width of the images in pixel
+     * @param imageHeight height of the images in pixel
+     */
+    public void setSize(int issues, int pagesPerIssue, int supplementsPerIssue, int imageWidth, int imageHeight) {
+        this.issues = issues;
+        this.pagesPerIssue = pagesPerIssue;
+        this.supplementsPerIssue = supplementsPerIssue;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+    }
+
+    /**
+     * create a process with all its files
+     *
+     * @param processFolder folder to create the process in
+     * @param processId
+     * @param type type of the top docstruct
+     * @return the job file of the process
+     * @throws IOException
+     * @throws UGHException
+     */
+    public Path createProcess(Path processFolder, int processId, String type) throws IOException, UGHException {
+        String title = "bench_" + type + "_" + processId;
+        Path images = Files.createDirectories(processFolder.resolve("images").resolve(title + "_media"));
+        Path txt = Files.createDirectories(processFolder.resolve("ocr").resolve(title + "_txt"));
+        Path alto = Files.createDirectories(processFolder.resolve("ocr").resolve(title + "_alto"));
+        Path pdf = Files.createDirectories(processFolder.resolve("ocr").resolve(title + "_pdf"));
+
+        Generation generation = new Generation(images, txt, alto, pdf);
+        String identifier = String.valueOf(processId);
+        switch (type) {
+            case "Newspaper" -> generation.createNewspaper(identifier);
+            case "Periodical" -> generation.createPeriodical(identifier);
+            case "AdmPositiveEnvelope" -> generation.createPositiveEnvelope(identifier);
+            default -> generation.createEnvelope(type, identifier);
+        }
+        Path metadataFile = processFolder.resolve("meta.xml");
+        MetsMods mm = new MetsMods(prefs);
+        mm.setDigitalDocument(generation.dd);
+        mm.write(metadataFile.toString());
+
+        Properties job = new Properties();
+        job.setProperty(JobExportContext.PROCESS_ID, String.valueOf(processId));
+        job.setProperty(JobExportContext.PROCESS_TITLE, title);
+        job.setProperty(JobExportContext.RULESET, rulesetFile);
+        job.setProperty(JobExportContext.METADATA_FILE, metadataFile.toString());
+        job.setProperty(JobExportContext.IMAGES_ORIG_DIRECTORY, images + "/");
+        job.setProperty(JobExportContext.OCR_TXT_DIRECTORY, txt + "/");
+        job.setProperty(JobExportContext.OCR_ALTO_DIRECTORY, alto + "/");
+        job.setProperty(JobExportContext.OCR_PDF_DIRECTORY, pdf + "/");
+        job.setProperty(JobExportContext.PROCESS_DATA_DIRECTORY, processFolder + "/");
+        job.setProperty(JobExportContext.PROPERTY_PREFIX + "Capturing device", "Benchmark scanner");
+        Path jobFile = processFolder.resolve("job.properties");
+        try (Writer writer = Files.newBufferedWriter(jobFile, StandardCharsets.UTF_8)) {
+            job.store(writer, "synthetic process " + title);
+        }
+        return jobFile;
+    }
+
+    /**
+     * State of the generation of a single process
+     */
+    private class Generation {
+        private Path images;
+        private Path txt;
+        private Path alto;
+        private Path pdf;
+        private DigitalDocument dd = new DigitalDocument();
+        private DocStruct physical;
+        private int pageCounter;
+
+        private Generation(Path images, Path txt, Path alto, Path pdf) throws UGHException {
+            this.images = images;
+            this.txt = txt;
+            this.alto = alto;
+            this.pdf = pdf;
+            dd.setFileSet(new FileSet());
+            physical = dd.createDocStruct(getType("BoundBook"));
+            dd.setPhysicalDocStruct(physical);
+        }
+
+        private void createNewspaper(String identifier) throws UGHException, IOException {
+            DocStruct newspaper = createAnchor("Newspaper", identifier);
+            DocStruct volume = dd.createDocStruct(getType("NewspaperVolume"));
+            newspaper.addChild(volume);
+            addVolumeMetadata(volume, identifier);
+
+            for (int i = 1; i <= issues; i++) {
+                String date = String.format("1975-%02d-%02d", (i - 1) / 28 % 12 + 1, (i - 1) % 28 + 1);
+                DocStruct issue = dd.createDocStruct(getType("NewspaperIssue"));
+                volume.addChild(issue);
+                addMetadata(issue, "TitleDocMain", "الاتحاد - Issue from " + date);
+                addMetadata(issue, "IssueName", "الاتحاد - Al Ittihad");
+                addMetadata(issue, "DateIssued", date);
+                addMetadata(issue, "CurrentNo", String.valueOf(i));
+                addMetadata(issue, "CurrentNoSorting", String.valueOf(i));
+                addMetadata(issue, "DocLanguage", "ara");
+                for (DocStruct page : createPages(pagesPerIssue)) {
+                    volume.addReferenceTo(page, "logical_physical");
+                    issue.addReferenceTo(page, "logical_physical");
+                }
+                for (int s = 1; s <= supplementsPerIssue; s++) {
+                    DocStruct supplement = dd.createDocStruct(getType("NewspaperSupplement"));
+                    issue.addChild(supplement);
+                    addMetadata(supplement, "TitleDocMain", "ملحق - Sport Supplement " + s);
+                    addMetadata(supplement, "CurrentNo", String.valueOf(s));
+                    for (DocStruct page : createPages(Math.max(1, pagesPerIssue / 4))) {
+                        volume.addReferenceTo(page, "logical_physical");
+                        issue.addReferenceTo(page, "logical_physical");
+                        supplement.addReferenceTo(page, "logical_physical");
+                    }
+                }
+            }
+        }
+
+        private void createPeriodical(String identifier) throws UGHException, IOException {
+            DocStruct periodical = createAnchor("Periodical", identifier);
+            DocStruct volume = dd.createDocStruct(getType("PeriodicalVolume"));
+            periodical.addChild(volume);
+            addVolumeMetadata(volume, identifier);
+            for (DocStruct page : createPages(pagesPerIssue)) {
+                volume.addReferenceTo(page, "logical_physical");
+            }
+        }
+
+        private void createPositiveEnvelope(String identifier) throws UGHException, IOException {
+            DocStruct envelope = createEnvelopeStruct("AdmPositiveEnvelope", identifier);
+            for (int i = 1; i <= issues; i++) {
+                DocStruct positive = dd.createDocStruct(getType("AdmPositive"));
+                envelope.addChild(positive);
+                addMetadata(positive, "AdmBackprint", "Backprint of positive " + i);
+                // front and back of each positive, the back gets the suffix b
+                DocStruct front = createPage(String.format("%08d", ++pageCounter));
+                DocStruct back = createPage(String.format("%08db", pageCounter));
+                for (DocStruct page : List.of(front, back)) {
+                    envelope.addReferenceTo(page, "logical_physical");
+                    positive.addReferenceTo(page, "logical_physical");
+                }
+            }
+        }
+
+        private void createEnvelope(String type, String identifier) throws UGHException, IOException {
+            DocStruct envelope = createEnvelopeStruct(type, identifier);
+            for (DocStruct page : createPages(pagesPerIssue)) {
+                envelope.addReferenceTo(page, "logical_physical");
+            }
+        }
+
+        private DocStruct createAnchor(String type, String identifier) throws UGHException {
+            DocStruct anchor = dd.createDocStruct(getType(type));
+            dd.setLogicalDocStruct(anchor);
+            addMetadata(anchor, "TitleDocMain", "الاتحاد - Al Ittihad");
+            addMetadata(anchor, "MainTitle", "Al Ittihad");
+            addMetadata(anchor, "CatalogIDDigital", "anchor_" + identifier);
+            addMetadata(anchor, "DocLanguage", "Arabic");
+            return anchor;
+        }
+
+        private void addVolumeMetadata(DocStruct volume, String identifier) {
+            addMetadata(volume, "TitleDocMain", "Al Ittihad 1975");
+            addMetadata(volume, "MainTitle", "Al Ittihad");
+            addMetadata(volume, "CatalogIDDigital", identifier);
+            addMetadata(volume, "CurrentNo", "1975");
+            addMetadata(volume, "CurrentNoSorting", "1975");
+            addMetadata(volume, "DateIssued", "1975");
+            addMetadata(volume, "singleDigCollection", "Benchmark");
+            addMetadata(volume, "PhysicalLocation", "Abu Dhabi");
+        }
+
+        private DocStruct createEnvelopeStruct(String type, String identifier) throws UGHException {
+            DocStruct envelope = dd.createDocStruct(getType(type));
+            dd.setLogicalDocStruct(envelope);
+            addMetadata(envelope, "CatalogIDDigital", identifier);
+            addMetadata(envelope, "TitleDocMain", "Envelope " + identifier);
+            addMetadata(envelope, "AdmEventName", "Benchmark event");
+            addMetadata(envelope, "AdmEventDate", "21-03-1975");
+            addMetadata(envelope, "AdmPhotographer", "Benchmark");
+            return envelope;
+        }
+
+        private List<DocStruct> createPages(int count) throws UGHException, IOException {
+            List<DocStruct> pages = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                pages.add(createPage(String.format("%08d", ++pageCounter)));
+            }
+            return pages;
+        }
+
+        /**
+         * create a page with its image, ALTO, plain text and PDF file
+         */
+        private DocStruct createPage(String name) throws UGHException, IOException {
+            DocStruct page = dd.createDocStruct(getType("page"));
+            physical.addChild(page);
+            int number = physical.getAllChildren().size();
+            addMetadata(page, "physPageNumber", String.valueOf(number));
+            addMetadata(page, "logicalPageNumber", String.valueOf(number));
+
+            Path image = images.resolve(name + ".tif");
+            writeImage(image, number);
+            ContentFile cf = new ContentFile();
+            cf.setLocation("file://" + image);
+            cf.setMimetype("image/tiff");
+            dd.getFileSet().addFile(cf);
+            page.addContentFile(cf);
+
+            String text = createText(number);
+            Files.writeString(txt.resolve(name + ".txt"), text, StandardCharsets.UTF_8);
+            Files.writeString(alto.resolve(name + ".xml"), createAlto(name, text), StandardCharsets.UTF_8);
+            BenchmarkFixtures.writePdf(pdf.resolve(name + ".pdf").toFile(), text);
+            return page;
+        }
+    }
+
+    private void writeImage(Path file, int number) throws IOException {
+        BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, imageWidth, imageHeight);
+            g.setColor(Color.BLACK);
+            for (int y = 40; y < imageHeight - 20; y += 20) {
+                g.drawString("Page " + number + " line " + y / 20, 20, y);
+            }
+        } finally {
+            g.dispose();
+        }
+        if (!ImageIO.write(image, "tiff", file.toFile())) {
+            throw new IOException("No TIFF writer available");
+        }
+    }
+
+    private static String createText(int number) {
+        StringBuilder sb = new StringBuilder();
+        for (int line = 0; line < 20; line++) {
+            for (int word = 0; word < 8; word++) {
+                sb.append(WORDS[(number + line * 8 + word) % WORDS.length]).append(' ');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String createAlto(String name, String text) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<alto xmlns=\"http://www.loc.gov/standards/alto/ns-v4#\">\n");
+        sb.append("  <Description><MeasurementUnit>pixel</MeasurementUnit><sourceImageInformation><fileName>")
+                .append(name)
+                .append(".tif</fileName></sourceImageInformation></Description>\n");
+        sb.append("  <Layout><Page ID=\"Page1\" PHYSICAL_IMG_NR=\"1\"><PrintSpace><TextBlock ID=\"Block1\">\n");
+        int lineNumber = 0;
+        for (String line : text.split("\n")) {
+            lineNumber++;
+            sb.append("    <TextLine ID=\"Line").append(lineNumber).append("\">");
+            int wordNumber = 0;
+            for (String word : line.trim().split(" ")) {
+                wordNumber++;
+                sb.append("<String ID=\"String").append(lineNumber).append('_').append(wordNumber).append("\" CONTENT=\"").append(word);
+                sb.append("\" WC=\"0.9").append(wordNumber).append("\"/>");
+            }
+            sb.append("</TextLine>\n");
+        }
+        sb.append("  </TextBlock></PrintSpace></Page></Layout>\n</alto>\n");
+        return sb.toString();
+    }
+
+    private DocStructType getType(String name) {
+        DocStructType type = prefs.getDocStrctTypeByName(name);
+        if (type == null) {
+            throw new IllegalArgumentException("The ruleset does not define the type " + name);
+        }
+        return type;
+    }
+
+    private void addMetadata(DocStruct ds, String type, String value) {
+        MetadataType mdt = prefs.getMetadataTypeByName(type);
+        if (mdt == null) {
+            return;
+        }
+        try {
+            Metadata md = new Metadata(mdt);
+            md.setValue(value);
+            ds.addMetadata(md);
+        } catch (MetadataTypeNotAllowedException e) {
+            // not part of this ruleset
+        }
+    }
+}
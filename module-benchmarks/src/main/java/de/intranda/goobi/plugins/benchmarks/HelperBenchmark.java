@@ -0,0 +1,72 @@
+package de.intranda.goobi.plugins.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import ugh.dl.DocStruct;
+
+/**
+ * Metadata lookup and string conversions called for every issue and page
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HelperBenchmark {
+
+    private DocStruct issue;
+    private String bilingualTitle = "صحيفة الاتحاد – Al Ittihad";
+
+    @Setup
+    public void setUp() throws Exception {
+        issue = BenchmarkFixtures.createIssue(BenchmarkFixtures.loadRuleset(), 1);
+    }
+
+    @Benchmark
+    public String getMetadataFirst() {
+        return AdmBsmeExportHelper.getMetdata(issue, "CatalogIDDigital");
+    }
+
+    @Benchmark
+    public String getMetadataLast() {
+        return AdmBsmeExportHelper.getMetdata(issue, "Frequency");
+    }
+
+    @Benchmark
+    public String getMetadataMissing() {
+        return AdmBsmeExportHelper.getMetdata(issue, "IssueName");
+    }
+
+    @Benchmark
+    public String getEnglishPartOfString() {
+        return AdmBsmeExportHelper.getEnglishPartOfString(bilingualTitle);
+    }
+
+    @Benchmark
+    public String getArabicPartOfString() {
+        return AdmBsmeExportHelper.getArabicPartOfString(bilingualTitle);
+    }
+
+    @Benchmark
+    public String convertDateFormatToDayMonthYear() {
+        return AdmBsmeExportHelper.convertDateFormatToDayMonthYear("1975-03-21");
+    }
+
+    @Benchmark
+    public String convertInvalidDate() {
+        return AdmBsmeExportHelper.convertDateFormatToDayMonthYear("unknown");
+    }
+}
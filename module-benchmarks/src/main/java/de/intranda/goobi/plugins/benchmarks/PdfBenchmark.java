@@ -0,0 +1,61 @@
+package de.intranda.goobi.plugins.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.AdmBsmeExportHelper;
+import de.intranda.goobi.plugins.ExportReport;
+
+/**
+ * Merging the single page PDF files of a volume
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PdfBenchmark {
+
+    @Param({ "10", "200" })
+    private int pages;
+
+    private Path folder;
+    private List<File> pdfFiles;
+    private File target;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("pdf-benchmark");
+        pdfFiles = BenchmarkFixtures.writePdfFiles(Files.createDirectory(folder.resolve("pdf")), pages);
+        target = folder.resolve("volume.pdf").toFile();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public long gluePdf() throws IOException {
+        AdmBsmeExportHelper.gluePDF(new ExportReport(), "Benchmark", pdfFiles, target);
+        return target.length();
+    }
+}
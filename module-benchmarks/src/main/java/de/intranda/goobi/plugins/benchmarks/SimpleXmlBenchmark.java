@@ -0,0 +1,86 @@
+package de.intranda.goobi.plugins.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the JDOM model for a document with the structure and size of a simple xml file: building the elements of each image and writing the
+ * document with the pretty format used by the exporters. No plugin code is called, the document is a copy of the structure of an envelope.
+ * The time of the exporters for their simple xml files is part of the phase timings in the report of each export, see {@link ThroughputHarness}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SimpleXmlBenchmark {
+
+    @Param({ "50", "500" })
+    private int pages;
+
+    private Document document;
+
+    @Setup
+    public void setUp() {
+        document = build();
+    }
+
+    @Benchmark
+    public Document build() {
+        Document doc = new Document();
+        doc.setRootElement(new Element("envelope"));
+        Element info = new Element("envelopeInfo");
+        doc.getRootElement().addContent(info);
+        info.addContent(new Element("Rights_to_Use").setText("Internal use only"));
+        info.addContent(new Element("Media_Source").setText("Archive"));
+        info.addContent(new Element("Envelope_Barcode").setText("1234"));
+        info.addContent(new Element("Publication_Name").setText("صحيفة الاتحاد - Al Ittihad"));
+        info.addContent(new Element("Event_Date").setText("21-03-1975"));
+
+        Element files = new Element("Images");
+        doc.getRootElement().addContent(files);
+        for (int i = 1; i <= pages; i++) {
+            Element file = new Element("Image");
+            file.setAttribute("id", String.format("%04d", i));
+            Element master = new Element("master");
+            master.addContent(new Element("Format").setText("image/tiff"));
+            master.addContent(new Element("ResolutionUnit").setText("PPI"));
+            master.addContent(new Element("Resolution").setText("400"));
+            master.addContent(new Element("BitDepth").setText("24"));
+            master.addContent(new Element("ColorSpace").setText("color"));
+            master.addContent(new Element("ScanningDevice").setText("Scanner"));
+            master.addContent(new Element("ScanningDeviceID"));
+            master.addContent(new Element("Width").setText("4000"));
+            master.addContent(new Element("Height").setText("6000"));
+            master.addContent(new Element("file").setText("1234-" + String.format("%04d", i) + ".tif"));
+            file.addContent(master);
+            files.addContent(file);
+        }
+        return doc;
+    }
+
+    @Benchmark
+    public void serialize() throws IOException {
+        XMLOutputter xmlOutputter = new XMLOutputter();
+        xmlOutputter.setFormat(Format.getPrettyFormat());
+        xmlOutputter.output(document, OutputStream.nullOutputStream());
+    }
+}
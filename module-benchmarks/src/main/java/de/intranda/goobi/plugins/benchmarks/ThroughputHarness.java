@@ -0,0 +1,138 @@
+package de.intranda.goobi.plugins.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+
+import de.intranda.goobi.plugins.AdmBsmeExportRunner;
+import de.intranda.goobi.plugins.ExportReport;
+import de.intranda.goobi.plugins.JobExportContext;
+import ugh.dl.Prefs;
+
+/**
+ * Runs complete exports of synthetic processes and reports the throughput in pages and megabytes per second. The processes are created by the
+ * {@link FixtureGenerator} and exported with a {@link JobExportContext}, so neither the Goobi database nor the process folders of Goobi workflow
+ * are needed. Files are accessed through the StorageProvider of Goobi workflow, which uses the local file system as long as no S3 storage is
+ * configured.
+ *
+ * Usage: ThroughputHarness [--type Newspaper] [--processes 3] [--issues 4] [--pages 8] [--supplements 1] [--width 400] [--height 600] [--ruleset
+ * file] [--config file] [--folder directory]
+ *
+ * Without --folder all files are created in a temporary folder which is deleted at the end.
+ */
+public class ThroughputHarness {
+
+    private static final String[] TARGET_DIRECTORIES = { "targetDirectoryNewspapers", "targetDirectoryMagazines", "targetDirectoryPositives",
+            "targetDirectoryNegatives", "targetDirectorySlides", "targetDirectoryGeneric", "pdfCopyNewspapers", "pdfCopyMagazines" };
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Unknown argument " + args[i]);
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        String type = options.getOrDefault("type", "Newspaper");
+        int processes = Integer.parseInt(options.getOrDefault("processes", "3"));
+
+        boolean temporary = !options.containsKey("folder");
+        Path folder = temporary ? Files.createTempDirectory("export-harness") : Files.createDirectories(Paths.get(options.get("folder")));
+        boolean success;
+        try {
+            Path ruleset = options.containsKey("ruleset") ? Paths.get(options.get("ruleset"))
+                    : BenchmarkFixtures.extractResource("ruleset.xml", folder.resolve("ruleset.xml"));
+            Prefs prefs = new Prefs();
+            prefs.loadPrefs(ruleset.toString());
+            XMLConfiguration config = createConfiguration(options.get("config"), folder.resolve("export"));
+
+            FixtureGenerator generator = new FixtureGenerator(prefs, ruleset.toString());
+            generator.setSize(Integer.parseInt(options.getOrDefault("issues", "4")), Integer.parseInt(options.getOrDefault("pages", "8")),
+                    Integer.parseInt(options.getOrDefault("supplements", "1")), Integer.parseInt(options.getOrDefault("width", "400")),
+                    Integer.parseInt(options.getOrDefault("height", "600")));
+            List<Path> jobs = new ArrayList<>();
+            for (int i = 1; i <= processes; i++) {
+                jobs.add(generator.createProcess(folder.resolve("processes").resolve(String.valueOf(i)), i, type));
+            }
+
+            success = run(config, jobs);
+        } finally {
+            if (temporary) {
+                BenchmarkFixtures.deleteFolder(folder);
+            }
+        }
+        // exit only after the temporary folder is removed, System.exit does not run the finally block
+        System.exit(success ? 0 : 1);
+    }
+
+    /**
+     * export all jobs one after the other and print the throughput
+     *
+     * @param config
+     * @param jobs
+     * @return true if all exports were successful
+     * @throws IOException
+     */
+    public static boolean run(XMLConfiguration config, List<Path> jobs) throws IOException {
+        int failed = 0;
+        long pages = 0;
+        long bytes = 0;
+        long start = System.nanoTime();
+        AdmBsmeExportRunner.configureLimits(config);
+        for (Path job : jobs) {
+            JobExportContext context = JobExportContext.read(job);
+            AdmBsmeExportRunner runner = new AdmBsmeExportRunner(config);
+            if (!runner.export(context)) {
+                failed++;
+                runner.getProblems().forEach(p -> System.err.println(context.getProcessTitle() + ": " + p));
+            }
+            ExportReport report = context.getReport();
+            pages += report.getPagesProbed();
+            bytes += report.getBytes().values().stream().mapToLong(Long::longValue).sum();
+            System.out.println(context.getProcessTitle() + ": " + report.createSummary());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megabytes = bytes / (1024.0 * 1024.0);
+        System.out.println(String.format(Locale.ENGLISH, "%d processes (%d failed), %d pages, %.1f MB in %.2f s: %.1f pages/s, %.1f MB/s", jobs.size(),
+                failed, pages, megabytes, seconds, pages / seconds, megabytes / seconds));
+        return failed == 0;
+    }
+
+    /**
+     * load the plugin configuration and let all target directories point into the given folder
+     *
+     * @param file configuration file, the configuration of the repository is used if missing
+     * @param exportFolder
+     * @return
+     * @throws IOException
+     * @throws ConfigurationException
+     */
+    private static XMLConfiguration createConfiguration(String file, Path exportFolder) throws IOException, ConfigurationException {
+        Path configFile = file != null ? Paths.get(file)
+                : BenchmarkFixtures.extractResource("plugin_intranda_export_adm_bsme.xml", Files.createTempFile("plugin_intranda_export_adm_bsme", ".xml"));
+        XMLConfiguration config = new XMLConfiguration();
+        config.setDelimiterParsingDisabled(true);
+        config.load(configFile.toFile());
+        if (file == null) {
+            Files.delete(configFile);
+        }
+        config.setExpressionEngine(new XPathExpressionEngine());
+        for (String name : TARGET_DIRECTORIES) {
+            Path directory = Files.createDirectories(exportFolder.resolve(name));
+            config.setProperty(name, directory + "/");
+        }
+        config.setProperty("stagingDirectory", "");
+        return config;
+    }
+}